@@ -0,0 +1,98 @@
+/* Copyright (c) 2008-2009 HomeAway, Inc.
+ * All rights reserved.  http://www.perf4j.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.perf4j.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.perf4j.GroupedTimingStatistics;
+import org.perf4j.StopWatch;
+import org.perf4j.TimingStatistics;
+import org.perf4j.helpers.LatencyHistogram;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the cost of aggregating StopWatches into statistics, which is done for every StopWatch on the async
+ * appender's dispatching thread.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class AggregationBenchmark {
+    /**
+     * The number of distinct tags the StopWatches are spread across.
+     */
+    @Param({"10", "1000"})
+    public int numTags;
+
+    /**
+     * Whether or not rollup statistics are created.
+     */
+    @Param({"false", "true"})
+    public boolean createRollupStatistics;
+
+    private StopWatch[] stopWatches;
+    private int index = 0;
+    private TimingStatistics timingStatistics;
+    private TimingStatistics timingStatisticsWithPercentiles;
+    private GroupedTimingStatistics groupedTimingStatistics;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(42L);
+        stopWatches = new StopWatch[4096];
+        for (int i = 0; i < stopWatches.length; i++) {
+            stopWatches[i] = new StopWatch(1230000000000L + i, random.nextInt(2000),
+                                           "service" + random.nextInt(numTags) + ".method.success", null);
+        }
+        timingStatistics = new TimingStatistics();
+        timingStatisticsWithPercentiles = new TimingStatistics(new LatencyHistogram(3600000L, 2));
+        groupedTimingStatistics = new GroupedTimingStatistics();
+        groupedTimingStatistics.setCreateRollupStatistics(createRollupStatistics);
+    }
+
+    @Benchmark
+    public TimingStatistics addSampleTime() {
+        return timingStatistics.addSampleTime(nextStopWatch().getElapsedTime());
+    }
+
+    @Benchmark
+    public TimingStatistics addSampleTimeWithPercentiles() {
+        return timingStatisticsWithPercentiles.addSampleTime(nextStopWatch().getElapsedTime());
+    }
+
+    @Benchmark
+    public GroupedTimingStatistics addStopWatch() {
+        return groupedTimingStatistics.addStopWatch(nextStopWatch());
+    }
+
+    private StopWatch nextStopWatch() {
+        return stopWatches[index++ & (stopWatches.length - 1)];
+    }
+}
@@ -0,0 +1,109 @@
+/* Copyright (c) 2008-2009 HomeAway, Inc.
+ * All rights reserved.  http://www.perf4j.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.perf4j.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.perf4j.GroupedTimingStatistics;
+import org.perf4j.StopWatch;
+import org.perf4j.helpers.GenericAsyncCoalescingStatisticsAppender;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures producer throughput of the GenericAsyncCoalescingStatisticsAppender, which is the cost paid on the
+ * application's own threads when a StopWatch is logged. Messages that can't be queued are discarded rather than
+ * blocking, so a large queue is used to keep the score measuring the queue handoff rather than the discard path.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class GenericAppenderBenchmark {
+    /**
+     * The QueueType option of the appender.
+     */
+    @Param({GenericAsyncCoalescingStatisticsAppender.ARRAY_BLOCKING_QUEUE_TYPE,
+            GenericAsyncCoalescingStatisticsAppender.RING_BUFFER_QUEUE_TYPE})
+    public String queueType;
+
+    /**
+     * The ThreadLocalAggregation option of the appender.
+     */
+    @Param({"false", "true"})
+    public boolean threadLocalAggregation;
+
+    private GenericAsyncCoalescingStatisticsAppender appender;
+
+    @Setup
+    public void setUp() {
+        appender = new GenericAsyncCoalescingStatisticsAppender();
+        appender.setName("benchmark");
+        appender.setTimeSlice(1000L);
+        appender.setQueueSize(1 << 16);
+        appender.setQueueType(queueType);
+        appender.setThreadLocalAggregation(threadLocalAggregation);
+        appender.start(new GenericAsyncCoalescingStatisticsAppender.GroupedTimingStatisticsHandler() {
+            public void handle(GroupedTimingStatistics statistics) {
+                //only the producer side is measured
+            }
+
+            public void error(String errorMessage) {
+                //discarded messages are counted by the appender
+            }
+        });
+    }
+
+    @TearDown
+    public void tearDown() {
+        appender.stop();
+    }
+
+    @Benchmark
+    public void appendStopWatch() {
+        appender.append(new StopWatch(System.currentTimeMillis(), 1L, "benchmark.tag", null));
+    }
+
+    @Benchmark
+    @Threads(4)
+    public void appendStopWatchFourThreads() {
+        appender.append(new StopWatch(System.currentTimeMillis(), 1L, "benchmark.tag", null));
+    }
+
+    @Benchmark
+    public void appendString() {
+        appender.append(new StopWatch("benchmark.tag").stop());
+    }
+
+    @Benchmark
+    @Threads(4)
+    public void appendStringFourThreads() {
+        appender.append(new StopWatch("benchmark.tag").stop());
+    }
+}
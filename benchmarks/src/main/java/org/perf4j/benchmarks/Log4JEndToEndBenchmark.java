@@ -0,0 +1,107 @@
+/* Copyright (c) 2008-2009 HomeAway, Inc.
+ * All rights reserved.  http://www.perf4j.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.perf4j.benchmarks;
+
+import org.apache.log4j.AppenderSkeleton;
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+import org.apache.log4j.spi.LoggingEvent;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.perf4j.log4j.AsyncCoalescingStatisticsAppender;
+import org.perf4j.log4j.Log4JStopWatch;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the latency distribution of timing a code block with a Log4JStopWatch that is logged through a log4j
+ * Logger to an AsyncCoalescingStatisticsAppender with a downstream appender attached, i.e. the full path an
+ * application thread takes when using Perf4J with log4j. The sample time mode reports percentiles, which shows the
+ * effect of queue contention and the appender's synchronization on tail latency.
+ */
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class Log4JEndToEndBenchmark {
+    private Logger logger;
+    private AsyncCoalescingStatisticsAppender appender;
+    private NoOpAppender downstreamAppender;
+
+    @Setup
+    public void setUp() {
+        downstreamAppender = new NoOpAppender();
+
+        appender = new AsyncCoalescingStatisticsAppender();
+        appender.setName("benchmarkCoalescingAppender");
+        appender.setTimeSlice(1000L);
+        appender.setQueueSize(1 << 16);
+        appender.addAppender(downstreamAppender);
+        appender.activateOptions();
+
+        logger = Logger.getLogger("org.perf4j.benchmarks.TimingLogger");
+        logger.setAdditivity(false);
+        logger.setLevel(Level.INFO);
+        logger.removeAllAppenders();
+        logger.addAppender(appender);
+    }
+
+    @TearDown
+    public void tearDown() {
+        logger.removeAppender(appender);
+        appender.close();
+    }
+
+    @Benchmark
+    public String logStopWatch() {
+        Log4JStopWatch stopWatch = new Log4JStopWatch(logger);
+        return stopWatch.stop("benchmark.tag");
+    }
+
+    @Benchmark
+    @Threads(4)
+    public String logStopWatchFourThreads() {
+        Log4JStopWatch stopWatch = new Log4JStopWatch(logger);
+        return stopWatch.stop("benchmark.tag");
+    }
+
+    /**
+     * Downstream appender that ignores the GroupedTimingStatistics it receives.
+     */
+    public static class NoOpAppender extends AppenderSkeleton {
+        protected void append(LoggingEvent event) {
+        }
+
+        public boolean requiresLayout() {
+            return false;
+        }
+
+        public void close() {
+        }
+    }
+}
@@ -0,0 +1,76 @@
+/* Copyright (c) 2008-2009 HomeAway, Inc.
+ * All rights reserved.  http://www.perf4j.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.perf4j.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.perf4j.StopWatch;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the cost of timing a code block with a plain StopWatch, which is the overhead every instrumented call
+ * pays before anything is logged. Run with <tt>-prof gc</tt> to see the allocation per operation.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class StopWatchBenchmark {
+
+    @Benchmark
+    public String startStop() {
+        StopWatch stopWatch = new StopWatch("benchmark.tag");
+        return stopWatch.stop();
+    }
+
+    @Benchmark
+    public String startStopWithMessage() {
+        StopWatch stopWatch = new StopWatch();
+        return stopWatch.stop("benchmark.tag", "benchmark message");
+    }
+
+    @Benchmark
+    public StopWatch stopQuietly() {
+        StopWatch stopWatch = new StopWatch("benchmark.tag");
+        stopWatch.stopQuietly();
+        return stopWatch;
+    }
+
+    @Benchmark
+    public String lap() {
+        StopWatch stopWatch = new StopWatch();
+        stopWatch.lap("benchmark.first");
+        return stopWatch.stop("benchmark.second");
+    }
+
+    @Benchmark
+    @Threads(4)
+    public String startStopFourThreads() {
+        StopWatch stopWatch = new StopWatch("benchmark.tag");
+        return stopWatch.stop();
+    }
+}
@@ -0,0 +1,100 @@
+/* Copyright (c) 2008-2009 HomeAway, Inc.
+ * All rights reserved.  http://www.perf4j.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.perf4j.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.perf4j.StopWatch;
+import org.perf4j.helpers.StopWatchParser;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures how fast StopWatch log messages are parsed, as is done by the async appenders for String messages and by
+ * the LogParser. The corpus is a generated set of messages in the standard format with a realistic mix of tags and
+ * messages, plus a fraction of lines that are not StopWatch messages at all. Each operation parses the whole corpus,
+ * so the score multiplied by the corpus size is the number of lines per time unit.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class StopWatchParserBenchmark {
+    /**
+     * The parser implementation to benchmark.
+     */
+    @Param({"org.perf4j.helpers.StopWatchParser", "org.perf4j.helpers.FastStopWatchParser"})
+    public String parserClassName;
+
+    /**
+     * The number of lines in the generated corpus.
+     */
+    @Param({"10000"})
+    public int corpusSize;
+
+    private StopWatchParser parser;
+    private String[] corpus;
+
+    @Setup
+    public void setUp() throws Exception {
+        parser = (StopWatchParser) Class.forName(parserClassName).newInstance();
+        corpus = generateCorpus(corpusSize, new Random(42L));
+    }
+
+    @Benchmark
+    public void parseCorpus(Blackhole blackhole) {
+        for (String line : corpus) {
+            blackhole.consume(parser.parseStopWatch(line));
+        }
+    }
+
+    @Benchmark
+    public void isPotentiallyValid(Blackhole blackhole) {
+        for (String line : corpus) {
+            blackhole.consume(parser.isPotentiallyValid(line));
+        }
+    }
+
+    static String[] generateCorpus(int size, Random random) {
+        String[] retVal = new String[size];
+        long startTime = 1230000000000L;
+        for (int i = 0; i < size; i++) {
+            startTime += random.nextInt(50);
+            if (random.nextInt(10) == 0) {
+                retVal[i] = "INFO Some unrelated log message number " + i;
+            } else {
+                String tag = "service" + random.nextInt(20) + ".method" + random.nextInt(10) +
+                             (random.nextBoolean() ? ".success" : ".failure");
+                String message = random.nextBoolean() ? null : "request id " + random.nextInt(1000000);
+                retVal[i] = new StopWatch(startTime, random.nextInt(2000), tag, message).toString();
+            }
+        }
+        return retVal;
+    }
+}
@@ -15,10 +15,13 @@
  */
 package org.perf4j;
 
+import org.perf4j.helpers.LatencyHistogram;
 import org.perf4j.helpers.MiscUtils;
+import org.perf4j.helpers.TagRegistry;
 
 import java.io.Serializable;
 import java.util.*;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Represents a set of TimingStatistics calculated for a specific time period for a set of tags.
@@ -26,10 +29,31 @@ import java.util.*;
  * @author Alex Devine
  */
 public class GroupedTimingStatistics implements Serializable, Cloneable {
+    private static final long serialVersionUID = 6506566405934476649L;
+
     private SortedMap<String, TimingStatistics> statisticsByTag = new TreeMap<String, TimingStatistics>();
     private long startTime;
     private long stopTime;
     private boolean createRollupStatistics;
+    private LatencyHistogram histogramPrototype;
+    private TimeUnit timeUnit = TimeUnit.MILLISECONDS;
+
+    /**
+     * An open-addressing hash table that caches, by the tag IDs assigned by the {@link TagRegistry}, the
+     * TimingStatistics in statisticsByTag that a StopWatch with that tag updates: the statistics for the tag itself
+     * followed, if rollup statistics are created, by those of its rollup tags. This way addStopWatch does a single
+     * cache lookup, and one map lookup to check the cache is current, per StopWatch instead of a sorted map lookup
+     * (and a substring) for each rollup level. A key of 0
+     * marks an empty slot, so the keys are the tag IDs plus 1. The cache is cleared when the map is replaced or the
+     * createRollupStatistics setting changes, and when addStopWatch finds that the map was changed by a caller (its
+     * size differs from cachedMapSize, or the cached statistics for the tag are no longer the ones in the map). It is
+     * rebuilt from the map as StopWatches are added. Only addStopWatch and the setters touch the cache, so reading the
+     * statistics from other threads never writes to it.
+     */
+    private transient int[] cachedTagKeys;
+    private transient TimingStatistics[][] cachedTargets;
+    private transient int numCachedTargets;
+    private transient int cachedMapSize;
 
     // --- Constructors ---
 
@@ -65,23 +89,43 @@ public class GroupedTimingStatistics implements Serializable, Cloneable {
 
     // --- Utility Methods ---
     /**
-     * This method updates the calculated statistics when a new logged StopWatch is added.
+     * This method updates the calculated statistics when a new logged StopWatch is added. A StopWatch with a sample
+     * rate less than 1 is counted as 1/sampleRate calls.
      *
      * @param stopWatch The StopWatch being used to update the statistics.
      * @return this GroupedTimingStatistics instance
      */
     public GroupedTimingStatistics addStopWatch(StopWatch stopWatch) {
         String tag = stopWatch.getTag();
+        TimeUnit timeUnit = getTimeUnit();
+        long elapsedTime = (timeUnit == TimeUnit.MILLISECONDS) ?
+                           stopWatch.getElapsedTime() :
+                           timeUnit.convert(stopWatch.getElapsedNanoTime(), TimeUnit.NANOSECONDS);
+        double sampleRate = stopWatch.getSampleRate();
+
+        int tagId = TagRegistry.getTagId(tag);
+        if (tagId >= 0) {
+            for (TimingStatistics stats : getTargetsForTagId(tagId, tag)) {
+                stats.addSampleTime(elapsedTime, sampleRate);
+            }
+            return this;
+        }
 
-        addStopWatchToStatsByTag(tag, stopWatch);
+        //the tag registry is full, so look up the tag by name
+        if (cachedTagKeys != null && statisticsByTag.size() != cachedMapSize) {
+            clearTagIdCache();
+        }
+        addElapsedTimeToStatsByTag(tag, elapsedTime, sampleRate);
 
         //create rollup statistics if desired by splitting up the tag
         if (createRollupStatistics) {
             int indexOfDot = -1;
             while ((indexOfDot = tag.indexOf('.', indexOfDot + 1)) >= 0) {
-                addStopWatchToStatsByTag(tag.substring(0, indexOfDot), stopWatch);
+                addElapsedTimeToStatsByTag(tag.substring(0, indexOfDot), elapsedTime, sampleRate);
             }
         }
+        //the statistics just created are already consistent with the cache
+        cachedMapSize = statisticsByTag.size();
 
         return this;
     }
@@ -100,6 +144,49 @@ public class GroupedTimingStatistics implements Serializable, Cloneable {
         return this;
     }
 
+    /**
+     * Updates these statistics with all of the statistics from the specified GroupedTimingStatistics, as if all of
+     * the StopWatches that went into the other instance had been added to this one. The statistics for each tag are
+     * combined using {@link TimingStatistics#merge}, and the start and stop times are widened to cover the time
+     * ranges of both instances. If this instance has no start or stop time set (i.e. both are 0) then it takes the
+     * start and stop times of the other instance.
+     * <p/>
+     * Note that no new rollup statistics are created by this method - if rollups are desired, both instances should
+     * have been created with the same createRollupStatistics setting. Both instances must also use the same time
+     * unit, unless this instance is empty, in which case it takes the time unit of the other instance.
+     *
+     * @param other The GroupedTimingStatistics to merge into this instance. The other instance is not modified.
+     * @return this GroupedTimingStatistics instance
+     * @throws IllegalArgumentException Thrown if the instances have statistics in different time units
+     */
+    public GroupedTimingStatistics merge(GroupedTimingStatistics other) {
+        if (statisticsByTag.isEmpty()) {
+            timeUnit = other.getTimeUnit();
+        } else if (!other.statisticsByTag.isEmpty() && getTimeUnit() != other.getTimeUnit()) {
+            throw new IllegalArgumentException("Cannot merge statistics in " + other.getTimeUnit() +
+                                               " into statistics in " + getTimeUnit());
+        }
+
+        for (Map.Entry<String, TimingStatistics> tagAndStats : other.statisticsByTag.entrySet()) {
+            TimingStatistics stats = statisticsByTag.get(tagAndStats.getKey());
+            if (stats == null) {
+                statisticsByTag.put(tagAndStats.getKey(), tagAndStats.getValue().clone());
+            } else {
+                stats.merge(tagAndStats.getValue());
+            }
+        }
+
+        if (startTime == 0L && stopTime == 0L) {
+            startTime = other.startTime;
+            stopTime = other.stopTime;
+        } else if (other.startTime != 0L || other.stopTime != 0L) {
+            startTime = Math.min(startTime, other.startTime);
+            stopTime = Math.max(stopTime, other.stopTime);
+        }
+
+        return this;
+    }
+
     /**
      * The TimeZone to use when displaying start/stop time information
      */
@@ -125,11 +212,18 @@ public class GroupedTimingStatistics implements Serializable, Cloneable {
 
     // --- Bean Properties ---
 
+    /**
+     * Gets the statistics for each tag, sorted by tag. The returned map may be modified, but StopWatches should not
+     * be added while entries are removed or replaced through it.
+     *
+     * @return The statistics for each tag
+     */
     public SortedMap<String, TimingStatistics> getStatisticsByTag() {
         return statisticsByTag;
     }
 
     public void setStatisticsByTag(SortedMap<String, TimingStatistics> statisticsByTag) {
+        clearTagIdCache();
         this.statisticsByTag = statisticsByTag;
     }
 
@@ -154,17 +248,153 @@ public class GroupedTimingStatistics implements Serializable, Cloneable {
     }
 
     public void setCreateRollupStatistics(boolean createRollupStatistics) {
+        clearTagIdCache();
         this.createRollupStatistics = createRollupStatistics;
     }
 
+    /**
+     * Gets the histogram used as the prototype for tracking percentiles. When this is set, each new TimingStatistics
+     * created by {@link #addStopWatch} gets its own empty histogram with the same configuration as the prototype, so
+     * each tag uses a fixed, known amount of additional memory. When null, the default, percentiles are not tracked.
+     *
+     * @return The histogram prototype, may be null
+     */
+    public LatencyHistogram getHistogramPrototype() {
+        return histogramPrototype;
+    }
+
+    public void setHistogramPrototype(LatencyHistogram histogramPrototype) {
+        this.histogramPrototype = histogramPrototype;
+    }
+
+    /**
+     * Gets the unit of the elapsed times recorded by {@link #addStopWatch}, and thus the unit of the mean, min, max,
+     * standard deviation and percentile values of the TimingStatistics. Defaults to milliseconds. Using a finer unit
+     * such as microseconds keeps sub-millisecond timings from being recorded as 0.
+     *
+     * @return The time unit of the statistics, never null
+     */
+    public TimeUnit getTimeUnit() {
+        //instances serialized by older versions have no time unit
+        return (timeUnit == null) ? TimeUnit.MILLISECONDS : timeUnit;
+    }
+
+    /**
+     * Sets the unit of the elapsed times recorded by {@link #addStopWatch}. This should be set before any StopWatches
+     * are added.
+     *
+     * @param timeUnit The time unit, may not be null
+     */
+    public void setTimeUnit(TimeUnit timeUnit) {
+        if (timeUnit == null) {
+            throw new IllegalArgumentException("timeUnit may not be null");
+        }
+        this.timeUnit = timeUnit;
+    }
+
     // --- Helper Methods ---
 
-    private void addStopWatchToStatsByTag(String tag, StopWatch stopWatch) {
+    private void addElapsedTimeToStatsByTag(String tag, long elapsedTime, double sampleRate) {
+        getOrCreateStatistics(tag).addSampleTime(elapsedTime, sampleRate);
+    }
+
+    private TimingStatistics getOrCreateStatistics(String tag) {
         TimingStatistics stats = statisticsByTag.get(tag);
         if (stats == null) {
-            statisticsByTag.put(tag, stats = new TimingStatistics());
+            stats = (histogramPrototype == null) ?
+                    new TimingStatistics() :
+                    new TimingStatistics(histogramPrototype.newEmptyCopy());
+            statisticsByTag.put(tag, stats);
+        }
+        return stats;
+    }
+
+    /**
+     * Gets the statistics updated by a StopWatch with the tag with the specified TagRegistry ID from the tag ID cache,
+     * falling back to the statisticsByTag map (and creating the statistics if necessary) the first time the tag is
+     * seen. If the map has been changed since the cache was built the cache is cleared first.
+     */
+    private TimingStatistics[] getTargetsForTagId(int tagId, String tag) {
+        int key = tagId + 1;
+        if (cachedTagKeys != null) {
+            if (statisticsByTag.size() != cachedMapSize) {
+                //entries were added or removed through the map
+                clearTagIdCache();
+            } else {
+                int mask = cachedTagKeys.length - 1;
+                for (int i = tagIdCacheIndex(key, mask); cachedTagKeys[i] != 0; i = (i + 1) & mask) {
+                    if (cachedTagKeys[i] == key) {
+                        TimingStatistics[] retVal = cachedTargets[i];
+                        if (statisticsByTag.get(tag) == retVal[0]) {
+                            return retVal;
+                        }
+                        //the statistics for the tag were replaced through the map
+                        clearTagIdCache();
+                        break;
+                    }
+                }
+            }
+        }
+
+        int numRollupTags = 0;
+        if (createRollupStatistics) {
+            for (int i = tag.indexOf('.'); i >= 0; i = tag.indexOf('.', i + 1)) {
+                numRollupTags++;
+            }
+        }
+        TimingStatistics[] retVal = new TimingStatistics[numRollupTags + 1];
+        retVal[0] = getOrCreateStatistics(tag);
+        int indexOfDot = -1;
+        for (int i = 1; i < retVal.length; i++) {
+            indexOfDot = tag.indexOf('.', indexOfDot + 1);
+            retVal[i] = getOrCreateStatistics(tag.substring(0, indexOfDot));
+        }
+
+        //keep the load factor at most 1/2
+        if (cachedTagKeys == null || (numCachedTargets + 1) * 2 > cachedTagKeys.length) {
+            resizeTagIdCache((cachedTagKeys == null) ? 16 : cachedTagKeys.length * 2);
+        }
+        putInTagIdCache(key, retVal);
+        cachedMapSize = statisticsByTag.size();
+        return retVal;
+    }
+
+    private void putInTagIdCache(int key, TimingStatistics[] targets) {
+        int mask = cachedTagKeys.length - 1;
+        int i = tagIdCacheIndex(key, mask);
+        while (cachedTagKeys[i] != 0) {
+            i = (i + 1) & mask;
         }
-        stats.addSampleTime(stopWatch.getElapsedTime());
+        cachedTagKeys[i] = key;
+        cachedTargets[i] = targets;
+        numCachedTargets++;
+    }
+
+    private void resizeTagIdCache(int newCapacity) {
+        int[] oldKeys = cachedTagKeys;
+        TimingStatistics[][] oldTargets = cachedTargets;
+        cachedTagKeys = new int[newCapacity];
+        cachedTargets = new TimingStatistics[newCapacity][];
+        numCachedTargets = 0;
+        if (oldKeys != null) {
+            for (int i = 0; i < oldKeys.length; i++) {
+                if (oldKeys[i] != 0) {
+                    putInTagIdCache(oldKeys[i], oldTargets[i]);
+                }
+            }
+        }
+    }
+
+    private static int tagIdCacheIndex(int key, int mask) {
+        //tag IDs are sequential, so spread them out before masking
+        int hash = key * 0x9E3779B9;
+        return (hash ^ (hash >>> 16)) & mask;
+    }
+
+    private void clearTagIdCache() {
+        cachedTagKeys = null;
+        cachedTargets = null;
+        numCachedTargets = 0;
     }
 
     // --- Object Methods ---
@@ -179,7 +409,8 @@ public class GroupedTimingStatistics implements Serializable, Cloneable {
                 .append(MiscUtils.NEWLINE);
         //output the header
         retVal.append(String.format("%-48s%12s%12s%12s%12s%12s%n",
-                                    "Tag", "Avg(ms)", "Min", "Max", "Std Dev", "Count"));
+                                    "Tag", "Avg(" + MiscUtils.getTimeUnitAbbreviation(getTimeUnit()) + ")",
+                                    "Min", "Max", "Std Dev", "Count"));
         //output each statistics
         for (Map.Entry<String, TimingStatistics> tagWithTimingStatistics : statisticsByTag.entrySet()) {
             String tag = tagWithTimingStatistics.getKey();
@@ -199,6 +430,7 @@ public class GroupedTimingStatistics implements Serializable, Cloneable {
     public GroupedTimingStatistics clone() {
         try {
             GroupedTimingStatistics retVal = (GroupedTimingStatistics) super.clone();
+            retVal.clearTagIdCache();
             retVal.statisticsByTag = new TreeMap<String, TimingStatistics>(retVal.statisticsByTag);
             for (Map.Entry<String, TimingStatistics> tagAndStats : retVal.statisticsByTag.entrySet()) {
                 tagAndStats.setValue(tagAndStats.getValue().clone());
@@ -221,6 +453,7 @@ public class GroupedTimingStatistics implements Serializable, Cloneable {
 
         return startTime == that.startTime &&
                stopTime == that.stopTime &&
+               getTimeUnit() == that.getTimeUnit() &&
                statisticsByTag.equals(that.statisticsByTag);
     }
 
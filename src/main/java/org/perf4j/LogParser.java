@@ -24,6 +24,7 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Iterator;
 import java.util.List;
+import java.util.concurrent.TimeUnit;
 
 /**
  * LogParser provides the main method for reading a log of StopWatch output and generating statistics and graphs
@@ -36,6 +37,18 @@ public class LogParser {
      * The input log that is being parsed.
      */
     private Reader inputLog;
+    /**
+     * The input log file, only set if the log should be parsed in parallel, in which case inputLog is null.
+     */
+    private File inputFile;
+    /**
+     * The number of threads to use to parse the inputFile.
+     */
+    private int numThreads = 1;
+    /**
+     * The StopWatches to parse, only set if they are not read from a text log, in which case inputLog is null.
+     */
+    private Iterator<StopWatch> inputStopWatches;
     /**
      * The stream where the GroupedTimingStatistics data will be printed - if null, no statistics will be printed
      */
@@ -61,6 +74,10 @@ public class LogParser {
      * Whether or not "rollup statistics" should be created for each GroupedTimingStatistics created.
      */
     private boolean createRollupStatistics;
+    /**
+     * The time unit of the statistics created.
+     */
+    private TimeUnit timeUnit = TimeUnit.MILLISECONDS;
     /**
      * The formatter to use to print statistics.
      */
@@ -106,6 +123,71 @@ public class LogParser {
         this.statisticsFormatter = statisticsFormatter;
     }
 
+    /**
+     * Creates a new LogParser to parse log data from the input file using multiple threads. The file is memory mapped
+     * and split into chunks that are parsed in parallel, and the parsed StopWatches are aggregated in file order so
+     * that the output is the same as if the file had been parsed sequentially.
+     *
+     * @param inputFile              The log file being parsed, which should contain {@link org.perf4j.StopWatch} log
+     *                               messages.
+     * @param numThreads             The number of threads to use to parse the file.
+     * @param statisticsOutput       The stream where calculated statistics information should be written - if null,
+     *                               statistics data is not written.
+     * @param graphingOutput         The stream where graphing data should be written - if null, graphs are not written.
+     * @param timeSlice              The length of time, in milliseconds, of the timeslice of each statistics data created.
+     * @param createRollupStatistics Whether or not "rollup statistics" should be created for each timeslice of data.
+     * @param statisticsFormatter    The formatter to use to print GroupedTimingStatistics
+     * @see ChunkedStopWatchLogIterator
+     */
+    public LogParser(File inputFile, int numThreads, PrintStream statisticsOutput, PrintStream graphingOutput,
+                     long timeSlice, boolean createRollupStatistics,
+                     GroupedTimingStatisticsFormatter statisticsFormatter) {
+        this((Reader) null, statisticsOutput, graphingOutput, timeSlice, createRollupStatistics, statisticsFormatter);
+        this.inputFile = inputFile;
+        this.numThreads = numThreads;
+    }
+
+    /**
+     * Creates a new LogParser to generate statistics from StopWatches that have already been read from a log, for
+     * example by a {@link BinaryStopWatchLogIterator}.
+     *
+     * @param inputStopWatches       The StopWatches to be parsed.
+     * @param statisticsOutput       The stream where calculated statistics information should be written - if null,
+     *                               statistics data is not written.
+     * @param graphingOutput         The stream where graphing data should be written - if null, graphs are not written.
+     * @param timeSlice              The length of time, in milliseconds, of the timeslice of each statistics data created.
+     * @param createRollupStatistics Whether or not "rollup statistics" should be created for each timeslice of data.
+     * @param statisticsFormatter    The formatter to use to print GroupedTimingStatistics
+     */
+    public LogParser(Iterator<StopWatch> inputStopWatches, PrintStream statisticsOutput, PrintStream graphingOutput,
+                     long timeSlice, boolean createRollupStatistics,
+                     GroupedTimingStatisticsFormatter statisticsFormatter) {
+        this((Reader) null, statisticsOutput, graphingOutput, timeSlice, createRollupStatistics, statisticsFormatter);
+        this.inputStopWatches = inputStopWatches;
+    }
+
+    // --- Bean Properties ---
+
+    /**
+     * Gets the time unit of the statistics created by this LogParser, which defaults to milliseconds.
+     *
+     * @return The time unit of the statistics
+     */
+    public TimeUnit getTimeUnit() {
+        return timeUnit;
+    }
+
+    /**
+     * Sets the time unit of the statistics created by this LogParser. Finer units such as microseconds keep the
+     * precise elapsed times of sub-millisecond StopWatches if they were logged with nanosecond precision.
+     *
+     * @param timeUnit The time unit, may not be null
+     * @see StopWatch#setLogNanoTime(boolean)
+     */
+    public void setTimeUnit(TimeUnit timeUnit) {
+        this.timeUnit = timeUnit;
+    }
+
     // --- Instance Methods ---
 
     /**
@@ -114,13 +196,8 @@ public class LogParser {
      */
     public void parseLog() {
 
-        Iterator<StopWatch> stopWatchIter = new StopWatchLogIterator(inputLog);
-
         int i = 0;
-        for (GroupingStatisticsIterator statsIter = new GroupingStatisticsIterator(stopWatchIter,
-                                                                                   timeSlice,
-                                                                                   createRollupStatistics);
-             statsIter.hasNext();) {
+        for (Iterator<GroupedTimingStatistics> statsIter = newStatisticsIterator(); statsIter.hasNext();) {
             GroupedTimingStatistics statistics = statsIter.next();
 
             if (statisticsOutput != null) {
@@ -138,6 +215,33 @@ public class LogParser {
         }
     }
 
+    /**
+     * Creates the iterator that reads the input log and groups the StopWatches into GroupedTimingStatistics.
+     *
+     * @return A GroupingStatisticsIterator reading StopWatches from the input StopWatch iterator if one was specified,
+     *         from a ChunkedStopWatchLogIterator if an input file is being parsed with multiple threads, otherwise
+     *         from a StopWatchLogIterator.
+     */
+    protected Iterator<GroupedTimingStatistics> newStatisticsIterator() {
+        Iterator<StopWatch> stopWatchIter;
+        if (inputStopWatches != null) {
+            stopWatchIter = inputStopWatches;
+        } else if (inputFile != null) {
+            try {
+                stopWatchIter = new ChunkedStopWatchLogIterator(inputFile, numThreads);
+            } catch (IOException ioe) {
+                throw new RuntimeException("Could not open " + inputFile + ": " + ioe.getMessage(), ioe);
+            }
+        } else {
+            stopWatchIter = new StopWatchLogIterator(inputLog);
+        }
+
+        GroupingStatisticsIterator retVal = new GroupingStatisticsIterator(stopWatchIter, timeSlice,
+                                                                           createRollupStatistics);
+        retVal.setTimeUnit(timeUnit);
+        return retVal;
+    }
+
     protected StatisticsChartGenerator newMeanTimeChartGenerator() {
         return new GoogleChartGenerator();
     }
@@ -169,15 +273,33 @@ public class LogParser {
             PrintStream graphingOutput = openGraphingOutput(argsList);
             long timeSlice = getTimeSlice(argsList);
             boolean rollupStatistics = getRollupStatistics(argsList);
-            GroupedTimingStatisticsFormatter formatter = getStatisticsFormatter(argsList);
-            Reader input = openInput(argsList);
+            TimeUnit timeUnit = getTimeUnit(argsList);
+            GroupedTimingStatisticsFormatter formatter = getStatisticsFormatter(argsList, timeUnit);
+            int threads = getThreads(argsList);
+            File inputFile = getInputFile(argsList);
 
             if (!argsList.isEmpty()) {
                 printUnknownArgs(argsList);
                 return 1;
             }
 
-            new LogParser(input, statisticsOutput, graphingOutput, timeSlice, rollupStatistics, formatter).parseLog();
+            LogParser logParser;
+            if (inputFile == null) {
+                //parallel parsing needs a file to map, so stdin is always parsed sequentially
+                logParser = new LogParser(new InputStreamReader(System.in), statisticsOutput, graphingOutput,
+                                          timeSlice, rollupStatistics, formatter);
+            } else if (BinaryStopWatchLogIterator.isBinaryLog(inputFile)) {
+                logParser = new LogParser(new BinaryStopWatchLogIterator(new FileInputStream(inputFile)),
+                                          statisticsOutput, graphingOutput, timeSlice, rollupStatistics, formatter);
+            } else if (threads > 1) {
+                logParser = new LogParser(inputFile, threads, statisticsOutput, graphingOutput, timeSlice,
+                                          rollupStatistics, formatter);
+            } else {
+                logParser = new LogParser(new BufferedReader(new FileReader(inputFile)), statisticsOutput,
+                                          graphingOutput, timeSlice, rollupStatistics, formatter);
+            }
+            logParser.setTimeUnit(timeUnit);
+            logParser.parseLog();
 
             closeGraphingOutput(graphingOutput);
         } catch ( Exception e ) {
@@ -194,9 +316,12 @@ public class LogParser {
                                "[-t|--timeslice timeslice] " +
                                "[-r] " +
                                "[-f|--format text|csv] " +
+                               "[-u|--unit ms|us|ns] " +
+                               "[--threads numThreads] " +
                                "[logInputFile]");
             System.out.println("Arguments:");
-            System.out.println("  logInputFile - The log file to be parsed. If not specified, log data is read from stdin.");
+            System.out.println("  logInputFile - The log file to be parsed. If not specified, log data is read from stdin." +
+                               " Binary logs written by the BinaryFileAppender are detected automatically.");
             System.out.println("  -o|--out|--output outputFile - The file where generated statistics should be written." +
                                " If not specified, statistics are written to stdout.");
             System.out.println("  -g|--graph graphingOutputFile - The file where generated perf graphs should be written." +
@@ -208,6 +333,12 @@ public class LogParser {
             System.out.println("  -f|--format text|csv - The format for the statistics output, either plain text or CSV." +
                                " Defaults to text.");
             System.out.println("                         If format is csv, then the columns output are tag, start, stop, mean, min, max, stddev, and count.");
+            System.out.println("  -u|--unit ms|us|ns - The time unit of the generated statistics. Defaults to ms. Use us or" +
+                               " ns for sub-millisecond timings logged with -Dperf4j.logNanoTime=true. If the unit" +
+                               " isn't ms then a unit column is added to csv output.");
+            System.out.println("  --threads numThreads - The number of threads used to parse the log file. If greater than 1" +
+                               " the log file is memory mapped and parsed in parallel chunks. Defaults to 1. Ignored if" +
+                               " the log is read from stdin or is a binary log.");
             System.out.println();
             System.out.println("Note that out, stdout, err and stderr can be used as aliases to the standard output" +
                                " streams when specifying output files.");
@@ -273,7 +404,23 @@ public class LogParser {
         }
     }
 
+    protected static TimeUnit getTimeUnit(List<String> argsList) {
+        int indexOfUnit = getIndexOfArg(argsList, true, "-u", "--unit");
+        if (indexOfUnit >= 0) {
+            String unit = argsList.remove(indexOfUnit + 1);
+            argsList.remove(indexOfUnit);
+            return MiscUtils.parseTimeUnit(unit);
+        } else {
+            return TimeUnit.MILLISECONDS;
+        }
+    }
+
     protected static GroupedTimingStatisticsFormatter getStatisticsFormatter(List<String> argsList) {
+        return getStatisticsFormatter(argsList, TimeUnit.MILLISECONDS);
+    }
+
+    protected static GroupedTimingStatisticsFormatter getStatisticsFormatter(List<String> argsList,
+                                                                            TimeUnit timeUnit) {
         int indexOfFormat = getIndexOfArg(argsList, true, "-f", "--format");
         if (indexOfFormat >= 0) {
             String formatString = argsList.remove(indexOfFormat + 1);
@@ -281,7 +428,12 @@ public class LogParser {
             if ("text".equalsIgnoreCase(formatString)) {
                 return new GroupedTimingStatisticsTextFormatter();
             } else if ("csv".equalsIgnoreCase(formatString)) {
-                return new GroupedTimingStatisticsCsvFormatter();
+                //only add the unit column if it's not the default, so the default output is unchanged
+                String columns = GroupedTimingStatisticsCsvFormatter.DEFAULT_FORMAT_STRING;
+                if (timeUnit != TimeUnit.MILLISECONDS) {
+                    columns += ",unit";
+                }
+                return new GroupedTimingStatisticsCsvFormatter(false, columns);
             } else {
                 throw new IllegalArgumentException("Unknown format type: " + formatString);
             }
@@ -290,6 +442,35 @@ public class LogParser {
         }
     }
 
+    protected static int getThreads(List<String> argsList) {
+        int indexOfThreads = getIndexOfArg(argsList, true, "--threads");
+        if (indexOfThreads >= 0) {
+            String threads = argsList.remove(indexOfThreads + 1);
+            argsList.remove(indexOfThreads);
+            int retVal = Integer.parseInt(threads);
+            if (retVal < 1) {
+                throw new IllegalArgumentException("The number of threads must be at least 1: " + threads);
+            }
+            return retVal;
+        } else {
+            return 1;
+        }
+    }
+
+    protected static File getInputFile(List<String> argsList) {
+        return argsList.isEmpty() ? null : new File(argsList.remove(0));
+    }
+
+    /**
+     * Opens a character reader on the next argument, or on System.in if there are no more arguments.
+     *
+     * @param argsList The remaining command line arguments; the file name, if any, is removed from this list.
+     * @return A reader for the input log.
+     * @throws IOException if the named file can't be opened.
+     * @deprecated {@link #runMain} now uses {@link #getInputFile} so that it can map the file for parallel parsing;
+     *             this method is kept only for subclasses that still call it.
+     */
+    @Deprecated
     protected static Reader openInput(List<String> argsList) throws IOException {
         if (argsList.isEmpty()) {
             return new InputStreamReader(System.in);
@@ -15,6 +15,8 @@
  */
 package org.perf4j;
 
+import org.perf4j.helpers.Sampler;
+
 /**
  * A LoggingStopWatch prevents the need to explicitly send the StopWatch string to a Logger when stopping. Instead,
  * all of the stop() and lap() methods themselves are responsible for persisting the StopWatch:
@@ -30,6 +32,8 @@ package org.perf4j;
  */
 @SuppressWarnings("serial")
 public class LoggingStopWatch extends StopWatch {
+	private static final long serialVersionUID = 5956813524983681956L;
+
 	/**
      * This threshold determines if a log call will be made. Only elapsed times greater than this amount will be logged.
      */
@@ -52,6 +56,11 @@ public class LoggingStopWatch extends StopWatch {
      */
     private String slowSuffix = ".slow";
 
+    /**
+     * Set to true if the current timing run was not selected by sampling, in which case it won't be logged.
+     */
+    private boolean skipped = false;
+
     // --- Constructors ---
 
     /**
@@ -184,6 +193,38 @@ public class LoggingStopWatch extends StopWatch {
 		return this;
 	}
     
+    /**
+     * Sets the fraction of timing runs of this LoggingStopWatch that are logged. When the rate is less than 1, each
+     * time this method is called with a new rate, and each time the StopWatch is started, a cheap thread-local random
+     * number decides whether the run is sampled; runs that are not sampled are not logged when stopped, and the rate
+     * is recorded in the logged runs so that statistics can scale the counts back up. This is useful for frequently
+     * called code blocks where timing a fraction of the calls is enough for accurate statistics.
+     *
+     * @param sampleRate The sample rate, greater than 0 and at most 1. Defaults to 1, meaning every run is logged.
+     * @return this instance, for use with method chaining if desired
+     * @see #isSampled()
+     */
+    public LoggingStopWatch setSampleRate(double sampleRate) {
+        if (sampleRate != getSampleRate()) {
+            super.setSampleRate(sampleRate);
+            skipped = !Sampler.isSampled(sampleRate);
+        }
+        return this;
+    }
+
+    /**
+     * Returns whether or not the current timing run was selected by sampling, i.e. whether it will be logged when
+     * this StopWatch is stopped. This is always true unless the sample rate is less than 1. Code that times a block
+     * explicitly can check this right after starting the StopWatch to avoid building a tag or message that won't be
+     * logged.
+     *
+     * @return true if the current timing run will be logged
+     * @see #setSampleRate(double)
+     */
+    public boolean isSampled() {
+        return !skipped;
+    }
+
     /* 
      * If normalAndSlowSuffixesEnabled AND timeThreshold >0 AND elapsedTime >= timeThreshold
      * then append slow suffix.<br/>
@@ -210,7 +251,20 @@ public class LoggingStopWatch extends StopWatch {
         return this;
     }
 
-    // --- Stop/Lap/Helper Methods ---
+    // --- Start/Stop/Lap/Helper Methods ---
+
+    /**
+     * This start method is overridden to decide whether or not the new timing run is sampled, if the sample rate is
+     * less than 1.
+     */
+    public void start() {
+        super.start();
+        double sampleRate = getSampleRate();
+        if (sampleRate < 1.0) {
+            skipped = !Sampler.isSampled(sampleRate);
+        }
+    }
+
     /**
      * This stop method is overridden to perform the logging itself instead of needing to make a separate call to
      * persist the timing information.
@@ -263,6 +317,52 @@ public class LoggingStopWatch extends StopWatch {
         return stop(exception);
     }
 
+    /**
+     * Stops this StopWatch and logs it, like {@link #stop()}, but without creating the String that stop() returns.
+     * The String form of the StopWatch is only created if the elapsed time meets the time threshold and the
+     * underlying logger needs text, so this is the preferred method when the return value of stop() is ignored.
+     */
+    public void stopAndRecord() {
+        stopQuietly();
+        doLogInternal(null, null);
+    }
+
+    /**
+     * Identical to {@link #stopAndRecord()}, but also sets the grouping tag.
+     *
+     * @param tag The grouping tag for this StopWatch
+     */
+    public void stopAndRecord(String tag) {
+        setTag(tag);
+        stopAndRecord();
+    }
+
+    /**
+     * Identical to {@link #stopAndRecord()}, but also sets the grouping tag and message.
+     *
+     * @param tag     The grouping tag for this StopWatch
+     * @param message A descriptive message about the timed block, may be null
+     */
+    public void stopAndRecord(String tag, String message) {
+        setTag(tag);
+        setMessage(message);
+        stopAndRecord();
+    }
+
+    /**
+     * Identical to {@link #stopAndRecord(String, String)}, but also allows you to specify an exception to be logged.
+     *
+     * @param tag       The grouping tag for this StopWatch
+     * @param message   A descriptive message about the timed block, may be null
+     * @param exception The exception that was thrown by the timed code block
+     */
+    public void stopAndRecord(String tag, String message, Throwable exception) {
+        setTag(tag);
+        setMessage(message);
+        stopQuietly();
+        doLogInternal(null, exception);
+    }
+
     /**
      * Identical to {@link #lap(String)}, but also allows you to specify an exception to be logged.
      *
@@ -316,6 +416,18 @@ public class LoggingStopWatch extends StopWatch {
         }
     }
 
+    /**
+     * This log method is called by the stopAndRecord() methods, which do not create the serialized StopWatch string
+     * up front. The default implementation creates the string and calls {@link #log(String, Throwable)}. Subclasses
+     * whose loggers may discard the message, or can accept the StopWatch object itself, should override this method
+     * so the string is only created when it is actually needed.
+     *
+     * @param exception An exception, if any, that was also passed to the stopAndRecord() method - may be null.
+     */
+    protected void log(Throwable exception) {
+        log(toString(), exception);
+    }
+
     // --- Object Methods ---
     
     public LoggingStopWatch clone() {
@@ -323,8 +435,12 @@ public class LoggingStopWatch extends StopWatch {
     }
 
     // --- Private Methods ---
-    // Helper method only calls log if elapsed time is greater than the time threshold
+    // Helper method only calls log if elapsed time is greater than the time threshold. stopWatchAsString is null if
+    // it hasn't been created, in which case it's up to the log(Throwable) method to create it if it's needed.
     private void doLogInternal(String stopWatchAsString, Throwable exception) {
+        if (skipped) {
+            return;
+        }
     	//if normalAndSlowSuffixesEnabled then always log with the suffixes added
     	//getTag() should take care of appending the correct tag, and should already be part of stopWatchAsString
         //Otherwise we default to the backward-compatible behavior: namely:
@@ -332,7 +448,11 @@ public class LoggingStopWatch extends StopWatch {
     	long elapsedTime = getElapsedTime(); // to allow for subclasses to override this value
     	long timeThreshold = getTimeThreshold(); // to allow for subclasses to override this value
     	if (timeThreshold == 0 || isNormalAndSlowSuffixesEnabled() || elapsedTime >= timeThreshold) {
-            log(stopWatchAsString, exception);
+            if (stopWatchAsString == null) {
+                log(exception);
+            } else {
+                log(stopWatchAsString, exception);
+            }
         }
     }
 }
@@ -15,7 +15,10 @@
  */
 package org.perf4j;
 
+import org.perf4j.helpers.Sampler;
+
 import java.io.Serializable;
+import java.util.concurrent.TimeUnit;
 
 /**
  * The StopWatch class is used to time code blocks in Perf4J. The general usage pattern is to create a StopWatch
@@ -34,6 +37,11 @@ import java.io.Serializable;
  * Note that a StopWatch is reusable. That is, you can call <tt>start()</tt> and <tt>stop()</tt> in succession
  * and the <tt>getElapsedTime()</tt> method will refer to the time since the most recent <tt>start()</tt> call.
  * <p/>
+ * Elapsed times are measured with <tt>System.nanoTime()</tt>. <tt>getElapsedTime()</tt> returns whole milliseconds,
+ * while <tt>getElapsedNanoTime()</tt> keeps the full measured precision, which matters for sub-millisecond code
+ * blocks. By default the String form of a StopWatch only contains the millisecond value; see
+ * {@link #setLogNanoTime(boolean)} to also include the nanosecond value in logged messages.
+ * <p/>
  * In general, most clients will find it simpler and cleaner to use the {@link LoggingStopWatch} class or one of its
  * subclasses in preference to this class.
  *
@@ -46,11 +54,28 @@ public class StopWatch implements Serializable, Cloneable {
 
     private static final long NANOS_IN_A_MILLI = 1000000L;
 
+    /**
+     * Whether or not toString() includes the elapsed nano time. Defaults to the value of the perf4j.logNanoTime
+     * system property.
+     */
+    private static volatile boolean logNanoTime = Boolean.getBoolean("perf4j.logNanoTime");
+
+    /**
+     * The buffer used by toString(), reused per thread so that rendering a StopWatch only allocates the final String.
+     */
+    private static final ThreadLocal<StringBuilder> TO_STRING_BUFFER = new ThreadLocal<StringBuilder>() {
+        protected StringBuilder initialValue() {
+            return new StringBuilder(128);
+        }
+    };
+
     private long startTime;
     private long nanoStartTime;
     private long elapsedTime;
+    private long elapsedNanoTime;
     private String tag;
     private String message;
+    private double sampleRate = 1.0;
 
     /**
      * Creates a StopWatch with a blank tag, no message and started at the instant of creation.
@@ -94,10 +119,27 @@ public class StopWatch implements Serializable, Cloneable {
         this.startTime = startTime;
         this.nanoStartTime = (elapsedTime == -1L) ? System.nanoTime() : -1L;
         this.elapsedTime = elapsedTime;
+        this.elapsedNanoTime = elapsedTime * NANOS_IN_A_MILLI;
         this.tag = tag;
         this.message = message;
     }
 
+    /**
+     * Creates a StopWatch with an elapsed time in the specified unit, which allows a sub-millisecond elapsed time to
+     * be preserved. As with the constructor above, this constructor is normally only used when deserializing
+     * StopWatch logs.
+     *
+     * @param startTime       The start time in milliseconds
+     * @param elapsedTime     The elapsed time, which may not be negative
+     * @param elapsedTimeUnit The unit of the elapsedTime parameter
+     * @param tag             The tag used to group timing logs of the same code block
+     * @param message         Additional message text
+     */
+    public StopWatch(long startTime, long elapsedTime, TimeUnit elapsedTimeUnit, String tag, String message) {
+        this(startTime, elapsedTimeUnit.toMillis(elapsedTime), tag, message);
+        this.elapsedNanoTime = elapsedTimeUnit.toNanos(elapsedTime);
+    }
+
     // --- Bean Properties ---
 
     /**
@@ -119,6 +161,21 @@ public class StopWatch implements Serializable, Cloneable {
                elapsedTime;
     }
 
+    /**
+     * Gets the time in nanoseconds between when this StopWatch was last started and stopped. If <tt>stop()</tt> was
+     * not called, then the time returned is the time since the StopWatch was started. If this StopWatch was created
+     * with only a millisecond elapsed time, then that value converted to nanoseconds is returned.
+     *
+     * @return The elapsed time in nanoseconds.
+     */
+    public long getElapsedNanoTime() {
+        if (elapsedTime == -1L) {
+            return System.nanoTime() - nanoStartTime;
+        }
+        //instances serialized by older versions have no nano time, so fall back to the millisecond value
+        return (elapsedNanoTime / NANOS_IN_A_MILLI == elapsedTime) ? elapsedNanoTime : elapsedTime * NANOS_IN_A_MILLI;
+    }
+
     /**
      * Gets the tag used to group this StopWatch instance with other instances used to time the same code block.
      *
@@ -155,6 +212,33 @@ public class StopWatch implements Serializable, Cloneable {
         return this;
     }
 
+    /**
+     * Gets the fraction of calls to the timed code block that were sampled when this StopWatch was logged. If this is
+     * less than 1 then each logged StopWatch stands for 1/sampleRate calls, which is taken into account when the
+     * StopWatch is added to {@link GroupedTimingStatistics}.
+     *
+     * @return The sample rate, greater than 0 and at most 1. Defaults to 1, meaning every call was timed.
+     */
+    public double getSampleRate() {
+        //instances serialized by older versions have no sample rate
+        return (sampleRate > 0.0) ? sampleRate : 1.0;
+    }
+
+    /**
+     * Sets the fraction of calls to the timed code block that are sampled. This is recorded in the String form of
+     * this StopWatch as a <tt>sample[..]</tt> field when it is less than 1. Note that this method just records the
+     * rate; see {@link LoggingStopWatch#setSampleRate(double)} for a StopWatch that actually skips calls.
+     *
+     * @param sampleRate The sample rate, greater than 0 and at most 1.
+     * @return this instance, for method chaining if desired.
+     * @throws IllegalArgumentException Thrown if the sample rate is out of range.
+     */
+    public StopWatch setSampleRate(double sampleRate) {
+        Sampler.checkSampleRate(sampleRate);
+        this.sampleRate = sampleRate;
+        return this;
+    }
+
     // --- Start/Stop/Lap methods ---
 
     /**
@@ -200,10 +284,21 @@ public class StopWatch implements Serializable, Cloneable {
      * @return this.toString(), which is a message suitable for logging
      */
     public String stop() {
-        elapsedTime = (System.nanoTime() - nanoStartTime) / NANOS_IN_A_MILLI;
+        stopQuietly();
         return this.toString();
     }
 
+    /**
+     * Stops this StopWatch without creating the String returned by {@link #stop()}. Use this when the String isn't
+     * needed, for example when the StopWatch object itself is passed to a logger, to avoid allocating it. Note that
+     * unlike stop(), calling this method on a {@link LoggingStopWatch} does not log it - use
+     * {@link LoggingStopWatch#stopAndRecord()} for that.
+     */
+    public void stopQuietly() {
+        elapsedNanoTime = System.nanoTime() - nanoStartTime;
+        elapsedTime = elapsedNanoTime / NANOS_IN_A_MILLI;
+    }
+
     /**
      * Stops this StopWatch and sets its grouping tag.
      *
@@ -275,14 +370,77 @@ public class StopWatch implements Serializable, Cloneable {
         return retVal;
     }
 
+    // --- Static Configuration ---
+
+    /**
+     * Returns whether or not the String form of StopWatches includes the elapsed time in nanoseconds.
+     *
+     * @return true if nanosecond elapsed times are logged
+     * @see #setLogNanoTime(boolean)
+     */
+    public static boolean isLogNanoTime() {
+        return logNanoTime;
+    }
+
+    /**
+     * Sets whether or not the String form of StopWatches, as returned by toString() and the stop methods, includes
+     * the elapsed time in nanoseconds. When enabled a <tt>nanos[..]</tt> field is appended after the tag and
+     * message, e.g. <tt>start[1230493122000] time[0] tag[cache.get] nanos[215311]</tt>. The millisecond
+     * <tt>time[..]</tt> field is unchanged, so StopWatchParsers that don't know about the nanos field can still
+     * parse these messages. Defaults to false unless the <tt>perf4j.logNanoTime</tt> system property is true. Note a
+     * <tt>sample[..]</tt> field may follow the nanos field if the StopWatch was sampled.
+     *
+     * @param logNanoTime Whether or not to include the nanosecond elapsed time
+     */
+    public static void setLogNanoTime(boolean logNanoTime) {
+        StopWatch.logNanoTime = logNanoTime;
+    }
+
     // --- Object Methods ---
     
     public String toString() {
-    	String message = getMessage();
-    	return "start[" + getStartTime() +
-        "] time[" + getElapsedTime() +
-        "] tag[" + getTag() +
-        ((message == null) ? "]" : "] message[" + message + "]");
+        //the buffer isn't reset first, since a getter overridden by a subclass may itself call toString() on this
+        //thread while the buffer is in use - each call only uses, and then removes, what it appends to the end
+        StringBuilder buffer = TO_STRING_BUFFER.get();
+        int start = buffer.length();
+        try {
+            return appendTo(buffer).substring(start);
+        } finally {
+            buffer.setLength(start);
+        }
+    }
+
+    /**
+     * Appends the standard String form of this StopWatch, as returned by toString(), to the specified buffer. This
+     * allows the StopWatch to be rendered into an existing buffer without creating an intermediate String.
+     *
+     * @param buffer The buffer to append to
+     * @return The buffer
+     */
+    public StringBuilder appendTo(StringBuilder buffer) {
+        //call all of the getters, which subclasses may override, before touching the buffer
+        long startTime = getStartTime();
+        long elapsedTime = getElapsedTime();
+        long elapsedNanoTime = logNanoTime ? getElapsedNanoTime() : -1L;
+        String tag = getTag();
+        String message = getMessage();
+        double sampleRate = getSampleRate();
+
+        buffer.append("start[").append(startTime)
+                .append("] time[").append(elapsedTime)
+                .append("] tag[").append(tag);
+        if (message == null) {
+            buffer.append(']');
+        } else {
+            buffer.append("] message[").append(message).append(']');
+        }
+        if (elapsedNanoTime >= 0L) {
+            buffer.append(" nanos[").append(elapsedNanoTime).append(']');
+        }
+        if (sampleRate < 1.0) {
+            buffer.append(" sample[").append(sampleRate).append(']');
+        }
+        return buffer;
     }
 
     public StopWatch clone() {
@@ -306,12 +464,18 @@ public class StopWatch implements Serializable, Cloneable {
         if (elapsedTime != stopWatch.elapsedTime) {
             return false;
         }
+        if (elapsedNanoTime != stopWatch.elapsedNanoTime) {
+            return false;
+        }
         if (startTime != stopWatch.startTime) {
             return false;
         }
         if (nanoStartTime != stopWatch.nanoStartTime) {
             return false;
         }
+        if (Double.compare(getSampleRate(), stopWatch.getSampleRate()) != 0) {
+            return false;
+        }
         if (message != null ? !message.equals(stopWatch.message) : stopWatch.message != null) {
             return false;
         }
@@ -326,8 +490,11 @@ public class StopWatch implements Serializable, Cloneable {
         int result = (int) (startTime ^ (startTime >>> 32));
         result = 31 * result + (int) (nanoStartTime ^ (nanoStartTime >>> 32));
         result = 31 * result + (int) (elapsedTime ^ (elapsedTime >>> 32));
+        result = 31 * result + (int) (elapsedNanoTime ^ (elapsedNanoTime >>> 32));
         result = 31 * result + (tag != null ? tag.hashCode() : 0);
         result = 31 * result + (message != null ? message.hashCode() : 0);
+        long temp = Double.doubleToLongBits(getSampleRate());
+        result = 31 * result + (int) (temp ^ (temp >>> 32));
         return result;
     }
 }
@@ -68,7 +68,7 @@ public class TimedCallable<V> implements Callable<V>, Serializable {
             stopWatch.start();
             return wrappedTask.call();
         } finally {
-            stopWatch.stop();
+            stopWatch.stopAndRecord();
         }
     }
 }
@@ -67,7 +67,7 @@ public class TimedRunnable implements Runnable, Serializable {
             stopWatch.start();
             wrappedTask.run();
         } finally {
-            stopWatch.stop();
+            stopWatch.stopAndRecord();
         }
     }
 }
@@ -15,20 +15,32 @@
  */
 package org.perf4j;
 
+import org.perf4j.helpers.LatencyHistogram;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
 import java.io.Serializable;
 
 /**
  * TimingStatistics represent a set of statistical measures over a set of timing data, such as a collection of
  * StopWatch instances.
+ * <p/>
+ * When calls are sampled (see {@link StopWatch#getSampleRate()}) each sample time stands for 1/sampleRate calls. The
+ * mean, standard deviation, min, max and percentiles are calculated over the sample times, which is accurate as long
+ * as the samples are chosen at random, while the count is the estimated total number of calls.
  *
  * @author Alex Devine
  */
 public class TimingStatistics implements Serializable, Cloneable {
+    private static final long serialVersionUID = 2854670870560621993L;
+
     private double mean;
     private double runningQ; //for keeping running standard deviation
     private long max;
     private long min;
-    private int count;
+    private int count; //the number of sample times
+    private double estimatedCount; //the number of calls the sample times stand for
+    private LatencyHistogram histogram; //only present if percentiles are tracked
 
     // --- Constructors ---
     /**
@@ -36,6 +48,17 @@ public class TimingStatistics implements Serializable, Cloneable {
      */
     public TimingStatistics() { }
 
+    /**
+     * Creates an empty TimingStatistics object that records each sample time in the specified histogram, which
+     * allows percentiles to be retrieved using {@link #getPercentile(double)}.
+     *
+     * @param histogram The empty histogram used to track the distribution of sample times. May be null, in which case
+     *                  percentiles are not tracked.
+     */
+    public TimingStatistics(LatencyHistogram histogram) {
+        this.histogram = histogram;
+    }
+
     /**
      * Creates a TimingStatistics object with the specified data.
      *
@@ -51,6 +74,7 @@ public class TimingStatistics implements Serializable, Cloneable {
         this.max = max;
         this.min = min;
         this.count = count;
+        this.estimatedCount = count;
     }
 
     // --- Utility Methods ---
@@ -61,7 +85,20 @@ public class TimingStatistics implements Serializable, Cloneable {
      * @return this TimingStatistics instance
      */
     public TimingStatistics addSampleTime(long elapsedTime) {
+        return addSampleTime(elapsedTime, 1.0);
+    }
+
+    /**
+     * This method updates the calculated statistics with a new logged execution time that was sampled at the
+     * specified rate, i.e. it stands for 1/sampleRate calls.
+     *
+     * @param elapsedTime The elapsed time being used to update the statistics.
+     * @param sampleRate  The fraction of calls that were timed, greater than 0 and at most 1.
+     * @return this TimingStatistics instance
+     */
+    public TimingStatistics addSampleTime(long elapsedTime, double sampleRate) {
         count++;
+        estimatedCount += (sampleRate == 1.0) ? 1.0 : 1.0 / sampleRate;
 
         double diffFromMean = elapsedTime - mean;
         mean = mean + (diffFromMean / count);
@@ -81,9 +118,88 @@ public class TimingStatistics implements Serializable, Cloneable {
             }
         }
 
+        if (histogram != null) {
+            histogram.recordValue(elapsedTime);
+        }
+
+        return this;
+    }
+
+    /**
+     * This method updates these statistics so that they reflect all of the samples from both this instance and the
+     * other instance, as if every sample time had been passed to {@link #addSampleTime} on a single instance. This
+     * allows statistics to be computed in parallel (for example by separate threads, or on separate machines) and
+     * combined afterwards. The mean and the running sum of squared differences are combined using the pairwise update
+     * from Chan, Golub and LeVeque, which is as numerically stable as the sequential calculation.
+     *
+     * @param other The statistics to merge into this instance. The other instance is not modified.
+     * @return this TimingStatistics instance
+     */
+    public TimingStatistics merge(TimingStatistics other) {
+        if (other.count == 0) {
+            return this;
+        }
+        mergeHistogram(other);
+        if (count == 0) {
+            mean = other.mean;
+            runningQ = other.runningQ;
+            max = other.max;
+            min = other.min;
+            count = other.count;
+            estimatedCount = other.estimatedCount;
+            return this;
+        }
+
+        //use doubles for the counts to avoid int overflow when multiplying them
+        double thisCount = count;
+        double otherCount = other.count;
+        double totalCount = thisCount + otherCount;
+
+        double diffOfMeans = other.mean - mean;
+        mean = mean + (diffOfMeans * otherCount / totalCount);
+        runningQ = runningQ + other.runningQ + (diffOfMeans * diffOfMeans * thisCount * otherCount / totalCount);
+
+        if (other.min < min) {
+            min = other.min;
+        }
+        if (other.max > max) {
+            max = other.max;
+        }
+        count += other.count;
+        estimatedCount += other.estimatedCount;
+
         return this;
     }
 
+    /**
+     * Gets the elapsed time at the specified percentile, for example getPercentile(99.0) returns the time that 99% of
+     * the samples were less than or equal to. Percentiles are only available if this TimingStatistics was created
+     * with a histogram. The returned value is accurate to the precision of the histogram, and is always between the
+     * min and max values.
+     *
+     * @param percentile The percentile, from 0.0 to 100.0
+     * @return The elapsed time at the specified percentile, or 0 if there are no samples.
+     * @throws IllegalStateException Thrown if percentiles are not being tracked.
+     */
+    public long getPercentile(double percentile) {
+        if (histogram == null) {
+            throw new IllegalStateException("Percentiles are not tracked by this TimingStatistics");
+        }
+        if (count == 0) {
+            return 0L;
+        }
+        return Math.min(Math.max(histogram.getValueAtPercentile(percentile), min), max);
+    }
+
+    /**
+     * Returns whether or not this TimingStatistics tracks percentiles.
+     *
+     * @return true if a histogram is being used to track the distribution of sample times.
+     */
+    public boolean isTrackingPercentiles() {
+        return histogram != null;
+    }
+
     // --- Bean Properties ---
 
     public double getMean() {
@@ -102,10 +218,69 @@ public class TimingStatistics implements Serializable, Cloneable {
         return min;
     }
 
+    /**
+     * Gets the number of calls these statistics are for. If calls were sampled this is the estimated total number of
+     * calls, rounded to the nearest integer, otherwise it is the same as {@link #getSampleCount()}.
+     *
+     * @return The number of calls.
+     */
     public int getCount() {
+        return (int) Math.round(estimatedCount);
+    }
+
+    /**
+     * Gets the estimated number of calls these statistics are for, without rounding. This should be used to calculate
+     * rates, such as transactions per second, to avoid rounding errors when calls were sampled.
+     *
+     * @return The estimated number of calls.
+     */
+    public double getEstimatedCount() {
+        return estimatedCount;
+    }
+
+    /**
+     * Gets the number of sample times that were actually recorded.
+     *
+     * @return The number of sample times.
+     */
+    public int getSampleCount() {
         return count;
     }
 
+    /**
+     * Gets the overall fraction of calls that were timed.
+     *
+     * @return The sample count divided by the estimated count, or 1 if there are no samples.
+     */
+    public double getSampleRate() {
+        return (count == 0) ? 1.0 : count / estimatedCount;
+    }
+
+    public LatencyHistogram getHistogram() {
+        return histogram;
+    }
+
+    // --- Helper Methods ---
+
+    private void mergeHistogram(TimingStatistics other) {
+        if (other.histogram == null) {
+            //the distribution of the other samples is unknown, so percentiles can no longer be calculated
+            histogram = null;
+        } else if (histogram != null) {
+            histogram.merge(other.histogram);
+        } else if (count == 0) {
+            histogram = other.histogram.clone();
+        }
+    }
+
+    private void readObject(ObjectInputStream stream) throws IOException, ClassNotFoundException {
+        stream.defaultReadObject();
+        if (estimatedCount == 0.0 && count > 0) {
+            //instances serialized by older versions have no estimated count because every call was timed
+            estimatedCount = count;
+        }
+    }
+
     // --- Object Methods ---
 
     public String toString() {
@@ -118,7 +293,11 @@ public class TimingStatistics implements Serializable, Cloneable {
 
     public TimingStatistics clone() {
         try {
-            return (TimingStatistics) super.clone();
+            TimingStatistics retVal = (TimingStatistics) super.clone();
+            if (histogram != null) {
+                retVal.histogram = histogram.clone();
+            }
+            return retVal;
         } catch (CloneNotSupportedException cnse) {
             throw new Error("Unexpected CloneNotSupportedException");
         }
@@ -137,6 +316,9 @@ public class TimingStatistics implements Serializable, Cloneable {
         if (count != that.count) {
             return false;
         }
+        if (Double.compare(that.estimatedCount, estimatedCount) != 0) {
+            return false;
+        }
         if (max != that.max) {
             return false;
         }
@@ -149,6 +331,9 @@ public class TimingStatistics implements Serializable, Cloneable {
         if (Double.compare(that.runningQ, runningQ) != 0) {
             return false;
         }
+        if (histogram != null ? !histogram.equals(that.histogram) : that.histogram != null) {
+            return false;
+        }
 
         return true;
     }
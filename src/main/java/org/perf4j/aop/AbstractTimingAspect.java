@@ -25,11 +25,32 @@ import org.perf4j.LoggingStopWatch;
  * be AspectJTimingAspect, but for backwards compatibility reasons it keeps the AbstractTimingAspect name).
  * Subclasses just need to implement the {@link #newStopWatch} method to use their logging framework of choice
  * (e.g. log4j or java.logging) to persist the StopWatch log message.
+ * <p/>
+ * To avoid allocating a join point wrapper and a LoggingStopWatch for every call of a profiled method, each thread
+ * keeps a small stack of reusable call frames, one for each level of nesting of profiled calls. A frame's
+ * LoggingStopWatch is reused, after being restarted, as long as the next profiled method at that nesting level uses
+ * the same logger and level. Calls nested more than {@link #MAX_POOLED_DEPTH} deep are not pooled. Thus
+ * implementations of {@link #newStopWatch} must return StopWatches that can be restarted and that don't retain
+ * references to themselves after they are logged (all of the LoggingStopWatches in Perf4J satisfy this).
  *
  * @author Alex Devine
  */
 @Aspect
 public abstract class AbstractTimingAspect extends AgnosticTimingAspect {
+    /**
+     * The maximum nesting depth of profiled calls on a single thread whose join points and StopWatches are reused.
+     */
+    public static final int MAX_POOLED_DEPTH = 8;
+
+    /**
+     * The reusable call frames of the current thread.
+     */
+    private final ThreadLocal<ProfiledCallStack> profiledCallStack = new ThreadLocal<ProfiledCallStack>() {
+        protected ProfiledCallStack initialValue() {
+            return new ProfiledCallStack();
+        }
+    };
+
     /**
      * This advice is used to add the StopWatch logging statements around method executions that have been tagged
      * with the Profiled annotation.
@@ -41,6 +62,36 @@ public abstract class AbstractTimingAspect extends AgnosticTimingAspect {
      */
     @Around(value = "execution(* *(..)) && @annotation(profiled)", argNames = "pjp,profiled")
     public Object doPerfLogging(final ProceedingJoinPoint pjp, Profiled profiled) throws Throwable {
+        ProfiledCallStack callStack = profiledCallStack.get();
+        ProfiledCall call = callStack.push();
+        if (call != null) {
+            try {
+                call.pjp = pjp;
+                return runProfiledMethod(call, profiled, call.getStopWatch(profiled));
+            } finally {
+                //don't hold on to the join point, which references the method arguments
+                call.pjp = null;
+                callStack.pop();
+            }
+        }
+
+        try {
+            return runUnpooledProfiledMethod(pjp, profiled);
+        } finally {
+            callStack.pop();
+        }
+    }
+
+    /**
+     * Runs the profiled method with a newly allocated join point wrapper and LoggingStopWatch. This is used when
+     * profiled calls are nested too deeply to be pooled.
+     *
+     * @param pjp      The ProceedingJoinPoint encapulates the method around which this aspect advice runs.
+     * @param profiled The profiled annotation that was attached to the method.
+     * @return The return value from the method that was executed.
+     * @throws Throwable Any exceptions thrown by the underlying method.
+     */
+    private Object runUnpooledProfiledMethod(final ProceedingJoinPoint pjp, Profiled profiled) throws Throwable {
         //We just delegate to the super class, wrapping the AspectJ-specific ProceedingJoinPoint as an AbstractJoinPoint
         return runProfiledMethod(
                 new AbstractJoinPoint() {
@@ -53,7 +104,7 @@ public abstract class AbstractTimingAspect extends AgnosticTimingAspect {
                     public String getMethodName() { return pjp.getSignature().getName(); }
                 },
                 profiled,
-                newStopWatch(profiled.logger() + "", profiled.level())
+                newStopWatch(profiled.logger(), profiled.level())
         );
     }
 
@@ -66,4 +117,74 @@ public abstract class AbstractTimingAspect extends AgnosticTimingAspect {
      * @return The new LoggingStopWatch.
      */
     protected abstract LoggingStopWatch newStopWatch(String loggerName, String levelName);
+
+    // --- Support Classes ---
+
+    /**
+     * A reusable AbstractJoinPoint that also caches the LoggingStopWatch used for a single level of nesting of
+     * profiled calls on a single thread.
+     */
+    private class ProfiledCall implements AbstractJoinPoint {
+        ProceedingJoinPoint pjp;
+        private LoggingStopWatch stopWatch;
+        private String loggerName;
+        private String levelName;
+
+        /**
+         * Gets a started LoggingStopWatch for the specified Profiled method, reusing the one from the previous call at
+         * this nesting level if it has the same logger and level.
+         */
+        LoggingStopWatch getStopWatch(Profiled profiled) {
+            String loggerName = profiled.logger();
+            String levelName = profiled.level();
+            if (stopWatch != null && loggerName.equals(this.loggerName) && levelName.equals(this.levelName)) {
+                stopWatch.start();
+            } else {
+                stopWatch = newStopWatch(loggerName, levelName);
+                this.loggerName = loggerName;
+                this.levelName = levelName;
+            }
+            return stopWatch;
+        }
+
+        public Object proceed() throws Throwable { return pjp.proceed(); }
+
+        public Object getExecutingObject() { return pjp.getThis(); }
+
+        public Object[] getParameters() { return pjp.getArgs(); }
+
+        public String getMethodName() { return pjp.getSignature().getName(); }
+    }
+
+    /**
+     * The stack of ProfiledCalls for a single thread. Frames are created lazily, up to MAX_POOLED_DEPTH of them.
+     */
+    private class ProfiledCallStack {
+        private final ProfiledCall[] calls = new ProfiledCall[MAX_POOLED_DEPTH];
+        private int depth = 0;
+
+        /**
+         * Enters a profiled call.
+         *
+         * @return The frame to use for the call, or null if the calls are nested too deeply to be pooled.
+         */
+        ProfiledCall push() {
+            int index = depth++;
+            if (index >= calls.length) {
+                return null;
+            }
+            ProfiledCall retVal = calls[index];
+            if (retVal == null) {
+                retVal = calls[index] = new ProfiledCall();
+            }
+            return retVal;
+        }
+
+        /**
+         * Exits the most recently entered profiled call.
+         */
+        void pop() {
+            depth--;
+        }
+    }
 }
@@ -2,10 +2,9 @@ package org.perf4j.aop;
 
 import org.apache.commons.jexl.Expression;
 import org.apache.commons.jexl.ExpressionFactory;
-import org.apache.commons.jexl.JexlContext;
-import org.apache.commons.jexl.context.HashMapContext;
 import org.perf4j.LoggingStopWatch;
 
+import java.util.IdentityHashMap;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 
@@ -26,6 +25,28 @@ public class AgnosticTimingAspect {
      */
     private Map<String, Expression> jexlExpressionCache = new ConcurrentHashMap<String, Expression>(64, .75F, 16);
 
+    /**
+     * This Map caches the compiled form of the tag and message templates in @Profiled annotations, and, like the
+     * jexlExpressionCache, is limited in practice by the number of unique templates.
+     */
+    private Map<String, CompiledTemplate> compiledTemplateCache =
+            new ConcurrentHashMap<String, CompiledTemplate>(64, .75F, 16);
+
+    /**
+     * The maximum number of Profiled annotations for which descriptors are cached. Annotation instances are cached
+     * per method by the JVM, so this is only reached if something creates Profiled instances on the fly, in which
+     * case descriptors are built on each call instead.
+     */
+    private static final int MAX_CACHED_DESCRIPTORS = 4096;
+
+    /**
+     * This Map caches the precomputed descriptor for each Profiled annotation instance. It is keyed by identity, as
+     * computing annotation hash codes is comparatively expensive, and is replaced (copy-on-write) when a new
+     * annotation is seen, so lookups don't need any locking.
+     */
+    private volatile Map<Profiled, ProfiledDescriptor> profiledDescriptorCache =
+            new IdentityHashMap<Profiled, ProfiledDescriptor>();
+
     /**
      * This method actually executes the profiled method. Your AOP-framework-specific class should delegate to this
      * method to proceed with execution.
@@ -44,8 +65,16 @@ public class AgnosticTimingAspect {
             return joinPoint.proceed();
         }
 
-        stopWatch.setTimeThreshold(profiled.timeThreshold());
-        stopWatch.setNormalAndSlowSuffixesEnabled(profiled.normalAndSlowSuffixesEnabled());
+        ProfiledDescriptor descriptor = getProfiledDescriptor(profiled);
+
+        //if the sample rate is less than 1 this decides whether or not this call is sampled
+        stopWatch.setSampleRate(descriptor.getSampleRate());
+        if (!stopWatch.isSampled()) {
+            return joinPoint.proceed();
+        }
+
+        stopWatch.setTimeThreshold(descriptor.getTimeThreshold());
+        stopWatch.setNormalAndSlowSuffixesEnabled(descriptor.isNormalAndSlowSuffixesEnabled());
 
         Object retVal = null;
         Throwable exceptionThrown = null;
@@ -54,14 +83,8 @@ public class AgnosticTimingAspect {
         } catch (Throwable t) {
             throw exceptionThrown = t;
         } finally {
-            String tag = getStopWatchTag(profiled, joinPoint, retVal, exceptionThrown);
-            String message = getStopWatchMessage(profiled, joinPoint, retVal, exceptionThrown);
-
-            if (profiled.logFailuresSeparately()) {
-                tag = (exceptionThrown == null) ? tag + ".success" : tag + ".failure";
-            }
-
-            stopWatch.stop(tag, message);
+            stopWatch.stopAndRecord(descriptor.getTag(joinPoint, retVal, exceptionThrown),
+                                    descriptor.getMessage(joinPoint, retVal, exceptionThrown));
         }
     }
 
@@ -80,21 +103,7 @@ public class AgnosticTimingAspect {
                                      AbstractJoinPoint joinPoint,
                                      Object returnValue,
                                      Throwable exceptionThrown) {
-        String tag;
-        if (Profiled.DEFAULT_TAG_NAME.equals(profiled.tag())) {
-            // if the tag name is not explicitly set on the Profiled annotation,
-            // use the name of the method being annotated.
-            tag = joinPoint.getMethodName();
-        } else if (profiled.el() && profiled.tag().indexOf("{") >= 0) {
-            tag = evaluateJexl(profiled.tag(),
-                               joinPoint.getParameters(),
-                               joinPoint.getExecutingObject(),
-                               returnValue,
-                               exceptionThrown);
-        } else {
-            tag = profiled.tag();
-        }
-        return tag;
+        return getProfiledDescriptor(profiled).getTagWithoutSuffix(joinPoint, returnValue, exceptionThrown);
     }
 
 
@@ -113,25 +122,13 @@ public class AgnosticTimingAspect {
                                          AbstractJoinPoint joinPoint,
                                          Object returnValue,
                                          Throwable exceptionThrown) {
-        String message;
-        if (profiled.el() && profiled.message().indexOf("{") >= 0) {
-            message = evaluateJexl(profiled.message(),
-                                   joinPoint.getParameters(),
-                                   joinPoint.getExecutingObject(),
-                                   returnValue,
-                                   exceptionThrown);
-            if ("".equals(message)) {
-                message = null;
-            }
-        } else {
-            message = "".equals(profiled.message()) ? null : profiled.message();
-        }
-        return message;
+        return getProfiledDescriptor(profiled).getMessage(joinPoint, returnValue, exceptionThrown);
     }
 
     /**
      * Helper method is used to parse out {expressionLanguage} elements from the text and evaluate the strings using
-     * JEXL.
+     * JEXL. The parsed text is cached as a {@link CompiledTemplate}, and simple references such as <tt>$0</tt> or
+     * <tt>$this.name</tt> are evaluated without JEXL.
      *
      * @param text            The text to be parsed.
      * @param args            The args that were passed to the method to be profiled.
@@ -144,53 +141,51 @@ public class AgnosticTimingAspect {
      * @return The evaluated string.
      * @see Profiled#el()
      */
-    @SuppressWarnings("unchecked")
-	protected String evaluateJexl(String text,
+    protected String evaluateJexl(String text,
                                   Object[] args,
                                   Object annotatedObject,
                                   Object returnValue,
                                   Throwable exceptionThrown) {
-        StringBuilder retVal = new StringBuilder(text.length());
-
-        //create a JexlContext to be used in all evaluations
-        JexlContext jexlContext = new HashMapContext();
-        for (int i = 0; i < args.length; i++) {
-            jexlContext.getVars().put("$" + i, args[i]);
-        }
-        jexlContext.getVars().put("$this", annotatedObject);
-        jexlContext.getVars().put("$return", returnValue);
-        jexlContext.getVars().put("$exception", exceptionThrown);
-
-        // look for {expression} in the passed in text
-        int bracketIndex;
-        int lastCloseBracketIndex = -1;
-        while ((bracketIndex = text.indexOf('{', lastCloseBracketIndex + 1)) >= 0) {
-            retVal.append(text.substring(lastCloseBracketIndex + 1, bracketIndex));
-
-            lastCloseBracketIndex = text.indexOf('}', bracketIndex + 1);
-            if (lastCloseBracketIndex == -1) {
-                //if there wasn't a closing bracket index just go to the end of the string
-                lastCloseBracketIndex = text.length();
-            }
+        return getCompiledTemplate(text).evaluate(args, annotatedObject, returnValue, exceptionThrown);
+    }
 
-            String expressionText = text.substring(bracketIndex + 1, lastCloseBracketIndex);
-            if (expressionText.length() > 0) {
-                try {
-                    Object result = getJexlExpression(expressionText).evaluate(jexlContext);
-                    retVal.append(result);
-                } catch (Exception e) {
-                    //we don't want to propagate exceptions up
-                    retVal.append("_EL_ERROR_");
+    /**
+     * Helper method gets the precomputed descriptor for the specified Profiled annotation, creating and caching it
+     * the first time the annotation is seen.
+     *
+     * @param profiled The profiled annotation that was attached to the method.
+     * @return The descriptor for the annotation
+     */
+    ProfiledDescriptor getProfiledDescriptor(Profiled profiled) {
+        ProfiledDescriptor retVal = profiledDescriptorCache.get(profiled);
+        if (retVal == null) {
+            retVal = new ProfiledDescriptor(profiled, this);
+            synchronized (this) {
+                Map<Profiled, ProfiledDescriptor> cache = profiledDescriptorCache;
+                if (!cache.containsKey(profiled) && cache.size() < MAX_CACHED_DESCRIPTORS) {
+                    cache = new IdentityHashMap<Profiled, ProfiledDescriptor>(cache);
+                    cache.put(profiled, retVal);
+                    profiledDescriptorCache = cache;
                 }
             }
         }
+        return retVal;
+    }
 
-        //append the final part
-        if (lastCloseBracketIndex < text.length()) {
-            retVal.append(text.substring(lastCloseBracketIndex + 1, text.length()));
+    /**
+     * Helper method gets the compiled form of the specified tag or message template, either from the cache or by
+     * parsing the template.
+     *
+     * @param text The template text
+     * @return The compiled template
+     */
+    CompiledTemplate getCompiledTemplate(String text) {
+        CompiledTemplate retVal = compiledTemplateCache.get(text);
+        if (retVal == null) {
+            //as with JEXL expressions, compiling the same template in 2 threads is harmless
+            compiledTemplateCache.put(text, retVal = new CompiledTemplate(text, this));
         }
-
-        return retVal.toString();
+        return retVal;
     }
 
     /**
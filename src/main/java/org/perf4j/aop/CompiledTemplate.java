@@ -0,0 +1,164 @@
+/* Copyright (c) 2008-2009 HomeAway, Inc.
+ * All rights reserved.  http://www.perf4j.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.perf4j.aop;
+
+import org.apache.commons.jexl.Expression;
+import org.apache.commons.jexl.JexlContext;
+import org.apache.commons.jexl.context.HashMapContext;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A CompiledTemplate is the parsed form of a {@link Profiled} tag or message containing {expression} elements. The
+ * text is parsed once into literal parts and expression parts. Expressions that are simple references, such as
+ * <tt>$0</tt>, <tt>$this.name</tt> or <tt>$return.size()</tt>, are evaluated directly using cached reflection (see
+ * {@link SimpleReference}); all other expressions are compiled once and evaluated using JEXL. The result of evaluating
+ * a template is always the same as that of {@link AgnosticTimingAspect#evaluateJexl}.
+ * <p/>
+ * CompiledTemplates are immutable and may be shared by all threads.
+ */
+class CompiledTemplate {
+    /**
+     * Marks a part whose JEXL expression failed to compile.
+     */
+    private static final Object EXPRESSION_ERROR = new Object();
+
+    /**
+     * The parts of this template: literal Strings, SimpleReferences, JEXL Expressions, or EXPRESSION_ERROR.
+     */
+    private final Object[] parts;
+
+    /**
+     * Parses the {expression} elements out of the specified text.
+     *
+     * @param text   The tag or message text
+     * @param aspect The aspect used to compile JEXL expressions
+     */
+    CompiledTemplate(String text, AgnosticTimingAspect aspect) {
+        List<Object> parts = new ArrayList<Object>();
+
+        // look for {expression} in the passed in text
+        int bracketIndex;
+        int lastCloseBracketIndex = -1;
+        while ((bracketIndex = text.indexOf('{', lastCloseBracketIndex + 1)) >= 0) {
+            addLiteral(parts, text.substring(lastCloseBracketIndex + 1, bracketIndex));
+
+            lastCloseBracketIndex = text.indexOf('}', bracketIndex + 1);
+            if (lastCloseBracketIndex == -1) {
+                //if there wasn't a closing bracket index just go to the end of the string
+                lastCloseBracketIndex = text.length();
+            }
+
+            String expressionText = text.substring(bracketIndex + 1, lastCloseBracketIndex);
+            if (expressionText.length() > 0) {
+                Object expression;
+                try {
+                    expression = aspect.getJexlExpression(expressionText);
+                } catch (Exception e) {
+                    expression = EXPRESSION_ERROR;
+                }
+                //simple references still need the JEXL expression for values reflection can't resolve
+                SimpleReference reference = (expression == EXPRESSION_ERROR)
+                                            ? null : SimpleReference.parse(expressionText, (Expression) expression);
+                parts.add((reference == null) ? expression : reference);
+            }
+        }
+
+        //add the final part
+        if (lastCloseBracketIndex < text.length()) {
+            addLiteral(parts, text.substring(lastCloseBracketIndex + 1, text.length()));
+        }
+
+        this.parts = parts.toArray();
+    }
+
+    /**
+     * Evaluates this template.
+     *
+     * @param args            The args that were passed to the method to be profiled.
+     * @param annotatedObject The value of the object whose method was profiled. Will be null if a class method was
+     *                        profiled.
+     * @param returnValue     The value returned from the execution of the profiled method, or null if the method
+     *                        returned void or an exception was thrown.
+     * @param exceptionThrown The exception thrown, if any, by the profiled method. Will be null if the method
+     *                        completed normally.
+     * @return The evaluated string.
+     */
+    public String evaluate(Object[] args, Object annotatedObject, Object returnValue, Throwable exceptionThrown) {
+        StringBuilder retVal = new StringBuilder();
+        //the JexlContext is only created if a part actually needs JEXL
+        JexlContext jexlContext = null;
+
+        for (Object part : parts) {
+            if (part instanceof String) {
+                retVal.append((String) part);
+                continue;
+            } else if (part == EXPRESSION_ERROR) {
+                retVal.append("_EL_ERROR_");
+                continue;
+            }
+
+            try {
+                Object result = SimpleReference.UNRESOLVED;
+                Expression expression;
+                if (part instanceof SimpleReference) {
+                    SimpleReference reference = (SimpleReference) part;
+                    result = reference.evaluate(args, annotatedObject, returnValue, exceptionThrown);
+                    expression = reference.getExpression();
+                } else {
+                    expression = (Expression) part;
+                }
+
+                if (result == SimpleReference.UNRESOLVED) {
+                    if (jexlContext == null) {
+                        jexlContext = createJexlContext(args, annotatedObject, returnValue, exceptionThrown);
+                    }
+                    result = expression.evaluate(jexlContext);
+                }
+                retVal.append(result);
+            } catch (Exception e) {
+                //we don't want to propagate exceptions up
+                retVal.append("_EL_ERROR_");
+            }
+        }
+
+        return retVal.toString();
+    }
+
+    // --- Helper Methods ---
+
+    private static void addLiteral(List<Object> parts, String literal) {
+        if (literal.length() > 0) {
+            parts.add(literal);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static JexlContext createJexlContext(Object[] args,
+                                                 Object annotatedObject,
+                                                 Object returnValue,
+                                                 Throwable exceptionThrown) {
+        JexlContext jexlContext = new HashMapContext();
+        for (int i = 0; i < args.length; i++) {
+            jexlContext.getVars().put("$" + i, args[i]);
+        }
+        jexlContext.getVars().put("$this", annotatedObject);
+        jexlContext.getVars().put("$return", returnValue);
+        jexlContext.getVars().put("$exception", exceptionThrown);
+        return jexlContext;
+    }
+}
@@ -31,6 +31,8 @@ public class DefaultProfiled implements Profiled {
     public long timeThreshold() { return 0; }
     
     public boolean normalAndSlowSuffixesEnabled() { return false; }
+
+    public double sampleRate() { return 1.0; }
     
     public Class<? extends Annotation> annotationType() { return getClass(); }
 }
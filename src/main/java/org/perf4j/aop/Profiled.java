@@ -128,4 +128,16 @@ public @interface Profiled {
      * @return
      */
     boolean normalAndSlowSuffixesEnabled() default false;
+
+    /**
+     * The fraction of calls to the annotated method that are timed and logged, which must be greater than 0 and at
+     * most 1. For methods that are called very frequently, timing a random sample of the calls is usually enough for
+     * accurate statistics and removes most of the timing overhead. The sample rate is recorded in the logged
+     * StopWatches, so the call counts and TPS in the aggregated statistics are scaled back up accordingly. The
+     * sampling decision is made using a thread-local random number generator, so it costs a few nanoseconds and
+     * causes no contention.
+     *
+     * @return The sample rate, defaults to 1.0, meaning every call is timed.
+     */
+    double sampleRate() default 1.0;
 }
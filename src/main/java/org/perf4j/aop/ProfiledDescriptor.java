@@ -0,0 +1,165 @@
+/* Copyright (c) 2008-2009 HomeAway, Inc.
+ * All rights reserved.  http://www.perf4j.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.perf4j.aop;
+
+/**
+ * A ProfiledDescriptor holds everything about a {@link Profiled} annotation that {@link AgnosticTimingAspect} needs on
+ * each call of a profiled method, computed once when the annotation is first seen: the annotation attribute values,
+ * whether the tag and message are constants or templates, the constant tags with the success and failure suffixes
+ * already appended, and {@link CompiledTemplate}s for tags and messages containing expressions.
+ * <p/>
+ * Instances are immutable and are shared by all threads.
+ */
+class ProfiledDescriptor {
+    private final long timeThreshold;
+    private final boolean normalAndSlowSuffixesEnabled;
+    private final boolean logFailuresSeparately;
+    /**
+     * The sample rate, which is 1 if the annotation's sample rate is not valid.
+     */
+    private final double sampleRate;
+    /**
+     * True if the method name is used as the tag.
+     */
+    private final boolean useMethodNameAsTag;
+    /**
+     * The constant tag, or null if the tag is the method name or a template.
+     */
+    private final String tag;
+    private final String successTag;
+    private final String failureTag;
+    /**
+     * The tag template, or null if the tag is not a template.
+     */
+    private final CompiledTemplate tagTemplate;
+    /**
+     * The constant message, which may be null, only used if messageTemplate is null.
+     */
+    private final String message;
+    /**
+     * The message template, or null if the message is not a template.
+     */
+    private final CompiledTemplate messageTemplate;
+
+    /**
+     * Creates a ProfiledDescriptor for the specified annotation.
+     *
+     * @param profiled The Profiled annotation
+     * @param aspect   The aspect used to compile JEXL expressions
+     */
+    ProfiledDescriptor(Profiled profiled, AgnosticTimingAspect aspect) {
+        timeThreshold = profiled.timeThreshold();
+        normalAndSlowSuffixesEnabled = profiled.normalAndSlowSuffixesEnabled();
+        logFailuresSeparately = profiled.logFailuresSeparately();
+        //an invalid sample rate shouldn't break the profiled method, so just time every call
+        sampleRate = (profiled.sampleRate() > 0.0 && profiled.sampleRate() < 1.0) ? profiled.sampleRate() : 1.0;
+
+        String tagText = profiled.tag();
+        useMethodNameAsTag = Profiled.DEFAULT_TAG_NAME.equals(tagText);
+        if (useMethodNameAsTag) {
+            tagTemplate = null;
+            tag = null;
+        } else if (profiled.el() && tagText.indexOf("{") >= 0) {
+            tagTemplate = aspect.getCompiledTemplate(tagText);
+            tag = null;
+        } else {
+            tagTemplate = null;
+            tag = tagText;
+        }
+        successTag = (tag == null) ? null : tag + ".success";
+        failureTag = (tag == null) ? null : tag + ".failure";
+
+        String messageText = profiled.message();
+        if (profiled.el() && messageText.indexOf("{") >= 0) {
+            messageTemplate = aspect.getCompiledTemplate(messageText);
+            message = null;
+        } else {
+            messageTemplate = null;
+            message = "".equals(messageText) ? null : messageText;
+        }
+    }
+
+    public long getTimeThreshold() {
+        return timeThreshold;
+    }
+
+    public boolean isNormalAndSlowSuffixesEnabled() {
+        return normalAndSlowSuffixesEnabled;
+    }
+
+    public double getSampleRate() {
+        return sampleRate;
+    }
+
+    /**
+     * Gets the tag to log, including the success or failure suffix if failures are logged separately.
+     *
+     * @param joinPoint       The join point of the profiled method
+     * @param returnValue     The value returned by the profiled method, may be null
+     * @param exceptionThrown The exception thrown by the profiled method, null if it completed normally
+     * @return The tag
+     */
+    public String getTag(AbstractJoinPoint joinPoint, Object returnValue, Throwable exceptionThrown) {
+        if (tag != null && logFailuresSeparately) {
+            return (exceptionThrown == null) ? successTag : failureTag;
+        }
+        String retVal = getTagWithoutSuffix(joinPoint, returnValue, exceptionThrown);
+        if (logFailuresSeparately) {
+            retVal = (exceptionThrown == null) ? retVal + ".success" : retVal + ".failure";
+        }
+        return retVal;
+    }
+
+    /**
+     * Gets the tag from the Profiled annotation, which is evaluated if it is a template.
+     *
+     * @param joinPoint       The join point of the profiled method
+     * @param returnValue     The value returned by the profiled method, may be null
+     * @param exceptionThrown The exception thrown by the profiled method, null if it completed normally
+     * @return The tag, without any success or failure suffix
+     */
+    public String getTagWithoutSuffix(AbstractJoinPoint joinPoint, Object returnValue, Throwable exceptionThrown) {
+        if (tag != null) {
+            return tag;
+        } else if (useMethodNameAsTag) {
+            return joinPoint.getMethodName();
+        } else {
+            return tagTemplate.evaluate(joinPoint.getParameters(),
+                                        joinPoint.getExecutingObject(),
+                                        returnValue,
+                                        exceptionThrown);
+        }
+    }
+
+    /**
+     * Gets the message to log, which is evaluated if it is a template.
+     *
+     * @param joinPoint       The join point of the profiled method
+     * @param returnValue     The value returned by the profiled method, may be null
+     * @param exceptionThrown The exception thrown by the profiled method, null if it completed normally
+     * @return The message, or null if there is no message
+     */
+    public String getMessage(AbstractJoinPoint joinPoint, Object returnValue, Throwable exceptionThrown) {
+        if (messageTemplate == null) {
+            return message;
+        }
+        String retVal = messageTemplate.evaluate(joinPoint.getParameters(),
+                                                 joinPoint.getExecutingObject(),
+                                                 returnValue,
+                                                 exceptionThrown);
+        return "".equals(retVal) ? null : retVal;
+    }
+}
@@ -0,0 +1,264 @@
+/* Copyright (c) 2008-2009 HomeAway, Inc.
+ * All rights reserved.  http://www.perf4j.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.perf4j.aop;
+
+import org.apache.commons.jexl.Expression;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * A SimpleReference is an expression in a {@link Profiled} tag or message that just refers to one of the variables
+ * available to the expression, optionally followed by a chain of property reads or no-argument method calls, such as
+ * <tt>$0</tt>, <tt>$this.name</tt> or <tt>$return.size()</tt>. These are by far the most common expressions, and
+ * they are evaluated here using reflection, with the Method resolved for each step cached by the class of the object
+ * it was last called on, instead of building a JexlContext and running the JEXL interpreter.
+ * <p/>
+ * Properties are resolved the same way JEXL resolves them: first a <tt>getXxx()</tt> method, then a <tt>get(key)</tt>
+ * method (e.g. on Maps), then a boolean <tt>isXxx()</tt> method. Whenever a value can't be resolved this way (for
+ * example if there is no public method to call) the {@link #UNRESOLVED} value is returned, and the caller should
+ * evaluate the JEXL expression instead.
+ */
+class SimpleReference {
+    /**
+     * Returned by evaluate if the reference could not be resolved using reflection.
+     */
+    public static final Object UNRESOLVED = new Object();
+
+    private static final Pattern REFERENCE_PATTERN =
+            Pattern.compile("\\s*\\$(\\d+|this|return|exception)((?:\\s*\\.\\s*[A-Za-z_]\\w*(?:\\s*\\(\\s*\\))?)*)\\s*");
+    private static final Pattern STEP_PATTERN = Pattern.compile("\\.\\s*([A-Za-z_]\\w*)(\\s*\\(\\s*\\))?");
+
+    private static final int THIS = -1;
+    private static final int RETURN = -2;
+    private static final int EXCEPTION = -3;
+    private static final Object[] NO_ARGS = new Object[0];
+
+    /**
+     * The index of the method argument this reference starts from, or one of THIS, RETURN or EXCEPTION.
+     */
+    private final int variable;
+    private final Step[] steps;
+    private final Expression expression;
+
+    private SimpleReference(int variable, Step[] steps, Expression expression) {
+        this.variable = variable;
+        this.steps = steps;
+        this.expression = expression;
+    }
+
+    /**
+     * Parses the specified expression text.
+     *
+     * @param expressionText The text of the expression, without the surrounding braces.
+     * @param expression     The compiled JEXL expression for the text, used when reflection can't resolve a value.
+     * @return The SimpleReference, or null if the expression is not a simple reference.
+     */
+    public static SimpleReference parse(String expressionText, Expression expression) {
+        Matcher matcher = REFERENCE_PATTERN.matcher(expressionText);
+        if (!matcher.matches()) {
+            return null;
+        }
+
+        int variable;
+        String variableName = matcher.group(1);
+        if ("this".equals(variableName)) {
+            variable = THIS;
+        } else if ("return".equals(variableName)) {
+            variable = RETURN;
+        } else if ("exception".equals(variableName)) {
+            variable = EXCEPTION;
+        } else {
+            try {
+                variable = Integer.parseInt(variableName);
+            } catch (NumberFormatException nfe) {
+                return null;
+            }
+        }
+
+        List<Step> steps = new ArrayList<Step>();
+        Matcher stepMatcher = STEP_PATTERN.matcher(matcher.group(2));
+        while (stepMatcher.find()) {
+            steps.add(new Step(stepMatcher.group(1), stepMatcher.group(2) != null));
+        }
+
+        return new SimpleReference(variable, steps.toArray(new Step[steps.size()]), expression);
+    }
+
+    /**
+     * Gets the JEXL expression to evaluate if this reference can't be resolved using reflection.
+     *
+     * @return The compiled JEXL expression.
+     */
+    public Expression getExpression() {
+        return expression;
+    }
+
+    /**
+     * Evaluates this reference.
+     *
+     * @param args            The args that were passed to the method to be profiled.
+     * @param annotatedObject The value of the object whose method was profiled.
+     * @param returnValue     The value returned from the execution of the profiled method.
+     * @param exceptionThrown The exception thrown, if any, by the profiled method.
+     * @return The value of the reference, which may be null, or UNRESOLVED if it could not be evaluated using
+     *         reflection.
+     * @throws Exception Thrown if a called method throws an exception.
+     */
+    public Object evaluate(Object[] args, Object annotatedObject, Object returnValue, Throwable exceptionThrown)
+            throws Exception {
+        Object retVal;
+        switch (variable) {
+            case THIS:
+                retVal = annotatedObject;
+                break;
+            case RETURN:
+                retVal = returnValue;
+                break;
+            case EXCEPTION:
+                retVal = exceptionThrown;
+                break;
+            default:
+                retVal = (variable < args.length) ? args[variable] : null;
+        }
+
+        for (int i = 0; i < steps.length && retVal != null && retVal != UNRESOLVED; i++) {
+            retVal = steps[i].evaluate(retVal);
+        }
+
+        return retVal;
+    }
+
+    /**
+     * Finds a public method that can be called through reflection. If the class is not public, the method is looked
+     * up on its public superclasses and interfaces instead.
+     */
+    static Method findPublicMethod(Class<?> type, String name, Class<?>... parameterTypes) {
+        if (Modifier.isPublic(type.getModifiers())) {
+            try {
+                Method method = type.getMethod(name, parameterTypes);
+                if (Modifier.isPublic(method.getDeclaringClass().getModifiers())) {
+                    return method;
+                }
+            } catch (NoSuchMethodException nsme) {
+                return null;
+            }
+        }
+
+        for (Class<?> anInterface : type.getInterfaces()) {
+            Method method = findPublicMethod(anInterface, name, parameterTypes);
+            if (method != null) {
+                return method;
+            }
+        }
+
+        return (type.getSuperclass() == null) ? null : findPublicMethod(type.getSuperclass(), name, parameterTypes);
+    }
+
+    /**
+     * A single property read or method call in the reference.
+     */
+    private static class Step {
+        private final String name;
+        private final boolean methodCall;
+        /**
+         * The accessor resolved for the class of the last object this step was evaluated on. Accessors are
+         * immutable, so this doesn't need any locking.
+         */
+        private volatile Accessor accessor;
+
+        public Step(String name, boolean methodCall) {
+            this.name = name;
+            this.methodCall = methodCall;
+        }
+
+        public Object evaluate(Object value) throws Exception {
+            Accessor accessor = this.accessor;
+            if (accessor == null || accessor.type != value.getClass()) {
+                this.accessor = accessor = resolve(value.getClass());
+            }
+
+            if (accessor.method == null) {
+                return UNRESOLVED;
+            }
+
+            try {
+                return accessor.method.invoke(value, accessor.args);
+            } catch (IllegalAccessException iae) {
+                return UNRESOLVED;
+            } catch (InvocationTargetException ite) {
+                Throwable cause = ite.getCause();
+                throw (cause instanceof Exception) ? (Exception) cause : ite;
+            }
+        }
+
+        private Accessor resolve(Class<?> type) {
+            if (methodCall) {
+                return new Accessor(type, findPublicMethod(type, name), NO_ARGS);
+            }
+
+            String capitalizedName = Character.toUpperCase(name.charAt(0)) + name.substring(1);
+
+            Method method = findPublicMethod(type, "get" + name);
+            if (method == null) {
+                method = findPublicMethod(type, "get" + capitalizedName);
+            }
+            if (method != null) {
+                return new Accessor(type, method, NO_ARGS);
+            }
+
+            method = findPublicMethod(type, "get", Object.class);
+            if (method == null) {
+                method = findPublicMethod(type, "get", String.class);
+            }
+            if (method != null) {
+                return new Accessor(type, method, new Object[]{name});
+            }
+
+            method = findPublicMethod(type, "is" + name);
+            if (method == null || method.getReturnType() != boolean.class) {
+                method = findPublicMethod(type, "is" + capitalizedName);
+            }
+            if (method != null && method.getReturnType() != boolean.class) {
+                method = null;
+            }
+            return new Accessor(type, method, NO_ARGS);
+        }
+    }
+
+    /**
+     * The method to call to evaluate a step on objects of a particular class.
+     */
+    private static class Accessor {
+        final Class<?> type;
+        /**
+         * The method to call, or null if the step could not be resolved for the type.
+         */
+        final Method method;
+        final Object[] args;
+
+        Accessor(Class<?> type, Method method, Object[] args) {
+            this.type = type;
+            this.method = method;
+            this.args = args;
+        }
+    }
+}
@@ -17,9 +17,11 @@ package org.perf4j.chart;
 
 import org.perf4j.GroupedTimingStatistics;
 import org.perf4j.TimingStatistics;
+import org.perf4j.helpers.MiscUtils;
 import org.perf4j.helpers.StatsValueRetriever;
 
 import java.util.*;
+import java.util.concurrent.TimeUnit;
 import java.net.URLEncoder;
 import java.io.UnsupportedEncodingException;
 import java.text.DecimalFormat;
@@ -215,7 +217,7 @@ public class GoogleChartGenerator implements StatisticsChartGenerator {
         retVal.append("cht=lxy");
 
         //set the size and title
-        retVal.append("&chtt=").append(encodeUrl(valueRetriever.getValueName()));
+        retVal.append("&chtt=").append(encodeUrl(getChartTitle()));
         retVal.append("&chs=").append(width).append("x").append(height);
 
         //specify the axes that will have labels
@@ -229,6 +231,23 @@ public class GoogleChartGenerator implements StatisticsChartGenerator {
 
     // --- helper methods ---
 
+    /**
+     * Helper method gets the chart title, which is the name of the value charted. Elapsed time values are labeled
+     * with their time unit if the data isn't in the default of milliseconds, e.g. "Mean (us)".
+     *
+     * @return the chart title
+     */
+    protected String getChartTitle() {
+        String retVal = valueRetriever.getValueName();
+        if (valueRetriever.isElapsedTimeValue() && !data.isEmpty()) {
+            TimeUnit timeUnit = data.getLast().getTimeUnit();
+            if (timeUnit != TimeUnit.MILLISECONDS) {
+                retVal += " (" + MiscUtils.getTimeUnitAbbreviation(timeUnit) + ")";
+            }
+        }
+        return retVal;
+    }
+
     /**
      * Helper method takes the list of data values and converts them to a String suitable for appending to a Google
      * Chart URL.
@@ -0,0 +1,769 @@
+/* Copyright (c) 2008-2009 HomeAway, Inc.
+ * All rights reserved.  http://www.perf4j.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.perf4j.chart;
+
+import org.perf4j.GroupedTimingStatistics;
+import org.perf4j.TimingStatistics;
+import org.perf4j.helpers.MiscUtils;
+import org.perf4j.helpers.StatsValueRetriever;
+
+import javax.imageio.ImageIO;
+import java.awt.*;
+import java.awt.geom.GeneralPath;
+import java.awt.geom.Line2D;
+import java.awt.geom.Rectangle2D;
+import java.awt.image.BufferedImage;
+import java.io.*;
+import java.text.DecimalFormat;
+import java.text.DecimalFormatSymbols;
+import java.text.SimpleDateFormat;
+import java.util.*;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * This implementation of StatisticsChartGenerator renders line charts itself, as SVG or as PNG images, instead of
+ * relying on an external charting service like the {@link GoogleChartGenerator} does. This makes it usable on
+ * networks without internet access, and since no URL length limit applies it can display much larger charts with
+ * many more data series. For elapsed time values (e.g. Mean or P99) each series is also drawn with a translucent band
+ * covering the min and max values of each time slice.
+ * <p/>
+ * The chart can be written directly to an OutputStream with the <tt>writeChart</tt>, <tt>writeSvg</tt> or
+ * <tt>writePng</tt> methods - the {@link org.perf4j.servlet.AbstractGraphingServlet} does this to serve the images
+ * itself. The <tt>getChartUrl</tt> method returns a data: URL with the image embedded in it.
+ */
+public class LocalChartGenerator implements StatisticsChartGenerator {
+    /**
+     * The format of charts rendered as Scalable Vector Graphics.
+     */
+    public static final String SVG_FORMAT = "svg";
+
+    /**
+     * The format of charts rendered as Portable Network Graphics images.
+     */
+    public static final String PNG_FORMAT = "png";
+
+    /**
+     * The default chart width is 750 pixels.
+     */
+    public static final int DEFAULT_CHART_WIDTH = GoogleChartGenerator.DEFAULT_CHART_WIDTH;
+
+    /**
+     * The default chart height is 400 pixels.
+     */
+    public static final int DEFAULT_CHART_HEIGHT = GoogleChartGenerator.DEFAULT_CHART_HEIGHT;
+
+    private static final int LEFT_MARGIN = 60;
+    private static final int RIGHT_MARGIN = 160;
+    private static final int TOP_MARGIN = 40;
+    private static final int BOTTOM_MARGIN = 50;
+    private static final int FONT_SIZE = 11;
+    private static final int TITLE_FONT_SIZE = 14;
+    private static final int LEGEND_LINE_HEIGHT = 14;
+    private static final float BAND_OPACITY = 0.15F;
+    private static final Color GRID_COLOR = new Color(0xdddddd);
+    private static final char[] BASE64_CHARS =
+            "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/".toCharArray();
+
+    private StatsValueRetriever valueRetriever;
+    private String format;
+    private LinkedList<GroupedTimingStatistics> data = new LinkedList<GroupedTimingStatistics>();
+    private int width = DEFAULT_CHART_WIDTH;
+    private int height = DEFAULT_CHART_HEIGHT;
+    private int maxDataPoints = DEFAULT_MAX_DATA_POINTS;
+    private Set<String> enabledTags = null;
+    private boolean minMaxBandsEnabled = true;
+
+    // --- Constructors ---
+
+    /**
+     * Default constructor creates an SVG chart that displays mean execution values.
+     */
+    public LocalChartGenerator() {
+        this(StatsValueRetriever.MEAN_VALUE_RETRIEVER, SVG_FORMAT);
+    }
+
+    /**
+     * Creates an SVG chart that uses the specified StatsValueRetriever to determine which values from the
+     * TimingStatistic object to display.
+     *
+     * @param valueRetriever Determines which value (such as mean/min/max/etc) from the TimingStatistic to display on
+     *                       the chart
+     */
+    public LocalChartGenerator(StatsValueRetriever valueRetriever) {
+        this(valueRetriever, SVG_FORMAT);
+    }
+
+    /**
+     * Creates a chart that uses the specified StatsValueRetriever to determine which values from the
+     * TimingStatistic object to display, rendered in the specified format.
+     *
+     * @param valueRetriever Determines which value (such as mean/min/max/etc) from the TimingStatistic to display on
+     *                       the chart
+     * @param format         The image format, either SVG_FORMAT or PNG_FORMAT
+     */
+    public LocalChartGenerator(StatsValueRetriever valueRetriever, String format) {
+        this.valueRetriever = valueRetriever;
+        setFormat(format);
+    }
+
+    // --- Bean properties ---
+
+    /**
+     * Gets the format of the rendered charts.
+     *
+     * @return The image format, either "svg" or "png".
+     */
+    public String getFormat() {
+        return format;
+    }
+
+    /**
+     * Sets the format of the charts returned by <tt>getChartUrl</tt> and written by <tt>writeChart</tt>.
+     *
+     * @param format The image format, either "svg" or "png" (case insensitive).
+     */
+    public void setFormat(String format) {
+        if (SVG_FORMAT.equalsIgnoreCase(format)) {
+            this.format = SVG_FORMAT;
+        } else if (PNG_FORMAT.equalsIgnoreCase(format)) {
+            this.format = PNG_FORMAT;
+        } else {
+            throw new IllegalArgumentException("Unknown chart format: " + format);
+        }
+    }
+
+    /**
+     * Gets the MIME type of the charts written by <tt>writeChart</tt>.
+     *
+     * @return "image/svg+xml" or "image/png".
+     */
+    public String getContentType() {
+        return SVG_FORMAT.equals(format) ? "image/svg+xml" : "image/png";
+    }
+
+    /**
+     * Gets the width of the chart that will be displayed
+     *
+     * @return The width of the chart in pixels, defaults to 750.
+     */
+    public int getWidth() {
+        return width;
+    }
+
+    /**
+     * Sets the width of the chart in pixels.
+     *
+     * @param width the width of the chart in pixels.
+     */
+    public void setWidth(int width) {
+        this.width = width;
+    }
+
+    /**
+     * Gets the height of the chart that will be displayed
+     *
+     * @return The height of the chart in pixels, defaults to 400.
+     */
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * Sets the height of the chart in pixels.
+     *
+     * @param height the height of the chart in pixels.
+     */
+    public void setHeight(int height) {
+        this.height = height;
+    }
+
+    /**
+     * Gets the set of tag names for which values will be displayed on the chart. Each tag is represented as a
+     * separate series on the chart.
+     *
+     * @return The set of enabled tag names, or null if ALL tags found in the GroupedTimingStatistics data will be
+     * displayed.
+     */
+    public Set<String> getEnabledTags() {
+        return enabledTags;
+    }
+
+    /**
+     * Sets the set of tag names for which values will be displayed on the chart.
+     *
+     * @param enabledTags The set of enabled tag names. If this method is not called, or if enabledTags is null,
+     *                    then ALL tags from the GroupedTimingStatistics data will be displayed on the chart.
+     */
+    public void setEnabledTags(Set<String> enabledTags) {
+        this.enabledTags = enabledTags;
+    }
+
+    /**
+     * Gets the maximum number of data points to display on a chart. If <tt>appendData</tt> is called more than
+     * this number of times, then only the last maxDataPoints data items will be shown in any generated charts.
+     *
+     * @return the maximum number of data points that will be displayed
+     */
+    public int getMaxDataPoints() {
+        return maxDataPoints;
+    }
+
+    /**
+     * Sets the maximum number of data points to display on a chart.
+     *
+     * @param maxDataPoints The maximum number of data points.
+     */
+    public void setMaxDataPoints(int maxDataPoints) {
+        this.maxDataPoints = maxDataPoints;
+    }
+
+    /**
+     * Gets whether the min/max band is drawn around each series. Bands are only drawn for elapsed time values.
+     *
+     * @return true if min/max bands are drawn, the default.
+     */
+    public boolean isMinMaxBandsEnabled() {
+        return minMaxBandsEnabled;
+    }
+
+    /**
+     * Sets whether the min/max band is drawn around each series.
+     *
+     * @param minMaxBandsEnabled Whether min/max bands are drawn.
+     */
+    public void setMinMaxBandsEnabled(boolean minMaxBandsEnabled) {
+        this.minMaxBandsEnabled = minMaxBandsEnabled;
+    }
+
+    // --- Data methods ---
+
+    public List<GroupedTimingStatistics> getData() {
+        return Collections.unmodifiableList(this.data);
+    }
+
+    public synchronized void appendData(GroupedTimingStatistics statistics) {
+        if (this.data.size() >= this.maxDataPoints) {
+            this.data.removeFirst();
+        }
+        this.data.add(statistics);
+    }
+
+    /**
+     * Returns a data: URL that contains the chart image, in the format of this chart generator, encoded in base 64.
+     *
+     * @return A URL that can be used to display the chart.
+     */
+    public String getChartUrl() {
+        ByteArrayOutputStream imageBytes = new ByteArrayOutputStream();
+        try {
+            writeChart(imageBytes);
+        } catch (IOException ioe) {
+            //can't happen writing to memory
+            throw new IllegalStateException(ioe);
+        }
+        StringBuilder retVal = new StringBuilder("data:").append(getContentType()).append(";base64,");
+        return encodeBase64(imageBytes.toByteArray(), retVal).toString();
+    }
+
+    // --- Rendering methods ---
+
+    /**
+     * Writes the chart in the format of this chart generator to the specified stream. The stream is flushed but not
+     * closed.
+     *
+     * @param out The stream to write to
+     * @throws IOException Thrown if writing to the stream fails
+     */
+    public void writeChart(OutputStream out) throws IOException {
+        if (SVG_FORMAT.equals(format)) {
+            writeSvg(out);
+        } else {
+            writePng(out);
+        }
+    }
+
+    /**
+     * Writes the chart as an SVG document, in UTF-8, to the specified stream. The document is written as it is
+     * rendered, it is never held in memory as a whole. The stream is flushed but not closed.
+     *
+     * @param out The stream to write to
+     * @throws IOException Thrown if writing to the stream fails
+     */
+    public void writeSvg(OutputStream out) throws IOException {
+        List<GroupedTimingStatistics> chartData = copyData();
+        SvgCanvas canvas = new SvgCanvas(new BufferedWriter(new OutputStreamWriter(out, "UTF-8")));
+        try {
+            canvas.begin(width, height);
+            render(canvas, chartData);
+            canvas.end();
+        } catch (ChartWriteException cwe) {
+            throw cwe.getCause();
+        }
+    }
+
+    /**
+     * Writes the chart as a PNG image to the specified stream. The image is drawn with Java2D, so it works in
+     * headless environments too. The stream is flushed but not closed.
+     *
+     * @param out The stream to write to
+     * @throws IOException Thrown if writing to the stream fails
+     */
+    public void writePng(OutputStream out) throws IOException {
+        List<GroupedTimingStatistics> chartData = copyData();
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        Graphics2D graphics = image.createGraphics();
+        try {
+            render(new Graphics2DCanvas(graphics), chartData);
+        } finally {
+            graphics.dispose();
+        }
+        ImageIO.write(image, "png", out);
+        out.flush();
+    }
+
+    // --- helper methods ---
+
+    /**
+     * Helper method copies the data while holding the lock on this object's monitor. Charts are rendered from the
+     * copy without holding the lock, so a slow client reading a chart never blocks appendData, which is called by the
+     * thread that drains the statistics.
+     *
+     * @return A copy of the data
+     */
+    private synchronized List<GroupedTimingStatistics> copyData() {
+        return new ArrayList<GroupedTimingStatistics>(data);
+    }
+
+    /**
+     * Helper method gets the chart title, which is the name of the value charted. Elapsed time values are labeled
+     * with their time unit if the data isn't in the default of milliseconds, e.g. "Mean (us)".
+     *
+     * @param chartData The data being charted
+     * @return the chart title
+     */
+    protected String getChartTitle(List<GroupedTimingStatistics> chartData) {
+        String retVal = valueRetriever.getValueName();
+        if (valueRetriever.isElapsedTimeValue() && !chartData.isEmpty()) {
+            TimeUnit timeUnit = chartData.get(chartData.size() - 1).getTimeUnit();
+            if (timeUnit != TimeUnit.MILLISECONDS) {
+                retVal += " (" + MiscUtils.getTimeUnitAbbreviation(timeUnit) + ")";
+            }
+        }
+        return retVal;
+    }
+
+    /**
+     * Helper method gets the color of the specified data series. The first series use the same colors as the
+     * GoogleChartGenerator, the rest get colors spread evenly around the color wheel.
+     *
+     * @param seriesIndex The index of the series
+     * @return The color of the series
+     */
+    protected Color getSeriesColor(int seriesIndex) {
+        if (seriesIndex < GoogleChartGenerator.DEFAULT_SERIES_COLORS.length) {
+            return new Color(Integer.parseInt(GoogleChartGenerator.DEFAULT_SERIES_COLORS[seriesIndex], 16));
+        }
+        //the golden ratio keeps consecutive hues far apart
+        float hue = (seriesIndex * 0.618034F) % 1.0F;
+        return Color.getHSBColor(hue, 0.85F, 0.75F);
+    }
+
+    /**
+     * Helper method draws the chart on the specified canvas.
+     *
+     * @param canvas    The canvas to draw on
+     * @param chartData The data to chart, a copy that isn't modified by appendData
+     */
+    private void render(Canvas canvas, List<GroupedTimingStatistics> chartData) {
+        double plotLeft = LEFT_MARGIN;
+        double plotTop = TOP_MARGIN;
+        double plotWidth = Math.max(1, width - LEFT_MARGIN - RIGHT_MARGIN);
+        double plotHeight = Math.max(1, height - TOP_MARGIN - BOTTOM_MARGIN);
+
+        canvas.fillRect(0, 0, width, height, Color.WHITE);
+        canvas.text(getChartTitle(chartData), width / 2.0, TOP_MARGIN / 2.0 + TITLE_FONT_SIZE / 2.0, 0,
+                    TITLE_FONT_SIZE);
+
+        //collect the series - the x values are the window start times, the y values and bands the data values
+        boolean drawBands = minMaxBandsEnabled && valueRetriever.isElapsedTimeValue();
+        long minTimeValue = Long.MAX_VALUE;
+        long maxTimeValue = Long.MIN_VALUE;
+        double maxDataValue = 0.0;
+        Map<String, Series> seriesByTag = new TreeMap<String, Series>();
+        for (GroupedTimingStatistics groupedTimingStatistics : chartData) {
+            long windowStartTime = groupedTimingStatistics.getStartTime();
+            long windowLength = groupedTimingStatistics.getStopTime() - windowStartTime;
+            minTimeValue = Math.min(minTimeValue, windowStartTime);
+            maxTimeValue = Math.max(maxTimeValue, windowStartTime);
+
+            for (Map.Entry<String, TimingStatistics> tagWithData :
+                    groupedTimingStatistics.getStatisticsByTag().entrySet()) {
+                String tag = tagWithData.getKey();
+                if (this.enabledTags != null && !this.enabledTags.contains(tag)) {
+                    continue;
+                }
+                Series series = seriesByTag.get(tag);
+                if (series == null) {
+                    seriesByTag.put(tag, series = new Series(tag, chartData.size()));
+                }
+
+                TimingStatistics timingStatistics = tagWithData.getValue();
+                double value = valueRetriever.getStatsValue(timingStatistics, windowLength).doubleValue();
+                double min = drawBands ? timingStatistics.getMin() : value;
+                double max = drawBands ? timingStatistics.getMax() : value;
+                series.add(windowStartTime, value, min, max);
+                maxDataValue = Math.max(maxDataValue, max);
+            }
+        }
+        if (maxDataValue <= 0.0 || Double.isNaN(maxDataValue) || Double.isInfinite(maxDataValue)) {
+            maxDataValue = 1.0;
+        }
+        double timeRange = Math.max(1, maxTimeValue - minTimeValue);
+
+        //the y-axis goes from 0 to the maximum data value, with 10 gridlines
+        DecimalFormat decimalFormat = new DecimalFormat("##0.0", new DecimalFormatSymbols(Locale.US));
+        for (int i = 0; i <= 10; i++) {
+            double y = plotTop + plotHeight - plotHeight * i / 10.0;
+            canvas.line(plotLeft, y, plotLeft + plotWidth, y, GRID_COLOR, 1.0F);
+            canvas.text(decimalFormat.format(maxDataValue * i / 10.0), plotLeft - 5, y + FONT_SIZE / 3.0, 1, FONT_SIZE);
+        }
+
+        //for the x-axis (time) labels, ideally we want one label for each data window, but support a maximum of 10
+        //labels so the chart doesn't get too crowded
+        SimpleDateFormat dateFormat = new SimpleDateFormat("HH:mm:ss");
+        dateFormat.setTimeZone(GroupedTimingStatistics.getTimeZone());
+        int stepSize = chartData.size() / 10 + 1;
+        int windowIndex = 0;
+        for (GroupedTimingStatistics groupedTimingStatistics : chartData) {
+            long windowStartTime = groupedTimingStatistics.getStartTime();
+            double x = (chartData.size() == 1) ?
+                       plotLeft + plotWidth / 2 :
+                       plotLeft + plotWidth * (windowStartTime - minTimeValue) / timeRange;
+            canvas.line(x, plotTop, x, plotTop + plotHeight, GRID_COLOR, 1.0F);
+            if (windowIndex++ % stepSize == 0) {
+                canvas.text(dateFormat.format(new Date(windowStartTime)),
+                            x, plotTop + plotHeight + FONT_SIZE + 4, 0, FONT_SIZE);
+            }
+        }
+        canvas.text("Time", plotLeft + plotWidth / 2, plotTop + plotHeight + 2 * FONT_SIZE + 12, 0, FONT_SIZE);
+        canvas.strokeRect(plotLeft, plotTop, plotWidth, plotHeight, Color.GRAY);
+
+        //draw the series, bands first so lines are never hidden by another series' band
+        List<Series> allSeries = new ArrayList<Series>(seriesByTag.values());
+        for (Series series : allSeries) {
+            series.scale(plotLeft, plotTop, plotWidth, plotHeight, minTimeValue, timeRange, maxDataValue,
+                         chartData.size() == 1);
+        }
+        if (drawBands) {
+            for (int i = 0; i < allSeries.size(); i++) {
+                Series series = allSeries.get(i);
+                double[] bandXs = new double[series.size * 2];
+                double[] bandYs = new double[series.size * 2];
+                for (int j = 0; j < series.size; j++) {
+                    bandXs[j] = series.xs[j];
+                    bandYs[j] = series.maxYs[j];
+                    bandXs[series.size * 2 - 1 - j] = series.xs[j];
+                    bandYs[series.size * 2 - 1 - j] = series.minYs[j];
+                }
+                canvas.fillPolygon(bandXs, bandYs, series.size * 2, getSeriesColor(i), BAND_OPACITY);
+            }
+        }
+        int maxLegendEntries = Math.max(1, (int) (plotHeight / LEGEND_LINE_HEIGHT));
+        for (int i = 0; i < allSeries.size(); i++) {
+            Series series = allSeries.get(i);
+            Color color = getSeriesColor(i);
+            canvas.polyline(series.xs, series.ys, series.size, color, 1.5F);
+            for (int j = 0; j < series.size; j++) {
+                canvas.fillPolygon(new double[] {series.xs[j] - 3, series.xs[j], series.xs[j] + 3, series.xs[j]},
+                                   new double[] {series.ys[j], series.ys[j] - 3, series.ys[j], series.ys[j] + 3},
+                                   4, color, 1.0F);
+            }
+
+            //legend, as long as there's room
+            double legendX = plotLeft + plotWidth + 10;
+            double legendY = plotTop + i * LEGEND_LINE_HEIGHT;
+            if (i < maxLegendEntries - 1 || allSeries.size() <= maxLegendEntries) {
+                canvas.fillRect(legendX, legendY + 2, 10, 10, color);
+                canvas.text(series.tag, legendX + 14, legendY + FONT_SIZE, -1, FONT_SIZE);
+            } else if (i == maxLegendEntries - 1) {
+                canvas.text("(" + (allSeries.size() - i) + " more)", legendX + 14, legendY + FONT_SIZE, -1,
+                            FONT_SIZE);
+            }
+        }
+    }
+
+    /**
+     * Helper method appends the base 64 encoding of the specified bytes.
+     *
+     * @param bytes    The bytes to encode
+     * @param toAppend The StringBuilder to append to
+     * @return The toAppend StringBuilder
+     */
+    private static StringBuilder encodeBase64(byte[] bytes, StringBuilder toAppend) {
+        for (int i = 0; i < bytes.length; i += 3) {
+            int remaining = Math.min(3, bytes.length - i);
+            int chunk = (bytes[i] & 0xff) << 16;
+            if (remaining > 1) {
+                chunk |= (bytes[i + 1] & 0xff) << 8;
+            }
+            if (remaining > 2) {
+                chunk |= bytes[i + 2] & 0xff;
+            }
+            toAppend.append(BASE64_CHARS[(chunk >> 18) & 0x3f]);
+            toAppend.append(BASE64_CHARS[(chunk >> 12) & 0x3f]);
+            toAppend.append(remaining > 1 ? BASE64_CHARS[(chunk >> 6) & 0x3f] : '=');
+            toAppend.append(remaining > 2 ? BASE64_CHARS[chunk & 0x3f] : '=');
+        }
+        return toAppend;
+    }
+
+    /**
+     * A Series holds the points of one tag, first as data values and then, once it's scaled, as chart coordinates.
+     */
+    private static class Series {
+        final String tag;
+        final double[] xs;
+        final double[] ys;
+        final double[] minYs;
+        final double[] maxYs;
+        int size = 0;
+
+        Series(String tag, int capacity) {
+            this.tag = tag;
+            this.xs = new double[capacity];
+            this.ys = new double[capacity];
+            this.minYs = new double[capacity];
+            this.maxYs = new double[capacity];
+        }
+
+        void add(long time, double value, double min, double max) {
+            xs[size] = time;
+            ys[size] = value;
+            minYs[size] = min;
+            maxYs[size] = max;
+            size++;
+        }
+
+        void scale(double left, double top, double width, double height,
+                   long minTime, double timeRange, double maxValue, boolean centered) {
+            for (int i = 0; i < size; i++) {
+                xs[i] = centered ? left + width / 2 : left + width * (xs[i] - minTime) / timeRange;
+                ys[i] = top + height - height * ys[i] / maxValue;
+                minYs[i] = top + height - height * minYs[i] / maxValue;
+                maxYs[i] = top + height - height * maxYs[i] / maxValue;
+            }
+        }
+    }
+
+    /**
+     * The drawing operations needed to render a chart, so the same rendering code can produce SVG and Java2D output.
+     */
+    private interface Canvas {
+        void fillRect(double x, double y, double width, double height, Color color);
+
+        void strokeRect(double x, double y, double width, double height, Color color);
+
+        void line(double x1, double y1, double x2, double y2, Color color, float lineWidth);
+
+        void polyline(double[] xs, double[] ys, int numPoints, Color color, float lineWidth);
+
+        void fillPolygon(double[] xs, double[] ys, int numPoints, Color color, float opacity);
+
+        /**
+         * Draws text, where anchor is -1 to start the text at x, 0 to center it on x and 1 to end it at x.
+         */
+        void text(String text, double x, double y, int anchor, int fontSize);
+    }
+
+    /**
+     * Canvas that writes SVG elements to a Writer as they are drawn.
+     */
+    private static class SvgCanvas implements Canvas {
+        private final Writer writer;
+        private final DecimalFormat coordinateFormat = new DecimalFormat("0.##", new DecimalFormatSymbols(Locale.US));
+
+        SvgCanvas(Writer writer) {
+            this.writer = writer;
+        }
+
+        void begin(int width, int height) throws IOException {
+            writer.write("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+            writer.write("<svg xmlns=\"http://www.w3.org/2000/svg\" width=\"" + width + "\" height=\"" + height
+                         + "\" viewBox=\"0 0 " + width + " " + height + "\" font-family=\"sans-serif\">\n");
+        }
+
+        void end() throws IOException {
+            writer.write("</svg>\n");
+            writer.flush();
+        }
+
+        public void fillRect(double x, double y, double width, double height, Color color) {
+            write("<rect x=\"" + format(x) + "\" y=\"" + format(y) + "\" width=\"" + format(width)
+                  + "\" height=\"" + format(height) + "\" fill=\"" + format(color) + "\"/>\n");
+        }
+
+        public void strokeRect(double x, double y, double width, double height, Color color) {
+            write("<rect x=\"" + format(x) + "\" y=\"" + format(y) + "\" width=\"" + format(width)
+                  + "\" height=\"" + format(height) + "\" fill=\"none\" stroke=\"" + format(color) + "\"/>\n");
+        }
+
+        public void line(double x1, double y1, double x2, double y2, Color color, float lineWidth) {
+            write("<line x1=\"" + format(x1) + "\" y1=\"" + format(y1) + "\" x2=\"" + format(x2) + "\" y2=\""
+                  + format(y2) + "\" stroke=\"" + format(color) + "\" stroke-width=\"" + format(lineWidth)
+                  + "\"/>\n");
+        }
+
+        public void polyline(double[] xs, double[] ys, int numPoints, Color color, float lineWidth) {
+            write("<polyline points=\"" + formatPoints(xs, ys, numPoints) + "\" fill=\"none\" stroke=\""
+                  + format(color) + "\" stroke-width=\"" + format(lineWidth) + "\"/>\n");
+        }
+
+        public void fillPolygon(double[] xs, double[] ys, int numPoints, Color color, float opacity) {
+            write("<polygon points=\"" + formatPoints(xs, ys, numPoints) + "\" fill=\"" + format(color) + "\""
+                  + (opacity < 1.0F ? " fill-opacity=\"" + format(opacity) + "\"" : "") + "/>\n");
+        }
+
+        public void text(String text, double x, double y, int anchor, int fontSize) {
+            String textAnchor = (anchor < 0) ? "start" : (anchor == 0) ? "middle" : "end";
+            write("<text x=\"" + format(x) + "\" y=\"" + format(y) + "\" font-size=\"" + fontSize
+                  + "\" text-anchor=\"" + textAnchor + "\">" + escapeXml(text) + "</text>\n");
+        }
+
+        private String format(double value) {
+            return coordinateFormat.format(value);
+        }
+
+        private String format(Color color) {
+            return "#" + Integer.toHexString((color.getRGB() & 0xffffff) | 0x1000000).substring(1);
+        }
+
+        private String formatPoints(double[] xs, double[] ys, int numPoints) {
+            StringBuilder retVal = new StringBuilder(numPoints * 12);
+            for (int i = 0; i < numPoints; i++) {
+                if (i > 0) {
+                    retVal.append(' ');
+                }
+                retVal.append(format(xs[i])).append(',').append(format(ys[i]));
+            }
+            return retVal.toString();
+        }
+
+        private String escapeXml(String text) {
+            StringBuilder retVal = new StringBuilder(text.length());
+            for (int i = 0; i < text.length(); i++) {
+                char c = text.charAt(i);
+                switch (c) {
+                    case '&': retVal.append("&amp;"); break;
+                    case '<': retVal.append("&lt;"); break;
+                    case '>': retVal.append("&gt;"); break;
+                    case '"': retVal.append("&quot;"); break;
+                    default: retVal.append(c);
+                }
+            }
+            return retVal.toString();
+        }
+
+        private void write(String element) {
+            try {
+                writer.write(element);
+            } catch (IOException ioe) {
+                throw new ChartWriteException(ioe);
+            }
+        }
+    }
+
+    /**
+     * Canvas that draws with a Java2D Graphics2D object.
+     */
+    private static class Graphics2DCanvas implements Canvas {
+        private final Graphics2D graphics;
+
+        Graphics2DCanvas(Graphics2D graphics) {
+            this.graphics = graphics;
+            graphics.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+            graphics.setRenderingHint(RenderingHints.KEY_TEXT_ANTIALIASING, RenderingHints.VALUE_TEXT_ANTIALIAS_ON);
+        }
+
+        public void fillRect(double x, double y, double width, double height, Color color) {
+            graphics.setColor(color);
+            graphics.fill(new Rectangle2D.Double(x, y, width, height));
+        }
+
+        public void strokeRect(double x, double y, double width, double height, Color color) {
+            graphics.setColor(color);
+            graphics.setStroke(new BasicStroke(1.0F));
+            graphics.draw(new Rectangle2D.Double(x, y, width, height));
+        }
+
+        public void line(double x1, double y1, double x2, double y2, Color color, float lineWidth) {
+            graphics.setColor(color);
+            graphics.setStroke(new BasicStroke(lineWidth));
+            graphics.draw(new Line2D.Double(x1, y1, x2, y2));
+        }
+
+        public void polyline(double[] xs, double[] ys, int numPoints, Color color, float lineWidth) {
+            if (numPoints > 0) {
+                graphics.setColor(color);
+                graphics.setStroke(new BasicStroke(lineWidth));
+                graphics.draw(toPath(xs, ys, numPoints, false));
+            }
+        }
+
+        public void fillPolygon(double[] xs, double[] ys, int numPoints, Color color, float opacity) {
+            if (numPoints > 0) {
+                graphics.setColor(new Color(color.getRed(), color.getGreen(), color.getBlue(),
+                                            Math.round(opacity * 255)));
+                graphics.fill(toPath(xs, ys, numPoints, true));
+            }
+        }
+
+        public void text(String text, double x, double y, int anchor, int fontSize) {
+            graphics.setColor(Color.BLACK);
+            graphics.setFont(new Font("SansSerif", Font.PLAIN, fontSize));
+            double textWidth = graphics.getFontMetrics().stringWidth(text);
+            double textX = (anchor < 0) ? x : (anchor == 0) ? x - textWidth / 2 : x - textWidth;
+            graphics.drawString(text, (float) textX, (float) y);
+        }
+
+        private GeneralPath toPath(double[] xs, double[] ys, int numPoints, boolean closed) {
+            GeneralPath retVal = new GeneralPath();
+            retVal.moveTo((float) xs[0], (float) ys[0]);
+            for (int i = 1; i < numPoints; i++) {
+                retVal.lineTo((float) xs[i], (float) ys[i]);
+            }
+            if (closed) {
+                retVal.closePath();
+            }
+            return retVal;
+        }
+    }
+
+    /**
+     * Unchecked wrapper for the IOExceptions thrown while the SvgCanvas writes, as the Canvas methods don't throw
+     * checked exceptions.
+     */
+    @SuppressWarnings("serial")
+    private static class ChartWriteException extends RuntimeException {
+        ChartWriteException(IOException cause) {
+            super(cause);
+        }
+
+        public IOException getCause() {
+            return (IOException) super.getCause();
+        }
+    }
+}
@@ -18,6 +18,8 @@
  * {@link org.perf4j.chart.StatisticsChartGenerator} can display graphs backed by
  * {@link org.perf4j.GroupedTimingStatistics} data. Graphs are most often utilized through an appender or handler
  * (like the {@link org.perf4j.log4j.GraphingStatisticsAppender}) or a servlet (one of the
- * {@link org.perf4j.servlet.AbstractGraphingServlet} subclasses).
+ * {@link org.perf4j.servlet.AbstractGraphingServlet} subclasses). The {@link org.perf4j.chart.GoogleChartGenerator}
+ * creates Google Chart API URLs, while the {@link org.perf4j.chart.LocalChartGenerator} renders SVG or PNG images
+ * itself, for environments without access to external services.
  */
 package org.perf4j.chart;
\ No newline at end of file
@@ -26,6 +26,8 @@ import org.perf4j.LoggingStopWatch;
  */
 @SuppressWarnings("serial")
 public class CommonsLogStopWatch extends LoggingStopWatch {
+    private static final long serialVersionUID = -1823142216170151831L;
+
     /**
      * Specifying this level will cause the <tt>trace()</tt> method to be used for logging.
      */
@@ -354,6 +356,12 @@ public class CommonsLogStopWatch extends LoggingStopWatch {
     	super.setSlowSuffix(slowSuffix);
     	return this;
     }
+
+    // Just overridden to make use of covariant return types
+    public CommonsLogStopWatch setSampleRate(double sampleRate) {
+        super.setSampleRate(sampleRate);
+        return this;
+    }
     
     // --- Helper Methods ---
 
@@ -378,6 +386,18 @@ public class CommonsLogStopWatch extends LoggingStopWatch {
         log(stopWatchAsString, exception, (exception == null) ? normalPriority : exceptionPriority);
     }
 
+    /**
+     * This method only creates the StopWatch string if the logger is enabled for the level being logged at.
+     *
+     * @param exception An exception, if any, that was also passed to the stopAndRecord() method - may be null.
+     */
+    protected void log(Throwable exception) {
+        int atLevel = (exception == null) ? normalPriority : exceptionPriority;
+        if (isLogging(atLevel)) {
+            log(toString(), exception, atLevel);
+        }
+    }
+
     /**
      * Since Commons Logging doesn't have a first class notion of Level objects or integer values, this method
      * converts the level value to one of the <tt>isXYZEnabled()</tt> methods on the Log.
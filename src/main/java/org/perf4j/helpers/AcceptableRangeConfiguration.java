@@ -26,6 +26,8 @@ import java.util.regex.Pattern;
  * @author Alex Devine
  */
 public class AcceptableRangeConfiguration implements Serializable, Cloneable {
+    private static final long serialVersionUID = -1386668939617425680L;
+
     private String attributeName;
     private double minValue = Double.NEGATIVE_INFINITY;
     private double maxValue = Double.POSITIVE_INFINITY;
@@ -114,6 +116,27 @@ public class AcceptableRangeConfiguration implements Serializable, Cloneable {
         return value >= minValue && value <= maxValue;
     }
 
+    /**
+     * Determines whether or not the specified value is within the acceptable range after the range has been narrowed
+     * by the specified hysteresis. Each finite bound is moved towards the inside of the range by hysteresis times the
+     * absolute value of the bound, so, for example, with a hysteresis of 0.1 a value must fall to 90 or below to be in
+     * the range (-Infinity, 100]. This is used to decide when a value that was out of range has returned, so that
+     * values hovering around a bound don't flap between in range and out of range.
+     *
+     * @param value      The value to check
+     * @param hysteresis The fraction of each bound by which the range is narrowed, 0 for no narrowing
+     * @return returns true if the value is within the narrowed range, false otherwise
+     */
+    public boolean isInRange(double value, double hysteresis) {
+        double narrowedMinValue = Double.isInfinite(minValue) ? minValue : minValue + hysteresis * Math.abs(minValue);
+        double narrowedMaxValue = Double.isInfinite(maxValue) ? maxValue : maxValue - hysteresis * Math.abs(maxValue);
+        if (narrowedMinValue > narrowedMaxValue) {
+            //the bounds crossed, so the range has shrunk to its midpoint
+            narrowedMinValue = narrowedMaxValue = (minValue + maxValue) / 2;
+        }
+        return value >= narrowedMinValue && value <= narrowedMaxValue;
+    }
+
     // --- Object Methods ---
 
     public boolean equals(Object o) {
@@ -0,0 +1,432 @@
+/* Copyright (c) 2008-2009 HomeAway, Inc.
+ * All rights reserved.  http://www.perf4j.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.perf4j.helpers;
+
+import org.perf4j.StopWatch;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The BinaryStopWatchLogIterator reads StopWatches from a stream written by a {@link BinaryStopWatchWriter}. See that
+ * class for a description of the format. Like the {@link StopWatchLogIterator}, instances of this class can be passed
+ * to a {@link GroupingStatisticsIterator} to create statistics.
+ * <p/>
+ * If the stream ends part way through a record, as may happen if the process writing the log was killed, the partial
+ * record is ignored. If an invalid record is found, for example because a writer appended a new block after a
+ * partial record, the iterator skips ahead to the next block header, starting from the second byte of the invalid
+ * record, and continues from there. Input is buffered internally, so callers do not need to wrap the InputStream in a
+ * BufferedInputStream. The stream is closed when the end is reached.
+ */
+public class BinaryStopWatchLogIterator implements Iterator<StopWatch> {
+    /**
+     * The stream being read.
+     */
+    private InputStream in;
+    /**
+     * The tags defined in the current block, indexed by id.
+     */
+    private List<String> tags = new ArrayList<String>();
+    /**
+     * The start time of the previous StopWatch in the current block.
+     */
+    private long previousStartTime = 0L;
+    /**
+     * The sample rate read from a sample rate record, which applies to the next StopWatch record.
+     */
+    private double sampleRate = 1.0;
+    /**
+     * The input buffer.
+     */
+    private byte[] buffer = new byte[65536];
+    /**
+     * The position of the next byte to read from the buffer.
+     */
+    private int position = 0;
+    /**
+     * The number of valid bytes in the buffer.
+     */
+    private int limit = 0;
+    /**
+     * The position in the buffer of the start of the record being read, or -1 if it is no longer in the buffer. The
+     * bytes from here on are kept when the buffer is refilled, so reading can restart just after the start of the
+     * record if it turns out to be invalid.
+     */
+    private int recordStart = -1;
+    /**
+     * The offset in the stream of the first byte in the buffer.
+     */
+    private long bufferOffset = 0L;
+    /**
+     * The offset in the stream just past the last complete record.
+     */
+    private long completeRecordsLength = 0L;
+    /**
+     * The number of bytes skipped because they did not contain valid records.
+     */
+    private long skippedByteCount = 0L;
+    /**
+     * State variable points to the next StopWatch to be returned.
+     */
+    private StopWatch nextStopWatch = null;
+    /**
+     * State variable keeps track of whether or not there is a next StopWatch. Null means the next state is currently
+     * unknown, and the stream will need to be read to determine if there is a next.
+     */
+    private Boolean hasNext = null;
+
+    /**
+     * Creates a new BinaryStopWatchLogIterator to read the specified stream.
+     *
+     * @param in The stream to read, which must start with a block header.
+     */
+    public BinaryStopWatchLogIterator(InputStream in) {
+        this.in = in;
+    }
+
+    /**
+     * Returns whether or not the specified file starts with the header written by a BinaryStopWatchWriter.
+     *
+     * @param file The file to check
+     * @return true if the file appears to be a binary StopWatch log
+     * @throws IOException Thrown if the file couldn't be read
+     */
+    public static boolean isBinaryLog(File file) throws IOException {
+        byte[] header = new byte[BinaryStopWatchWriter.BLOCK_HEADER.length];
+        InputStream fileIn = new FileInputStream(file);
+        try {
+            int bytesRead = 0;
+            int read;
+            while (bytesRead < header.length && (read = fileIn.read(header, bytesRead, header.length - bytesRead)) > 0) {
+                bytesRead += read;
+            }
+            return bytesRead == header.length && isBlockHeader(header);
+        } finally {
+            fileIn.close();
+        }
+    }
+
+    public boolean hasNext() {
+        //if I don't know the state of next, read the next StopWatch to determine the state of next
+        if (hasNext == null) {
+            nextStopWatch = getNext();
+            hasNext = (nextStopWatch != null);
+        }
+        return hasNext;
+    }
+
+    public StopWatch next() {
+        //if I already determined I don't have a next, throw an exception
+        if (Boolean.FALSE.equals(hasNext)) {
+            throw new NoSuchElementException();
+        }
+
+        //if I don't know what to return yet, find out - note this only happens if I call next() before a call
+        //to hasNext().
+        if (nextStopWatch == null) {
+            nextStopWatch = getNext();
+
+            //if there's still nothing I'm done
+            if (nextStopWatch == null) {
+                hasNext = false;
+                throw new NoSuchElementException();
+            }
+        }
+
+        //before I return, clear the state of the variables used to determine the next value.
+        StopWatch retVal = nextStopWatch;
+        hasNext = null;
+        nextStopWatch = null;
+        return retVal;
+    }
+
+    /**
+     * Remove is not supported.
+     *
+     * @throws UnsupportedOperationException Always thrown.
+     */
+    public void remove() {
+        throw new UnsupportedOperationException();
+    }
+
+    /**
+     * Gets the number of bytes that were skipped so far because they did not contain valid records, before a block
+     * header from which reading continued. Invalid or partial records at the end of the stream are not counted.
+     *
+     * @return The number of bytes skipped
+     */
+    public long getSkippedByteCount() {
+        return skippedByteCount;
+    }
+
+    /**
+     * Gets the length of the stream up to the end of the last complete record read so far. Once all of the
+     * StopWatches have been read, this is the length to which the stream can be truncated to remove a partial record
+     * at the end.
+     *
+     * @return The offset in the stream just past the last complete record
+     */
+    long getCompleteRecordsLength() {
+        return completeRecordsLength;
+    }
+
+    // --- Helper Methods ---
+    /**
+     * Helper method reads records until the next StopWatch record is found.
+     *
+     * @return The next StopWatch, or null if there are no more StopWatches.
+     */
+    private StopWatch getNext() {
+        if (in == null) {
+            return null;
+        }
+
+        try {
+            while (true) {
+                completeRecordsLength = bufferOffset + position;
+                recordStart = -1;
+                if (position == limit && !fill()) {
+                    //clean end of the stream
+                    close();
+                    return null;
+                }
+
+                recordStart = position;
+                StopWatch retVal;
+                try {
+                    retVal = readRecord();
+                } catch (IOException ioe) {
+                    if (!(ioe instanceof InvalidRecordException || ioe instanceof EOFException)) {
+                        throw ioe;
+                    }
+                    //a record that is invalid, or that runs past the end of the stream, may be a partial record
+                    //followed by a block appended by another writer
+                    if (!skipToNextBlock()) {
+                        //no more blocks, so if the stream ended the last record was only partially written
+                        close();
+                        return null;
+                    }
+                    continue;
+                }
+                if (retVal != null) {
+                    completeRecordsLength = bufferOffset + position;
+                    return retVal;
+                }
+            }
+        } catch (IOException ioe) {
+            close();
+            throw new RuntimeException("Error reading binary StopWatch log: " + ioe.getMessage(), ioe);
+        }
+    }
+
+    /**
+     * Helper method reads a single record.
+     *
+     * @return The StopWatch if the record was a StopWatch record, otherwise null
+     * @throws InvalidRecordException Thrown if the record is not valid
+     * @throws IOException            Thrown if the stream ends part way through the record or can't be read
+     */
+    private StopWatch readRecord() throws IOException {
+        int recordType = buffer[position++];
+        switch (recordType) {
+            case BinaryStopWatchWriter.STOP_WATCH_RECORD:
+            case BinaryStopWatchWriter.NANO_STOP_WATCH_RECORD:
+                long startTime = previousStartTime + readSignedVarLong();
+                long elapsedTime = readSignedVarLong();
+                int tagId = (int) readVarLong();
+                if (tagId < 0 || tagId >= tags.size()) {
+                    throw new InvalidRecordException("Undefined tag id " + tagId);
+                }
+                int messageLength = (int) readVarLong() - 1;
+                String message = (messageLength < 0) ? null : readString(messageLength);
+                previousStartTime = startTime;
+                StopWatch retVal = (recordType == BinaryStopWatchWriter.NANO_STOP_WATCH_RECORD) ?
+                       new StopWatch(startTime, elapsedTime, TimeUnit.NANOSECONDS, tags.get(tagId), message) :
+                       new StopWatch(startTime, elapsedTime, tags.get(tagId), message);
+                if (sampleRate < 1.0) {
+                    StopWatchParser.setSampleRate(retVal, sampleRate);
+                    sampleRate = 1.0;
+                }
+                return retVal;
+            case BinaryStopWatchWriter.SAMPLE_RATE_RECORD:
+                sampleRate = Double.longBitsToDouble(readVarLong());
+                if (!(sampleRate > 0.0 && sampleRate <= 1.0)) {
+                    throw new InvalidRecordException("Invalid sample rate " + sampleRate);
+                }
+                return null;
+            case BinaryStopWatchWriter.TAG_DEFINITION_RECORD:
+                tags.add(readString((int) readVarLong()));
+                return null;
+            case 'P':
+                //the start of a new block, verify the rest of the header
+                for (int i = 1; i < BinaryStopWatchWriter.BLOCK_HEADER.length; i++) {
+                    if (readByte() != BinaryStopWatchWriter.BLOCK_HEADER[i]) {
+                        throw new InvalidRecordException("Invalid block header");
+                    }
+                }
+                tags.clear();
+                previousStartTime = 0L;
+                sampleRate = 1.0;
+                return null;
+            default:
+                throw new InvalidRecordException("Unknown record type " + recordType);
+        }
+    }
+
+    /**
+     * Helper method skips ahead to the next block header after an invalid record. The search starts at the second
+     * byte of the invalid record if it is still in the buffer, which it is unless the record was longer than the
+     * buffer, so a block header that the invalid record was read across is found.
+     *
+     * @return true if a block header was found, in which case the buffer is positioned at it, false if the end of
+     *         the stream was reached
+     */
+    private boolean skipToNextBlock() throws IOException {
+        long skipStartOffset = bufferOffset + ((recordStart >= 0) ? recordStart : position);
+        if (recordStart >= 0) {
+            position = recordStart + 1;
+        }
+        recordStart = -1;
+
+        byte[] header = BinaryStopWatchWriter.BLOCK_HEADER;
+        while (true) {
+            while (limit - position < header.length) {
+                if (!fill()) {
+                    return false;
+                }
+            }
+            boolean found = true;
+            for (int i = 0; i < header.length && found; i++) {
+                found = (buffer[position + i] == header[i]);
+            }
+            if (found) {
+                skippedByteCount += bufferOffset + position - skipStartOffset;
+                return true;
+            }
+            position++;
+        }
+    }
+
+    private static boolean isBlockHeader(byte[] bytes) {
+        for (int i = 0; i < BinaryStopWatchWriter.BLOCK_HEADER.length; i++) {
+            if (bytes[i] != BinaryStopWatchWriter.BLOCK_HEADER[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Refills the buffer, keeping any unread bytes.
+     *
+     * @return false if the end of the stream was reached and no more bytes are available.
+     */
+    private boolean fill() throws IOException {
+        //keep the record being read, unless it fills the whole buffer
+        if (recordStart >= 0 && limit - recordStart == buffer.length) {
+            recordStart = -1;
+        }
+        int keepFrom = (recordStart >= 0) ? recordStart : position;
+        int remaining = limit - keepFrom;
+        System.arraycopy(buffer, keepFrom, buffer, 0, remaining);
+        bufferOffset += keepFrom;
+        position -= keepFrom;
+        if (recordStart >= 0) {
+            recordStart = 0;
+        }
+        limit = remaining;
+        int bytesRead = in.read(buffer, limit, buffer.length - limit);
+        if (bytesRead > 0) {
+            limit += bytesRead;
+            return true;
+        }
+        return false;
+    }
+
+    private int readByte() throws IOException {
+        if (position == limit && !fill()) {
+            throw new EOFException();
+        }
+        return buffer[position++];
+    }
+
+    private long readVarLong() throws IOException {
+        long retVal = 0L;
+        for (int shift = 0; shift < 64; shift += 7) {
+            int b = readByte();
+            retVal |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return retVal;
+            }
+        }
+        throw new InvalidRecordException("Malformed varint");
+    }
+
+    private long readSignedVarLong() throws IOException {
+        long value = readVarLong();
+        return (value >>> 1) ^ -(value & 1L);
+    }
+
+    private String readString(int length) throws IOException {
+        if (length < 0) {
+            throw new InvalidRecordException("Invalid string length " + length);
+        }
+        if (length > buffer.length) {
+            byte[] largeBuffer = new byte[length];
+            for (int i = 0; i < length; i++) {
+                largeBuffer[i] = (byte) readByte();
+            }
+            return new String(largeBuffer, 0, length, "UTF-8");
+        }
+        while (limit - position < length) {
+            if (!fill()) {
+                throw new EOFException();
+            }
+        }
+        String retVal = new String(buffer, position, length, "UTF-8");
+        position += length;
+        return retVal;
+    }
+
+    private void close() {
+        try {
+            in.close();
+        } catch (IOException ioe) {
+            //nothing more we can do
+        }
+        in = null;
+    }
+
+    // --- Support Classes ---
+    /**
+     * Thrown when the bytes being read are not a valid record, as opposed to when the stream can't be read.
+     */
+    private static class InvalidRecordException extends IOException {
+        private static final long serialVersionUID = -4513207326584012873L;
+
+        InvalidRecordException(String message) {
+            super(message);
+        }
+    }
+}
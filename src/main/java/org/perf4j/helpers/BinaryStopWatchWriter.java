@@ -0,0 +1,297 @@
+/* Copyright (c) 2008-2009 HomeAway, Inc.
+ * All rights reserved.  http://www.perf4j.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.perf4j.helpers;
+
+import org.perf4j.StopWatch;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The BinaryStopWatchWriter writes StopWatches in a compact binary format that is several times smaller than the
+ * standard text format and much faster to read back using a {@link BinaryStopWatchLogIterator}.
+ * <p/>
+ * The format is a sequence of blocks. Each block starts with the 5 byte header <tt>'P' '4' 'J' 'B' version</tt>,
+ * which resets the tag dictionary and the base start time, followed by records that each start with a type byte:
+ * <ul>
+ * <li><b>Tag definition (1)</b> - a varint length followed by the UTF-8 bytes of a tag. Tags are assigned ids 0, 1,
+ * 2, ... in the order they are defined within the block.
+ * <li><b>StopWatch (2)</b> - the start time as a zig-zag varint delta from the start time of the previous StopWatch
+ * in the block (or from 0 for the first), the elapsed time as a zig-zag varint, the varint id of the tag, and the
+ * message as a varint of the message length plus 1 (0 for a null message) followed by the message's UTF-8 bytes.
+ * <li><b>Nano StopWatch (3)</b> - the same as a StopWatch record, except the elapsed time is in nanoseconds. These
+ * records are only written when {@link StopWatch#isLogNanoTime()} is true.
+ * <li><b>Sample rate (4)</b> - the sample rate of the StopWatch in the next StopWatch record, as a varint of the bits
+ * returned by <tt>Double.doubleToLongBits</tt>. These records are only written for StopWatches with a sample rate less
+ * than 1.
+ * </ul>
+ * Varints use the standard 7 bits per byte, least significant group first, encoding. Since every writer starts a new
+ * block, appending to an existing file produces a valid file, as long as the file ends with a complete record. If the
+ * process that wrote the file was killed part way through a record, call {@link #removePartialRecord} before
+ * appending to it, as the {@link org.perf4j.log4j.BinaryFileAppender} does. A new block is also started when the
+ * dictionary reaches the maximum number of tags, which bounds the memory used by both the writer and reader.
+ * <p/>
+ * Writes are buffered internally, so callers do not need to wrap the OutputStream in a BufferedOutputStream. This
+ * class is not thread safe.
+ */
+public class BinaryStopWatchWriter {
+    /**
+     * The header that starts each block.
+     */
+    public static final byte[] BLOCK_HEADER = {'P', '4', 'J', 'B', 1};
+    /**
+     * The record type of a tag definition record.
+     */
+    public static final int TAG_DEFINITION_RECORD = 1;
+    /**
+     * The record type of a StopWatch record.
+     */
+    public static final int STOP_WATCH_RECORD = 2;
+    /**
+     * The record type of a StopWatch record whose elapsed time is in nanoseconds.
+     */
+    public static final int NANO_STOP_WATCH_RECORD = 3;
+    /**
+     * The record type of a sample rate record, which applies to the following StopWatch record.
+     */
+    public static final int SAMPLE_RATE_RECORD = 4;
+    /**
+     * The default maximum number of tags defined in a single block.
+     */
+    public static final int DEFAULT_MAX_TAGS_PER_BLOCK = 4096;
+
+    /**
+     * The stream that is written to.
+     */
+    private OutputStream out;
+    /**
+     * The maximum number of tags defined in a single block, after which a new block is started.
+     */
+    private int maxTagsPerBlock;
+    /**
+     * Maps each tag defined in the current block to its id.
+     */
+    private Map<String, Integer> tagIds = new HashMap<String, Integer>();
+    /**
+     * The start time of the previous StopWatch in the current block.
+     */
+    private long previousStartTime = 0L;
+    /**
+     * Whether a block header needs to be written before the next record.
+     */
+    private boolean needBlockHeader = true;
+    /**
+     * The output buffer.
+     */
+    private byte[] buffer = new byte[8192];
+    /**
+     * The number of bytes in the buffer.
+     */
+    private int count = 0;
+
+    /**
+     * Creates a BinaryStopWatchWriter using the default maximum number of tags per block.
+     *
+     * @param out The stream to write to
+     */
+    public BinaryStopWatchWriter(OutputStream out) {
+        this(out, DEFAULT_MAX_TAGS_PER_BLOCK);
+    }
+
+    /**
+     * Creates a BinaryStopWatchWriter.
+     *
+     * @param out             The stream to write to
+     * @param maxTagsPerBlock The maximum number of tags defined in a single block, after which a new block is started.
+     */
+    public BinaryStopWatchWriter(OutputStream out, int maxTagsPerBlock) {
+        if (maxTagsPerBlock < 1) {
+            throw new IllegalArgumentException("maxTagsPerBlock must be positive: " + maxTagsPerBlock);
+        }
+        this.out = out;
+        this.maxTagsPerBlock = maxTagsPerBlock;
+    }
+
+    /**
+     * Writes a single StopWatch. The data may not be written to the underlying stream until {@link #flush()} is
+     * called.
+     *
+     * @param stopWatch The StopWatch to write
+     * @throws IOException Thrown if the underlying stream throws an IOException
+     */
+    public void write(StopWatch stopWatch) throws IOException {
+        String tag = stopWatch.getTag();
+        if (tag == null) {
+            tag = "";
+        }
+
+        if (!needBlockHeader && !tagIds.containsKey(tag) && tagIds.size() >= maxTagsPerBlock) {
+            needBlockHeader = true;
+        }
+        if (needBlockHeader) {
+            writeBytes(BLOCK_HEADER, 0, BLOCK_HEADER.length);
+            tagIds.clear();
+            previousStartTime = 0L;
+            needBlockHeader = false;
+        }
+
+        Integer tagId = tagIds.get(tag);
+        if (tagId == null) {
+            tagId = tagIds.size();
+            tagIds.put(tag, tagId);
+            writeByte(TAG_DEFINITION_RECORD);
+            writeString(tag);
+        }
+
+        double sampleRate = stopWatch.getSampleRate();
+        if (sampleRate < 1.0) {
+            writeByte(SAMPLE_RATE_RECORD);
+            writeVarLong(Double.doubleToLongBits(sampleRate));
+        }
+
+        if (StopWatch.isLogNanoTime()) {
+            writeByte(NANO_STOP_WATCH_RECORD);
+            writeSignedVarLong(stopWatch.getStartTime() - previousStartTime);
+            writeSignedVarLong(stopWatch.getElapsedNanoTime());
+        } else {
+            writeByte(STOP_WATCH_RECORD);
+            writeSignedVarLong(stopWatch.getStartTime() - previousStartTime);
+            writeSignedVarLong(stopWatch.getElapsedTime());
+        }
+        writeVarLong(tagId);
+        String message = stopWatch.getMessage();
+        if (message == null) {
+            writeVarLong(0L);
+        } else {
+            byte[] messageBytes = message.getBytes("UTF-8");
+            writeVarLong(messageBytes.length + 1);
+            writeBytes(messageBytes, 0, messageBytes.length);
+        }
+        previousStartTime = stopWatch.getStartTime();
+    }
+
+    /**
+     * Writes any buffered data to the underlying stream and flushes it.
+     *
+     * @throws IOException Thrown if the underlying stream throws an IOException
+     */
+    public void flush() throws IOException {
+        flushBuffer();
+        out.flush();
+    }
+
+    /**
+     * Flushes and closes the underlying stream.
+     *
+     * @throws IOException Thrown if the underlying stream throws an IOException
+     */
+    public void close() throws IOException {
+        try {
+            flushBuffer();
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Truncates the specified binary StopWatch log after its last complete record, which removes a record that was
+     * only partially written, for example because the process writing the log was killed. Otherwise a block appended
+     * to the file would be read as the rest of the partial record. Note the whole file is read to find the end of the
+     * last complete record. Files that are not binary StopWatch logs are left alone.
+     *
+     * @param file The log file, which need not exist
+     * @return The number of bytes removed from the end of the file
+     * @throws IOException Thrown if the file can't be read or truncated
+     */
+    public static long removePartialRecord(File file) throws IOException {
+        if (!file.isFile() || !BinaryStopWatchLogIterator.isBinaryLog(file)) {
+            return 0L;
+        }
+
+        BinaryStopWatchLogIterator iterator = new BinaryStopWatchLogIterator(new FileInputStream(file));
+        try {
+            while (iterator.hasNext()) {
+                iterator.next();
+            }
+        } catch (RuntimeException re) {
+            //the iterator wraps read errors in RuntimeExceptions
+            throw new IOException("Error reading binary StopWatch log " + file + ": " + re.getMessage());
+        }
+
+        long partialRecordLength = file.length() - iterator.getCompleteRecordsLength();
+        if (partialRecordLength > 0L) {
+            RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw");
+            try {
+                randomAccessFile.setLength(iterator.getCompleteRecordsLength());
+            } finally {
+                randomAccessFile.close();
+            }
+        }
+        return Math.max(partialRecordLength, 0L);
+    }
+
+    // --- Helper Methods ---
+
+    private void flushBuffer() throws IOException {
+        if (count > 0) {
+            out.write(buffer, 0, count);
+            count = 0;
+        }
+    }
+
+    private void writeByte(int b) throws IOException {
+        if (count == buffer.length) {
+            flushBuffer();
+        }
+        buffer[count++] = (byte) b;
+    }
+
+    private void writeBytes(byte[] bytes, int offset, int length) throws IOException {
+        if (length > buffer.length - count) {
+            flushBuffer();
+            if (length > buffer.length) {
+                out.write(bytes, offset, length);
+                return;
+            }
+        }
+        System.arraycopy(bytes, offset, buffer, count, length);
+        count += length;
+    }
+
+    private void writeString(String value) throws IOException {
+        byte[] bytes = value.getBytes("UTF-8");
+        writeVarLong(bytes.length);
+        writeBytes(bytes, 0, bytes.length);
+    }
+
+    private void writeVarLong(long value) throws IOException {
+        while ((value & ~0x7FL) != 0L) {
+            writeByte((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        writeByte((int) value);
+    }
+
+    private void writeSignedVarLong(long value) throws IOException {
+        //zig-zag encoding keeps small negative values small
+        writeVarLong((value << 1) ^ (value >> 63));
+    }
+}
@@ -0,0 +1,71 @@
+/* Copyright (c) 2008-2009 HomeAway, Inc.
+ * All rights reserved.  http://www.perf4j.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.perf4j.helpers;
+
+import java.util.Collection;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * This MessageQueue is backed by a standard java.util.concurrent ArrayBlockingQueue. This is the default queue used
+ * by the {@link GenericAsyncCoalescingStatisticsAppender}. It is simple and has no CPU cost when idle, but all
+ * producer threads contend on a single lock.
+ */
+public class BlockingMessageQueue implements MessageQueue {
+    /**
+     * The underlying queue.
+     */
+    private final BlockingQueue<Object> queue;
+    /**
+     * The capacity of the underlying queue.
+     */
+    private final int capacity;
+
+    /**
+     * Creates a new BlockingMessageQueue with the specified capacity.
+     *
+     * @param capacity The maximum number of messages that can be held in the queue.
+     */
+    public BlockingMessageQueue(int capacity) {
+        this.queue = new ArrayBlockingQueue<Object>(capacity);
+        this.capacity = capacity;
+    }
+
+    public boolean offer(Object message) {
+        return queue.offer(message);
+    }
+
+    public void put(Object message) throws InterruptedException {
+        queue.put(message);
+    }
+
+    public Object poll(long timeout, TimeUnit unit) throws InterruptedException {
+        return queue.poll(timeout, unit);
+    }
+
+    public int drainTo(Collection<Object> collection, int maxMessages) {
+        return queue.drainTo(collection, maxMessages);
+    }
+
+    public int size() {
+        return queue.size();
+    }
+
+    public int capacity() {
+        return capacity;
+    }
+}
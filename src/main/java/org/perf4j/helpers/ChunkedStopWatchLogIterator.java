@@ -0,0 +1,304 @@
+/* Copyright (c) 2008-2009 HomeAway, Inc.
+ * All rights reserved.  http://www.perf4j.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.perf4j.helpers;
+
+import org.perf4j.StopWatch;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CodingErrorAction;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.regex.Matcher;
+
+/**
+ * The ChunkedStopWatchLogIterator returns the same StopWatches, in the same order, as a {@link StopWatchLogIterator}
+ * reading the same file, but it uses multiple threads to do the work. The file is split into newline-aligned chunks,
+ * and each chunk is memory-mapped, decoded and parsed on a thread pool. The parsed chunks are then returned in file
+ * order, so when this iterator is wrapped in a {@link GroupingStatisticsIterator} the resulting statistics are
+ * identical to those from sequential parsing.
+ * <p/>
+ * Only a bounded number of chunks (twice the number of threads) are parsed ahead of the chunk currently being
+ * returned, so memory use doesn't depend on the size of the file.
+ * <p/>
+ * The log file is decoded using the platform default charset (as a FileReader would), which must encode a newline as
+ * the single byte '\n' (true for ASCII, UTF-8, the ISO-8859 family and most other common charsets).
+ */
+public class ChunkedStopWatchLogIterator implements Iterator<StopWatch> {
+    /**
+     * The default size, in bytes, of each chunk of the file that is parsed as a unit.
+     */
+    public static final int DEFAULT_CHUNK_SIZE = 8 * 1024 * 1024;
+
+    /**
+     * The approximate size of each chunk, which is extended to the end of the line.
+     */
+    private final int chunkSize;
+    /**
+     * The maximum number of chunks that are being parsed, or have been parsed but not yet returned, at any one time.
+     */
+    private final int maxPendingChunks;
+    /**
+     * The charset used to decode the file.
+     */
+    private final Charset charset;
+    /**
+     * The open log file.
+     */
+    private final RandomAccessFile logFile;
+    /**
+     * The channel used to map the log file.
+     */
+    private final FileChannel channel;
+    /**
+     * The length of the log file.
+     */
+    private final long fileLength;
+    /**
+     * The thread pool used to parse chunks.
+     */
+    private final ExecutorService executor;
+    /**
+     * The parsed StopWatches from the chunks that have been submitted to the executor, in file order.
+     */
+    private final LinkedList<Future<List<StopWatch>>> pendingChunks = new LinkedList<Future<List<StopWatch>>>();
+    /**
+     * The file position of the next chunk to be submitted.
+     */
+    private long nextChunkStart = 0L;
+    /**
+     * The StopWatches from the chunk currently being returned.
+     */
+    private Iterator<StopWatch> currentChunk = null;
+    /**
+     * Set once the file has been fully parsed and all resources have been released.
+     */
+    private boolean closed = false;
+
+    /**
+     * Creates a ChunkedStopWatchLogIterator that uses the default chunk size.
+     *
+     * @param logFile    The log file to parse
+     * @param numThreads The number of threads to use to parse the file.
+     * @throws IOException Thrown if the file could not be opened.
+     */
+    public ChunkedStopWatchLogIterator(File logFile, int numThreads) throws IOException {
+        this(logFile, numThreads, DEFAULT_CHUNK_SIZE);
+    }
+
+    /**
+     * Creates a ChunkedStopWatchLogIterator.
+     *
+     * @param logFile    The log file to parse
+     * @param numThreads The number of threads to use to parse the file.
+     * @param chunkSize  The approximate number of bytes in each chunk of the file.
+     * @throws IOException Thrown if the file could not be opened.
+     */
+    public ChunkedStopWatchLogIterator(File logFile, int numThreads, int chunkSize) throws IOException {
+        if (numThreads < 1) {
+            throw new IllegalArgumentException("numThreads must be positive: " + numThreads);
+        }
+        if (chunkSize < 1) {
+            throw new IllegalArgumentException("chunkSize must be positive: " + chunkSize);
+        }
+        this.charset = Charset.defaultCharset();
+        ByteBuffer encodedNewline = charset.encode("\n");
+        if (encodedNewline.remaining() != 1 || encodedNewline.get(0) != '\n') {
+            throw new IllegalArgumentException("The default charset " + charset.name() +
+                                               " is not supported for parallel log parsing");
+        }
+
+        this.chunkSize = chunkSize;
+        this.maxPendingChunks = numThreads * 2;
+        this.logFile = new RandomAccessFile(logFile, "r");
+        this.channel = this.logFile.getChannel();
+        this.fileLength = channel.size();
+        this.executor = Executors.newFixedThreadPool(numThreads, new ThreadFactory() {
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "perf4j-log-parser");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    public boolean hasNext() {
+        while ((currentChunk == null || !currentChunk.hasNext()) && !closed) {
+            submitChunks();
+            if (pendingChunks.isEmpty()) {
+                close();
+            } else {
+                currentChunk = waitForChunk(pendingChunks.removeFirst()).iterator();
+            }
+        }
+        return currentChunk != null && currentChunk.hasNext();
+    }
+
+    public StopWatch next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        return currentChunk.next();
+    }
+
+    /**
+     * Remove is not supported.
+     *
+     * @throws UnsupportedOperationException Always thrown.
+     */
+    public void remove() {
+        throw new UnsupportedOperationException();
+    }
+
+    /**
+     * Stops any parsing threads and closes the log file. This is called automatically once all StopWatches have been
+     * returned, but should be called explicitly if iteration is abandoned early.
+     */
+    public void close() {
+        if (!closed) {
+            closed = true;
+            executor.shutdownNow();
+            pendingChunks.clear();
+            try {
+                logFile.close();
+            } catch (IOException ioe) {
+                //nothing more we can do
+            }
+        }
+    }
+
+    /**
+     * This helper method could potentially be overridden to return a different type of StopWatchParser that is used
+     * to parse the log. One parser is created for each chunk. As in the StopWatchLogIterator, the parser's pattern is
+     * used to find StopWatches.
+     *
+     * @return A new StopWatchParser to use to parse log messages.
+     */
+    protected StopWatchParser newStopWatchParser() {
+        return new StopWatchParser();
+    }
+
+    // --- Helper Methods ---
+    /**
+     * Submits chunks to the executor until the maximum number of chunks are pending or the end of the file is reached.
+     */
+    private void submitChunks() {
+        try {
+            while (pendingChunks.size() < maxPendingChunks && nextChunkStart < fileLength) {
+                long chunkStart = nextChunkStart;
+                long chunkEnd = findLineStart(Math.min(chunkStart + chunkSize, fileLength));
+                pendingChunks.add(executor.submit(new ChunkParser(chunkStart, chunkEnd - chunkStart)));
+                nextChunkStart = chunkEnd;
+            }
+        } catch (IOException ioe) {
+            close();
+            throw new RuntimeException("Error reading log file: " + ioe.getMessage(), ioe);
+        }
+    }
+
+    /**
+     * Finds the start of the first line that begins at or after the specified position.
+     *
+     * @param position The position to start searching from.
+     * @return The position just after the first newline at or after position - 1, or the file length if there are no
+     *         more newlines.
+     * @throws IOException Thrown if the file couldn't be read.
+     */
+    private long findLineStart(long position) throws IOException {
+        if (position >= fileLength) {
+            return fileLength;
+        }
+        //position is already a line start if the preceding byte is a newline, so start searching from there
+        position--;
+        ByteBuffer buffer = ByteBuffer.allocate(8192);
+        while (position < fileLength) {
+            buffer.clear();
+            int bytesRead = channel.read(buffer, position);
+            if (bytesRead <= 0) {
+                break;
+            }
+            for (int i = 0; i < bytesRead; i++) {
+                if (buffer.get(i) == '\n') {
+                    return position + i + 1;
+                }
+            }
+            position += bytesRead;
+        }
+        return fileLength;
+    }
+
+    /**
+     * Waits for a parsed chunk.
+     */
+    private List<StopWatch> waitForChunk(Future<List<StopWatch>> chunk) {
+        try {
+            return chunk.get();
+        } catch (InterruptedException ie) {
+            close();
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while parsing log file", ie);
+        } catch (ExecutionException ee) {
+            close();
+            Throwable cause = ee.getCause();
+            throw new RuntimeException("Error parsing log file: " + cause.getMessage(), cause);
+        }
+    }
+
+    // --- Support Classes ---
+    /**
+     * Maps, decodes and parses a single chunk of the file.
+     */
+    private class ChunkParser implements Callable<List<StopWatch>> {
+        private final long position;
+        private final long length;
+
+        ChunkParser(long position, long length) {
+            this.position = position;
+            this.length = length;
+        }
+
+        public List<StopWatch> call() throws Exception {
+            CharBuffer chunkText = charset.newDecoder()
+                    .onMalformedInput(CodingErrorAction.REPLACE)
+                    .onUnmappableCharacter(CodingErrorAction.REPLACE)
+                    .decode(channel.map(FileChannel.MapMode.READ_ONLY, position, length));
+
+            List<StopWatch> retVal = new ArrayList<StopWatch>();
+            StopWatchParser stopWatchParser = newStopWatchParser();
+            //The StopWatchLogIterator searches line by line, but since the default pattern can't match across a line
+            //terminator, searching the whole chunk at once finds the same StopWatches.
+            Matcher matcher = stopWatchParser.getPattern().matcher(chunkText);
+            while (matcher.find()) {
+                retVal.add(stopWatchParser.parseStopWatchFromLogMatch(matcher));
+            }
+            return retVal;
+        }
+    }
+}
@@ -0,0 +1,249 @@
+/* Copyright (c) 2008-2009 HomeAway, Inc.
+ * All rights reserved.  http://www.perf4j.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.perf4j.helpers;
+
+import org.perf4j.StopWatch;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * This StopWatchParser parses messages in the standard
+ * <tt>start[..] time[..] tag[..] message[..] nanos[..] sample[..]</tt> format without using regular expressions. The
+ * message is scanned by index, the start and elapsed times are parsed in place, and the only objects allocated are the
+ * StopWatch itself, the message String and, the first time a given tag is seen, the tag String. Tags are cached in a
+ * small fixed-size table, so repeated tags share a single String instance.
+ * <p/>
+ * {@link #parseStopWatch(String)} returns exactly the same result as the regex-based implementation using the
+ * {@link StopWatchParser#DEFAULT_MATCH_PATTERN}. The {@link #match(String)} and {@link #getPattern()} methods are
+ * inherited and still use the default pattern. To use this parser with the AsyncCoalescingStatisticsAppender, set
+ * its StopWatchParserClassName option to <tt>org.perf4j.helpers.FastStopWatchParser</tt>.
+ * <p/>
+ * Instances of this class are safe for use by multiple threads.
+ */
+public class FastStopWatchParser extends StopWatchParser {
+    private static final String START_PREFIX = "start[";
+    private static final String TIME_PREFIX = "] time[";
+    private static final String TAG_PREFIX = "] tag[";
+    private static final String MESSAGE_PREFIX = " message[";
+    private static final String NANOS_PREFIX = " nanos[";
+    private static final String SAMPLE_PREFIX = " sample[";
+    /**
+     * The size of the tag cache, must be a power of two.
+     */
+    private static final int TAG_CACHE_SIZE = 256;
+
+    /**
+     * Cache of recently parsed tags, indexed by the hash of the tag. Since Strings are immutable, races between
+     * threads updating this array are harmless - at worst a tag is allocated again.
+     */
+    private final String[] tagCache = new String[TAG_CACHE_SIZE];
+
+    /**
+     * Creates a FastStopWatchParser.
+     */
+    public FastStopWatchParser() {
+        super(DEFAULT_MATCH_PATTERN);
+    }
+
+    public StopWatch parseStopWatch(String message) {
+        //like Matcher.find(), try each possible starting position in turn
+        for (int start = message.indexOf(START_PREFIX); start >= 0; start = message.indexOf(START_PREFIX, start + 1)) {
+            StopWatch retVal = parseStopWatchAt(message, start);
+            if (retVal != null) {
+                return retVal;
+            }
+        }
+        return null;
+    }
+
+    // --- Helper Methods ---
+    /**
+     * Attempts to parse a StopWatch from the message beginning at the specified index.
+     *
+     * @param message The message to parse
+     * @param index   The index of the "start[" prefix
+     * @return The parsed StopWatch, or null if the message doesn't match the expected format at this index
+     */
+    private StopWatch parseStopWatchAt(String message, int index) {
+        //start time
+        int startTimeBegin = index + START_PREFIX.length();
+        int startTimeEnd = skipDigits(message, startTimeBegin);
+        if (startTimeEnd == startTimeBegin || !message.startsWith(TIME_PREFIX, startTimeEnd)) {
+            return null;
+        }
+
+        //elapsed time
+        int elapsedTimeBegin = startTimeEnd + TIME_PREFIX.length();
+        int elapsedTimeEnd = skipDigits(message, elapsedTimeBegin);
+        if (elapsedTimeEnd == elapsedTimeBegin || !message.startsWith(TAG_PREFIX, elapsedTimeEnd)) {
+            return null;
+        }
+
+        //tag, which ends at the first ']' on the same line
+        int tagBegin = elapsedTimeEnd + TAG_PREFIX.length();
+        int tagEnd = findClosingBracket(message, tagBegin);
+        if (tagEnd < 0) {
+            return null;
+        }
+
+        //optional message, which is only present if it also has a closing bracket on the same line
+        String stopWatchMessage = null;
+        int nextFieldBegin = tagEnd + 1;
+        if (message.startsWith(MESSAGE_PREFIX, nextFieldBegin)) {
+            int messageBegin = nextFieldBegin + MESSAGE_PREFIX.length();
+            int messageEnd = findClosingBracket(message, messageBegin);
+            if (messageEnd >= 0) {
+                stopWatchMessage = message.substring(messageBegin, messageEnd);
+                nextFieldBegin = messageEnd + 1;
+            }
+        }
+
+        //optional elapsed nano time, which must be all digits followed by a closing bracket
+        StopWatch retVal = null;
+        if (message.startsWith(NANOS_PREFIX, nextFieldBegin)) {
+            int nanosBegin = nextFieldBegin + NANOS_PREFIX.length();
+            int nanosEnd = skipDigits(message, nanosBegin);
+            if (nanosEnd > nanosBegin && nanosEnd < message.length() && message.charAt(nanosEnd) == ']') {
+                retVal = new StopWatch(parseLong(message, startTimeBegin, startTimeEnd),
+                                       parseLong(message, nanosBegin, nanosEnd),
+                                       TimeUnit.NANOSECONDS,
+                                       getTag(message, tagBegin, tagEnd),
+                                       stopWatchMessage);
+                nextFieldBegin = nanosEnd + 1;
+            }
+        }
+        if (retVal == null) {
+            retVal = new StopWatch(parseLong(message, startTimeBegin, startTimeEnd),
+                                   parseLong(message, elapsedTimeBegin, elapsedTimeEnd),
+                                   getTag(message, tagBegin, tagEnd),
+                                   stopWatchMessage);
+        }
+
+        //optional sample rate, which must be a number followed by a closing bracket
+        if (message.startsWith(SAMPLE_PREFIX, nextFieldBegin)) {
+            int sampleBegin = nextFieldBegin + SAMPLE_PREFIX.length();
+            int sampleEnd = skipSampleRate(message, sampleBegin);
+            if (sampleEnd > sampleBegin && sampleEnd < message.length() && message.charAt(sampleEnd) == ']') {
+                setSampleRate(retVal, Double.parseDouble(message.substring(sampleBegin, sampleEnd)));
+            }
+        }
+
+        return retVal;
+    }
+
+    /**
+     * Returns the index of the first character at or after the specified index that is not an ASCII digit.
+     */
+    private static int skipDigits(String message, int index) {
+        int length = message.length();
+        while (index < length) {
+            char c = message.charAt(index);
+            if (c < '0' || c > '9') {
+                break;
+            }
+            index++;
+        }
+        return index;
+    }
+
+    /**
+     * Returns the index just after a sample rate starting at the specified index, matching the regex
+     * <tt>\d+(?:\.\d+)?(?:E-?\d+)?</tt>, or the specified index if there is no sample rate there.
+     */
+    private static int skipSampleRate(String message, int index) {
+        int retVal = skipDigits(message, index);
+        if (retVal == index) {
+            return index;
+        }
+        if (retVal < message.length() && message.charAt(retVal) == '.') {
+            int fractionEnd = skipDigits(message, retVal + 1);
+            if (fractionEnd > retVal + 1) {
+                retVal = fractionEnd;
+            }
+        }
+        if (retVal < message.length() && message.charAt(retVal) == 'E') {
+            int exponentBegin = retVal + 1;
+            if (exponentBegin < message.length() && message.charAt(exponentBegin) == '-') {
+                exponentBegin++;
+            }
+            int exponentEnd = skipDigits(message, exponentBegin);
+            if (exponentEnd > exponentBegin) {
+                retVal = exponentEnd;
+            }
+        }
+        return retVal;
+    }
+
+    /**
+     * Returns the index of the first ']' at or after the specified index, or -1 if a line terminator (which the regex
+     * '.' character class does not match) or the end of the message is found first.
+     */
+    private static int findClosingBracket(String message, int index) {
+        int length = message.length();
+        for (; index < length; index++) {
+            switch (message.charAt(index)) {
+                case ']':
+                    return index;
+                case '\n':
+                case '\r':
+                case '\u0085':
+                case '\u2028':
+                case '\u2029':
+                    return -1;
+                default:
+                    //keep looking
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Parses the ASCII digits between begin and end without creating a substring. If the value overflows a long then
+     * Long.parseLong is used to throw the same NumberFormatException that the regex-based parser would.
+     */
+    private static long parseLong(String message, int begin, int end) {
+        long retVal = 0L;
+        for (int i = begin; i < end; i++) {
+            int digit = message.charAt(i) - '0';
+            if (retVal > (Long.MAX_VALUE - digit) / 10) {
+                return Long.parseLong(message.substring(begin, end));
+            }
+            retVal = retVal * 10 + digit;
+        }
+        return retVal;
+    }
+
+    /**
+     * Gets the tag between begin and end, using the cached String instance if this tag has been seen recently.
+     */
+    private String getTag(String message, int begin, int end) {
+        int hash = 0;
+        for (int i = begin; i < end; i++) {
+            hash = 31 * hash + message.charAt(i);
+        }
+        int cacheIndex = (hash ^ (hash >>> 16)) & (TAG_CACHE_SIZE - 1);
+
+        int length = end - begin;
+        String cachedTag = tagCache[cacheIndex];
+        if (cachedTag != null && cachedTag.length() == length && message.regionMatches(begin, cachedTag, 0, length)) {
+            return cachedTag;
+        }
+
+        String tag = message.substring(begin, end);
+        tagCache[cacheIndex] = tag;
+        return tag;
+    }
+}
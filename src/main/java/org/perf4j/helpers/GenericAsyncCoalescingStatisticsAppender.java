@@ -18,12 +18,19 @@ package org.perf4j.helpers;
 import org.perf4j.GroupedTimingStatistics;
 import org.perf4j.StopWatch;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.Iterator;
 import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
 import java.util.NoSuchElementException;
-import java.util.concurrent.ArrayBlockingQueue;
-import java.util.concurrent.BlockingQueue;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * This class provides the implementation for the AsyncCoalescingStatisticsAppenders made available for different
@@ -33,6 +40,50 @@ import java.util.concurrent.TimeUnit;
  * @see org.perf4j.log4j.AsyncCoalescingStatisticsAppender
  */
 public class GenericAsyncCoalescingStatisticsAppender {
+    /**
+     * The QueueType option value that uses a standard ArrayBlockingQueue, which is the default.
+     */
+    public static final String ARRAY_BLOCKING_QUEUE_TYPE = "ArrayBlockingQueue";
+    /**
+     * The QueueType option value that uses a lock-free {@link RingBufferMessageQueue}.
+     */
+    public static final String RING_BUFFER_QUEUE_TYPE = "RingBuffer";
+    /**
+     * The OverloadPolicy option value that discards messages that don't fit in the queue, which is the default.
+     */
+    public static final String DISCARD_OVERLOAD_POLICY = "Discard";
+    /**
+     * The OverloadPolicy option value that samples messages once the queue is above its high-water mark.
+     */
+    public static final String SAMPLE_OVERLOAD_POLICY = "Sample";
+    /**
+     * The OverloadPolicy option value that aggregates messages on the logging thread once the queue is above its
+     * high-water mark.
+     */
+    public static final String AGGREGATE_OVERLOAD_POLICY = "Aggregate";
+    /**
+     * The key used by {@link #getNumDiscardedMessagesByTag()} for discarded messages whose tag is not tracked, either
+     * because it couldn't be determined or because too many distinct tags have already been discarded.
+     */
+    public static final String OTHER_TAGS_KEY = "*";
+
+    /**
+     * The maximum number of distinct tags for which discards are counted separately.
+     */
+    private static final int MAX_DISCARD_TAGS = 1000;
+    /**
+     * The minimum time, in milliseconds, between error reports about discarded messages.
+     */
+    private static final long DISCARD_REPORT_INTERVAL = 10000L;
+    /**
+     * When the Sample OverloadPolicy is in effect, messages are never admitted with a lower probability than this,
+     * so that every tag is still represented when the queue is nearly full.
+     */
+    private static final double MIN_ADMISSION_RATE = 0.01;
+    /**
+     * The number of tags listed when discards are reported.
+     */
+    private static final int NUM_REPORTED_DISCARD_TAGS = 5;
 
     /**
      * The GroupedTimingStatisticsHandler defines a callback interface so that logging-framework-specific
@@ -79,6 +130,42 @@ public class GenericAsyncCoalescingStatisticsAppender {
      * org.perf4j.helpers.StopWatchParser
      */
     private String stopWatchParserClassName = StopWatchParser.class.getName();
+    /**
+     * The QueueType option, used to determine the implementation of the loggedMessages queue
+     */
+    private String queueType = ARRAY_BLOCKING_QUEUE_TYPE;
+    /**
+     * The WaitStrategy option, only used when the QueueType is RingBuffer
+     */
+    private String waitStrategy = WaitStrategy.PARK.getName();
+    /**
+     * The ThreadLocalAggregation option
+     */
+    private boolean threadLocalAggregation = false;
+    /**
+     * The PercentileSignificantDigits option, 0 if percentiles are not tracked
+     */
+    private int percentileSignificantDigits = 0;
+    /**
+     * The PercentileMaxValue option
+     */
+    private long percentileMaxValue = 3600000L;
+    /**
+     * The AllowedLateness option
+     */
+    private long allowedLateness = 0L;
+    /**
+     * The TimeUnit option
+     */
+    private TimeUnit timeUnit = TimeUnit.MILLISECONDS;
+    /**
+     * The OverloadPolicy option
+     */
+    private String overloadPolicy = DISCARD_OVERLOAD_POLICY;
+    /**
+     * The HighWaterMark option, as a percentage of the queue capacity
+     */
+    private int highWaterMark = 75;
 
     // --- contained objects ---
     /**
@@ -87,21 +174,75 @@ public class GenericAsyncCoalescingStatisticsAppender {
      */
     private GroupedTimingStatisticsHandler handler = null;
     /**
-     * StopWatch log messages are pushed onto this queue, which is initialized in start().
+     * StopWatch log messages are pushed onto this queue, which is initialized in start(). Elements are either String
+     * messages that still need to be parsed, SampledMessages or ImmutableStopWatch instances that can be aggregated
+     * directly.
      */
-    private BlockingQueue<String> loggedMessages = null;
+    private MessageQueue loggedMessages = null;
     /**
      * This parser is used to convert String log messages to StopWatches
      */
     private StopWatchParser stopWatchParser;
+    /**
+     * If the PercentileSignificantDigits option is set, the prototype histogram used to track percentiles, otherwise
+     * null.
+     */
+    private LatencyHistogram histogramPrototype = null;
+    /**
+     * The iterator used by the Dispatcher to group StopWatches, used to report the number of late StopWatches.
+     */
+    private volatile GroupingStatisticsIterator groupingIterator = null;
+    /**
+     * If the ThreadLocalAggregation option is set, StopWatch objects are aggregated on the logging thread by this
+     * aggregator instead of being pushed on the loggedMessages queue. Otherwise this is null.
+     */
+    private StripedStatisticsAggregator aggregator = null;
     /**
      * This thread pumps logs from the loggedMessages queue. It is created in start().
      */
     private Thread drainingThread = null;
     /**
-     * This int keeps track of the total number of messages that had to be discarded due to the queue being full.
+     * If the OverloadPolicy is Aggregate, StopWatches logged while the queue is above the high-water mark are
+     * aggregated on the logging thread by this aggregator, which is the same as the ThreadLocalAggregation aggregator
+     * if that option is set. Otherwise this is null.
+     */
+    private StripedStatisticsAggregator overflowAggregator = null;
+    /**
+     * Whether the OverloadPolicy is Sample (as opposed to Discard or Aggregate), set in start().
+     */
+    private boolean sampleOnOverload = false;
+    /**
+     * Whether the OverloadPolicy is Sample or Aggregate, set in start(). If it is Discard the queue size doesn't need
+     * to be checked before offering a message, which matters because the size of a blocking queue takes its lock.
+     */
+    private boolean overloadPolicyActive = false;
+    /**
+     * The number of messages in the queue at which the OverloadPolicy takes effect, or Integer.MAX_VALUE if the
+     * OverloadPolicy is Discard. Set in start() from the HighWaterMark option.
+     */
+    private int highWaterMarkSize = Integer.MAX_VALUE;
+    /**
+     * Keeps track of the total number of messages that had to be discarded due to the queue being full.
+     */
+    private volatile StripedCounter numDiscardedMessages = new StripedCounter();
+    /**
+     * Keeps track of the number of discarded messages for each tag.
+     */
+    private volatile ConcurrentMap<String, AtomicLong> numDiscardedMessagesByTag =
+            new ConcurrentHashMap<String, AtomicLong>();
+    /**
+     * Keeps track of the number of messages that were not queued because they were not picked by the Sample
+     * OverloadPolicy. These are accounted for in the statistics by the sample rate of the messages that were queued.
      */
-    private volatile int numDiscardedMessages = 0;
+    private volatile StripedCounter numShedMessages = new StripedCounter();
+    /**
+     * The total number of discarded messages at the time of the last error report. Only used by the draining thread.
+     */
+    private long numReportedDiscards = 0L;
+    /**
+     * The earliest time at which discarded messages may be reported again. Only used by the draining thread.
+     */
+    private long nextDiscardReportTime = 0L;
 
     // --- options ---
     /**
@@ -175,8 +316,8 @@ public class GenericAsyncCoalescingStatisticsAppender {
     /**
      * The <b>QueueSize</b> option is used to control the size of the internal queue used by this appender to store
      * logged messages before they are sent to downstream appenders. Defaults to 1024. If set too small and the queue
-     * fills up, then logged StopWatches will be discarded. The number of discarded messages can be accessed using the
-     * {@link #getNumDiscardedMessages()} method.
+     * fills up, then logged StopWatches will be discarded, unless the OverloadPolicy option is set. The number of
+     * discarded messages can be accessed using the {@link #getNumDiscardedMessages()} method.
      *
      * @return The QueueSize option.
      */
@@ -195,7 +336,8 @@ public class GenericAsyncCoalescingStatisticsAppender {
 
     /**
      * The <b>StopWatchParserClassName</b> option is used to determine the class used to parse stop watch messages
-     * into StopWatch instances. This defaults to the standard "org.perf4j.helpers.StopWatchParser" class.
+     * into StopWatch instances. This defaults to the standard "org.perf4j.helpers.StopWatchParser" class. The
+     * "org.perf4j.helpers.FastStopWatchParser" class gives identical results without using regular expressions.
      *
      * @return The StopWatchParserClassName option.
      */
@@ -212,6 +354,217 @@ public class GenericAsyncCoalescingStatisticsAppender {
         this.stopWatchParserClassName = stopWatchParserClassName;
     }
 
+    /**
+     * The <b>QueueType</b> option determines the implementation of the internal queue used to pass logged messages
+     * to the draining thread. The two options are:
+     * <ul>
+     * <li><b>ArrayBlockingQueue</b> - the default, a standard lock-based bounded queue.
+     * <li><b>RingBuffer</b> - a pre-allocated, lock-free ring buffer that scales much better when many threads log
+     * concurrently. When this type is used the <b>WaitStrategy</b> option determines how the draining thread waits
+     * for new messages.
+     * </ul>
+     * In both cases the QueueSize option sets the capacity of the queue (the RingBuffer rounds the capacity up to the
+     * next power of two) and messages that don't fit are discarded and counted by {@link #getNumDiscardedMessages()}.
+     *
+     * @return The QueueType option.
+     */
+    public String getQueueType() {
+        return queueType;
+    }
+
+    /**
+     * Sets the value of the <b>QueueType</b> option.
+     *
+     * @param queueType The new QueueType option, either ArrayBlockingQueue or RingBuffer.
+     */
+    public void setQueueType(String queueType) {
+        this.queueType = queueType;
+    }
+
+    /**
+     * The <b>WaitStrategy</b> option determines how the draining thread waits for new messages when the QueueType is
+     * RingBuffer. Must be one of BusySpin, Yield or Park (the default). See {@link WaitStrategy} for details.
+     *
+     * @return The WaitStrategy option.
+     */
+    public String getWaitStrategy() {
+        return waitStrategy;
+    }
+
+    /**
+     * Sets the value of the <b>WaitStrategy</b> option.
+     *
+     * @param waitStrategy The new WaitStrategy option.
+     */
+    public void setWaitStrategy(String waitStrategy) {
+        this.waitStrategy = waitStrategy;
+    }
+
+    /**
+     * The <b>ThreadLocalAggregation</b> option, if true, causes StopWatch objects passed to
+     * {@link #append(org.perf4j.StopWatch)} to be aggregated into per-thread statistics on the logging thread itself,
+     * instead of being passed one by one to the draining thread. At each time slice boundary the draining thread
+     * combines the per-thread statistics. This greatly reduces cross-thread traffic for high-volume tags, and since
+     * these StopWatches never go on the queue they can never be discarded. String messages still go through the
+     * queue and are parsed on the draining thread. Defaults to false.
+     *
+     * @return The ThreadLocalAggregation option.
+     */
+    public boolean isThreadLocalAggregation() {
+        return threadLocalAggregation;
+    }
+
+    /**
+     * Sets the value of the <b>ThreadLocalAggregation</b> option.
+     *
+     * @param threadLocalAggregation The new ThreadLocalAggregation option.
+     */
+    public void setThreadLocalAggregation(boolean threadLocalAggregation) {
+        this.threadLocalAggregation = threadLocalAggregation;
+    }
+
+    /**
+     * The <b>PercentileSignificantDigits</b> option, if greater than 0, causes the distribution of elapsed times for
+     * each tag to be recorded in a {@link LatencyHistogram} so that percentiles (such as the P99 and P999
+     * statistics) can be calculated. The value is the number of significant decimal digits to which elapsed times are
+     * preserved, from 1 to 5. Each tag in each time slice uses a fixed amount of extra memory that depends on this
+     * option and the PercentileMaxValue option - for example 2 significant digits up to the default max value of one
+     * hour uses 16 KB. Defaults to 0, meaning percentiles are not tracked.
+     *
+     * @return The PercentileSignificantDigits option.
+     */
+    public int getPercentileSignificantDigits() {
+        return percentileSignificantDigits;
+    }
+
+    /**
+     * Sets the value of the <b>PercentileSignificantDigits</b> option.
+     *
+     * @param percentileSignificantDigits The new PercentileSignificantDigits option.
+     */
+    public void setPercentileSignificantDigits(int percentileSignificantDigits) {
+        this.percentileSignificantDigits = percentileSignificantDigits;
+    }
+
+    /**
+     * The <b>PercentileMaxValue</b> option sets the highest elapsed time, in milliseconds, that is tracked with full
+     * precision when calculating percentiles. Larger elapsed times are counted as this value. Only used if the
+     * PercentileSignificantDigits option is set. This option is in milliseconds regardless of the TimeUnit option.
+     * Defaults to 3600000 (one hour).
+     *
+     * @return The PercentileMaxValue option.
+     */
+    public long getPercentileMaxValue() {
+        return percentileMaxValue;
+    }
+
+    /**
+     * Sets the value of the <b>PercentileMaxValue</b> option.
+     *
+     * @param percentileMaxValue The new PercentileMaxValue option.
+     */
+    public void setPercentileMaxValue(long percentileMaxValue) {
+        this.percentileMaxValue = percentileMaxValue;
+    }
+
+    /**
+     * The <b>AllowedLateness</b> option is the time, in milliseconds, that a time slice is kept open after it ends so
+     * that StopWatches that started in it, but were logged later (for example because they ran for a long time or
+     * were delayed on a busy thread), are still counted in the correct time slice. StopWatches that arrive after that
+     * are dropped and counted by {@link #getNumLateStopWatches()}. Setting this option delays the output of each time
+     * slice by the allowed lateness. Defaults to 0, in which case time slices are closed as soon as they end and late
+     * StopWatches are counted in the current time slice. When the ThreadLocalAggregation option is set late
+     * StopWatches are never dropped, but this option still delays when each time slice is closed.
+     *
+     * @return The AllowedLateness option.
+     */
+    public long getAllowedLateness() {
+        return allowedLateness;
+    }
+
+    /**
+     * Sets the value of the <b>AllowedLateness</b> option.
+     *
+     * @param allowedLateness The new AllowedLateness option.
+     */
+    public void setAllowedLateness(long allowedLateness) {
+        this.allowedLateness = allowedLateness;
+    }
+
+    /**
+     * The <b>TimeUnit</b> option sets the unit of the statistics created by this appender, one of "ms" (the default),
+     * "us" or "ns" (the full TimeUnit names such as MICROSECONDS are also accepted). Finer units keep the precise
+     * elapsed times of sub-millisecond StopWatches, which would otherwise all be counted as 0 ms. Note that String
+     * messages only carry sub-millisecond times if they were logged with {@link StopWatch#setLogNanoTime(boolean)}
+     * enabled. The PercentileMaxValue option is always in milliseconds.
+     *
+     * @return The TimeUnit option, as an abbreviation such as "ms".
+     */
+    public String getTimeUnit() {
+        return MiscUtils.getTimeUnitAbbreviation(timeUnit);
+    }
+
+    /**
+     * Sets the value of the <b>TimeUnit</b> option.
+     *
+     * @param timeUnit The new TimeUnit option.
+     * @throws IllegalArgumentException Thrown if timeUnit is not a valid time unit
+     */
+    public void setTimeUnit(String timeUnit) {
+        this.timeUnit = MiscUtils.parseTimeUnit(timeUnit);
+    }
+
+    /**
+     * The <b>OverloadPolicy</b> option determines what happens to logged messages when the draining thread can't
+     * keep up and the queue fills past the high-water mark set by the HighWaterMark option. The options are:
+     * <ul>
+     * <li><b>Discard</b> - the default, messages are queued until the queue is full, after which they are discarded.
+     * <li><b>Sample</b> - above the high-water mark, messages are queued with a probability that falls from 1 at the
+     * high-water mark to 0.01 when the queue is full. Queued messages carry their sample rate, so the counts and
+     * TPS of the resulting statistics remain accurate estimates.
+     * <li><b>Aggregate</b> - above the high-water mark, messages are aggregated on the logging thread (as if the
+     * ThreadLocalAggregation option were set) and merged into the statistics for their time slice, so no
+     * StopWatches are lost. String messages are parsed on the logging thread to do so, which makes logging them more
+     * expensive while the appender is overloaded.
+     * </ul>
+     * In all cases messages that still don't fit in the queue are discarded and counted by
+     * {@link #getNumDiscardedMessages()} and {@link #getNumDiscardedMessagesByTag()}. Discards are reported to the
+     * GroupedTimingStatisticsHandler's error method by the draining thread, at most once every 10 seconds.
+     *
+     * @return The OverloadPolicy option.
+     */
+    public String getOverloadPolicy() {
+        return overloadPolicy;
+    }
+
+    /**
+     * Sets the value of the <b>OverloadPolicy</b> option.
+     *
+     * @param overloadPolicy The new OverloadPolicy option, one of Discard, Sample or Aggregate.
+     */
+    public void setOverloadPolicy(String overloadPolicy) {
+        this.overloadPolicy = overloadPolicy;
+    }
+
+    /**
+     * The <b>HighWaterMark</b> option is the percentage of the queue capacity above which the OverloadPolicy takes
+     * effect. Defaults to 75. Not used when the OverloadPolicy is Discard.
+     *
+     * @return The HighWaterMark option.
+     */
+    public int getHighWaterMark() {
+        return highWaterMark;
+    }
+
+    /**
+     * Sets the value of the <b>HighWaterMark</b> option.
+     *
+     * @param highWaterMark The new HighWaterMark option, from 0 to 100.
+     */
+    public void setHighWaterMark(int highWaterMark) {
+        this.highWaterMark = highWaterMark;
+    }
+
     // --- attributes ---
     /**
      * Returns the number of StopWatch messages that have been discarded due to the queue being full.
@@ -219,7 +572,44 @@ public class GenericAsyncCoalescingStatisticsAppender {
      * @return The number of discarded messages.
      */
     public int getNumDiscardedMessages() {
-        return numDiscardedMessages;
+        return (int) Math.min(numDiscardedMessages.sum(), Integer.MAX_VALUE);
+    }
+
+    /**
+     * Returns the number of StopWatch messages that have been discarded due to the queue being full, by tag. Only
+     * the first 1000 distinct tags are counted separately, the rest (and String messages whose tag can't be
+     * determined) are counted under the {@link #OTHER_TAGS_KEY}.
+     *
+     * @return A snapshot of the number of discarded messages for each tag, sorted by tag.
+     */
+    public Map<String, Long> getNumDiscardedMessagesByTag() {
+        Map<String, Long> retVal = new TreeMap<String, Long>();
+        for (Map.Entry<String, AtomicLong> tagAndCount : numDiscardedMessagesByTag.entrySet()) {
+            retVal.put(tagAndCount.getKey(), tagAndCount.getValue().get());
+        }
+        return retVal;
+    }
+
+    /**
+     * Returns the number of StopWatch messages that were not queued because the Sample OverloadPolicy was in effect.
+     * Unlike discarded messages these are accounted for in the statistics, as the messages that were queued carry
+     * their sample rate.
+     *
+     * @return The number of messages not picked by sampling.
+     */
+    public long getNumShedMessages() {
+        return numShedMessages.sum();
+    }
+
+    /**
+     * Returns the number of StopWatches that have been dropped because they arrived after the AllowedLateness for
+     * their time slice had passed.
+     *
+     * @return The number of late StopWatches.
+     */
+    public long getNumLateStopWatches() {
+        GroupingStatisticsIterator iterator = groupingIterator;
+        return (iterator == null) ? 0L : iterator.getNumLateStopWatches();
     }
 
     // --- main lifecycle methods ---
@@ -237,10 +627,20 @@ public class GenericAsyncCoalescingStatisticsAppender {
 
         this.handler = handler;
         stopWatchParser = newStopWatchParser();
-        numDiscardedMessages = 0;
-        loggedMessages = new ArrayBlockingQueue<String>(getQueueSize());
+        numDiscardedMessages = new StripedCounter();
+        numDiscardedMessagesByTag = new ConcurrentHashMap<String, AtomicLong>();
+        numShedMessages = new StripedCounter();
+        numReportedDiscards = 0L;
+        nextDiscardReportTime = 0L;
+        loggedMessages = newMessageQueue();
+        histogramPrototype = newHistogramPrototype();
+        aggregator = threadLocalAggregation ?
+                     new StripedStatisticsAggregator(timeSlice, createRollupStatistics, histogramPrototype, timeUnit) :
+                     null;
+        initOverloadPolicy();
 
-        drainingThread = new Thread(new Dispatcher(), "perf4j-async-stats-appender-sink-" + getName());
+        drainingThread = new Thread((aggregator == null) ? new Dispatcher() : new AggregatingDispatcher(),
+                                    "perf4j-async-stats-appender-sink-" + getName());
         drainingThread.setDaemon(true);
         drainingThread.start();
     }
@@ -253,12 +653,68 @@ public class GenericAsyncCoalescingStatisticsAppender {
      */
     public void append(String message) {
         //Do a quick check to cull out any messages not meant for us
-        if (stopWatchParser.isPotentiallyValid(message)) {
-            if (!loggedMessages.offer(message)) {
-                ++numDiscardedMessages;
-                handler.error(message);
+        if (!stopWatchParser.isPotentiallyValid(message)) {
+            return;
+        }
+
+        Object queuedMessage = message;
+        if (overloadPolicyActive && loggedMessages.size() >= highWaterMarkSize) {
+            if (sampleOnOverload) {
+                double admissionRate = getAdmissionRate();
+                if (!Sampler.isSampled(admissionRate)) {
+                    numShedMessages.increment();
+                    return;
+                }
+                queuedMessage = new SampledMessage(message, admissionRate);
+            } else {
+                StopWatch parsedStopWatch = stopWatchParser.parseStopWatch(message);
+                if (parsedStopWatch != null) {
+                    overflowAggregator.addStopWatch(parsedStopWatch);
+                }
+                return;
             }
         }
+
+        if (!loggedMessages.offer(queuedMessage)) {
+            recordDiscard(getTagOfMessage(message));
+        }
+    }
+
+    /**
+     * This append method should be called when the logging framework passes the StopWatch object itself (instead of
+     * its String representation) as the log message. This avoids the cost of rendering the StopWatch to a String and
+     * then re-parsing it on the draining thread.
+     *
+     * @param stopWatch The StopWatch that was logged, may not be null. If this StopWatch is not an
+     *                  {@link ImmutableStopWatch} a snapshot of it is taken, so it is safe for the caller to reuse it
+     *                  after this method returns.
+     */
+    public void append(StopWatch stopWatch) {
+        if (aggregator != null) {
+            aggregator.addStopWatch(stopWatch);
+            return;
+        }
+
+        ImmutableStopWatch queuedStopWatch;
+        if (overloadPolicyActive && loggedMessages.size() >= highWaterMarkSize) {
+            if (sampleOnOverload) {
+                double admissionRate = getAdmissionRate();
+                if (!Sampler.isSampled(admissionRate)) {
+                    numShedMessages.increment();
+                    return;
+                }
+                queuedStopWatch = new ImmutableStopWatch(stopWatch, stopWatch.getSampleRate() * admissionRate);
+            } else {
+                overflowAggregator.addStopWatch(stopWatch);
+                return;
+            }
+        } else {
+            queuedStopWatch = ImmutableStopWatch.valueOf(stopWatch);
+        }
+
+        if (!loggedMessages.offer(queuedStopWatch)) {
+            recordDiscard(stopWatch.getTag());
+        }
     }
 
     /**
@@ -285,6 +741,188 @@ public class GenericAsyncCoalescingStatisticsAppender {
         }
     }
 
+    /**
+     * Helper method sets up the fields used to implement the OverloadPolicy and HighWaterMark options. Must be called
+     * after the loggedMessages queue and the ThreadLocalAggregation aggregator are created.
+     */
+    private void initOverloadPolicy() {
+        sampleOnOverload = false;
+        overloadPolicyActive = false;
+        overflowAggregator = null;
+        if (DISCARD_OVERLOAD_POLICY.equals(overloadPolicy)) {
+            highWaterMarkSize = Integer.MAX_VALUE;
+            return;
+        } else if (SAMPLE_OVERLOAD_POLICY.equals(overloadPolicy)) {
+            sampleOnOverload = true;
+        } else if (AGGREGATE_OVERLOAD_POLICY.equals(overloadPolicy)) {
+            overflowAggregator = (aggregator != null) ?
+                                 aggregator :
+                                 new StripedStatisticsAggregator(timeSlice,
+                                                                 createRollupStatistics,
+                                                                 histogramPrototype,
+                                                                 timeUnit);
+        } else {
+            throw new RuntimeException("Unknown OverloadPolicy: " + overloadPolicy +
+                                       ". Must be one of " + DISCARD_OVERLOAD_POLICY + ", " +
+                                       SAMPLE_OVERLOAD_POLICY + " or " + AGGREGATE_OVERLOAD_POLICY);
+        }
+
+        if (highWaterMark < 0 || highWaterMark > 100) {
+            throw new RuntimeException("HighWaterMark must be a percentage from 0 to 100, was " + highWaterMark);
+        }
+        //the high-water mark is always below the capacity, otherwise the policy would never take effect
+        highWaterMarkSize = Math.min((int) ((long) loggedMessages.capacity() * highWaterMark / 100),
+                                     loggedMessages.capacity() - 1);
+        overloadPolicyActive = true;
+    }
+
+    /**
+     * Helper method calculates the probability with which messages are queued under the Sample OverloadPolicy. This
+     * falls linearly from 1 at the high-water mark to MIN_ADMISSION_RATE when the queue is full, so the queue fills
+     * more slowly the fuller it gets.
+     *
+     * @return The probability with which the next message should be queued.
+     */
+    private double getAdmissionRate() {
+        int capacity = loggedMessages.capacity();
+        double retVal = (double) (capacity - loggedMessages.size()) / (capacity - highWaterMarkSize);
+        return Math.max(MIN_ADMISSION_RATE, Math.min(1.0, retVal));
+    }
+
+    /**
+     * Helper method counts a discarded message. The message itself is no longer reported to the
+     * GroupedTimingStatisticsHandler here, since doing so on the logging thread would slow it down just when the
+     * appender is already overloaded - instead the draining thread periodically reports the counts.
+     *
+     * @param tag The tag of the discarded message, may be null if it couldn't be determined.
+     */
+    private void recordDiscard(String tag) {
+        numDiscardedMessages.increment();
+
+        ConcurrentMap<String, AtomicLong> countsByTag = numDiscardedMessagesByTag;
+        AtomicLong count = countsByTag.get((tag == null) ? OTHER_TAGS_KEY : tag);
+        if (count == null) {
+            //the size check is racy, but it's fine if a few more tags than the maximum are tracked
+            if (tag == null || countsByTag.size() >= MAX_DISCARD_TAGS) {
+                tag = OTHER_TAGS_KEY;
+            }
+            AtomicLong newCount = new AtomicLong();
+            count = countsByTag.putIfAbsent(tag, newCount);
+            if (count == null) {
+                count = newCount;
+            }
+        }
+        count.incrementAndGet();
+    }
+
+    /**
+     * Helper method reports discarded messages to the GroupedTimingStatisticsHandler, at most once every
+     * DISCARD_REPORT_INTERVAL milliseconds. This must only be called from the draining thread.
+     *
+     * @param force If true, any unreported discards are reported regardless of when the last report was made.
+     */
+    private void reportDiscards(boolean force) {
+        long now = System.currentTimeMillis();
+        if (!force && now < nextDiscardReportTime) {
+            return;
+        }
+        nextDiscardReportTime = now + DISCARD_REPORT_INTERVAL;
+
+        long totalDiscards = numDiscardedMessages.sum();
+        if (totalDiscards <= numReportedDiscards) {
+            return;
+        }
+
+        //list the tags with the most discards
+        List<Map.Entry<String, Long>> tagsAndCounts =
+                new ArrayList<Map.Entry<String, Long>>(getNumDiscardedMessagesByTag().entrySet());
+        Collections.sort(tagsAndCounts, new Comparator<Map.Entry<String, Long>>() {
+            public int compare(Map.Entry<String, Long> a, Map.Entry<String, Long> b) {
+                return b.getValue().compareTo(a.getValue());
+            }
+        });
+        StringBuilder topTags = new StringBuilder();
+        for (int i = 0; i < tagsAndCounts.size() && i < NUM_REPORTED_DISCARD_TAGS; i++) {
+            if (i > 0) {
+                topTags.append(", ");
+            }
+            topTags.append(tagsAndCounts.get(i).getKey()).append('=').append(tagsAndCounts.get(i).getValue());
+        }
+        if (tagsAndCounts.size() > NUM_REPORTED_DISCARD_TAGS) {
+            topTags.append(", ...");
+        }
+
+        handler.error("AsyncCoalescingStatisticsAppender " + getName() + " discarded "
+                      + (totalDiscards - numReportedDiscards) + " StopWatch messages because its queue was full ("
+                      + totalDiscards + " in total, by tag: " + topTags + "). Consider increasing the QueueSize or "
+                      + "setting the OverloadPolicy option.");
+        numReportedDiscards = totalDiscards;
+    }
+
+    /**
+     * Helper method extracts the tag from a String StopWatch message without fully parsing it. This is only used for
+     * discarded messages, so it needn't be fast.
+     *
+     * @param message The StopWatch message
+     * @return The tag, or null if it couldn't be found
+     */
+    static String getTagOfMessage(String message) {
+        int tagStart = message.indexOf("tag[");
+        if (tagStart < 0) {
+            return null;
+        }
+        tagStart += "tag[".length();
+        int tagEnd = message.indexOf(']', tagStart);
+        return (tagEnd < 0) ? null : message.substring(tagStart, tagEnd);
+    }
+
+    /**
+     * Helper method converts a message from the loggedMessages queue to a StopWatch, parsing it if necessary. Must
+     * not be called with the empty String that signals the end of the queue.
+     *
+     * @param message The message from the queue
+     * @return The StopWatch, or null if the message isn't a valid StopWatch message.
+     */
+    private StopWatch toStopWatch(Object message) {
+        if (message instanceof StopWatch) {
+            //no need to parse, the logging framework handed us the StopWatch directly
+            return (StopWatch) message;
+        } else if (message instanceof SampledMessage) {
+            SampledMessage sampledMessage = (SampledMessage) message;
+            StopWatch retVal = stopWatchParser.parseStopWatch(sampledMessage.message);
+            if (retVal != null) {
+                retVal.setSampleRate(retVal.getSampleRate() * sampledMessage.sampleRate);
+            }
+            return retVal;
+        } else {
+            return stopWatchParser.parseStopWatch((String) message);
+        }
+    }
+
+    /**
+     * Helper method passes each of the specified statistics to the handler.
+     *
+     * @param statisticsList The GroupedTimingStatistics to handle.
+     */
+    private void handleAll(List<GroupedTimingStatistics> statisticsList) {
+        for (GroupedTimingStatistics statistics : statisticsList) {
+            handle(statistics);
+        }
+    }
+
+    /**
+     * Helper method passes the specified statistics to the handler, reporting any exception as an error.
+     *
+     * @param statistics The GroupedTimingStatistics to handle.
+     */
+    private void handle(GroupedTimingStatistics statistics) {
+        try {
+            handler.handle(statistics);
+        } catch (Exception e) {
+            handler.error("Error calling the GroupedTimingStatisticsHandler: " + e.getMessage());
+        }
+    }
+
     /**
      * Helper method instantiates a new StopWatchParser based on the StopWatchParserClassName option.
      *
@@ -298,6 +936,41 @@ public class GenericAsyncCoalescingStatisticsAppender {
         }
     }
 
+    /**
+     * Helper method creates the loggedMessages queue based on the QueueType, QueueSize and WaitStrategy options.
+     *
+     * @return The newly created MessageQueue
+     */
+    private MessageQueue newMessageQueue() {
+        if (ARRAY_BLOCKING_QUEUE_TYPE.equals(queueType)) {
+            return new BlockingMessageQueue(getQueueSize());
+        } else if (RING_BUFFER_QUEUE_TYPE.equals(queueType)) {
+            WaitStrategy strategy = WaitStrategy.DEFAULT_WAIT_STRATEGIES.get(waitStrategy);
+            if (strategy == null) {
+                throw new RuntimeException("Unknown WaitStrategy: " + waitStrategy +
+                                           ". See the documentation for the WaitStrategy option for valid values.");
+            }
+            return new RingBufferMessageQueue(getQueueSize(), strategy);
+        } else {
+            throw new RuntimeException("Unknown QueueType: " + queueType +
+                                       ". Must be one of " + ARRAY_BLOCKING_QUEUE_TYPE + " or " +
+                                       RING_BUFFER_QUEUE_TYPE);
+        }
+    }
+
+    /**
+     * Helper method creates the prototype histogram based on the PercentileSignificantDigits and PercentileMaxValue
+     * options. The max value is converted from milliseconds to the unit set by the TimeUnit option.
+     *
+     * @return The newly created LatencyHistogram, or null if percentiles should not be tracked
+     */
+    private LatencyHistogram newHistogramPrototype() {
+        return (percentileSignificantDigits > 0) ?
+               new LatencyHistogram(timeUnit.convert(percentileMaxValue, TimeUnit.MILLISECONDS),
+                                    percentileSignificantDigits) :
+               null;
+    }
+
     // --- Support Classes ---
     /**
      * This Dispatcher Runnable uses a StopWatchesFromQueueIterator to pull StopWatch logging message off the
@@ -310,14 +983,102 @@ public class GenericAsyncCoalescingStatisticsAppender {
                     new GroupingStatisticsIterator(new StopWatchesFromQueueIterator(),
                                                    timeSlice,
                                                    createRollupStatistics);
+            statsIterator.setHistogramPrototype(histogramPrototype);
+            statsIterator.setTimeUnit(timeUnit);
+            statsIterator.setAllowedLateness(allowedLateness);
+            groupingIterator = statsIterator;
 
             while (statsIterator.hasNext()) {
+                GroupedTimingStatistics statistics = statsIterator.next();
+                if (overflowAggregator != null) {
+                    mergeOverflowStatistics(statistics);
+                }
+                handle(statistics);
+            }
+
+            //flush any statistics aggregated on the logging threads under the Aggregate OverloadPolicy
+            if (overflowAggregator != null) {
+                handleAll(overflowAggregator.harvestAll());
+            }
+            reportDiscards(true);
+        }
+
+        /**
+         * Merges the statistics that were aggregated on the logging threads for the time slice of the specified
+         * statistics into it. Overflow statistics for earlier time slices, which the GroupingStatisticsIterator
+         * didn't produce because no messages for them were queued, are handled on their own.
+         *
+         * @param statistics The statistics for a time slice, about to be handled
+         */
+        private void mergeOverflowStatistics(GroupedTimingStatistics statistics) {
+            for (GroupedTimingStatistics overflowStatistics :
+                    overflowAggregator.harvest(statistics.getStartTime() / timeSlice)) {
+                if (overflowStatistics.getStartTime() / timeSlice == statistics.getStartTime() / timeSlice) {
+                    statistics.merge(overflowStatistics);
+                } else {
+                    handle(overflowStatistics);
+                }
+            }
+        }
+    }
+
+    /**
+     * This Dispatcher is used instead of the standard Dispatcher when the ThreadLocalAggregation option is set. At
+     * each time slice boundary it harvests the per-thread statistics from the StripedStatisticsAggregator and passes
+     * them to the GroupedTimingStatisticsHandler. Between boundaries it parses any String messages from the
+     * loggedMessages queue and adds them to the aggregator.
+     */
+    private class AggregatingDispatcher implements Runnable {
+        public void run() {
+            List<Object> drainedMessages = new LinkedList<Object>();
+            //time slices are harvested once the watermark, which trails the current time by the allowed lateness,
+            //passes their end
+            long watermark = System.currentTimeMillis() - allowedLateness;
+            long nextHarvestTime = ((watermark / timeSlice) * timeSlice) + timeSlice + allowedLateness;
+
+            while (true) {
+                reportDiscards(false);
+                long now = System.currentTimeMillis();
+                if (now >= nextHarvestTime) {
+                    watermark = now - allowedLateness;
+                    handleAll(aggregator.harvest((watermark / timeSlice) - 1));
+                    nextHarvestTime = ((watermark / timeSlice) * timeSlice) + timeSlice + allowedLateness;
+                    continue;
+                }
+
                 try {
-                    handler.handle(statsIterator.next());
-                } catch (Exception e) {
-                    handler.error("Error calling the GroupedTimingStatisticsHandler: " + e.getMessage());
+                    Object message = loggedMessages.poll(nextHarvestTime - now, TimeUnit.MILLISECONDS);
+                    if (message == null) {
+                        continue;
+                    }
+                    drainedMessages.add(message);
+                    loggedMessages.drainTo(drainedMessages, 64);
+                } catch (InterruptedException ie) {
+                    //someone interrupted us, we're done
+                    break;
+                }
+
+                boolean done = false;
+                for (Object message : drainedMessages) {
+                    if ("".equals(message)) {
+                        //the empty message is pushed onto the queue by the enclosing class' close() method
+                        done = true;
+                    } else {
+                        StopWatch stopWatch = toStopWatch(message);
+                        if (stopWatch != null) {
+                            aggregator.addStopWatch(stopWatch);
+                        }
+                    }
+                }
+                drainedMessages.clear();
+                if (done) {
+                    break;
                 }
             }
+
+            //flush everything that's left
+            handleAll(aggregator.harvestAll());
+            reportDiscards(true);
         }
     }
 
@@ -329,7 +1090,7 @@ public class GenericAsyncCoalescingStatisticsAppender {
         /**
          * Messages are drained to this list in blocks.
          */
-        private LinkedList<String> drainedMessages = new LinkedList<String>();
+        private LinkedList<Object> drainedMessages = new LinkedList<Object>();
         /**
          * Keeps track of the NEXT stop watch we will return.
          */
@@ -378,6 +1139,7 @@ public class GenericAsyncCoalescingStatisticsAppender {
             }
 
             while (true) {
+                reportDiscards(false);
                 if (drainedMessages.isEmpty()) {
                     loggedMessages.drainTo(drainedMessages, 64);
 
@@ -385,7 +1147,7 @@ public class GenericAsyncCoalescingStatisticsAppender {
                     if (drainedMessages.isEmpty()) {
                         //then wait for a message to show up
                         try {
-                            String message = loggedMessages.poll(timeSlice, TimeUnit.MILLISECONDS);
+                            Object message = loggedMessages.poll(timeSlice, TimeUnit.MILLISECONDS);
                             if (message == null) {
                                 // no new messages, but want to indicate to check the timeslice
                                 timeSliceOver = true;
@@ -402,21 +1164,35 @@ public class GenericAsyncCoalescingStatisticsAppender {
                 }
 
                 while (!drainedMessages.isEmpty()) {
-                    String message = drainedMessages.removeFirst();
-                    if (message.length() == 0) {
+                    Object message = drainedMessages.removeFirst();
+                    if ("".equals(message)) {
                         //the empty message is pushed onto the queue by the enclosing class' close() method
                         //to indicate that we're done
                         done = true;
                         return null;
                     }
 
-                    StopWatch parsedStopWatch = stopWatchParser.parseStopWatch(message);
-                    if (parsedStopWatch != null) {
-                        return parsedStopWatch;
+                    StopWatch stopWatch = toStopWatch(message);
+                    if (stopWatch != null) {
+                        return stopWatch;
                     }
                     //otherwise the message wasn't a valid stopWatch, so let the loop continue to get the next one
                 }
             }
         }
     }
+
+    /**
+     * A SampledMessage wraps a String message that was queued under the Sample OverloadPolicy, along with the
+     * probability with which it was picked.
+     */
+    private static final class SampledMessage {
+        final String message;
+        final double sampleRate;
+
+        SampledMessage(String message, double sampleRate) {
+            this.message = message;
+            this.sampleRate = sampleRate;
+        }
+    }
 }
@@ -41,7 +41,7 @@ public class GroupedTimingStatisticsCsvFormatter implements GroupedTimingStatist
     //whether or not the output is pivoted
     private boolean pivot;
 
-    //valueRetrievers is only used if pivot is false, otherwise it's null.
+    //valueRetrievers is only used if pivot is false, otherwise it's null. Elements are null for unit columns.
     private TimingStatsValueRetriever[] valueRetrievers;
 
     //pivotedValueRetrievers is only used if pivot is true, otherwise it's null.
@@ -63,8 +63,10 @@ public class GroupedTimingStatisticsCsvFormatter implements GroupedTimingStatist
      *                     for each tagged TimingStatistics item contained in the GroupedTimingStatisitcs).
      * @param configString The config string defines which values will be output, and should be a comma-separated list
      *                     of the values. Possible values if pivot is false are
-     *                     tag, start, stop, mean, min, max, stddev, count and tps. If pivot is true the possible
-     *                     values are start, stop, and then one of the statistics prefixed with the tag name. For
+     *                     tag, start, stop, mean, min, max, stddev, count, tps, the percentiles p50, p90, p99 and
+     *                     p999 (which are empty unless percentiles are tracked) and unit, which is the abbreviation
+     *                     of the time unit of the statistics (e.g. "ms" or "us"). If pivot is true the possible
+     *                     values are start, stop, unit, and then one of the statistics prefixed with the tag name. For
      *                     example, a possible configString could be "start,stop,codeBlock1Mean,codeBlock2Max".
      */
     public GroupedTimingStatisticsCsvFormatter(boolean pivot, String configString) {
@@ -79,7 +81,10 @@ public class GroupedTimingStatisticsCsvFormatter implements GroupedTimingStatist
         } else {
             valueRetrievers = new TimingStatsValueRetriever[configElements.length];
             for (int i = 0; i < configElements.length; i++) {
-                valueRetrievers[i] = parseTimingStatsConfig(configElements[i]);
+                //the unit comes from the GroupedTimingStatistics, which TimingStatsValueRetrievers don't have
+                valueRetrievers[i] = "unit".equals(configElements[i]) ?
+                                     null :
+                                     parseTimingStatsConfig(configElements[i]);
             }
         }
     }
@@ -109,6 +114,7 @@ public class GroupedTimingStatisticsCsvFormatter implements GroupedTimingStatist
             }
             retVal.append(MiscUtils.NEWLINE);
         } else {
+            String unit = MiscUtils.getTimeUnitAbbreviation(stats.getTimeUnit());
             //iterate over each TimingStatistics item, creating one row for each
             for (Map.Entry<String, TimingStatistics> tagAndStats : stats.getStatisticsByTag().entrySet()) {
                 String tag = tagAndStats.getKey();
@@ -118,7 +124,11 @@ public class GroupedTimingStatisticsCsvFormatter implements GroupedTimingStatist
                     if (i > 0) {
                         retVal.append(',');
                     }
-                    valueRetrievers[i].appendValue(tag, startTime, stopTime, windowLength, timingStats, retVal);
+                    if (valueRetrievers[i] == null) {
+                        retVal.append(unit);
+                    } else {
+                        valueRetrievers[i].appendValue(tag, startTime, stopTime, windowLength, timingStats, retVal);
+                    }
                 }
                 retVal.append(MiscUtils.NEWLINE);
             }
@@ -162,6 +172,13 @@ public class GroupedTimingStatisticsCsvFormatter implements GroupedTimingStatist
                     toAppend.append(stop);
                 }
             };
+        } else if ("unit".equalsIgnoreCase(configName)) {
+            return new GroupedTimingStatisticsValueRetriever() {
+                public void appendValue(String start, String stop, long windowLength,
+                                        GroupedTimingStatistics stats, StringBuilder toAppend) {
+                    toAppend.append(MiscUtils.getTimeUnitAbbreviation(stats.getTimeUnit()));
+                }
+            };
         } else if (configName.toLowerCase().endsWith("mean")) {
             final String tag = configName.substring(0, configName.length() - "mean".length());
             return new GroupedTimingStatisticsValueRetriever() {
@@ -216,7 +233,20 @@ public class GroupedTimingStatisticsCsvFormatter implements GroupedTimingStatist
                     if (timingStats == null) {
                         toAppend.append("");
                     } else {
-                        toAppend.append((timingStats.getCount() * 1000.0) / windowLength);
+                        toAppend.append((timingStats.getEstimatedCount() * 1000.0) / windowLength);
+                    }
+                }
+            };
+        } else if (getPercentileRetrieverForSuffix(configName) != null) {
+            final StatsValueRetriever percentileRetriever = getPercentileRetrieverForSuffix(configName);
+            final String tag =
+                    configName.substring(0, configName.length() - percentileRetriever.getValueName().length());
+            return new GroupedTimingStatisticsValueRetriever() {
+                public void appendValue(String start, String stop, long windowLength,
+                                        GroupedTimingStatistics stats, StringBuilder toAppend) {
+                    TimingStatistics timingStats = stats.getStatisticsByTag().get(tag);
+                    if (timingStats != null && timingStats.isTrackingPercentiles()) {
+                        toAppend.append(percentileRetriever.getStatsValue(timingStats, windowLength));
                     }
                 }
             };
@@ -303,7 +333,20 @@ public class GroupedTimingStatisticsCsvFormatter implements GroupedTimingStatist
                 public void appendValue(String tag, String start, String stop, long windowLength,
                                         TimingStatistics timingStats,
                                         StringBuilder toAppend) {
-                    toAppend.append((timingStats.getCount() * 1000.0) / windowLength);
+                    toAppend.append((timingStats.getEstimatedCount() * 1000.0) / windowLength);
+                }
+            };
+        } else if ("p50".equals(configName) || "p90".equals(configName) ||
+                   "p99".equals(configName) || "p999".equals(configName)) {
+            final StatsValueRetriever percentileRetriever =
+                    StatsValueRetriever.DEFAULT_RETRIEVERS.get(configName.toUpperCase());
+            return new TimingStatsValueRetriever() {
+                public void appendValue(String tag, String start, String stop, long windowLength,
+                                        TimingStatistics timingStats,
+                                        StringBuilder toAppend) {
+                    if (timingStats.isTrackingPercentiles()) {
+                        toAppend.append(percentileRetriever.getStatsValue(timingStats, windowLength));
+                    }
                 }
             };
         } else {
@@ -311,6 +354,25 @@ public class GroupedTimingStatisticsCsvFormatter implements GroupedTimingStatist
         }
     }
 
+    /**
+     * Helper method finds the percentile StatsValueRetriever, such as P99, whose name is a (case insensitive) suffix
+     * of the specified pivoted config element.
+     *
+     * @param configName The element from the config string
+     * @return The matching percentile StatsValueRetriever, or null if the config element doesn't end with the name
+     *         of a percentile statistic.
+     */
+    protected StatsValueRetriever getPercentileRetrieverForSuffix(String configName) {
+        String lowerCaseConfigName = configName.toLowerCase();
+        for (StatsValueRetriever retriever : StatsValueRetriever.DEFAULT_RETRIEVERS.values()) {
+            if (retriever instanceof StatsValueRetriever.PercentileValueRetriever &&
+                lowerCaseConfigName.endsWith(retriever.getValueName().toLowerCase())) {
+                return retriever;
+            }
+        }
+        return null;
+    }
+
     // --- Helper interfaces ---
 
     protected static interface TimingStatsValueRetriever {
@@ -20,6 +20,9 @@ import org.perf4j.StopWatch;
 
 import java.util.Iterator;
 import java.util.NoSuchElementException;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
 
 /**
  * This Iterator wraps a {@link StopWatchLogIterator} to return a single {@link GroupedTimingStatistics} object for
@@ -28,7 +31,13 @@ import java.util.NoSuchElementException;
  * GroupedTimingStatistics object returned by this Iterator.
  * <p/>
  * Note that it's assumed that the StopWatch Iterator is ordered according to start time. If this is not true, then
- * this class will create GroupedTimingStatistics that may reflect StopWatch data from a previous time slice.
+ * this class will create GroupedTimingStatistics that may reflect StopWatch data from a previous time slice. If the
+ * StopWatches may be out of order, for example because they are logged when they stop rather than when they start,
+ * use {@link #setAllowedLateness} to keep recent time slices open so that each StopWatch is added to the time slice
+ * in which it started.
+ * <p/>
+ * The time slices returned are non-overlapping. To compute statistics for overlapping (sliding) windows, or for
+ * several window lengths at once, wrap this iterator in a {@link WindowedStatisticsIterator}.
  *
  * @author Alex Devine
  */
@@ -46,6 +55,19 @@ public class
      * Whether or not entries for "rollup" tags should be created in each GroupedTimingStatistics returned.
      */
     private boolean createRollupStatistics;
+    /**
+     * If not null, the prototype histogram used to track percentiles in each GroupedTimingStatistics returned.
+     */
+    private LatencyHistogram histogramPrototype;
+    /**
+     * The time unit of the statistics in each GroupedTimingStatistics returned.
+     */
+    private TimeUnit timeUnit = TimeUnit.MILLISECONDS;
+    /**
+     * How far, in milliseconds, a StopWatch's start time may be behind the latest start time seen and still be added
+     * to its correct time slice. If 0, the default, late StopWatches are added to the current time slice.
+     */
+    private long allowedLateness = 0L;
 
     /**
      * This hasNext is really a tri-state var - null indicates I don't know if there's a next one or not.
@@ -63,6 +85,30 @@ public class
      * The end time, in milliseconds since the epoch, of the next time slice.
      */
     private long nextTimeSliceEndTime = 0L;
+    /**
+     * When allowedLateness is set, the time slices that are still open for new StopWatches, keyed by start time.
+     */
+    private SortedMap<Long, GroupedTimingStatistics> openTimeSlices = new TreeMap<Long, GroupedTimingStatistics>();
+    /**
+     * When allowedLateness is set, the latest start time seen, which less the allowedLateness is the "watermark"
+     * that determines when time slices are closed.
+     */
+    private long maxStartTime = Long.MIN_VALUE;
+    /**
+     * When allowedLateness is set, the end time of the last time slice returned. StopWatches that start before this
+     * time are too late to be counted.
+     */
+    private long closedThroughTime = Long.MIN_VALUE;
+    /**
+     * When allowedLateness is set, the start time of the next time slice to be returned, which starts out as the time
+     * slice of the first StopWatch or timer tick. If the watermark passes this time slice before any StopWatches
+     * start in it, it is returned empty.
+     */
+    private long nextSliceStartTime = Long.MIN_VALUE;
+    /**
+     * The number of StopWatches that were dropped because they arrived after their time slice was closed.
+     */
+    private volatile long numLateStopWatches = 0L;
 
     /**
      * Creates a GroupingStatisticsIterator that groups StopWatch instances pulled from the specified
@@ -96,6 +142,59 @@ public class
         this.currentGroupedTimingStatistics.setCreateRollupStatistics(createRollupStatistics);
     }
 
+    /**
+     * Sets the histogram used as the prototype for tracking percentiles in the GroupedTimingStatistics returned by
+     * this iterator. This should be called before iteration begins.
+     *
+     * @param histogramPrototype The prototype histogram, or null if percentiles should not be tracked.
+     * @see org.perf4j.GroupedTimingStatistics#setHistogramPrototype
+     */
+    public void setHistogramPrototype(LatencyHistogram histogramPrototype) {
+        this.histogramPrototype = histogramPrototype;
+        this.currentGroupedTimingStatistics.setHistogramPrototype(histogramPrototype);
+    }
+
+    /**
+     * Sets the time unit of the statistics in the GroupedTimingStatistics returned by this iterator, which defaults
+     * to milliseconds. This should be called before iteration begins.
+     *
+     * @param timeUnit The time unit, may not be null
+     * @see org.perf4j.GroupedTimingStatistics#setTimeUnit
+     */
+    public void setTimeUnit(TimeUnit timeUnit) {
+        this.currentGroupedTimingStatistics.setTimeUnit(timeUnit);
+        this.timeUnit = timeUnit;
+    }
+
+    /**
+     * Sets how late, in milliseconds, a StopWatch may arrive and still be added to the time slice in which it started.
+     * A time slice is only returned once the "watermark", which is the latest StopWatch start time seen less the
+     * allowed lateness, has passed the end of the time slice. StopWatches that start in a time slice that has already
+     * been returned are dropped and counted by {@link #getNumLateStopWatches}. Since StopWatches are normally logged
+     * when they stop, this should be at least as long as the longest expected elapsed time. Larger values delay the
+     * return of each time slice and keep more time slices in memory. Defaults to 0, in which case time slices are
+     * returned as soon as a StopWatch for a later time slice is seen and late StopWatches are added to the current
+     * time slice instead of being dropped. This should be called before iteration begins.
+     *
+     * @param allowedLateness The allowed lateness in milliseconds, may not be negative.
+     */
+    public void setAllowedLateness(long allowedLateness) {
+        if (allowedLateness < 0L) {
+            throw new IllegalArgumentException("allowedLateness may not be negative: " + allowedLateness);
+        }
+        this.allowedLateness = allowedLateness;
+    }
+
+    /**
+     * Gets the number of StopWatches that were dropped because they arrived after the allowed lateness had passed for
+     * the time slice in which they started. Always 0 if the allowed lateness is not set.
+     *
+     * @return The number of late StopWatches dropped.
+     */
+    public long getNumLateStopWatches() {
+        return numLateStopWatches;
+    }
+
     public boolean hasNext() {
         //if I don't know the state of next, pull the next statistics to determine the state of next
         if (hasNext == null) {
@@ -146,6 +245,10 @@ public class
      *         StopWatch instances left.
      */
     private GroupedTimingStatistics getNext() {
+        if (allowedLateness > 0L) {
+            return getNextWithLateness();
+        }
+
         while (stopWatchIterator.hasNext()) {
             StopWatch stopWatch = stopWatchIterator.next();
             
@@ -166,6 +269,8 @@ public class
                 //set the state for the next slice
                 currentGroupedTimingStatistics = new GroupedTimingStatistics();
                 currentGroupedTimingStatistics.setCreateRollupStatistics(createRollupStatistics);
+                currentGroupedTimingStatistics.setHistogramPrototype(histogramPrototype);
+                currentGroupedTimingStatistics.setTimeUnit(timeUnit);
                 if (stopWatch != null) {
                 	// only add if we got a new stopwatch, not if timeslice just expired
                 	currentGroupedTimingStatistics.addStopWatch(stopWatch);
@@ -186,6 +291,8 @@ public class
             //create an empty GroupedTimingStatistics so we know to return null in the next call to this method.
             currentGroupedTimingStatistics = new GroupedTimingStatistics();
             currentGroupedTimingStatistics.setCreateRollupStatistics(createRollupStatistics);
+            currentGroupedTimingStatistics.setHistogramPrototype(histogramPrototype);
+            currentGroupedTimingStatistics.setTimeUnit(timeUnit);
 
             return retVal;
         } else {
@@ -193,4 +300,95 @@ public class
             return null;
         }
     }
+
+    /**
+     * Helper method used instead of getNext when allowedLateness is set. Each StopWatch is added to the open time
+     * slice in which it started, and the earliest open time slice is returned once the watermark passes its end. If
+     * the watermark passes the next expected time slice and no StopWatches started in it, an empty time slice is
+     * returned instead, as getNext does when a time slice expires without any StopWatches.
+     *
+     * @return The next GroupedTimingStatistics, or null if there are no StopWatch instances left.
+     */
+    private GroupedTimingStatistics getNextWithLateness() {
+        while (true) {
+            long watermark = maxStartTime - allowedLateness;
+            if (nextSliceStartTime != Long.MIN_VALUE && nextSliceStartTime + timeSlice <= watermark
+                && (openTimeSlices.isEmpty() || openTimeSlices.firstKey() > nextSliceStartTime)) {
+                return closeEmptyTimeSlice(watermark);
+            }
+            if (!openTimeSlices.isEmpty()) {
+                long firstStartTime = openTimeSlices.firstKey();
+                if (firstStartTime + timeSlice <= watermark) {
+                    return closeTimeSlice(firstStartTime);
+                }
+            }
+
+            if (!stopWatchIterator.hasNext()) {
+                break;
+            }
+            StopWatch stopWatch = stopWatchIterator.next();
+
+            // if stopwatch is null, then the watermark may have passed a timeslice (use current time)
+            long startTime = stopWatch == null ? System.currentTimeMillis() : stopWatch.getStartTime();
+            maxStartTime = Math.max(maxStartTime, startTime);
+            if (nextSliceStartTime == Long.MIN_VALUE) {
+                nextSliceStartTime = (startTime / timeSlice) * timeSlice;
+            }
+
+            if (stopWatch != null) {
+                long sliceStartTime = (startTime / timeSlice) * timeSlice;
+                if (sliceStartTime < closedThroughTime) {
+                    numLateStopWatches++;
+                } else {
+                    GroupedTimingStatistics slice = openTimeSlices.get(sliceStartTime);
+                    if (slice == null) {
+                        slice = new GroupedTimingStatistics();
+                        slice.setCreateRollupStatistics(createRollupStatistics);
+                        slice.setHistogramPrototype(histogramPrototype);
+                        slice.setTimeUnit(timeUnit);
+                        openTimeSlices.put(sliceStartTime, slice);
+                    }
+                    slice.addStopWatch(stopWatch);
+                }
+            }
+        }
+
+        //if here then there are no more stopwatches left, so return the remaining slices in order
+        return openTimeSlices.isEmpty() ? null : closeTimeSlice(openTimeSlices.firstKey());
+    }
+
+    /**
+     * Helper method returns an empty GroupedTimingStatistics for the next expected time slice. Like getNext, if the
+     * watermark has passed several empty time slices a single empty time slice is returned for all of them, so an
+     * idle period doesn't produce a burst of empty statistics.
+     *
+     * @param watermark The latest start time seen less the allowed lateness
+     * @return The empty GroupedTimingStatistics
+     */
+    private GroupedTimingStatistics closeEmptyTimeSlice(long watermark) {
+        GroupedTimingStatistics retVal = new GroupedTimingStatistics();
+        retVal.setCreateRollupStatistics(createRollupStatistics);
+        retVal.setHistogramPrototype(histogramPrototype);
+        retVal.setTimeUnit(timeUnit);
+        retVal.setStartTime(nextSliceStartTime);
+        retVal.setStopTime(nextSliceStartTime + timeSlice);
+        closedThroughTime = nextSliceStartTime + timeSlice;
+
+        //skip ahead to the open time slice or the time slice the watermark is in, whichever is first
+        long skipToTime = (watermark / timeSlice) * timeSlice;
+        if (!openTimeSlices.isEmpty()) {
+            skipToTime = Math.min(skipToTime, openTimeSlices.firstKey());
+        }
+        nextSliceStartTime = Math.max(closedThroughTime, skipToTime);
+        return retVal;
+    }
+
+    private GroupedTimingStatistics closeTimeSlice(long sliceStartTime) {
+        GroupedTimingStatistics retVal = openTimeSlices.remove(sliceStartTime);
+        retVal.setStartTime(sliceStartTime);
+        retVal.setStopTime(sliceStartTime + timeSlice);
+        closedThroughTime = sliceStartTime + timeSlice;
+        nextSliceStartTime = Math.max(nextSliceStartTime, closedThroughTime);
+        return retVal;
+    }
 }
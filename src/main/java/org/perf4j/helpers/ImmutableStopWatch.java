@@ -0,0 +1,197 @@
+/* Copyright (c) 2008-2009 HomeAway, Inc.
+ * All rights reserved.  http://www.perf4j.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.perf4j.helpers;
+
+import org.perf4j.StopWatch;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * An ImmutableStopWatch is a frozen copy of the start time, elapsed time, tag, message and sample rate of a stopped
+ * StopWatch. LoggingStopWatches pass instances of this class to the underlying logging framework as the log message
+ * object (instead of a pre-rendered String), which allows appenders such as the
+ * {@link org.perf4j.log4j.AsyncCoalescingStatisticsAppender} to aggregate the StopWatch directly without having to
+ * re-parse it from its String form. The <tt>toString()</tt> method returns the same String as the source StopWatch,
+ * so text-based appenders render the same output they always have.
+ * <p/>
+ * Because an ImmutableStopWatch may be handed off to another thread after it is logged, all of the methods that would
+ * modify its state throw an UnsupportedOperationException.
+ */
+@SuppressWarnings("serial")
+public class ImmutableStopWatch extends StopWatch {
+    /**
+     * The String form of the source StopWatch if it had already been rendered when this snapshot was taken, so it
+     * isn't rendered a second time. Null if it was not available.
+     */
+    private String stopWatchAsString;
+
+    /**
+     * Creates an ImmutableStopWatch that is a snapshot of the current state of the specified StopWatch. Note that the
+     * values returned by the getter methods of the source StopWatch are used, so subclasses that override
+     * <tt>getTag()</tt> (e.g. to append a suffix) are captured correctly.
+     *
+     * @param source The StopWatch to copy, which should normally already be stopped.
+     */
+    public ImmutableStopWatch(StopWatch source) {
+        this(source.getStartTime(), elapsedNanoTimeOf(source), TimeUnit.NANOSECONDS, source.getTag(),
+             source.getMessage());
+        super.setSampleRate(source.getSampleRate());
+    }
+
+    /**
+     * Creates an ImmutableStopWatch that is a snapshot of the current state of the specified StopWatch, and that
+     * returns the specified String, which must be the String form of the source StopWatch, from toString(). This is
+     * used by LoggingStopWatches whose stop() method has already created that String, so that appenders that render
+     * the snapshot don't have to create it again.
+     *
+     * @param source            The StopWatch to copy, which should normally already be stopped.
+     * @param stopWatchAsString The value of source.toString(), may be null if it hasn't been created.
+     */
+    public ImmutableStopWatch(StopWatch source, String stopWatchAsString) {
+        this(source);
+        this.stopWatchAsString = stopWatchAsString;
+    }
+
+    /**
+     * Creates an ImmutableStopWatch that is a snapshot of the specified StopWatch, but with a different sample rate.
+     * This is used when a StopWatch is sampled a second time, for example by an overloaded appender, in which case
+     * the new sample rate is the product of both rates.
+     *
+     * @param source     The StopWatch to copy, which should normally already be stopped.
+     * @param sampleRate The sample rate of the copy, greater than 0 and at most 1.
+     */
+    public ImmutableStopWatch(StopWatch source, double sampleRate) {
+        this(source.getStartTime(), elapsedNanoTimeOf(source), TimeUnit.NANOSECONDS, source.getTag(),
+             source.getMessage());
+        super.setSampleRate(sampleRate);
+    }
+
+    /**
+     * Creates an ImmutableStopWatch with the specified start time, elapsed time, tag and message.
+     *
+     * @param startTime   The start time in milliseconds
+     * @param elapsedTime The elapsed time in milliseconds
+     * @param tag         The tag used to group timing logs of the same code block
+     * @param message     Additional message text
+     */
+    public ImmutableStopWatch(long startTime, long elapsedTime, String tag, String message) {
+        super(startTime, elapsedTime, tag, message);
+    }
+
+    /**
+     * Creates an ImmutableStopWatch with the specified start time, elapsed time in the specified unit, tag and
+     * message.
+     *
+     * @param startTime       The start time in milliseconds
+     * @param elapsedTime     The elapsed time, which may not be negative
+     * @param elapsedTimeUnit The unit of the elapsedTime parameter
+     * @param tag             The tag used to group timing logs of the same code block
+     * @param message         Additional message text
+     */
+    public ImmutableStopWatch(long startTime, long elapsedTime, TimeUnit elapsedTimeUnit, String tag, String message) {
+        super(startTime, elapsedTime, elapsedTimeUnit, tag, message);
+    }
+
+    /**
+     * Helper method returns the specified StopWatch if it is already immutable, otherwise it returns an
+     * ImmutableStopWatch snapshot of it.
+     *
+     * @param stopWatch The StopWatch to freeze
+     * @return An ImmutableStopWatch with the same data as stopWatch
+     */
+    public static ImmutableStopWatch valueOf(StopWatch stopWatch) {
+        return (stopWatch instanceof ImmutableStopWatch) ?
+               (ImmutableStopWatch) stopWatch :
+               new ImmutableStopWatch(stopWatch);
+    }
+
+    /**
+     * Helper method gets the elapsed nano time of the source StopWatch, unless it disagrees with the millisecond
+     * elapsed time (e.g. because a subclass overrides getElapsedTime()), in which case the millisecond value wins.
+     */
+    private static long elapsedNanoTimeOf(StopWatch source) {
+        long elapsedTime = source.getElapsedTime();
+        long elapsedNanoTime = source.getElapsedNanoTime();
+        return (TimeUnit.NANOSECONDS.toMillis(elapsedNanoTime) == elapsedTime) ?
+               elapsedNanoTime :
+               TimeUnit.MILLISECONDS.toNanos(elapsedTime);
+    }
+
+    // --- Disallowed modification methods ---
+
+    public StopWatch setTag(String tag) {
+        throw new UnsupportedOperationException("ImmutableStopWatch may not be modified");
+    }
+
+    public StopWatch setMessage(String message) {
+        throw new UnsupportedOperationException("ImmutableStopWatch may not be modified");
+    }
+
+    public StopWatch setSampleRate(double sampleRate) {
+        throw new UnsupportedOperationException("ImmutableStopWatch may not be modified");
+    }
+
+    public void start() {
+        throw new UnsupportedOperationException("ImmutableStopWatch may not be restarted");
+    }
+
+    public void start(String tag) {
+        throw new UnsupportedOperationException("ImmutableStopWatch may not be restarted");
+    }
+
+    public void start(String tag, String message) {
+        throw new UnsupportedOperationException("ImmutableStopWatch may not be restarted");
+    }
+
+    public String stop() {
+        throw new UnsupportedOperationException("ImmutableStopWatch may not be stopped");
+    }
+
+    public void stopQuietly() {
+        throw new UnsupportedOperationException("ImmutableStopWatch may not be stopped");
+    }
+
+    public String stop(String tag) {
+        throw new UnsupportedOperationException("ImmutableStopWatch may not be stopped");
+    }
+
+    public String stop(String tag, String message) {
+        throw new UnsupportedOperationException("ImmutableStopWatch may not be stopped");
+    }
+
+    public String lap(String tag) {
+        throw new UnsupportedOperationException("ImmutableStopWatch may not be stopped");
+    }
+
+    public String lap(String tag, String message) {
+        throw new UnsupportedOperationException("ImmutableStopWatch may not be stopped");
+    }
+
+    // --- Object Methods ---
+
+    public String toString() {
+        return (stopWatchAsString == null) ? super.toString() : stopWatchAsString;
+    }
+
+    public StringBuilder appendTo(StringBuilder buffer) {
+        return (stopWatchAsString == null) ? super.appendTo(buffer) : buffer.append(stopWatchAsString);
+    }
+
+    public ImmutableStopWatch clone() {
+        //no need to actually copy, we're immutable
+        return this;
+    }
+}
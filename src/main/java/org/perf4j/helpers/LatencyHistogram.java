@@ -0,0 +1,265 @@
+/* Copyright (c) 2008-2009 HomeAway, Inc.
+ * All rights reserved.  http://www.perf4j.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.perf4j.helpers;
+
+import java.io.Serializable;
+import java.util.Arrays;
+
+/**
+ * A LatencyHistogram records the distribution of a set of elapsed times in a fixed amount of memory so that
+ * percentiles can be calculated. Values are stored in "log-linear" buckets, in the same manner as HdrHistogram:
+ * values are divided into power-of-two ranges, and each range is split into a fixed number of linear sub-buckets.
+ * This means that every recorded value is represented with the same relative precision, determined by the number of
+ * significant decimal digits.
+ * <p/>
+ * All of the counts are held in a single <tt>long[]</tt> allocated when the histogram is created, so the memory used
+ * is known up front (see {@link #getBucketCount()}) and recording a value never allocates. For example, a histogram
+ * that tracks values up to one hour (3,600,000 ms) with 2 significant digits uses 2048 buckets, or 16 KB.
+ * <p/>
+ * Values below 0 are recorded as 0, and values above the highest trackable value are recorded as the highest
+ * trackable value. LatencyHistograms are not thread safe.
+ */
+public class LatencyHistogram implements Serializable, Cloneable {
+    private static final long serialVersionUID = -258202416099933058L;
+
+    /**
+     * The highest value that can be recorded with full precision.
+     */
+    private final long highestTrackableValue;
+    /**
+     * The number of significant decimal digits to which values are recorded.
+     */
+    private final int significantDigits;
+    /**
+     * log2 of half the number of sub-buckets in each power-of-two bucket.
+     */
+    private final int subBucketHalfCountMagnitude;
+    /**
+     * Half the number of sub-buckets in each power-of-two bucket.
+     */
+    private final int subBucketHalfCount;
+    /**
+     * Mask used to find the bucket of a value, the number of sub-buckets minus 1.
+     */
+    private final long subBucketMask;
+    /**
+     * The count of values recorded in each bucket.
+     */
+    private long[] counts;
+    /**
+     * The total number of values recorded.
+     */
+    private long totalCount;
+
+    /**
+     * Creates a new, empty LatencyHistogram.
+     *
+     * @param highestTrackableValue The highest value that can be recorded with full precision. Must be at least 2.
+     * @param significantDigits     The number of significant decimal digits to which recorded values are preserved.
+     *                              Must be between 1 and 5.
+     */
+    public LatencyHistogram(long highestTrackableValue, int significantDigits) {
+        if (highestTrackableValue < 2L) {
+            throw new IllegalArgumentException("highestTrackableValue must be at least 2: " + highestTrackableValue);
+        }
+        if (significantDigits < 1 || significantDigits > 5) {
+            throw new IllegalArgumentException("significantDigits must be between 1 and 5: " + significantDigits);
+        }
+        this.highestTrackableValue = highestTrackableValue;
+        this.significantDigits = significantDigits;
+
+        //the sub-bucket count must be enough to distinguish values at the requested precision
+        long largestValueWithSingleUnitResolution = 2L * (long) Math.pow(10, significantDigits);
+        int subBucketCountMagnitude = (int) Math.ceil(Math.log(largestValueWithSingleUnitResolution) / Math.log(2));
+        this.subBucketHalfCountMagnitude = subBucketCountMagnitude - 1;
+        int subBucketCount = 1 << subBucketCountMagnitude;
+        this.subBucketHalfCount = subBucketCount / 2;
+        this.subBucketMask = subBucketCount - 1;
+
+        //find the number of power-of-two buckets needed to cover the highest trackable value
+        long smallestUntrackableValue = subBucketCount;
+        int bucketsNeeded = 1;
+        while (smallestUntrackableValue <= highestTrackableValue) {
+            if (smallestUntrackableValue > Long.MAX_VALUE / 2) {
+                bucketsNeeded++;
+                break;
+            }
+            smallestUntrackableValue <<= 1;
+            bucketsNeeded++;
+        }
+        this.counts = new long[(bucketsNeeded + 1) * subBucketHalfCount];
+    }
+
+    // --- Utility Methods ---
+    /**
+     * Records a single value in this histogram.
+     *
+     * @param value The value to record
+     * @return this LatencyHistogram instance
+     */
+    public LatencyHistogram recordValue(long value) {
+        if (value < 0L) {
+            value = 0L;
+        } else if (value > highestTrackableValue) {
+            value = highestTrackableValue;
+        }
+        counts[countsIndexFor(value)]++;
+        totalCount++;
+        return this;
+    }
+
+    /**
+     * Gets the value at the specified percentile, i.e. the smallest recorded value (at the precision of this
+     * histogram) such that the given percentage of all recorded values are less than or equal to it.
+     *
+     * @param percentile The percentile, from 0.0 to 100.0
+     * @return The value at the percentile, or 0 if no values have been recorded.
+     */
+    public long getValueAtPercentile(double percentile) {
+        if (totalCount == 0L) {
+            return 0L;
+        }
+        percentile = Math.min(Math.max(percentile, 0.0), 100.0);
+        //take the ceiling of the rank; the epsilon keeps floating point error from pushing an exact rank up by one
+        long countAtPercentile = (long) Math.ceil(((percentile / 100.0) * totalCount) - 1e-9);
+        countAtPercentile = Math.min(Math.max(countAtPercentile, 1L), totalCount);
+
+        long totalToCurrentIndex = 0L;
+        for (int i = 0; i < counts.length; i++) {
+            totalToCurrentIndex += counts[i];
+            if (totalToCurrentIndex >= countAtPercentile) {
+                return Math.min(highestEquivalentValue(i), highestTrackableValue);
+            }
+        }
+        return highestTrackableValue;
+    }
+
+    /**
+     * Adds all of the recorded values from the other histogram to this one.
+     *
+     * @param other The histogram to add, which is not modified. Must have the same highest trackable value and number
+     *              of significant digits as this histogram.
+     * @return this LatencyHistogram instance
+     * @throws IllegalArgumentException Thrown if the other histogram has a different configuration.
+     */
+    public LatencyHistogram merge(LatencyHistogram other) {
+        if (!isCompatibleWith(other)) {
+            throw new IllegalArgumentException("Cannot merge histograms with different configurations");
+        }
+        for (int i = 0; i < counts.length; i++) {
+            counts[i] += other.counts[i];
+        }
+        totalCount += other.totalCount;
+        return this;
+    }
+
+    /**
+     * Returns whether or not the other histogram has the same bucket layout as this one, and can thus be merged with
+     * it.
+     *
+     * @param other The other histogram
+     * @return true if the histograms have the same highest trackable value and number of significant digits.
+     */
+    public boolean isCompatibleWith(LatencyHistogram other) {
+        return other != null &&
+               highestTrackableValue == other.highestTrackableValue &&
+               significantDigits == other.significantDigits;
+    }
+
+    /**
+     * Creates a new, empty histogram with the same configuration as this one.
+     *
+     * @return The new LatencyHistogram
+     */
+    public LatencyHistogram newEmptyCopy() {
+        return new LatencyHistogram(highestTrackableValue, significantDigits);
+    }
+
+    // --- Bean Properties ---
+
+    public long getHighestTrackableValue() {
+        return highestTrackableValue;
+    }
+
+    public int getSignificantDigits() {
+        return significantDigits;
+    }
+
+    public long getTotalCount() {
+        return totalCount;
+    }
+
+    /**
+     * Gets the number of buckets used by this histogram. Each bucket is a single long, so the memory used by the
+     * counts is 8 times this value.
+     *
+     * @return The number of buckets
+     */
+    public int getBucketCount() {
+        return counts.length;
+    }
+
+    // --- Helper Methods ---
+
+    private int countsIndexFor(long value) {
+        int bucketIndex = 63 - subBucketHalfCountMagnitude - Long.numberOfLeadingZeros(value | subBucketMask);
+        int subBucketIndex = (int) (value >>> bucketIndex);
+        return ((bucketIndex + 1) << subBucketHalfCountMagnitude) + (subBucketIndex - subBucketHalfCount);
+    }
+
+    private long highestEquivalentValue(int countsIndex) {
+        int bucketIndex = (countsIndex >> subBucketHalfCountMagnitude) - 1;
+        long subBucketIndex = (countsIndex & (subBucketHalfCount - 1)) + subBucketHalfCount;
+        if (bucketIndex < 0) {
+            subBucketIndex -= subBucketHalfCount;
+            bucketIndex = 0;
+        }
+        long lowestEquivalentValue = subBucketIndex << bucketIndex;
+        return lowestEquivalentValue + (1L << bucketIndex) - 1;
+    }
+
+    // --- Object Methods ---
+
+    public LatencyHistogram clone() {
+        try {
+            LatencyHistogram retVal = (LatencyHistogram) super.clone();
+            retVal.counts = counts.clone();
+            return retVal;
+        } catch (CloneNotSupportedException cnse) {
+            throw new Error("Unexpected CloneNotSupportedException");
+        }
+    }
+
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof LatencyHistogram)) {
+            return false;
+        }
+
+        LatencyHistogram that = (LatencyHistogram) o;
+
+        return isCompatibleWith(that) && totalCount == that.totalCount && Arrays.equals(counts, that.counts);
+    }
+
+    public int hashCode() {
+        int result = (int) (highestTrackableValue ^ (highestTrackableValue >>> 32));
+        result = 31 * result + significantDigits;
+        result = 31 * result + Arrays.hashCode(counts);
+        return result;
+    }
+}
@@ -0,0 +1,82 @@
+/* Copyright (c) 2008-2009 HomeAway, Inc.
+ * All rights reserved.  http://www.perf4j.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.perf4j.helpers;
+
+import java.util.Collection;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A MessageQueue is the bounded buffer used by the {@link GenericAsyncCoalescingStatisticsAppender} to hand logged
+ * messages from the (many) logging threads to the (single) draining thread. Implementations must allow any number of
+ * threads to call {@link #offer} and {@link #put} concurrently, but only the draining thread will call {@link #poll}
+ * and {@link #drainTo}.
+ *
+ * @see BlockingMessageQueue
+ * @see RingBufferMessageQueue
+ */
+public interface MessageQueue {
+    /**
+     * Inserts the specified message into the queue if it is possible to do so immediately without violating capacity
+     * restrictions. This method should never block.
+     *
+     * @param message The message to insert, may not be null.
+     * @return true if the message was added, false if the queue is full.
+     */
+    boolean offer(Object message);
+
+    /**
+     * Inserts the specified message into the queue, waiting if necessary for space to become available.
+     *
+     * @param message The message to insert, may not be null.
+     * @throws InterruptedException if interrupted while waiting.
+     */
+    void put(Object message) throws InterruptedException;
+
+    /**
+     * Retrieves and removes the head of this queue, waiting up to the specified wait time for a message to become
+     * available.
+     *
+     * @param timeout How long to wait before giving up, in units of unit
+     * @param unit    The unit of the timeout parameter
+     * @return The head of the queue, or null if the specified waiting time elapses before a message is available.
+     * @throws InterruptedException if interrupted while waiting.
+     */
+    Object poll(long timeout, TimeUnit unit) throws InterruptedException;
+
+    /**
+     * Removes at most the given number of available messages from this queue and adds them to the given collection.
+     * This method does not block.
+     *
+     * @param collection  The collection to transfer messages into
+     * @param maxMessages The maximum number of messages to transfer
+     * @return The number of messages transferred
+     */
+    int drainTo(Collection<Object> collection, int maxMessages);
+
+    /**
+     * Returns the approximate number of messages currently in this queue.
+     *
+     * @return The number of messages in the queue.
+     */
+    int size();
+
+    /**
+     * Returns the total number of messages this queue can hold.
+     *
+     * @return The queue capacity.
+     */
+    int capacity();
+}
@@ -18,6 +18,7 @@ package org.perf4j.helpers;
 import org.perf4j.GroupedTimingStatistics;
 
 import java.util.Calendar;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Miscellaneous static utility functions, mainly having to do with String parsing/formatting.
@@ -110,4 +111,43 @@ public class MiscUtils {
         }
         return retVal;
     }
+
+    /**
+     * Gets the short abbreviation for the specified TimeUnit, as used in column headers: "ns", "us", "ms" or "s".
+     *
+     * @param timeUnit The time unit, may not be null
+     * @return The abbreviation
+     */
+    public static String getTimeUnitAbbreviation(TimeUnit timeUnit) {
+        switch (timeUnit) {
+            case NANOSECONDS:
+                return "ns";
+            case MICROSECONDS:
+                return "us";
+            case MILLISECONDS:
+                return "ms";
+            case SECONDS:
+                return "s";
+            default:
+                return timeUnit.name().toLowerCase();
+        }
+    }
+
+    /**
+     * Parses a TimeUnit from either its abbreviation (see {@link #getTimeUnitAbbreviation}) or its enum name, ignoring
+     * case. This is useful for setting time unit options on appenders.
+     *
+     * @param timeUnit The String to parse, may not be null
+     * @return The parsed TimeUnit
+     * @throws IllegalArgumentException Thrown if timeUnit is not a known time unit
+     */
+    public static TimeUnit parseTimeUnit(String timeUnit) {
+        String trimmed = timeUnit.trim();
+        for (TimeUnit unit : TimeUnit.values()) {
+            if (unit.name().equalsIgnoreCase(trimmed) || getTimeUnitAbbreviation(unit).equalsIgnoreCase(trimmed)) {
+                return unit;
+            }
+        }
+        throw new IllegalArgumentException("Unknown time unit: " + timeUnit);
+    }
 }
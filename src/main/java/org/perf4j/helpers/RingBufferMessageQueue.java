@@ -0,0 +1,217 @@
+/* Copyright (c) 2008-2009 HomeAway, Inc.
+ * All rights reserved.  http://www.perf4j.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.perf4j.helpers;
+
+import java.util.Collection;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * This MessageQueue is a lock-free, bounded, multi-producer/single-consumer ring buffer. All of the slots are
+ * allocated up front and reused, so offering a message never allocates. Producers claim a slot with a single
+ * compare-and-set on the shared tail counter and then publish the message by writing the slot's sequence number;
+ * the single consumer reads slots in order without any atomic operations.
+ * <p/>
+ * Since producers never signal the consumer, the consumer uses a {@link WaitStrategy} to decide how to wait for new
+ * messages.
+ * <p/>
+ * The slot sequence scheme is the one described by Dmitry Vyukov for bounded MPMC queues: a slot whose sequence equals
+ * the position being written is free, and a slot whose sequence is one greater than the position being read holds a
+ * published message.
+ */
+public class RingBufferMessageQueue implements MessageQueue {
+    /**
+     * The pre-allocated slots.
+     */
+    private final Slot[] slots;
+    /**
+     * Used to quickly calculate the slot index from a position, slots.length - 1.
+     */
+    private final int mask;
+    /**
+     * The next position to be claimed by a producer.
+     */
+    private final AtomicLong tail = new AtomicLong();
+    /**
+     * The next position to be read by the consumer. This is only written by the single consumer thread, it is
+     * volatile only so that size() is reasonably accurate when called from other threads.
+     */
+    private volatile long head = 0L;
+    /**
+     * Determines how the consumer waits for messages in poll().
+     */
+    private final WaitStrategy waitStrategy;
+
+    /**
+     * Creates a new RingBufferMessageQueue that uses the Park WaitStrategy.
+     *
+     * @param capacity The requested capacity. This is rounded up to the next power of two.
+     */
+    public RingBufferMessageQueue(int capacity) {
+        this(capacity, WaitStrategy.PARK);
+    }
+
+    /**
+     * Creates a new RingBufferMessageQueue.
+     *
+     * @param capacity     The requested capacity. This is rounded up to the next power of two.
+     * @param waitStrategy The strategy used by the consumer when waiting for messages to arrive.
+     */
+    public RingBufferMessageQueue(int capacity, WaitStrategy waitStrategy) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("capacity must be positive: " + capacity);
+        }
+        int actualCapacity = 1;
+        while (actualCapacity < capacity) {
+            actualCapacity <<= 1;
+        }
+
+        this.slots = new Slot[actualCapacity];
+        for (int i = 0; i < actualCapacity; i++) {
+            slots[i] = new Slot(i);
+        }
+        this.mask = actualCapacity - 1;
+        this.waitStrategy = waitStrategy;
+    }
+
+    public boolean offer(Object message) {
+        if (message == null) {
+            throw new NullPointerException();
+        }
+
+        long position = tail.get();
+        while (true) {
+            Slot slot = slots[(int) (position & mask)];
+            long difference = slot.sequence - position;
+            if (difference == 0L) {
+                //the slot is free, try to claim it
+                if (tail.compareAndSet(position, position + 1)) {
+                    slot.message = message;
+                    //the volatile write publishes the message to the consumer
+                    slot.sequence = position + 1;
+                    return true;
+                }
+                position = tail.get();
+            } else if (difference < 0L) {
+                //the consumer hasn't freed this slot yet, so the queue is full
+                return false;
+            } else {
+                //another producer claimed this position, try again
+                position = tail.get();
+            }
+        }
+    }
+
+    public void put(Object message) throws InterruptedException {
+        int idleCount = 0;
+        while (!offer(message)) {
+            if (Thread.interrupted()) {
+                throw new InterruptedException();
+            }
+            waitStrategy.idle(idleCount++);
+        }
+    }
+
+    public Object poll(long timeout, TimeUnit unit) throws InterruptedException {
+        Object retVal = poll();
+        if (retVal != null) {
+            return retVal;
+        }
+
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        int idleCount = 0;
+        while ((retVal = poll()) == null) {
+            if (Thread.interrupted()) {
+                throw new InterruptedException();
+            }
+            if (System.nanoTime() - deadline >= 0L) {
+                return null;
+            }
+            waitStrategy.idle(idleCount++);
+        }
+        return retVal;
+    }
+
+    public int drainTo(Collection<Object> collection, int maxMessages) {
+        int numDrained = 0;
+        Object message;
+        while (numDrained < maxMessages && (message = poll()) != null) {
+            collection.add(message);
+            numDrained++;
+        }
+        return numDrained;
+    }
+
+    public int size() {
+        long size = tail.get() - head;
+        return (int) Math.max(0L, Math.min(size, (long) slots.length));
+    }
+
+    public int capacity() {
+        return slots.length;
+    }
+
+    /**
+     * Returns the WaitStrategy used by this queue.
+     *
+     * @return The WaitStrategy
+     */
+    public WaitStrategy getWaitStrategy() {
+        return waitStrategy;
+    }
+
+    // --- Helper Methods ---
+    /**
+     * Removes the head message without waiting. Must only be called by the single consumer thread.
+     *
+     * @return The message at the head of the queue, or null if there is no published message.
+     */
+    private Object poll() {
+        long position = head;
+        Slot slot = slots[(int) (position & mask)];
+        if (slot.sequence != position + 1) {
+            //nothing published at this position yet
+            return null;
+        }
+
+        Object retVal = slot.message;
+        slot.message = null;
+        //the volatile write frees the slot for producers on the next trip around the ring
+        slot.sequence = position + slots.length;
+        head = position + 1;
+        return retVal;
+    }
+
+    // --- Support Classes ---
+    /**
+     * A single reusable entry in the ring.
+     */
+    private static final class Slot {
+        /**
+         * Sequence number used to coordinate producers and the consumer. Writes to the message field happen before
+         * the write to this field that publishes them.
+         */
+        volatile long sequence;
+        /**
+         * The message stored in this slot, only valid when the sequence indicates it's been published.
+         */
+        Object message;
+
+        Slot(long sequence) {
+            this.sequence = sequence;
+        }
+    }
+}
@@ -0,0 +1,70 @@
+/* Copyright (c) 2008-2009 HomeAway, Inc.
+ * All rights reserved.  http://www.perf4j.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.perf4j.helpers;
+
+/**
+ * The Sampler decides whether or not a call should be timed when sampling is enabled, for example by setting the
+ * {@link org.perf4j.aop.Profiled#sampleRate()} or {@link org.perf4j.LoggingStopWatch#setSampleRate(double)}. Each
+ * thread uses its own xorshift random number generator, so the decision takes a few nanoseconds and there is no
+ * contention on a shared Random instance.
+ */
+public class Sampler {
+    /**
+     * The state of each thread's xorshift generator, which is never 0.
+     */
+    private static final ThreadLocal<long[]> STATE = new ThreadLocal<long[]>() {
+        protected long[] initialValue() {
+            long seed = System.nanoTime() ^ (Thread.currentThread().getId() * 0x9E3779B97F4A7C15L);
+            return new long[]{(seed == 0L) ? 0x9E3779B97F4A7C15L : seed};
+        }
+    };
+
+    private Sampler() { }
+
+    /**
+     * Decides whether or not a call should be sampled.
+     *
+     * @param sampleRate The fraction of calls that should be sampled, from 0.0 to 1.0. Rates of 1.0 or more always
+     *                   return true.
+     * @return true with a probability of sampleRate
+     */
+    public static boolean isSampled(double sampleRate) {
+        if (sampleRate >= 1.0) {
+            return true;
+        }
+
+        long[] state = STATE.get();
+        long x = state[0];
+        x ^= x << 13;
+        x ^= x >>> 7;
+        x ^= x << 17;
+        state[0] = x;
+        //use the top 53 bits to create a uniform double in [0, 1)
+        return (x >>> 11) * 0x1.0p-53 < sampleRate;
+    }
+
+    /**
+     * Checks that the specified sample rate is valid.
+     *
+     * @param sampleRate The sample rate
+     * @throws IllegalArgumentException Thrown if the sample rate is not greater than 0 and at most 1.
+     */
+    public static void checkSampleRate(double sampleRate) {
+        if (!(sampleRate > 0.0 && sampleRate <= 1.0)) {
+            throw new IllegalArgumentException("sampleRate must be greater than 0 and at most 1, was " + sampleRate);
+        }
+    }
+}
@@ -0,0 +1,271 @@
+/* Copyright (c) 2008-2009 HomeAway, Inc.
+ * All rights reserved.  http://www.perf4j.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.perf4j.helpers;
+
+import org.perf4j.GroupedTimingStatistics;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * The SlidingWindowAggregator combines the GroupedTimingStatistics of consecutive, short time slices (such as those
+ * returned by a {@link GroupingStatisticsIterator}) into statistics for longer and optionally overlapping time
+ * windows. Any number of windows can be configured, so, for example, a single pass over a log can produce statistics
+ * for 10 second, 1 minute and 1 hour windows, as well as a 1 minute window that is refreshed every 5 seconds.
+ * <p/>
+ * Each window has a length and a slide interval. A window with a slide interval equal to its length is a tumbling
+ * window - each time slice contributes to exactly one window. Otherwise the window is a sliding window, and a new
+ * GroupedTimingStatistics covering the most recent window length of time is emitted every slide interval. Window
+ * boundaries are aligned to multiples of the slide interval since the epoch.
+ * <p/>
+ * Internally each window keeps a ring of "panes", each one slide interval long. Incoming time slices are merged into
+ * the current pane as they arrive, and when a pane is complete the window is composed by merging the panes in the
+ * ring (see {@link GroupedTimingStatistics#merge}). Thus each StopWatch is only ever aggregated once, no matter how
+ * many windows are configured, and the cost of emitting a window is proportional to the number of panes in it, not
+ * the number of StopWatches.
+ * <p/>
+ * This class is not thread safe.
+ */
+public class SlidingWindowAggregator {
+    /**
+     * The length of each incoming time slice, in milliseconds.
+     */
+    private long sliceLength;
+    /**
+     * The windows being aggregated.
+     */
+    private List<WindowState> windows = new ArrayList<WindowState>();
+
+    /**
+     * Creates a new SlidingWindowAggregator.
+     *
+     * @param sliceLength The length of the time slices that will be passed to {@link #addSlice}, in milliseconds.
+     * @param windows     The windows to compute. The length and slide interval of each window must be a multiple of
+     *                    the sliceLength, and the length must be a multiple of the slide interval.
+     */
+    public SlidingWindowAggregator(long sliceLength, List<Window> windows) {
+        if (sliceLength <= 0L) {
+            throw new IllegalArgumentException("sliceLength must be positive: " + sliceLength);
+        }
+        this.sliceLength = sliceLength;
+        for (Window window : windows) {
+            if (window.getSlideInterval() % sliceLength != 0L) {
+                throw new IllegalArgumentException("The slide interval of " + window +
+                                                   " is not a multiple of the slice length " + sliceLength);
+            }
+            this.windows.add(new WindowState(window));
+        }
+    }
+
+    /**
+     * Adds the statistics for the next time slice. Slices should be added in start time order; a slice that starts
+     * before the current pane of a window is added to the current pane.
+     *
+     * @param slice The statistics for a single time slice. The start time must be set, and this object is not
+     *              modified or retained.
+     * @return The statistics for all of the windows that were completed by this slice, ordered by stop time. Each
+     *         returned GroupedTimingStatistics has its start and stop times set to the window boundaries. May be
+     *         empty.
+     */
+    public List<GroupedTimingStatistics> addSlice(GroupedTimingStatistics slice) {
+        List<GroupedTimingStatistics> retVal = new ArrayList<GroupedTimingStatistics>();
+        for (WindowState window : windows) {
+            window.addSlice(slice, retVal);
+        }
+        return sortByStopTime(retVal);
+    }
+
+    /**
+     * Completes the current pane of each window, as is done when no more slices are expected, and returns the
+     * statistics for the windows ending with those panes.
+     *
+     * @return The statistics for the completed windows, ordered by stop time. May be empty.
+     */
+    public List<GroupedTimingStatistics> flush() {
+        List<GroupedTimingStatistics> retVal = new ArrayList<GroupedTimingStatistics>();
+        for (WindowState window : windows) {
+            window.flush(retVal);
+        }
+        return sortByStopTime(retVal);
+    }
+
+    /**
+     * Gets the length of the incoming time slices.
+     *
+     * @return The slice length, in milliseconds
+     */
+    public long getSliceLength() {
+        return sliceLength;
+    }
+
+    // --- Helper Methods ---
+
+    private List<GroupedTimingStatistics> sortByStopTime(List<GroupedTimingStatistics> statistics) {
+        //the sort is stable, so windows with the same stop time stay in configuration order
+        Collections.sort(statistics, new Comparator<GroupedTimingStatistics>() {
+            public int compare(GroupedTimingStatistics a, GroupedTimingStatistics b) {
+                return (a.getStopTime() < b.getStopTime()) ? -1 : ((a.getStopTime() == b.getStopTime()) ? 0 : 1);
+            }
+        });
+        return statistics;
+    }
+
+    // --- Helper Classes ---
+
+    /**
+     * Describes a single window to be computed by a SlidingWindowAggregator.
+     */
+    public static class Window {
+        private final long length;
+        private final long slideInterval;
+
+        /**
+         * Creates a tumbling window, where consecutive windows do not overlap.
+         *
+         * @param length The length of the window, in milliseconds.
+         */
+        public Window(long length) {
+            this(length, length);
+        }
+
+        /**
+         * Creates a sliding window.
+         *
+         * @param length        The length of the window, in milliseconds.
+         * @param slideInterval How often, in milliseconds, statistics for the window are emitted. The length must be
+         *                      a multiple of this value.
+         */
+        public Window(long length, long slideInterval) {
+            if (slideInterval <= 0L || length <= 0L) {
+                throw new IllegalArgumentException("Window length and slide interval must be positive");
+            }
+            if (length % slideInterval != 0L) {
+                throw new IllegalArgumentException("Window length " + length +
+                                                   " is not a multiple of the slide interval " + slideInterval);
+            }
+            this.length = length;
+            this.slideInterval = slideInterval;
+        }
+
+        public long getLength() {
+            return length;
+        }
+
+        public long getSlideInterval() {
+            return slideInterval;
+        }
+
+        public String toString() {
+            return "Window[length=" + length + ", slideInterval=" + slideInterval + "]";
+        }
+    }
+
+    /**
+     * Holds the panes for a single window.
+     */
+    private static class WindowState {
+        private final Window window;
+        /**
+         * The completed panes, indexed by (pane start time / slide interval) modulo the number of panes. Slots may
+         * hold stale panes from before a gap in the data, so the start time of each pane must be checked.
+         */
+        private final GroupedTimingStatistics[] panes;
+        /**
+         * The pane currently being filled, null if no slices have been added since the last pane was completed.
+         */
+        private GroupedTimingStatistics currentPane;
+        /**
+         * The start time of the most recent completed pane.
+         */
+        private long lastPaneStartTime = Long.MIN_VALUE;
+
+        WindowState(Window window) {
+            this.window = window;
+            this.panes = new GroupedTimingStatistics[(int) (window.getLength() / window.getSlideInterval())];
+        }
+
+        void addSlice(GroupedTimingStatistics slice, List<GroupedTimingStatistics> completedWindows) {
+            long slideInterval = window.getSlideInterval();
+            long paneStartTime = floor(slice.getStartTime(), slideInterval);
+
+            if (currentPane != null && paneStartTime > currentPane.getStartTime()) {
+                completeCurrentPane(completedWindows);
+                //emit the windows that slid past while there was no data, as long as they still contain data
+                for (long windowStopTime = lastPaneStartTime + 2 * slideInterval;
+                     windowStopTime <= paneStartTime && windowStopTime - window.getLength() <= lastPaneStartTime;
+                     windowStopTime += slideInterval) {
+                    completedWindows.add(composeWindow(windowStopTime));
+                }
+            }
+
+            if (currentPane == null) {
+                currentPane = new GroupedTimingStatistics();
+                currentPane.setCreateRollupStatistics(slice.isCreateRollupStatistics());
+                //late slices go in the next pane, since the window for their own pane has already been emitted
+                currentPane.setStartTime(Math.max(paneStartTime, lastPaneStartTime + slideInterval));
+            }
+            long currentPaneStartTime = currentPane.getStartTime();
+            currentPane.merge(slice);
+            //merge widens the time range, but the pane must keep its own boundaries
+            currentPane.setStartTime(currentPaneStartTime);
+            currentPane.setStopTime(currentPaneStartTime + slideInterval);
+        }
+
+        void flush(List<GroupedTimingStatistics> completedWindows) {
+            if (currentPane != null) {
+                completeCurrentPane(completedWindows);
+            }
+        }
+
+        private void completeCurrentPane(List<GroupedTimingStatistics> completedWindows) {
+            lastPaneStartTime = currentPane.getStartTime();
+            panes[slot(lastPaneStartTime)] = currentPane;
+            currentPane = null;
+            completedWindows.add(composeWindow(lastPaneStartTime + window.getSlideInterval()));
+        }
+
+        private GroupedTimingStatistics composeWindow(long windowStopTime) {
+            long windowStartTime = windowStopTime - window.getLength();
+            GroupedTimingStatistics retVal = new GroupedTimingStatistics();
+            //merge the panes oldest first
+            for (long paneStartTime = windowStartTime;
+                 paneStartTime < windowStopTime;
+                 paneStartTime += window.getSlideInterval()) {
+                GroupedTimingStatistics pane = panes[slot(paneStartTime)];
+                if (pane != null && pane.getStartTime() == paneStartTime) {
+                    retVal.setCreateRollupStatistics(pane.isCreateRollupStatistics());
+                    retVal.merge(pane);
+                }
+            }
+            retVal.setStartTime(windowStartTime);
+            retVal.setStopTime(windowStopTime);
+            return retVal;
+        }
+
+        private int slot(long paneStartTime) {
+            long paneIndex = floor(paneStartTime, window.getSlideInterval()) / window.getSlideInterval();
+            long slot = paneIndex % panes.length;
+            return (int) ((slot < 0) ? slot + panes.length : slot);
+        }
+
+        private static long floor(long time, long interval) {
+            long retVal = (time / interval) * interval;
+            return (retVal > time) ? retVal - interval : retVal;
+        }
+    }
+}
@@ -20,9 +20,13 @@ import org.perf4j.TimingStatistics;
 
 import javax.management.*;
 import java.util.*;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.regex.Matcher;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.regex.Pattern;
 
 /**
@@ -40,17 +44,32 @@ public class StatisticsExposingMBean extends NotificationBroadcasterSupport impl
      * The type of the Notifications sent when a statistics value is outside of the acceptable range.
      */
     public static final String OUT_OF_RANGE_NOTIFICATION_TYPE = "org.perf4j.threshold.exceeded";
+    /**
+     * The default maximum number of attributes exposed for tags that are discovered through tag name patterns.
+     */
+    public static final int DEFAULT_MAX_EXPOSED_ATTRIBUTES = 10000;
+    /**
+     * The name of the attribute that returns the number of out-of-range notifications sent. This attribute, like
+     * NUM_COALESCED_NOTIFICATIONS_ATTRIBUTE, is only exposed if acceptable ranges are specified.
+     */
+    public static final String NUM_SENT_NOTIFICATIONS_ATTRIBUTE = "NumSentNotifications";
+    /**
+     * The name of the attribute that returns the number of out-of-range notifications coalesced into later ones.
+     */
+    public static final String NUM_COALESCED_NOTIFICATIONS_ATTRIBUTE = "NumCoalescedNotifications";
 
     /**
      * The name under which this MBean is registered in the MBean server.
      */
     protected ObjectName mBeanName;
     /**
-     * This MBeanInfo exposes this MBean's management interface to the MBeanServer.
+     * This MBeanInfo exposes this MBean's management interface to the MBeanServer. It is replaced while the lock on
+     * this object's monitor is held, whenever the exposed tags change, but it is read without locking.
      */
-    protected MBeanInfo managementInterface;
+    protected volatile MBeanInfo managementInterface;
     /**
-     * The tags whose statistics values are being exposed.
+     * The tags whose statistics values are being exposed. These may also be tag name patterns, see
+     * {@link #getTagNamePattern(String)}.
      */
     protected Collection<String> tagsToExpose;
     /**
@@ -62,22 +81,79 @@ public class StatisticsExposingMBean extends NotificationBroadcasterSupport impl
     protected Map<AcceptableRangeConfiguration, Boolean> acceptableRanges;
     /**
      * This single thread pool is used to send notifications if any values are outside of the acceptable ranges
-     * (this is necessary because the JMX spec states that the sendNotification method may be synchronous). This
-     * member variable will be null if no acceptable ranges are specified.
+     * (this is necessary because the JMX spec states that the sendNotification method may be synchronous). Its queue
+     * is bounded, and at most one task that sends all of the pending notifications is ever queued, so a slow
+     * listener can't cause tasks to pile up. This member variable will be null if no acceptable ranges are specified.
      */
     protected ExecutorService outOfRangeNotifierThread;
     /**
      * This sequence number is required by the JMX Notification API.
      */
     protected long outOfRangeNotificationSeqNo;
+    /**
+     * Once an attribute has gone out of range, it is only considered back in range when it is within the range
+     * narrowed by this fraction of each bound. See {@link AcceptableRangeConfiguration#isInRange(double, double)}.
+     */
+    private volatile double notificationHysteresis = 0.0;
+    /**
+     * The out-of-range notifications that have not been sent yet, in the order of the acceptable ranges, mapped to
+     * the attribute value that caused them. This Map is also used as the lock that guards it and the
+     * notificationsScheduled flag.
+     */
+    private final Map<AcceptableRangeConfiguration, Double> pendingNotifications =
+            new LinkedHashMap<AcceptableRangeConfiguration, Double>();
+    /**
+     * Whether or not a task to send the pending notifications has been submitted but has not yet taken them.
+     */
+    private boolean notificationsScheduled = false;
+    private final AtomicLong numSentNotifications = new AtomicLong();
+    private final AtomicLong numCoalescedNotifications = new AtomicLong();
     /**
      * The current underlying timing statistics whose values are exposed as MBean attributes.
      */
-    protected GroupedTimingStatistics currentTimingStatistics;
+    protected volatile GroupedTimingStatistics currentTimingStatistics;
     /**
      * Pattern used to parse requested attribute names into the tag name and the statistic name
      */
-    protected Pattern attributeNamePattern = Pattern.compile("(.*)(Mean|StdDev|Min|Max|Count|TPS)");
+    protected Pattern attributeNamePattern = Pattern.compile("(.*)(Mean|StdDev|Min|Max|Count|TPS|P50|P90|P999|P99)");
+    /**
+     * The values of all of the exposed attributes, computed from the current timing statistics whenever they or the
+     * exposed tags change. Attribute reads just look up the value in the current snapshot, so they never block and
+     * don't contend with updates.
+     */
+    private volatile AttributeSnapshot attributeSnapshot;
+    /**
+     * The plain tag names in tagsToExpose, i.e. the ones that aren't tag name patterns.
+     */
+    private Set<String> explicitTags = new LinkedHashSet<String>();
+    /**
+     * The compiled forms of the tag name patterns in tagsToExpose.
+     */
+    private List<Pattern> tagNamePatterns = new ArrayList<Pattern>();
+    /**
+     * The names of the tags that matched one of the tagNamePatterns in a time slice. A tag stays exposed once it is
+     * discovered, so that its attributes don't come and go with each time slice, until the pattern that it matched
+     * is removed.
+     */
+    private Set<String> discoveredTags = new LinkedHashSet<String>();
+    /**
+     * The names of all the tags whose attributes are currently in the management interface. This Set is replaced,
+     * never modified, when the exposed tags change.
+     */
+    private Set<String> exposedTags = Collections.emptySet();
+    /**
+     * Caches the MBeanAttributeInfos of each exposed tag, so that the management interface can be rebuilt without
+     * recreating them for all of the tags when just a few tags are added or removed.
+     */
+    private Map<String, MBeanAttributeInfo[]> attributeInfosByTag = new HashMap<String, MBeanAttributeInfo[]>();
+    /**
+     * The maximum number of attributes for discovered tags; once it is reached, no more tags are discovered.
+     */
+    private int maxExposedAttributes = DEFAULT_MAX_EXPOSED_ATTRIBUTES;
+    /**
+     * The number of tags that matched a tag name pattern but were not exposed because of maxExposedAttributes.
+     */
+    private final AtomicLong numUnexposedTags = new AtomicLong();
 
     /**
      * Creates a new StatisticsExposingMBean whose management interface exposes performance attributes for the tags
@@ -85,8 +161,11 @@ public class StatisticsExposingMBean extends NotificationBroadcasterSupport impl
      *
      * @param mBeanName        The name under which this MBean is registered in the MBean server
      * @param tagsToExpose     The names of the tags whose statistics should exposed. For each tag specified there will
-     *                         be 6 attributes whose getters are exposed: tagNameMean, tagNameStdDev, tagNameMin,
-     *                         tagNameMax, and tagNameCount and tagNameTPS
+     *                         be 10 attributes whose getters are exposed: tagNameMean, tagNameStdDev, tagNameMin,
+     *                         tagNameMax, tagNameCount, tagNameTPS, and the percentiles tagNameP50, tagNameP90,
+     *                         tagNameP99 and tagNameP999. Tag name patterns such as <tt>svc.db.*</tt> may also be
+     *                         specified, in which case the attributes of each matching tag are exposed when the tag
+     *                         is first seen in the timing statistics - see {@link #getTagNamePattern(String)}.
      * @param acceptableRanges These acceptable ranges are used to send notifications if any of the monitored
      *                         attributes go outside of the range.
      */
@@ -119,14 +198,26 @@ public class StatisticsExposingMBean extends NotificationBroadcasterSupport impl
                     );
                 }
             }
-            this.outOfRangeNotifierThread = Executors.newSingleThreadExecutor();
+            ThreadFactory notifierThreadFactory = new ThreadFactory() {
+                public Thread newThread(Runnable runnable) {
+                    Thread retVal = new Thread(runnable, "perf4j-jmx-notifier");
+                    //don't keep the JVM from exiting just because notifications are pending
+                    retVal.setDaemon(true);
+                    return retVal;
+                }
+            };
+            this.outOfRangeNotifierThread = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS,
+                                                                   new ArrayBlockingQueue<Runnable>(1),
+                                                                   notifierThreadFactory);
         }
 
-        this.tagsToExpose = new ArrayList<String>(tagsToExpose);
-
-        this.managementInterface = createMBeanInfoFromTagNames(tagsToExpose);
+        this.tagsToExpose = new ArrayList<String>();
+        for (String tagName : tagsToExpose) {
+            addTagToExpose(tagName);
+        }
 
         this.currentTimingStatistics = new GroupedTimingStatistics(); //just set empty so it's never null
+        updateExposedTags(false);
     }
 
     /**
@@ -139,49 +230,171 @@ public class StatisticsExposingMBean extends NotificationBroadcasterSupport impl
         if (currentTimingStatistics == null) {
             throw new IllegalArgumentException("timing statistics may not be null");
         }
+        boolean timeUnitChanged = this.currentTimingStatistics.getTimeUnit() != currentTimingStatistics.getTimeUnit();
         this.currentTimingStatistics = currentTimingStatistics;
+        if (timeUnitChanged) {
+            //the attribute descriptions include the time unit
+            attributeInfosByTag.clear();
+        }
+        discoverTags(currentTimingStatistics.getStatisticsByTag().keySet());
+        updateExposedTags(timeUnitChanged);
 
         sendNotificationsIfValuesNotAcceptable();
     }
 
     /**
      * This MBean operation method allows the caller to add a tag whose statistics should be exposed as attributes
-     * at runtime.
+     * at runtime. This may also be a tag name pattern, in which case the matching tags in the current timing
+     * statistics are exposed right away.
      *
      * @param tagName The name of the tag whose statistics should be exposed.
      */
-    public void exposeTag(String tagName) {
-        this.tagsToExpose.add(tagName);
-        this.managementInterface = createMBeanInfoFromTagNames(this.tagsToExpose);
+    public synchronized void exposeTag(String tagName) {
+        addTagToExpose(tagName);
+        discoverTags(this.currentTimingStatistics.getStatisticsByTag().keySet());
+        updateExposedTags(false);
     }
 
     /**
-     * This MBean operation method allows the caller to remove, at runtime, a tag whose statistics are exposed.
+     * This MBean operation method allows the caller to remove, at runtime, a tag whose statistics are exposed. If
+     * a tag name pattern is removed, the tags that were discovered through it are removed too, unless they match
+     * another pattern.
      *
      * @param tagName The name of the tag whose statistics should be removed as attributes from this MBean.
      * @return Whether or not the specified tag was previously exposed on this MBean.
      */
-    public boolean removeTag(String tagName) {
+    public synchronized boolean removeTag(String tagName) {
         boolean retVal = this.tagsToExpose.remove(tagName);
-        this.managementInterface = createMBeanInfoFromTagNames(this.tagsToExpose);
+        if (!retVal) {
+            //a discovered tag can be removed too, though it will be discovered again if it shows up in a later slice
+            retVal = discoveredTags.remove(tagName);
+        } else if (getTagNamePattern(tagName) == null) {
+            explicitTags = new LinkedHashSet<String>();
+            for (String tagToExpose : this.tagsToExpose) {
+                if (getTagNamePattern(tagToExpose) == null) {
+                    explicitTags.add(tagToExpose);
+                }
+            }
+        } else {
+            tagNamePatterns = compileTagNamePatterns(this.tagsToExpose);
+            Set<String> stillDiscovered = new LinkedHashSet<String>();
+            for (String discoveredTag : discoveredTags) {
+                if (matchesTagNamePattern(discoveredTag)) {
+                    stillDiscovered.add(discoveredTag);
+                }
+            }
+            discoveredTags = stillDiscovered;
+        }
+        updateExposedTags(false);
         return retVal;
     }
 
-    public synchronized Object getAttribute(String attribute)
+    /**
+     * Gets the maximum number of attributes that are exposed for tags discovered through tag name patterns. Once
+     * this many are exposed, tags that match a pattern are no longer added, which protects the MBeanServer and JMX
+     * clients from management interfaces with huge numbers of attributes. Tags that are named explicitly are always
+     * exposed, and their attributes count towards the maximum.
+     *
+     * @return The maximum number of exposed attributes, 10000 by default.
+     */
+    public int getMaxExposedAttributes() {
+        return maxExposedAttributes;
+    }
+
+    /**
+     * Sets the maximum number of attributes that are exposed for tags discovered through tag name patterns.
+     *
+     * @param maxExposedAttributes The maximum number of exposed attributes.
+     */
+    public synchronized void setMaxExposedAttributes(int maxExposedAttributes) {
+        this.maxExposedAttributes = maxExposedAttributes;
+    }
+
+    /**
+     * Gets the number of times a tag matched a tag name pattern but wasn't exposed because the maximum number of
+     * exposed attributes was reached.
+     *
+     * @return The number of unexposed tags.
+     */
+    public long getNumUnexposedTags() {
+        return numUnexposedTags.get();
+    }
+
+    /**
+     * Gets the fraction of each acceptable range bound by which the range is narrowed before an attribute that went
+     * out of range is considered back in range.
+     *
+     * @return The notification hysteresis, 0 by default.
+     */
+    public double getNotificationHysteresis() {
+        return notificationHysteresis;
+    }
+
+    /**
+     * Sets the fraction of each acceptable range bound by which the range is narrowed before an attribute that went
+     * out of range is considered back in range. For example, with a hysteresis of 0.1 and an acceptable range of
+     * tagMean(&lt;100), a notification is sent when the mean goes above 100, but the next one is only sent after the
+     * mean has dropped to 90 or below and then gone above 100 again. This keeps values that hover around a bound from
+     * causing a notification every other time slice.
+     *
+     * @param notificationHysteresis The notification hysteresis, at least 0 and less than 1.
+     */
+    public void setNotificationHysteresis(double notificationHysteresis) {
+        if (notificationHysteresis < 0.0 || notificationHysteresis >= 1.0) {
+            throw new IllegalArgumentException("notificationHysteresis must be at least 0 and less than 1");
+        }
+        this.notificationHysteresis = notificationHysteresis;
+    }
+
+    /**
+     * Gets the number of out-of-range notifications that have been sent to listeners.
+     *
+     * @return The number of sent notifications.
+     */
+    public long getNumSentNotifications() {
+        return numSentNotifications.get();
+    }
+
+    /**
+     * Gets the number of out-of-range notifications that were not sent because a newer notification for the same
+     * acceptable range replaced them before the notifier thread got to them.
+     *
+     * @return The number of coalesced notifications.
+     */
+    public long getNumCoalescedNotifications() {
+        return numCoalescedNotifications.get();
+    }
+
+
+    public Object getAttribute(String attribute)
             throws AttributeNotFoundException, MBeanException, ReflectionException {
-        Matcher matcher = attributeNamePattern.matcher(attribute);
-        if (matcher.matches()) {
-            String tagName = matcher.group(1);
-            String statisticName = matcher.group(2);
+        AttributeSnapshot snapshot = attributeSnapshot;
+        Object retVal = snapshot.attributeValues.get(attribute);
+        if (retVal != null) {
+            return retVal;
+        }
 
-            TimingStatistics timingStats = currentTimingStatistics.getStatisticsByTag().get(tagName);
-            long windowLength = currentTimingStatistics.getStopTime() - currentTimingStatistics.getStartTime();
+        if (!acceptableRanges.isEmpty()) {
+            if (NUM_SENT_NOTIFICATIONS_ATTRIBUTE.equals(attribute)) {
+                return getNumSentNotifications();
+            } else if (NUM_COALESCED_NOTIFICATIONS_ATTRIBUTE.equals(attribute)) {
+                return getNumCoalescedNotifications();
+            }
+        }
 
-            return getStatsValueRetrievers().get(statisticName).getStatsValue(timingStats, windowLength);
-        } else {
+        //values are computed the first time they're read - the statistics for any tag can be read by name, but only
+        //the values of the exposed tags are kept
+        String statisticName = getStatisticName(attribute);
+        if (statisticName == null) {
             throw new AttributeNotFoundException("No attribute named " + attribute);
         }
-
+        String tagName = attribute.substring(0, attribute.length() - statisticName.length());
+        retVal = getStatsValueRetrievers().get(statisticName).getStatsValue(snapshot.statisticsByTag.get(tagName),
+                                                                            snapshot.windowLength);
+        if (snapshot.exposedTags.contains(tagName)) {
+            snapshot.attributeValues.put(attribute, retVal);
+        }
+        return retVal;
     }
 
     public void setAttribute(Attribute attribute)
@@ -189,7 +402,7 @@ public class StatisticsExposingMBean extends NotificationBroadcasterSupport impl
         throw new AttributeNotFoundException("Statistics attributes are not writable");
     }
 
-    public synchronized AttributeList getAttributes(String[] attributeNames) {
+    public AttributeList getAttributes(String[] attributeNames) {
         AttributeList retVal = new AttributeList();
         for (String attributeName : attributeNames) {
             try {
@@ -236,29 +449,185 @@ public class StatisticsExposingMBean extends NotificationBroadcasterSupport impl
     }
 
     /**
-     * Helper method creates an MBeanInfo object that contains 6 read only attributes for each tag name, each
-     * attribute representing a different statistic.
+     * Helper method gets the name of the statistic that the specified attribute name ends with. As with the
+     * attributeNamePattern, if more than one statistic name matches the shortest one is used, so the tag name is as
+     * long as possible.
+     *
+     * @param attributeName The attribute name, which should be a tag name followed by a statistic name
+     * @return The statistic name, or null if the attribute name doesn't end with one
+     */
+    protected String getStatisticName(String attributeName) {
+        String retVal = null;
+        for (String statisticName : getStatsValueRetrievers().keySet()) {
+            if (attributeName.endsWith(statisticName)
+                && (retVal == null || statisticName.length() < retVal.length())) {
+                retVal = statisticName;
+            }
+        }
+        return retVal;
+    }
+
+    /**
+     * Gets the compiled pattern for a tag name pattern. Tag names containing the wildcards <tt>*</tt> (any number of
+     * characters) or <tt>?</tt> (any single character) are patterns, e.g. <tt>svc.db.*</tt>, as are regular
+     * expressions enclosed in slashes, e.g. <tt>/svc\.(db|cache)\..*</tt><tt>/</tt>.
+     *
+     * @param tagName The tag name or tag name pattern
+     * @return The pattern, or null if tagName is a plain tag name
+     */
+    protected static Pattern getTagNamePattern(String tagName) {
+        if (tagName.length() > 1 && tagName.startsWith("/") && tagName.endsWith("/")) {
+            return Pattern.compile(tagName.substring(1, tagName.length() - 1));
+        }
+        if (tagName.indexOf('*') < 0 && tagName.indexOf('?') < 0) {
+            return null;
+        }
+
+        StringBuilder regex = new StringBuilder();
+        int literalStart = 0;
+        for (int i = 0; i < tagName.length(); i++) {
+            char c = tagName.charAt(i);
+            if (c == '*' || c == '?') {
+                if (i > literalStart) {
+                    regex.append(Pattern.quote(tagName.substring(literalStart, i)));
+                }
+                regex.append((c == '*') ? ".*" : ".");
+                literalStart = i + 1;
+            }
+        }
+        if (literalStart < tagName.length()) {
+            regex.append(Pattern.quote(tagName.substring(literalStart)));
+        }
+        return Pattern.compile(regex.toString());
+    }
+
+    /**
+     * Helper method adds a tag name or tag name pattern to the tagsToExpose. This method should only be called when
+     * the lock on this object's monitor is held.
+     *
+     * @param tagName The tag name or tag name pattern
+     */
+    private void addTagToExpose(String tagName) {
+        Pattern tagNamePattern = getTagNamePattern(tagName);
+        this.tagsToExpose.add(tagName);
+        if (tagNamePattern == null) {
+            explicitTags.add(tagName);
+        } else {
+            List<Pattern> newPatterns = new ArrayList<Pattern>(tagNamePatterns);
+            newPatterns.add(tagNamePattern);
+            tagNamePatterns = newPatterns;
+        }
+    }
+
+    /**
+     * Helper method compiles all of the tag name patterns in the specified tag names.
+     */
+    private List<Pattern> compileTagNamePatterns(Collection<String> tagNames) {
+        List<Pattern> retVal = new ArrayList<Pattern>();
+        for (String tagName : tagNames) {
+            Pattern tagNamePattern = getTagNamePattern(tagName);
+            if (tagNamePattern != null) {
+                retVal.add(tagNamePattern);
+            }
+        }
+        return retVal;
+    }
+
+    private boolean matchesTagNamePattern(String tagName) {
+        for (Pattern tagNamePattern : tagNamePatterns) {
+            if (tagNamePattern.matcher(tagName).matches()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Helper method adds the tags from the live tag set that match a tag name pattern to the discovered tags, as long
+     * as the maximum number of exposed attributes isn't exceeded. This method should only be called when the lock on
+     * this object's monitor is held.
+     *
+     * @param liveTagNames The names of the tags in the current timing statistics
+     */
+    private void discoverTags(Collection<String> liveTagNames) {
+        if (tagNamePatterns.isEmpty()) {
+            return;
+        }
+
+        int attributesPerTag = getStatsValueRetrievers().size();
+        int numExposedAttributes = (explicitTags.size() + discoveredTags.size()) * attributesPerTag;
+        for (String tagName : liveTagNames) {
+            if (explicitTags.contains(tagName) || discoveredTags.contains(tagName) || !matchesTagNamePattern(tagName)) {
+                continue;
+            }
+            if (numExposedAttributes + attributesPerTag > maxExposedAttributes) {
+                numUnexposedTags.incrementAndGet();
+                continue;
+            }
+            discoveredTags.add(tagName);
+            numExposedAttributes += attributesPerTag;
+        }
+    }
+
+    /**
+     * Helper method recomputes the set of exposed tags from the plain tag names in tagsToExpose and the discovered
+     * tags, and rebuilds the management interface if the set changed. The attribute snapshot is always recreated.
+     * This method should only be called when the lock on this object's monitor is held.
+     *
+     * @param forceRebuild Whether the management interface should be rebuilt even if the exposed tags didn't change
+     */
+    private void updateExposedTags(boolean forceRebuild) {
+        Set<String> newExposedTags = new LinkedHashSet<String>(explicitTags);
+        newExposedTags.addAll(discoveredTags);
+
+        if (forceRebuild || managementInterface == null || !newExposedTags.equals(exposedTags)) {
+            exposedTags = Collections.unmodifiableSet(newExposedTags);
+            attributeInfosByTag.keySet().retainAll(newExposedTags);
+            managementInterface = createMBeanInfoFromTagNames(newExposedTags);
+        }
+        attributeSnapshot = new AttributeSnapshot(currentTimingStatistics, exposedTags);
+    }
+
+    /**
+     * Helper method creates an MBeanInfo object that contains read only attributes for each tag name, each
+     * attribute representing a different statistic. The descriptions of elapsed time attributes include the time unit
+     * of the current timing statistics. The attributes of each tag are cached, so only the attributes of tags that
+     * weren't previously exposed are created.
      *
      * @param tagNames The name of the tags whose statistics should be exposed as MBeanAttributes.
      * @return The MBeanInfo that represents the management interface for this MBean.
      */
     protected MBeanInfo createMBeanInfoFromTagNames(Collection<String> tagNames) {
-        MBeanAttributeInfo[] attributes = new MBeanAttributeInfo[tagNames.size() * getStatsValueRetrievers().size()];
+        int attributesPerTag = getStatsValueRetrievers().size();
+        int numNotificationAttributes = acceptableRanges.isEmpty() ? 0 : 2;
+        MBeanAttributeInfo[] attributes =
+                new MBeanAttributeInfo[tagNames.size() * attributesPerTag + numNotificationAttributes];
 
+        String timeUnit = MiscUtils.getTimeUnitAbbreviation(currentTimingStatistics.getTimeUnit());
         int i = 0;
         for (String tagName : tagNames) {
-            for (Map.Entry<String, StatsValueRetriever> statNameAndValueRetriever :
-                    getStatsValueRetrievers().entrySet()) {
-                String statName = statNameAndValueRetriever.getKey();
-                StatsValueRetriever statsValueRetriever = statNameAndValueRetriever.getValue();
-
-                attributes[i++] = new MBeanAttributeInfo(tagName + statName,
-                                                         statsValueRetriever.getValueClass().getName(),
-                                                         "Returns " + statName + " for tag " + tagName,
-                                                         true /* readable */,
-                                                         false /* not writable */,
-                                                         false /* not "is" getter */);
+            MBeanAttributeInfo[] tagAttributes = attributeInfosByTag.get(tagName);
+            if (tagAttributes == null) {
+                tagAttributes = createAttributeInfosForTag(tagName, timeUnit);
+                attributeInfosByTag.put(tagName, tagAttributes);
             }
+            System.arraycopy(tagAttributes, 0, attributes, i, attributesPerTag);
+            i += attributesPerTag;
+        }
+        if (numNotificationAttributes > 0) {
+            attributes[i++] = new MBeanAttributeInfo(NUM_SENT_NOTIFICATIONS_ATTRIBUTE,
+                                                     Long.class.getName(),
+                                                     "Returns the number of out-of-range notifications sent",
+                                                     true /* readable */,
+                                                     false /* not writable */,
+                                                     false /* not "is" getter */);
+            attributes[i++] = new MBeanAttributeInfo(NUM_COALESCED_NOTIFICATIONS_ATTRIBUTE,
+                                                     Long.class.getName(),
+                                                     "Returns the number of out-of-range notifications replaced by a"
+                                                     + " later notification for the same range before being sent",
+                                                     true /* readable */,
+                                                     false /* not writable */,
+                                                     false /* not "is" getter */);
         }
 
         MBeanOperationInfo[] operations = new MBeanOperationInfo[2]; //exposeTag and removeTag
@@ -303,11 +672,38 @@ public class StatisticsExposingMBean extends NotificationBroadcasterSupport impl
                              notificationInfos);
     }
 
+    /**
+     * Helper method creates the read only attributes for the statistics of one tag.
+     *
+     * @param tagName  The name of the tag whose statistics should be exposed as MBeanAttributes
+     * @param timeUnit The abbreviation of the time unit of elapsed time values
+     * @return The MBeanAttributeInfos, one for each StatsValueRetriever
+     */
+    protected MBeanAttributeInfo[] createAttributeInfosForTag(String tagName, String timeUnit) {
+        MBeanAttributeInfo[] retVal = new MBeanAttributeInfo[getStatsValueRetrievers().size()];
+        int i = 0;
+        for (Map.Entry<String, StatsValueRetriever> statNameAndValueRetriever : getStatsValueRetrievers().entrySet()) {
+            String statName = statNameAndValueRetriever.getKey();
+            StatsValueRetriever statsValueRetriever = statNameAndValueRetriever.getValue();
+            String unitSuffix = statsValueRetriever.isElapsedTimeValue() ? " (" + timeUnit + ")" : "";
+
+            retVal[i++] = new MBeanAttributeInfo(tagName + statName,
+                                                 statsValueRetriever.getValueClass().getName(),
+                                                 "Returns " + statName + unitSuffix + " for tag " + tagName,
+                                                 true /* readable */,
+                                                 false /* not writable */,
+                                                 false /* not "is" getter */);
+        }
+        return retVal;
+    }
+
     /**
      * This helper method sends notifications if any of the acceptable ranges detects an attribute value that is
-     * outside of the specified range. This method should only be called when the lock on this object's monitor is held.
+     * outside of the specified range. The notifications for one update are sent together by a single task on the
+     * notifier thread. This method should only be called when the lock on this object's monitor is held.
      */
     protected void sendNotificationsIfValuesNotAcceptable() {
+        double hysteresis = notificationHysteresis;
         //send notifications if any values are outside the acceptable range, but only if the LAST check was good
         for (Map.Entry<AcceptableRangeConfiguration, Boolean> acceptableRangeAndWasGood : acceptableRanges.entrySet()) {
             AcceptableRangeConfiguration acceptableRange = acceptableRangeAndWasGood.getKey();
@@ -321,7 +717,10 @@ public class StatisticsExposingMBean extends NotificationBroadcasterSupport impl
                 continue;
             }
 
-            boolean isValueInRange = acceptableRange.isInRange(attributeValue);
+            //a value that was out of range has to come back past the hysteresis margin to be good again
+            boolean isValueInRange = lastCheckWasGood ?
+                                     acceptableRange.isInRange(attributeValue) :
+                                     acceptableRange.isInRange(attributeValue, hysteresis);
 
             //update the lastCheckGood value and send the notification
             acceptableRangeAndWasGood.setValue(isValueInRange);
@@ -330,26 +729,86 @@ public class StatisticsExposingMBean extends NotificationBroadcasterSupport impl
                 sendOutOfRangeNotification(attributeValue, acceptableRange);
             }
         }
+
+        schedulePendingNotifications();
     }
 
     /**
      * Helper method is used to send the JMX notification because the attribute value doesn't fall within the
-     * acceptable range. This method should only be called when the lock on this object's monitor is held.
+     * acceptable range. The notification is only queued here, and it replaces any notification for the same range
+     * that hasn't been sent yet; {@link #schedulePendingNotifications()} hands the queued notifications to the
+     * notifier thread. This method should only be called when the lock on this object's monitor is held.
      *
      * @param attributeValue  The attribute value that falls outside the threshold
      * @param acceptableRange The AcceptableRangeConfiguration used to constrain the acceptable value
      */
     protected void sendOutOfRangeNotification(final double attributeValue,
                                               final AcceptableRangeConfiguration acceptableRange) {
+        synchronized (pendingNotifications) {
+            if (pendingNotifications.put(acceptableRange, attributeValue) != null) {
+                numCoalescedNotifications.incrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * Helper method submits a task to the notifier thread that sends all of the pending notifications, unless there
+     * are none or such a task is already waiting to run.
+     */
+    protected void schedulePendingNotifications() {
+        synchronized (pendingNotifications) {
+            if (notificationsScheduled || pendingNotifications.isEmpty()) {
+                return;
+            }
+            notificationsScheduled = true;
+        }
+
         outOfRangeNotifierThread.execute(new Runnable() {
             public void run() {
-                String errorMessage = "Attribute value " + attributeValue + " not in range " + acceptableRange;
-                sendNotification(new Notification(OUT_OF_RANGE_NOTIFICATION_TYPE,
-                                                  mBeanName,
-                                                  ++outOfRangeNotificationSeqNo,
-                                                  System.currentTimeMillis(),
-                                                  errorMessage));
+                sendPendingNotifications();
             }
         });
     }
+
+    /**
+     * Helper method runs on the notifier thread and sends the notifications that were pending when it started.
+     */
+    private void sendPendingNotifications() {
+        Map<AcceptableRangeConfiguration, Double> toSend;
+        synchronized (pendingNotifications) {
+            toSend = new LinkedHashMap<AcceptableRangeConfiguration, Double>(pendingNotifications);
+            pendingNotifications.clear();
+            notificationsScheduled = false;
+        }
+
+        for (Map.Entry<AcceptableRangeConfiguration, Double> acceptableRangeAndValue : toSend.entrySet()) {
+            String errorMessage = "Attribute value " + acceptableRangeAndValue.getValue()
+                                  + " not in range " + acceptableRangeAndValue.getKey();
+            sendNotification(new Notification(OUT_OF_RANGE_NOTIFICATION_TYPE,
+                                              mBeanName,
+                                              ++outOfRangeNotificationSeqNo,
+                                              System.currentTimeMillis(),
+                                              errorMessage));
+            numSentNotifications.incrementAndGet();
+        }
+    }
+
+    /**
+     * An AttributeSnapshot holds the values of the exposed attributes for one GroupedTimingStatistics. The values are
+     * only computed when they are first read, as with many exposed tags most of them are never read before the next
+     * time slice replaces the snapshot. Apart from that the snapshot is never modified, so it can be read without
+     * locking.
+     */
+    private static final class AttributeSnapshot {
+        final Map<String, TimingStatistics> statisticsByTag;
+        final long windowLength;
+        final Set<String> exposedTags;
+        final Map<String, Object> attributeValues = new ConcurrentHashMap<String, Object>();
+
+        AttributeSnapshot(GroupedTimingStatistics statistics, Set<String> exposedTags) {
+            this.statisticsByTag = statistics.getStatisticsByTag();
+            this.windowLength = statistics.getStopTime() - statistics.getStartTime();
+            this.exposedTags = exposedTags;
+        }
+    }
 }
@@ -36,6 +36,8 @@ public abstract class StatsValueRetriever {
         public Class getValueClass() { return Double.class; }
 
         public String getValueName() { return "Mean"; }
+
+        public boolean isElapsedTimeValue() { return true; }
     };
 
     public static final StatsValueRetriever STD_DEV_VALUE_RETRIEVER = new StatsValueRetriever() {
@@ -46,6 +48,8 @@ public abstract class StatsValueRetriever {
         public Class getValueClass() { return Double.class; }
 
         public String getValueName() { return "StdDev"; }
+
+        public boolean isElapsedTimeValue() { return true; }
     };
 
     public static final StatsValueRetriever MIN_VALUE_RETRIEVER = new StatsValueRetriever() {
@@ -56,6 +60,8 @@ public abstract class StatsValueRetriever {
         public Class getValueClass() { return Long.class; }
 
         public String getValueName() { return "Min"; }
+
+        public boolean isElapsedTimeValue() { return true; }
     };
 
     public static final StatsValueRetriever MAX_VALUE_RETRIEVER = new StatsValueRetriever() {
@@ -66,6 +72,8 @@ public abstract class StatsValueRetriever {
         public Class getValueClass() { return Long.class; }
 
         public String getValueName() { return "Max"; }
+
+        public boolean isElapsedTimeValue() { return true; }
     };
 
     public static final StatsValueRetriever COUNT_VALUE_RETRIEVER = new StatsValueRetriever() {
@@ -82,7 +90,7 @@ public abstract class StatsValueRetriever {
         public Number getStatsValue(TimingStatistics timingStats, long windowLength) {
             return (timingStats == null || windowLength == 0) ?
                    0.0 :
-                   ((double) timingStats.getCount()) / (((double) windowLength) / 1000.0);
+                   timingStats.getEstimatedCount() / (((double) windowLength) / 1000.0);
         }
 
         public Class getValueClass() { return Double.class; }
@@ -90,9 +98,18 @@ public abstract class StatsValueRetriever {
         public String getValueName() { return "TPS"; }
     };
 
+    public static final StatsValueRetriever P50_VALUE_RETRIEVER = new PercentileValueRetriever(50.0, "P50");
+
+    public static final StatsValueRetriever P90_VALUE_RETRIEVER = new PercentileValueRetriever(90.0, "P90");
+
+    public static final StatsValueRetriever P99_VALUE_RETRIEVER = new PercentileValueRetriever(99.0, "P99");
+
+    public static final StatsValueRetriever P999_VALUE_RETRIEVER = new PercentileValueRetriever(99.9, "P999");
+
     /**
      * Default unmodifiable Map of statistic name to the corresponding StatsValueRetriever object that retrieves that
-     * statistic. Statistic names are Mean, StdDev, Min, Max, Count and TPS.
+     * statistic. Statistic names are Mean, StdDev, Min, Max, Count, TPS, P50, P90, P99 and P999. Note the
+     * percentile statistics are always 0 unless the TimingStatistics are tracking percentiles.
      */
     public static final Map<String, StatsValueRetriever> DEFAULT_RETRIEVERS;
     static {
@@ -103,6 +120,10 @@ public abstract class StatsValueRetriever {
         defaultRetrievers.put(MAX_VALUE_RETRIEVER.getValueName(), MAX_VALUE_RETRIEVER);
         defaultRetrievers.put(COUNT_VALUE_RETRIEVER.getValueName(), COUNT_VALUE_RETRIEVER);
         defaultRetrievers.put(TPS_VALUE_RETRIEVER.getValueName(), TPS_VALUE_RETRIEVER);
+        defaultRetrievers.put(P50_VALUE_RETRIEVER.getValueName(), P50_VALUE_RETRIEVER);
+        defaultRetrievers.put(P90_VALUE_RETRIEVER.getValueName(), P90_VALUE_RETRIEVER);
+        defaultRetrievers.put(P99_VALUE_RETRIEVER.getValueName(), P99_VALUE_RETRIEVER);
+        defaultRetrievers.put(P999_VALUE_RETRIEVER.getValueName(), P999_VALUE_RETRIEVER);
         DEFAULT_RETRIEVERS = Collections.unmodifiableMap(defaultRetrievers);
     }
 
@@ -129,4 +150,52 @@ public abstract class StatsValueRetriever {
      * @return The name of the value retrieved.
      */
     public abstract String getValueName();
+
+    /**
+     * Returns whether the value is an elapsed time, such as "Mean" or "P99", as opposed to a value such as "Count".
+     * Elapsed time values are in the time unit of the GroupedTimingStatistics they were retrieved from, so this is used
+     * to label them with their unit. This default implementation returns false.
+     *
+     * @return true if the value is an elapsed time
+     * @see org.perf4j.GroupedTimingStatistics#getTimeUnit()
+     */
+    public boolean isElapsedTimeValue() {
+        return false;
+    }
+
+    /**
+     * Retrieves the elapsed time at a specific percentile. Returns 0 if the TimingStatistics is null or isn't
+     * tracking percentiles.
+     *
+     * @see org.perf4j.TimingStatistics#getPercentile(double)
+     */
+    public static class PercentileValueRetriever extends StatsValueRetriever {
+        private final double percentile;
+        private final String valueName;
+
+        /**
+         * Creates a new PercentileValueRetriever.
+         *
+         * @param percentile The percentile to retrieve, from 0.0 to 100.0
+         * @param valueName  The name of the value, such as "P99"
+         */
+        public PercentileValueRetriever(double percentile, String valueName) {
+            this.percentile = percentile;
+            this.valueName = valueName;
+        }
+
+        public Number getStatsValue(TimingStatistics timingStats, long windowLength) {
+            return (timingStats == null || !timingStats.isTrackingPercentiles()) ?
+                   0L :
+                   timingStats.getPercentile(percentile);
+        }
+
+        public Class getValueClass() { return Long.class; }
+
+        public String getValueName() { return valueName; }
+
+        public boolean isElapsedTimeValue() { return true; }
+
+        public double getPercentile() { return percentile; }
+    }
 }
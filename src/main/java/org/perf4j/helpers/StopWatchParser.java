@@ -17,6 +17,7 @@ package org.perf4j.helpers;
 
 import org.perf4j.StopWatch;
 
+import java.util.concurrent.TimeUnit;
 import java.util.regex.MatchResult;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
@@ -36,10 +37,15 @@ public class StopWatchParser {
      * <li> The elapsed time in milliseconds, parseable as a long
      * <li> The tag name
      * <li> Optional, if not null the message text.
+     * <li> Optional, if not null the elapsed time in nanoseconds, parseable as a long. This is only present if the
+     *      StopWatch was logged with {@link StopWatch#setLogNanoTime(boolean)} enabled.
+     * <li> Optional, if not null the sample rate, parseable as a double. This is only present if the StopWatch was
+     *      sampled, see {@link StopWatch#getSampleRate()}.
      * </ol>
      */
     public static final String DEFAULT_MATCH_PATTERN =
-            "start\\[(\\d+)\\] time\\[(\\d+)\\] tag\\[(.*?)\\](?: message\\[(.*?)\\])?";
+            "start\\[(\\d+)\\] time\\[(\\d+)\\] tag\\[(.*?)\\](?: message\\[(.*?)\\])?(?: nanos\\[(\\d+)\\])?" +
+            "(?: sample\\[(\\d+(?:\\.\\d+)?(?:E-?\\d+)?)\\])?";
 
     /**
      * The regex Pattern object used to parse Strings.
@@ -96,16 +102,44 @@ public class StopWatchParser {
     }
 
     /**
-     * Helper method returns a new StopWatch from the MatchResult returned when a log messages matches.
+     * Helper method returns a new StopWatch from the MatchResult returned when a log messages matches. If the pattern
+     * has a fifth capturing group and it matched, it is used as the elapsed time in nanoseconds, and if it has a sixth
+     * capturing group that matched, it is used as the sample rate.
      *
      * @param matchResult The regex match result
      * @return A new StopWatch that reflects the data from the match result.
      */
     public StopWatch parseStopWatchFromLogMatch(MatchResult matchResult) {
-        return new StopWatch(Long.parseLong(matchResult.group(1)) /*start time*/,
-                             Long.parseLong(matchResult.group(2)) /*elapsed time*/,
-                             matchResult.group(3) /*tag*/,
-                             matchResult.group(4) /*message, may be null*/);
+        StopWatch retVal;
+        if (matchResult.groupCount() >= 5 && matchResult.group(5) != null) {
+            retVal = new StopWatch(Long.parseLong(matchResult.group(1)) /*start time*/,
+                                   Long.parseLong(matchResult.group(5)) /*elapsed nano time*/,
+                                   TimeUnit.NANOSECONDS,
+                                   matchResult.group(3) /*tag*/,
+                                   matchResult.group(4) /*message, may be null*/);
+        } else {
+            retVal = new StopWatch(Long.parseLong(matchResult.group(1)) /*start time*/,
+                                   Long.parseLong(matchResult.group(2)) /*elapsed time*/,
+                                   matchResult.group(3) /*tag*/,
+                                   matchResult.group(4) /*message, may be null*/);
+        }
+        if (matchResult.groupCount() >= 6 && matchResult.group(6) != null) {
+            setSampleRate(retVal, Double.parseDouble(matchResult.group(6)));
+        }
+        return retVal;
+    }
+
+    /**
+     * Helper method sets the parsed sample rate on a StopWatch. Rates outside of the valid range, which can only come
+     * from hand-edited logs, are ignored.
+     *
+     * @param stopWatch  The parsed StopWatch
+     * @param sampleRate The parsed sample rate
+     */
+    static void setSampleRate(StopWatch stopWatch, double sampleRate) {
+        if (sampleRate > 0.0 && sampleRate < 1.0) {
+            stopWatch.setSampleRate(sampleRate);
+        }
     }
 
     /**
@@ -0,0 +1,96 @@
+/* Copyright (c) 2008-2009 HomeAway, Inc.
+ * All rights reserved.  http://www.perf4j.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.perf4j.helpers;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A StripedCounter is a counter that many threads can increment concurrently without contending on a single memory
+ * location. Each thread increments one of several cells, chosen by its thread ID, and the cells are padded so that
+ * they fall on separate cache lines. Reading the total with {@link #sum()} is comparatively slow, so this class is
+ * meant for counters that are updated often but read rarely, such as the number of messages discarded by the
+ * {@link GenericAsyncCoalescingStatisticsAppender}.
+ */
+public class StripedCounter {
+    /**
+     * The distance, in longs, between the cells used by different stripes, which keeps each on its own cache line.
+     */
+    private static final int PADDING = 8;
+
+    /**
+     * The cells, of which only every PADDING'th element (starting at PADDING, to stay clear of the array header) is
+     * used.
+     */
+    private final AtomicLongArray cells;
+    /**
+     * The number of stripes minus one, used to map thread IDs to stripes. The number of stripes is a power of two.
+     */
+    private final int mask;
+
+    /**
+     * Creates a StripedCounter with one stripe per available processor.
+     */
+    public StripedCounter() {
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Creates a StripedCounter with at least the specified number of stripes.
+     *
+     * @param minStripes The minimum number of stripes, which is rounded up to the next power of two.
+     */
+    public StripedCounter(int minStripes) {
+        int numStripes = 1;
+        while (numStripes < minStripes) {
+            numStripes <<= 1;
+        }
+        mask = numStripes - 1;
+        cells = new AtomicLongArray((numStripes + 1) * PADDING);
+    }
+
+    /**
+     * Adds one to this counter.
+     */
+    public void increment() {
+        add(1L);
+    }
+
+    /**
+     * Adds the specified amount to this counter.
+     *
+     * @param delta The amount to add.
+     */
+    public void add(long delta) {
+        cells.getAndAdd((((int) Thread.currentThread().getId() & mask) + 1) * PADDING, delta);
+    }
+
+    /**
+     * Returns the total of this counter. Increments made concurrently with this call may or may not be included.
+     *
+     * @return The sum of all of the stripes.
+     */
+    public long sum() {
+        long retVal = 0L;
+        for (int i = PADDING; i < cells.length(); i += PADDING) {
+            retVal += cells.get(i);
+        }
+        return retVal;
+    }
+
+    public String toString() {
+        return String.valueOf(sum());
+    }
+}
@@ -0,0 +1,234 @@
+/* Copyright (c) 2008-2009 HomeAway, Inc.
+ * All rights reserved.  http://www.perf4j.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.perf4j.helpers;
+
+import org.perf4j.GroupedTimingStatistics;
+import org.perf4j.StopWatch;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The StripedStatisticsAggregator allows StopWatches to be aggregated on the thread that logs them instead of being
+ * passed to a separate thread one at a time. Each logging thread accumulates into its own "stripe", which holds a
+ * GroupedTimingStatistics for each time slice the thread has logged StopWatches for. Periodically a single
+ * harvesting thread calls {@link #harvest(long)} to remove the completed time slices from all of the stripes and
+ * combine them into a single GroupedTimingStatistics per time slice.
+ * <p/>
+ * Each stripe is guarded by its own lock, which is only ever contended by the owning thread and the harvesting
+ * thread, and then only at time slice boundaries. Thus cross-thread traffic is reduced from once per StopWatch to once
+ * per stripe per time slice.
+ */
+public class StripedStatisticsAggregator {
+    /**
+     * The length of each time slice, in milliseconds.
+     */
+    private final long timeSlice;
+    /**
+     * Whether or not entries for "rollup" tags should be created.
+     */
+    private final boolean createRollupStatistics;
+    /**
+     * If not null, the prototype histogram used to track percentiles.
+     */
+    private final LatencyHistogram histogramPrototype;
+    /**
+     * The time unit of the statistics created.
+     */
+    private final TimeUnit timeUnit;
+    /**
+     * All of the stripes that have been created by logging threads.
+     */
+    private final ConcurrentLinkedQueue<Stripe> stripes = new ConcurrentLinkedQueue<Stripe>();
+    /**
+     * Gets the stripe for the current thread, creating and registering it the first time a thread logs.
+     */
+    private final ThreadLocal<Stripe> threadStripe = new ThreadLocal<Stripe>() {
+        protected Stripe initialValue() {
+            Stripe stripe = new Stripe(Thread.currentThread());
+            stripes.add(stripe);
+            return stripe;
+        }
+    };
+    /**
+     * The index of the most recent time slice that has been harvested. StopWatches for time slices that have already
+     * been harvested are added to the next time slice instead.
+     */
+    private volatile long harvestedThroughSlice = Long.MIN_VALUE;
+
+    /**
+     * Creates a new StripedStatisticsAggregator.
+     *
+     * @param timeSlice              The length of each time slice, in milliseconds.
+     * @param createRollupStatistics Whether or not entries for "rollup" tags should be created
+     */
+    public StripedStatisticsAggregator(long timeSlice, boolean createRollupStatistics) {
+        this(timeSlice, createRollupStatistics, null);
+    }
+
+    /**
+     * Creates a new StripedStatisticsAggregator that tracks percentiles.
+     *
+     * @param timeSlice              The length of each time slice, in milliseconds.
+     * @param createRollupStatistics Whether or not entries for "rollup" tags should be created
+     * @param histogramPrototype     The prototype histogram used to track percentiles, may be null.
+     */
+    public StripedStatisticsAggregator(long timeSlice,
+                                       boolean createRollupStatistics,
+                                       LatencyHistogram histogramPrototype) {
+        this(timeSlice, createRollupStatistics, histogramPrototype, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Creates a new StripedStatisticsAggregator whose statistics are in the specified time unit.
+     *
+     * @param timeSlice              The length of each time slice, in milliseconds.
+     * @param createRollupStatistics Whether or not entries for "rollup" tags should be created
+     * @param histogramPrototype     The prototype histogram used to track percentiles, may be null.
+     * @param timeUnit               The time unit of the statistics, may not be null
+     * @see org.perf4j.GroupedTimingStatistics#setTimeUnit
+     */
+    public StripedStatisticsAggregator(long timeSlice,
+                                       boolean createRollupStatistics,
+                                       LatencyHistogram histogramPrototype,
+                                       TimeUnit timeUnit) {
+        this.timeSlice = timeSlice;
+        this.createRollupStatistics = createRollupStatistics;
+        this.histogramPrototype = histogramPrototype;
+        this.timeUnit = timeUnit;
+    }
+
+    /**
+     * Adds the specified StopWatch to the statistics of the calling thread's stripe. The StopWatch is not referenced
+     * after this method returns, so callers are free to reuse it.
+     *
+     * @param stopWatch The StopWatch to add.
+     */
+    public void addStopWatch(StopWatch stopWatch) {
+        threadStripe.get().addStopWatch(stopWatch.getStartTime() / timeSlice, stopWatch);
+    }
+
+    /**
+     * Removes all of the statistics for time slices up to and including the specified time slice from all of the
+     * stripes, and combines them.
+     *
+     * @param throughSlice The index of the last time slice to harvest, where the index of a time slice is its start
+     *                     time divided by the time slice length.
+     * @return The combined GroupedTimingStatistics, one for each time slice that had data, in time order.
+     */
+    public List<GroupedTimingStatistics> harvest(long throughSlice) {
+        //updating this first ensures that any StopWatch added after we process a stripe goes to a later slice
+        harvestedThroughSlice = throughSlice;
+
+        SortedMap<Long, GroupedTimingStatistics> combinedBySlice = new TreeMap<Long, GroupedTimingStatistics>();
+        for (Iterator<Stripe> iter = stripes.iterator(); iter.hasNext();) {
+            Stripe stripe = iter.next();
+            boolean stripeEmpty;
+            synchronized (stripe) {
+                SortedMap<Long, GroupedTimingStatistics> completedSlices = stripe.slices.headMap(throughSlice + 1);
+                for (Map.Entry<Long, GroupedTimingStatistics> sliceAndStats : completedSlices.entrySet()) {
+                    GroupedTimingStatistics combined = combinedBySlice.get(sliceAndStats.getKey());
+                    if (combined == null) {
+                        //we own this instance now that it's been removed from the stripe, so no need to copy
+                        combinedBySlice.put(sliceAndStats.getKey(), sliceAndStats.getValue());
+                    } else {
+                        combined.merge(sliceAndStats.getValue());
+                    }
+                }
+                completedSlices.clear();
+                if (stripe.lastSlice <= throughSlice) {
+                    stripe.lastStats = null;
+                }
+                stripeEmpty = stripe.slices.isEmpty();
+            }
+
+            //clean up the stripes of threads that have died
+            if (stripeEmpty && stripe.owner.get() == null) {
+                iter.remove();
+            }
+        }
+
+        return new ArrayList<GroupedTimingStatistics>(combinedBySlice.values());
+    }
+
+    /**
+     * Removes and combines all of the statistics currently held by the stripes, regardless of time slice.
+     *
+     * @return The combined GroupedTimingStatistics, one for each time slice that had data, in time order.
+     */
+    public List<GroupedTimingStatistics> harvestAll() {
+        return harvest(Long.MAX_VALUE - 1);
+    }
+
+    // --- Support Classes ---
+    /**
+     * A Stripe holds the statistics logged by a single thread. All access to the slices is synchronized on the Stripe.
+     */
+    private final class Stripe {
+        /**
+         * The thread that owns this stripe, held weakly so that stripes for dead threads can be cleaned up.
+         */
+        final WeakReference<Thread> owner;
+        /**
+         * The statistics for each time slice, keyed by the time slice index.
+         */
+        final SortedMap<Long, GroupedTimingStatistics> slices = new TreeMap<Long, GroupedTimingStatistics>();
+        /**
+         * The index of the most recently used time slice. Since StopWatches nearly always fall in the same time slice
+         * as the previous one, this saves a map lookup in the common case.
+         */
+        long lastSlice;
+        /**
+         * The statistics for lastSlice, or null if not yet known.
+         */
+        GroupedTimingStatistics lastStats;
+
+        Stripe(Thread owner) {
+            this.owner = new WeakReference<Thread>(owner);
+        }
+
+        synchronized void addStopWatch(long slice, StopWatch stopWatch) {
+            long harvestedThrough = harvestedThroughSlice;
+            if (slice <= harvestedThrough) {
+                //this slice has already been sent on, so count this StopWatch in the next one
+                slice = harvestedThrough + 1;
+            }
+
+            if (lastStats == null || slice != lastSlice) {
+                lastStats = slices.get(slice);
+                if (lastStats == null) {
+                    lastStats = new GroupedTimingStatistics();
+                    lastStats.setCreateRollupStatistics(createRollupStatistics);
+                    lastStats.setHistogramPrototype(histogramPrototype);
+                    lastStats.setTimeUnit(timeUnit);
+                    lastStats.setStartTime(slice * timeSlice);
+                    lastStats.setStopTime(slice * timeSlice + timeSlice);
+                    slices.put(slice, lastStats);
+                }
+                lastSlice = slice;
+            }
+
+            lastStats.addStopWatch(stopWatch);
+        }
+    }
+}
@@ -0,0 +1,101 @@
+/* Copyright (c) 2008-2009 HomeAway, Inc.
+ * All rights reserved.  http://www.perf4j.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.perf4j.helpers;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The TagRegistry assigns each distinct StopWatch tag a small integer ID the first time it is seen. This allows the
+ * aggregation code in {@link org.perf4j.GroupedTimingStatistics} to cache the statistics for a tag, and for all of
+ * its rollup tags, in a hash table keyed by int instead of looking them up with a sorted map lookup and a substring
+ * for each rollup level. Rollup tags (the prefixes of a tag up to each period) are not registered, since they are
+ * only needed when rollup statistics are created, and then only when the statistics of a tag are first cached.
+ * <p/>
+ * IDs are never reused, so to bound the memory used by programs that create an unbounded number of distinct tags (for
+ * example by including a user ID in the tag) at most {@link #MAX_TAGS} tags are registered. Callers must handle
+ * tags that can't be registered by falling back to looking them up by name.
+ */
+public class TagRegistry {
+    /**
+     * The maximum number of tags that are assigned IDs.
+     */
+    public static final int MAX_TAGS = 1 << 16;
+
+    /**
+     * Maps each registered tag to its ID.
+     */
+    private static final ConcurrentHashMap<String, Integer> idsByTag = new ConcurrentHashMap<String, Integer>();
+    /**
+     * The registered tags, indexed by ID. Only written while holding the class lock, and an entry is always written
+     * before its ID is published in idsByTag, so readers who got an ID from idsByTag see the entry without locking.
+     */
+    private static volatile String[] tagsById = new String[64];
+    /**
+     * The number of registered tags, only accessed while holding the class lock.
+     */
+    private static int numTags = 0;
+
+    private TagRegistry() { }
+
+    /**
+     * Gets the ID of the specified tag, registering it if this is the first time it is seen.
+     *
+     * @param tag The tag, may not be null
+     * @return The ID of the tag, or -1 if the tag is not registered and the registry is full
+     */
+    public static int getTagId(String tag) {
+        Integer retVal = idsByTag.get(tag);
+        return (retVal != null) ? retVal : register(tag);
+    }
+
+    /**
+     * Gets the tag with the specified ID.
+     *
+     * @param tagId An ID returned by {@link #getTagId}
+     * @return The tag
+     */
+    public static String getTag(int tagId) {
+        return tagsById[tagId];
+    }
+
+    /**
+     * Helper method registers a new tag.
+     *
+     * @param tag The tag to register
+     * @return The ID of the tag, or -1 if the registry is full
+     */
+    private static synchronized int register(String tag) {
+        Integer existingId = idsByTag.get(tag);
+        if (existingId != null) {
+            return existingId;
+        }
+        if (numTags >= MAX_TAGS) {
+            return -1;
+        }
+
+        int retVal = numTags++;
+        String[] tags = tagsById;
+        if (retVal == tags.length) {
+            String[] newTags = new String[tags.length * 2];
+            System.arraycopy(tags, 0, newTags, 0, tags.length);
+            tags = newTags;
+        }
+        tags[retVal] = tag;
+        tagsById = tags;
+        idsByTag.put(tag, retVal);
+        return retVal;
+    }
+}
@@ -0,0 +1,99 @@
+/* Copyright (c) 2008-2009 HomeAway, Inc.
+ * All rights reserved.  http://www.perf4j.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.perf4j.helpers;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A WaitStrategy determines what the consuming thread of a {@link RingBufferMessageQueue} does while it waits for a
+ * message to arrive. Since producers never signal the consumer (doing so would require a lock or a system call on
+ * every offer), the consumer repeatedly checks the queue and calls {@link #idle(int)} between checks. The strategies
+ * trade CPU usage against latency:
+ * <ul>
+ * <li><b>BusySpin</b> never gives up the CPU. Lowest latency, but burns an entire core.
+ * <li><b>Yield</b> calls Thread.yield() between checks, letting other runnable threads use the core.
+ * <li><b>Park</b> spins briefly, then parks the thread for short periods. This is the default and uses almost no CPU
+ * when the queue is idle.
+ * </ul>
+ */
+public abstract class WaitStrategy {
+    public static final WaitStrategy BUSY_SPIN = new WaitStrategy() {
+        public void idle(int idleCount) { }
+
+        public String getName() { return "BusySpin"; }
+    };
+
+    public static final WaitStrategy YIELD = new WaitStrategy() {
+        public void idle(int idleCount) {
+            Thread.yield();
+        }
+
+        public String getName() { return "Yield"; }
+    };
+
+    public static final WaitStrategy PARK = new WaitStrategy() {
+        /**
+         * Number of times to spin before starting to park.
+         */
+        private static final int SPIN_TRIES = 100;
+        /**
+         * The maximum time to park, so that an idle consumer checks the queue about once a millisecond.
+         */
+        private static final long MAX_PARK_NANOS = 1000000L;
+
+        public void idle(int idleCount) {
+            if (idleCount < SPIN_TRIES) {
+                Thread.yield();
+            } else {
+                //back off exponentially up to MAX_PARK_NANOS
+                int shift = Math.min(idleCount - SPIN_TRIES, 10);
+                LockSupport.parkNanos(Math.min(1000L << shift, MAX_PARK_NANOS));
+            }
+        }
+
+        public String getName() { return "Park"; }
+    };
+
+    /**
+     * Default unmodifiable Map of wait strategy name to the corresponding WaitStrategy object. The names are
+     * BusySpin, Yield and Park.
+     */
+    public static final Map<String, WaitStrategy> DEFAULT_WAIT_STRATEGIES;
+    static {
+        Map<String, WaitStrategy> defaultWaitStrategies = new LinkedHashMap<String, WaitStrategy>();
+        defaultWaitStrategies.put(BUSY_SPIN.getName(), BUSY_SPIN);
+        defaultWaitStrategies.put(YIELD.getName(), YIELD);
+        defaultWaitStrategies.put(PARK.getName(), PARK);
+        DEFAULT_WAIT_STRATEGIES = Collections.unmodifiableMap(defaultWaitStrategies);
+    }
+
+    /**
+     * Called by the waiting thread each time it finds there is nothing to consume.
+     *
+     * @param idleCount The number of consecutive times the waiting thread has found nothing to consume, starting at 0.
+     */
+    public abstract void idle(int idleCount);
+
+    /**
+     * Returns the name of this strategy, such as "Park" or "Yield".
+     *
+     * @return The name of this strategy
+     */
+    public abstract String getName();
+}
@@ -0,0 +1,97 @@
+/* Copyright (c) 2008-2009 HomeAway, Inc.
+ * All rights reserved.  http://www.perf4j.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.perf4j.helpers;
+
+import org.perf4j.GroupedTimingStatistics;
+
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.NoSuchElementException;
+
+/**
+ * This Iterator wraps an Iterator of short time slices, usually a {@link GroupingStatisticsIterator}, and uses a
+ * {@link SlidingWindowAggregator} to return the GroupedTimingStatistics for each of the aggregator's windows as they
+ * are completed. The returned statistics are ordered by stop time; the window that a GroupedTimingStatistics
+ * belongs to can be determined from its start and stop times. For example, the following returns 1 minute statistics
+ * every 5 seconds along with 1 hour statistics, while only aggregating each StopWatch once:
+ * <pre>
+ * List&lt;SlidingWindowAggregator.Window&gt; windows = Arrays.asList(new SlidingWindowAggregator.Window(60000L, 5000L),
+ *                                                                new SlidingWindowAggregator.Window(3600000L));
+ * Iterator&lt;GroupedTimingStatistics&gt; iter =
+ *         new WindowedStatisticsIterator(new GroupingStatisticsIterator(stopWatches, 5000L, false),
+ *                                        new SlidingWindowAggregator(5000L, windows));
+ * </pre>
+ */
+public class WindowedStatisticsIterator implements Iterator<GroupedTimingStatistics> {
+    /**
+     * The underlying iterator of time slices.
+     */
+    private Iterator<GroupedTimingStatistics> sliceIterator;
+    /**
+     * The aggregator that combines slices into windows.
+     */
+    private SlidingWindowAggregator aggregator;
+    /**
+     * Completed windows that have not been returned yet.
+     */
+    private LinkedList<GroupedTimingStatistics> completedWindows = new LinkedList<GroupedTimingStatistics>();
+    /**
+     * Whether or not the aggregator has been flushed after the slice iterator was exhausted.
+     */
+    private boolean flushed = false;
+
+    /**
+     * Creates a new WindowedStatisticsIterator.
+     *
+     * @param sliceIterator The iterator of time slices, each of which must be the aggregator's slice length.
+     * @param aggregator    The aggregator that defines the windows to be returned.
+     */
+    public WindowedStatisticsIterator(Iterator<GroupedTimingStatistics> sliceIterator,
+                                      SlidingWindowAggregator aggregator) {
+        this.sliceIterator = sliceIterator;
+        this.aggregator = aggregator;
+    }
+
+    public boolean hasNext() {
+        while (completedWindows.isEmpty()) {
+            if (sliceIterator.hasNext()) {
+                completedWindows.addAll(aggregator.addSlice(sliceIterator.next()));
+            } else if (!flushed) {
+                completedWindows.addAll(aggregator.flush());
+                flushed = true;
+            } else {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public GroupedTimingStatistics next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        return completedWindows.removeFirst();
+    }
+
+    /**
+     * Remove is not supported.
+     *
+     * @throws UnsupportedOperationException Always thrown.
+     */
+    public void remove() {
+        throw new UnsupportedOperationException();
+    }
+}
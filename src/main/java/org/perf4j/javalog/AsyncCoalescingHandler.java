@@ -15,22 +15,626 @@
  */
 package org.perf4j.javalog;
 
+import org.perf4j.GroupedTimingStatistics;
+import org.perf4j.StopWatch;
+import org.perf4j.helpers.GenericAsyncCoalescingStatisticsAppender;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.logging.ErrorManager;
+import java.util.logging.Filter;
 import java.util.logging.Handler;
+import java.util.logging.Level;
+import java.util.logging.LogManager;
 import java.util.logging.LogRecord;
 
 /**
- * TODO - not yet implemented
+ * This java.util.logging Handler groups StopWatch log messages together to form GroupedTimingStatistics. At a
+ * scheduled interval the StopWatch log messages that currently exist in the buffer are pulled to create a single
+ * GroupedTimingStatistics instance that is then published to any downstream Handlers. It is the java.util.logging
+ * equivalent of the {@link org.perf4j.log4j.AsyncCoalescingStatisticsAppender}, and like it is built on the
+ * {@link GenericAsyncCoalescingStatisticsAppender}.
+ * <p/>
+ * The {@link StopWatchLogRecord}s logged by a {@link JavaLogStopWatch}, and LogRecords whose only parameter is a
+ * StopWatch, are aggregated directly, while other records have their message parsed using the configured
+ * StopWatchParser.
+ * Records that do not contain StopWatches are discarded. Publishing a record never blocks: records are passed to a
+ * separate thread through a bounded buffer, and if the buffer is full the record is handled according to the
+ * OverloadPolicy option. The LogRecords published to downstream Handlers have the message "{0}" and the
+ * GroupedTimingStatistics as their only parameter, so standard Formatters render the statistics as text.
+ * <p/>
+ * Since java.util.logging creates Handlers with their no-argument constructor, this Handler reads its configuration
+ * from the LogManager properties that start with its class name, for example:
+ * <pre>
+ * org.perf4j.javalog.AsyncCoalescingHandler.level = INFO
+ * org.perf4j.javalog.AsyncCoalescingHandler.timeSlice = 10000
+ * org.perf4j.javalog.AsyncCoalescingHandler.createRollupStatistics = true
+ * org.perf4j.javalog.AsyncCoalescingHandler.handlers = java.util.logging.ConsoleHandler
+ * </pre>
+ * The property names are the option names below with a lowercase first letter, plus the standard <tt>level</tt> and
+ * <tt>filter</tt> properties and a <tt>handlers</tt> property that lists the class names of the downstream Handlers
+ * to create. The options may also be set programmatically, as the Handler isn't started until the first record is
+ * published.
  */
 public class AsyncCoalescingHandler extends Handler {
+    // --- configuration options ---
+    // note most configuration options are provided by the GenericAsyncCoalescingStatisticsAppender
+    /**
+     * DownstreamLogLevel option
+     */
+    private Level downstreamLogLevel = Level.INFO;
+
+    // --- contained objects ---
+    /**
+     * This instance provides the main logic for this handler. This wrapper class just provides the
+     * java.util.logging-specific parts.
+     */
+    private final GenericAsyncCoalescingStatisticsAppender baseImplementation =
+            newGenericAsyncCoalescingStatisticsAppender();
+
+    /**
+     * The downstream Handlers, which are only called from the draining thread of the baseImplementation.
+     */
+    private final List<Handler> downstreamHandlers = new CopyOnWriteArrayList<Handler>();
+
+    /**
+     * Whether the baseImplementation has been started, which happens when the first record is published.
+     */
+    private volatile boolean started = false;
+
+    /**
+     * Whether this Handler has been closed, after which records are ignored.
+     */
+    private volatile boolean closed = false;
+
+    // --- constructors ---
+    /**
+     * Creates a new AsyncCoalescingHandler, configured from the LogManager properties that start with the name of this
+     * class.
+     */
+    public AsyncCoalescingHandler() {
+        baseImplementation.setName(getClass().getSimpleName());
+        configure(getClass().getName());
+    }
+
+    // --- options ---
+    /**
+     * The <b>TimeSlice</b> option represents the length of time, in milliseconds, of the window in which published
+     * LogRecords are coalesced to a single GroupedTimingStatistics and sent to downstream Handlers.
+     * Defaults to 30,000 milliseconds.
+     *
+     * @return the TimeSlice option.
+     */
+    public long getTimeSlice() {
+        return baseImplementation.getTimeSlice();
+    }
+
+    /**
+     * Sets the value of the <b>TimeSlice</b> option.
+     *
+     * @param timeSlice The new TimeSlice option, in milliseconds.
+     */
+    public void setTimeSlice(long timeSlice) {
+        baseImplementation.setTimeSlice(timeSlice);
+    }
+
+    /**
+     * The <b>DownstreamLogLevel</b> option gets the Level of the GroupedTimingStatistics LogRecord that is sent to
+     * downstream Handlers. Defaults to "INFO".
+     *
+     * @return The DownstreamLogLevel option as a String
+     */
+    public String getDownstreamLogLevel() {
+        return downstreamLogLevel.getName();
+    }
+
+    /**
+     * Sets the value of the <b>DownstreamLogLevel</b> option. This String must be a java.util.logging Level name or
+     * one of the log4j level names accepted by {@link JavaLogStopWatch#mapLevelName}.
+     *
+     * @param downstreamLogLevel The new DownstreamLogLevel option.
+     */
+    public void setDownstreamLogLevel(String downstreamLogLevel) {
+        this.downstreamLogLevel = parseLevel(downstreamLogLevel);
+    }
+
+    /**
+     * The <b>CreateRollupStatistics</b> option is used to determine whether "rollup" statistics should be created.
+     * See {@link GenericAsyncCoalescingStatisticsAppender#isCreateRollupStatistics()}. Defaults to false.
+     *
+     * @return The CreateRollupStatistics option.
+     */
+    public boolean isCreateRollupStatistics() {
+        return baseImplementation.isCreateRollupStatistics();
+    }
+
+    /**
+     * Sets the value of the <b>CreateRollupStatistics</b> option.
+     *
+     * @param createRollupStatistics The new CreateRollupStatistics option.
+     */
+    public void setCreateRollupStatistics(boolean createRollupStatistics) {
+        baseImplementation.setCreateRollupStatistics(createRollupStatistics);
+    }
+
+    /**
+     * The <b>QueueSize</b> option is used to control the size of the internal queue used by this Handler to store
+     * published records before they are sent to downstream Handlers. Defaults to 1024.
+     *
+     * @return The QueueSize option.
+     */
+    public int getQueueSize() {
+        return baseImplementation.getQueueSize();
+    }
+
+    /**
+     * Sets the value of the <b>QueueSize</b> option.
+     *
+     * @param queueSize The new QueueSize option.
+     */
+    public void setQueueSize(int queueSize) {
+        baseImplementation.setQueueSize(queueSize);
+    }
+
+    /**
+     * The <b>StopWatchParserClassName</b> option is used to determine the class used to parse stop watch messages
+     * into StopWatch instances. This defaults to the standard "org.perf4j.helpers.StopWatchParser" class.
+     *
+     * @return The StopWatchParserClassName option.
+     */
+    public String getStopWatchParserClassName() {
+        return baseImplementation.getStopWatchParserClassName();
+    }
+
+    /**
+     * Sets the value of the <b>StopWatchParserClassName</b> option.
+     *
+     * @param stopWatchParserClassName The new StopWatchParserClassName option.
+     */
+    public void setStopWatchParserClassName(String stopWatchParserClassName) {
+        baseImplementation.setStopWatchParserClassName(stopWatchParserClassName);
+    }
+
+    /**
+     * The <b>QueueType</b> option determines the implementation of the internal queue, either "ArrayBlockingQueue"
+     * (the default) or "RingBuffer".
+     *
+     * @return The QueueType option.
+     */
+    public String getQueueType() {
+        return baseImplementation.getQueueType();
+    }
+
+    /**
+     * Sets the value of the <b>QueueType</b> option.
+     *
+     * @param queueType The new QueueType option.
+     */
+    public void setQueueType(String queueType) {
+        baseImplementation.setQueueType(queueType);
+    }
+
+    /**
+     * The <b>WaitStrategy</b> option determines how the draining thread waits for new messages when the QueueType is
+     * RingBuffer. Must be one of BusySpin, Yield or Park (the default).
+     *
+     * @return The WaitStrategy option.
+     */
+    public String getWaitStrategy() {
+        return baseImplementation.getWaitStrategy();
+    }
+
+    /**
+     * Sets the value of the <b>WaitStrategy</b> option.
+     *
+     * @param waitStrategy The new WaitStrategy option.
+     */
+    public void setWaitStrategy(String waitStrategy) {
+        baseImplementation.setWaitStrategy(waitStrategy);
+    }
+
+    /**
+     * The <b>ThreadLocalAggregation</b> option, if true, causes StopWatches logged by JavaLogStopWatches to be
+     * aggregated on the logging thread instead of being queued. Defaults to false.
+     *
+     * @return The ThreadLocalAggregation option.
+     */
+    public boolean isThreadLocalAggregation() {
+        return baseImplementation.isThreadLocalAggregation();
+    }
+
+    /**
+     * Sets the value of the <b>ThreadLocalAggregation</b> option.
+     *
+     * @param threadLocalAggregation The new ThreadLocalAggregation option.
+     */
+    public void setThreadLocalAggregation(boolean threadLocalAggregation) {
+        baseImplementation.setThreadLocalAggregation(threadLocalAggregation);
+    }
+
+    /**
+     * The <b>PercentileSignificantDigits</b> option, if greater than 0, causes percentiles to be tracked for each tag
+     * with the specified precision, from 1 to 5 significant digits. Defaults to 0, meaning percentiles are not tracked.
+     *
+     * @return The PercentileSignificantDigits option.
+     */
+    public int getPercentileSignificantDigits() {
+        return baseImplementation.getPercentileSignificantDigits();
+    }
+
+    /**
+     * Sets the value of the <b>PercentileSignificantDigits</b> option.
+     *
+     * @param percentileSignificantDigits The new PercentileSignificantDigits option.
+     */
+    public void setPercentileSignificantDigits(int percentileSignificantDigits) {
+        baseImplementation.setPercentileSignificantDigits(percentileSignificantDigits);
+    }
+
+    /**
+     * The <b>PercentileMaxValue</b> option sets the highest elapsed time, in milliseconds, that is tracked with full
+     * precision when calculating percentiles. Defaults to 3600000 (one hour).
+     *
+     * @return The PercentileMaxValue option.
+     */
+    public long getPercentileMaxValue() {
+        return baseImplementation.getPercentileMaxValue();
+    }
+
+    /**
+     * Sets the value of the <b>PercentileMaxValue</b> option.
+     *
+     * @param percentileMaxValue The new PercentileMaxValue option.
+     */
+    public void setPercentileMaxValue(long percentileMaxValue) {
+        baseImplementation.setPercentileMaxValue(percentileMaxValue);
+    }
+
+    /**
+     * The <b>AllowedLateness</b> option is the time, in milliseconds, that a time slice is kept open after it ends so
+     * that StopWatches logged late are still counted in the correct time slice. Defaults to 0.
+     *
+     * @return The AllowedLateness option.
+     */
+    public long getAllowedLateness() {
+        return baseImplementation.getAllowedLateness();
+    }
+
+    /**
+     * Sets the value of the <b>AllowedLateness</b> option.
+     *
+     * @param allowedLateness The new AllowedLateness option.
+     */
+    public void setAllowedLateness(long allowedLateness) {
+        baseImplementation.setAllowedLateness(allowedLateness);
+    }
+
+    /**
+     * The <b>TimeUnit</b> option sets the unit of the statistics created by this Handler, one of "ms" (the default),
+     * "us" or "ns".
+     *
+     * @return The TimeUnit option.
+     */
+    public String getTimeUnit() {
+        return baseImplementation.getTimeUnit();
+    }
+
+    /**
+     * Sets the value of the <b>TimeUnit</b> option.
+     *
+     * @param timeUnit The new TimeUnit option.
+     */
+    public void setTimeUnit(String timeUnit) {
+        baseImplementation.setTimeUnit(timeUnit);
+    }
+
+    /**
+     * The <b>OverloadPolicy</b> option determines what happens to published StopWatches when the queue fills past
+     * the high-water mark set by the HighWaterMark option, one of "Discard" (the default), "Sample" or "Aggregate".
+     *
+     * @return The OverloadPolicy option.
+     */
+    public String getOverloadPolicy() {
+        return baseImplementation.getOverloadPolicy();
+    }
+
+    /**
+     * Sets the value of the <b>OverloadPolicy</b> option.
+     *
+     * @param overloadPolicy The new OverloadPolicy option.
+     */
+    public void setOverloadPolicy(String overloadPolicy) {
+        baseImplementation.setOverloadPolicy(overloadPolicy);
+    }
+
+    /**
+     * The <b>HighWaterMark</b> option is the percentage of the queue capacity above which the OverloadPolicy takes
+     * effect. Defaults to 75.
+     *
+     * @return The HighWaterMark option.
+     */
+    public int getHighWaterMark() {
+        return baseImplementation.getHighWaterMark();
+    }
+
+    /**
+     * Sets the value of the <b>HighWaterMark</b> option.
+     *
+     * @param highWaterMark The new HighWaterMark option.
+     */
+    public void setHighWaterMark(int highWaterMark) {
+        baseImplementation.setHighWaterMark(highWaterMark);
+    }
+
+    // --- attributes ---
+    /**
+     * Returns the number of StopWatch messages that have been discarded due to the queue being full.
+     *
+     * @return The number of discarded messages.
+     */
+    public int getNumDiscardedMessages() {
+        return baseImplementation.getNumDiscardedMessages();
+    }
+
+    /**
+     * Returns the number of StopWatches that have been dropped because they arrived after the AllowedLateness for
+     * their time slice had passed.
+     *
+     * @return The number of late StopWatches.
+     */
+    public long getNumLateStopWatches() {
+        return baseImplementation.getNumLateStopWatches();
+    }
+
+    /**
+     * Returns the number of StopWatch messages that have been discarded due to the queue being full, by tag.
+     *
+     * @return A snapshot of the number of discarded messages for each tag.
+     */
+    public Map<String, Long> getNumDiscardedMessagesByTag() {
+        return baseImplementation.getNumDiscardedMessagesByTag();
+    }
+
+    /**
+     * Returns the number of StopWatch messages that were not queued because the Sample OverloadPolicy was in effect.
+     *
+     * @return The number of messages not picked by sampling.
+     */
+    public long getNumShedMessages() {
+        return baseImplementation.getNumShedMessages();
+    }
+
+    // --- downstream handler methods ---
+    /**
+     * Adds a Handler to which the GroupedTimingStatistics created by this Handler are published.
+     *
+     * @param handler The downstream Handler to add
+     */
+    public void addHandler(Handler handler) {
+        downstreamHandlers.add(handler);
+    }
+
+    /**
+     * Removes a downstream Handler.
+     *
+     * @param handler The downstream Handler to remove
+     */
+    public void removeHandler(Handler handler) {
+        downstreamHandlers.remove(handler);
+    }
+
+    /**
+     * Gets the downstream Handlers.
+     *
+     * @return The downstream Handlers, which may be empty but is never null.
+     */
+    public Handler[] getHandlers() {
+        return downstreamHandlers.toArray(new Handler[downstreamHandlers.size()]);
+    }
+
+    // --- Handler methods ---
+    /**
+     * Passes the StopWatch in the specified record on to be aggregated. This method never blocks, and unlike the
+     * publish methods of the standard Handlers it is not synchronized.
+     *
+     * @param record The LogRecord, which is ignored if it doesn't contain a StopWatch.
+     */
     public void publish(LogRecord record) {
-        //To change body of implemented methods use File | Settings | File Templates.
+        if (closed || !isLoggable(record)) {
+            return;
+        }
+        if (!started) {
+            start();
+        }
+
+        Object[] parameters = record.getParameters();
+        if (record instanceof StopWatchLogRecord) {
+            //logged by a JavaLogStopWatch, so the StopWatch is used directly and the message is never parsed
+            baseImplementation.append(((StopWatchLogRecord) record).getStopWatch());
+        } else if (parameters != null && parameters.length == 1 && parameters[0] instanceof StopWatch) {
+            baseImplementation.append((StopWatch) parameters[0]);
+        } else if (record.getMessage() != null) {
+            baseImplementation.append(record.getMessage());
+        }
     }
 
+    /**
+     * Flushes the downstream Handlers. Note that StopWatches that have not yet been aggregated into a time slice are
+     * not published until the time slice ends or this Handler is closed.
+     */
     public void flush() {
-        //To change body of implemented methods use File | Settings | File Templates.
+        for (Handler handler : downstreamHandlers) {
+            handler.flush();
+        }
+    }
+
+    /**
+     * Publishes any pending statistics, then flushes and closes the downstream Handlers.
+     */
+    public synchronized void close() throws SecurityException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        if (started) {
+            baseImplementation.stop();
+        }
+
+        //as in the log4j appender, flush all downstream handlers before closing any of them, in case they share a
+        //downstream handler of their own
+        for (Handler handler : downstreamHandlers) {
+            try {
+                handler.flush();
+            } catch (Exception e) { /* Just eat the exception, we're closing down */ }
+        }
+        for (Handler handler : downstreamHandlers) {
+            handler.close();
+        }
+    }
+
+    // --- helper methods ---
+    /**
+     * Creates the GenericAsyncCoalescingStatisticsAppender that this handler wraps. Subclasses may override this
+     * method to return a customized instance.
+     *
+     * @return The newly created GenericAsyncCoalescingStatisticsAppender
+     */
+    protected GenericAsyncCoalescingStatisticsAppender newGenericAsyncCoalescingStatisticsAppender() {
+        return new GenericAsyncCoalescingStatisticsAppender();
+    }
+
+    /**
+     * Starts the underlying generic appender with a handler object that publishes statistics to the downstream
+     * Handlers. This is done when the first record is published rather than in the constructor, so that options set
+     * after construction take effect.
+     */
+    protected synchronized void start() {
+        if (started || closed) {
+            return;
+        }
+
+        baseImplementation.start(new GenericAsyncCoalescingStatisticsAppender.GroupedTimingStatisticsHandler() {
+            public void handle(GroupedTimingStatistics statistics) {
+                LogRecord coalescedRecord = new LogRecord(downstreamLogLevel, "{0}");
+                coalescedRecord.setLoggerName(StopWatch.DEFAULT_LOGGER_NAME);
+                coalescedRecord.setParameters(new Object[] { statistics });
+                for (Handler handler : downstreamHandlers) {
+                    try {
+                        handler.publish(coalescedRecord);
+                    } catch (Exception e) {
+                        reportError("Exception publishing GroupedTimingStatistics to downstream handler",
+                                    e, ErrorManager.WRITE_FAILURE);
+                    }
+                }
+            }
+
+            public void error(String errorMessage) {
+                reportError(errorMessage, null, ErrorManager.GENERIC_FAILURE);
+            }
+        });
+        started = true;
+    }
+
+    /**
+     * Helper method sets the options of this Handler from the LogManager properties with the specified prefix.
+     * Invalid values are reported to the ErrorManager and otherwise ignored, as is the convention for Handlers.
+     *
+     * @param className The class name that prefixes the property names.
+     */
+    private void configure(String className) {
+        LogManager manager = LogManager.getLogManager();
+        String[] propertyNames = {
+                "level", "filter", "handlers", "downstreamLogLevel", "timeSlice", "createRollupStatistics",
+                "queueSize", "stopWatchParserClassName", "queueType", "waitStrategy", "threadLocalAggregation",
+                "percentileSignificantDigits", "percentileMaxValue", "allowedLateness", "timeUnit", "overloadPolicy",
+                "highWaterMark"
+        };
+
+        for (String propertyName : propertyNames) {
+            String value = manager.getProperty(className + "." + propertyName);
+            if (value == null || value.trim().length() == 0) {
+                continue;
+            }
+            value = value.trim();
+
+            try {
+                setProperty(propertyName, value);
+            } catch (Exception e) {
+                reportError("Invalid value for " + className + "." + propertyName + ": " + value,
+                            e, ErrorManager.GENERIC_FAILURE);
+            }
+        }
+    }
+
+    /**
+     * Helper method sets a single option from its String property value.
+     */
+    private void setProperty(String propertyName, String value) throws Exception {
+        if ("level".equals(propertyName)) {
+            setLevel(parseLevel(value));
+        } else if ("filter".equals(propertyName)) {
+            setFilter((Filter) newInstance(value));
+        } else if ("handlers".equals(propertyName)) {
+            for (String handlerClassName : value.split("[\\s,]+")) {
+                if (handlerClassName.length() > 0) {
+                    addHandler((Handler) newInstance(handlerClassName));
+                }
+            }
+        } else if ("downstreamLogLevel".equals(propertyName)) {
+            setDownstreamLogLevel(value);
+        } else if ("timeSlice".equals(propertyName)) {
+            setTimeSlice(Long.parseLong(value));
+        } else if ("createRollupStatistics".equals(propertyName)) {
+            setCreateRollupStatistics(Boolean.valueOf(value));
+        } else if ("queueSize".equals(propertyName)) {
+            setQueueSize(Integer.parseInt(value));
+        } else if ("stopWatchParserClassName".equals(propertyName)) {
+            setStopWatchParserClassName(value);
+        } else if ("queueType".equals(propertyName)) {
+            setQueueType(value);
+        } else if ("waitStrategy".equals(propertyName)) {
+            setWaitStrategy(value);
+        } else if ("threadLocalAggregation".equals(propertyName)) {
+            setThreadLocalAggregation(Boolean.valueOf(value));
+        } else if ("percentileSignificantDigits".equals(propertyName)) {
+            setPercentileSignificantDigits(Integer.parseInt(value));
+        } else if ("percentileMaxValue".equals(propertyName)) {
+            setPercentileMaxValue(Long.parseLong(value));
+        } else if ("allowedLateness".equals(propertyName)) {
+            setAllowedLateness(Long.parseLong(value));
+        } else if ("timeUnit".equals(propertyName)) {
+            setTimeUnit(value);
+        } else if ("overloadPolicy".equals(propertyName)) {
+            setOverloadPolicy(value);
+        } else if ("highWaterMark".equals(propertyName)) {
+            setHighWaterMark(Integer.parseInt(value));
+        }
+    }
+
+    /**
+     * Helper method creates an instance of the specified class, using the system class loader as the LogManager does
+     * for Handlers and Filters, and falling back to the context class loader.
+     */
+    private static Object newInstance(String className) throws Exception {
+        Class<?> clazz;
+        try {
+            clazz = ClassLoader.getSystemClassLoader().loadClass(className);
+        } catch (ClassNotFoundException cnfe) {
+            clazz = Thread.currentThread().getContextClassLoader().loadClass(className);
+        }
+        return clazz.newInstance();
     }
 
-    public void close() throws SecurityException {
-        //To change body of implemented methods use File | Settings | File Templates.
+    /**
+     * Helper method parses a java.util.logging Level name or number, also accepting the log4j level names used
+     * elsewhere in Perf4J.
+     */
+    private static Level parseLevel(String levelName) {
+        try {
+            return Level.parse(levelName.trim().toUpperCase());
+        } catch (IllegalArgumentException iae) {
+            return JavaLogStopWatch.mapLevelName(levelName.trim());
+        }
     }
 }
@@ -16,10 +16,12 @@
 package org.perf4j.javalog;
 
 import org.perf4j.LoggingStopWatch;
+import org.perf4j.helpers.ImmutableStopWatch;
 
 import java.io.IOException;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
+import java.util.logging.LogRecord;
 import java.util.logging.Logger;
 import java.util.logging.Level;
 
@@ -33,6 +35,8 @@ import java.util.logging.Level;
  */
 @SuppressWarnings("serial")
 public class JavaLogStopWatch extends LoggingStopWatch {
+    private static final long serialVersionUID = 5878211687422502811L;
+
     private transient Logger logger;
     private Level normalPriority;
     private Level exceptionPriority;
@@ -332,6 +336,12 @@ public class JavaLogStopWatch extends LoggingStopWatch {
     	return this;
     }
 
+    // Just overridden to make use of covariant return types
+    public JavaLogStopWatch setSampleRate(double sampleRate) {
+        super.setSampleRate(sampleRate);
+        return this;
+    }
+
     // --- Helper Methods ---
     /**
      * This method returns true if the logger it uses is enabled at the normalPriority level of this StopWatch.
@@ -344,14 +354,43 @@ public class JavaLogStopWatch extends LoggingStopWatch {
     }
 
     /**
-     * The log message is overridden to use the java.util.logging Logger to persist the stop watch.
+     * The log message is overridden to use the java.util.logging Logger to persist the stop watch. The LogRecord is a
+     * {@link StopWatchLogRecord}, whose message is the StopWatch text and which has no parameters, but which also
+     * carries an {@link ImmutableStopWatch} snapshot of this StopWatch that the {@link AsyncCoalescingHandler} uses
+     * directly instead of parsing the message.
      *
      * @param stopWatchAsString The stringified view of the stop watch for logging.
      * @param exception         An exception, if any, that was passed to the stop or lap method. If this is null then
      *                          logging will occur at normalPriority, if non-null it will occur at exceptionPriority.
      */
     protected void log(String stopWatchAsString, Throwable exception) {
-        logger.log((exception == null) ? normalPriority : exceptionPriority, stopWatchAsString, exception);
+        Level level = (exception == null) ? normalPriority : exceptionPriority;
+        if (logger.isLoggable(level)) {
+            logRecord(level, stopWatchAsString, exception);
+        }
+    }
+
+    /**
+     * This method only creates the StopWatch string if a Handler or Filter asks for the message of the LogRecord.
+     *
+     * @param exception An exception, if any, that was also passed to the stopAndRecord() method - may be null.
+     */
+    protected void log(Throwable exception) {
+        Level level = (exception == null) ? normalPriority : exceptionPriority;
+        if (logger.isLoggable(level)) {
+            logRecord(level, null, exception);
+        }
+    }
+
+    /**
+     * Helper method logs a StopWatchLogRecord for this StopWatch.
+     */
+    private void logRecord(Level level, String stopWatchAsString, Throwable exception) {
+        LogRecord record = new StopWatchLogRecord(level, new ImmutableStopWatch(this, stopWatchAsString),
+                                                  stopWatchAsString);
+        record.setLoggerName(logger.getName());
+        record.setThrown(exception);
+        logger.log(record);
     }
 
     // --- Static Utility Methods ---
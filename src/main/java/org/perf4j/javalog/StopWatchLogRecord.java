@@ -0,0 +1,83 @@
+/* Copyright (c) 2008-2009 HomeAway, Inc.
+ * All rights reserved.  http://www.perf4j.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.perf4j.javalog;
+
+import org.perf4j.StopWatch;
+
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+
+/**
+ * A StopWatchLogRecord is the LogRecord logged by a {@link JavaLogStopWatch}. Its message is the String form of the
+ * StopWatch and it has no parameters, so Handlers, Filters and Formatters see the same text they always have, while
+ * the {@link AsyncCoalescingHandler} can get the StopWatch itself from {@link #getStopWatch()} without needing to
+ * parse the message.
+ * <p/>
+ * If the record is created without the String form of the StopWatch (as is the case for the stopAndRecord methods),
+ * the message is only created the first time it is requested.
+ */
+@SuppressWarnings("serial")
+public class StopWatchLogRecord extends LogRecord {
+    private final StopWatch stopWatch;
+
+    /**
+     * Creates a new StopWatchLogRecord.
+     *
+     * @param level             The logging level
+     * @param stopWatch         The StopWatch being logged, which should not be modified after it is logged, e.g. an
+     *                          {@link org.perf4j.helpers.ImmutableStopWatch}
+     * @param stopWatchAsString The String form of the StopWatch, may be null if it hasn't been created, in which case
+     *                          it is created when the message is first requested
+     */
+    public StopWatchLogRecord(Level level, StopWatch stopWatch, String stopWatchAsString) {
+        super(level, stopWatchAsString);
+        this.stopWatch = stopWatch;
+    }
+
+    /**
+     * Gets the StopWatch that was logged.
+     *
+     * @return The StopWatch, never null
+     */
+    public StopWatch getStopWatch() {
+        return stopWatch;
+    }
+
+    /**
+     * Gets the message, which is the String form of the StopWatch.
+     *
+     * @return The message
+     */
+    public String getMessage() {
+        String retVal = super.getMessage();
+        if (retVal == null) {
+            retVal = stopWatch.toString();
+            setMessage(retVal);
+        }
+        return retVal;
+    }
+
+    /**
+     * Makes sure the message has been created before this record is serialized, since the serialized form of a
+     * LogRecord includes the message field.
+     *
+     * @return this record
+     */
+    private Object writeReplace() {
+        getMessage();
+        return this;
+    }
+}
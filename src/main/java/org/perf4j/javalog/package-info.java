@@ -15,8 +15,10 @@
  */
 /**
  * Provides a {@link org.perf4j.javalog.JavaLogStopWatch} to use as your StopWatch implementation if the
- * java.util.logging framework is your logging framework of choice. <b>IMPORTANT</b>: The custom Handlers of this class
- * are not yet implemented but will be provided in a subsequent release of Perf4J.
+ * java.util.logging framework is your logging framework of choice, and an
+ * {@link org.perf4j.javalog.AsyncCoalescingHandler} that aggregates StopWatch records into GroupedTimingStatistics.
+ * <b>IMPORTANT</b>: The GraphingStatisticsHandler and JmxAttributeStatisticsHandler are not yet implemented but will
+ * be provided in a subsequent release of Perf4J.
  *
  * @see <a href="http://java.sun.com/j2se/1.5.0/docs/api/java/util/logging/package-summary.html">java.util.logging package</a>
  */
@@ -21,12 +21,14 @@ import org.apache.log4j.Level;
 import org.apache.log4j.Logger;
 import org.apache.log4j.helpers.AppenderAttachableImpl;
 import org.apache.log4j.spi.AppenderAttachable;
+import org.apache.log4j.spi.Filter;
 import org.apache.log4j.spi.LoggingEvent;
 import org.perf4j.GroupedTimingStatistics;
 import org.perf4j.StopWatch;
 import org.perf4j.helpers.GenericAsyncCoalescingStatisticsAppender;
 
 import java.util.Enumeration;
+import java.util.Map;
 import java.io.Flushable;
 
 /**
@@ -34,7 +36,9 @@ import java.io.Flushable;
  * the StopWatch log messages that currently exist in the buffer are pulled to create a single
  * GroupedTimingStatistics instance that is then sent to any attached appenders.
  * <p/>
- * Note that any LoggingEvents which do NOT contain StopWatch objects are discarded. Also, this appender stores logged
+ * Note that any LoggingEvents which do NOT contain StopWatch objects are discarded. LoggingEvents whose message is a
+ * StopWatch instance (as is the case for events logged by a {@link Log4JStopWatch}) are aggregated directly, while
+ * String messages are parsed using the configured StopWatchParser. Also, this appender stores logged
  * messages in a bounded buffer before sending those messages to downstream appenders. If the buffer becomes full then
  * subsequent logs will be discarded until the buffer has time to clear. You can access the number of discarded
  * messages using the getNumDiscardedMessages() method.
@@ -162,7 +166,8 @@ public class AsyncCoalescingStatisticsAppender extends AppenderSkeleton implemen
 
     /**
      * The <b>StopWatchParserClassName</b> option is used to determine the class used to parse stop watch messages
-     * into StopWatch instances. This defaults to the standard "org.perf4j.helpers.StopWatchParser" class.
+     * into StopWatch instances. This defaults to the standard "org.perf4j.helpers.StopWatchParser" class. The
+     * "org.perf4j.helpers.FastStopWatchParser" class gives identical results without using regular expressions.
      *
      * @return The StopWatchParserClassName option.
      */
@@ -179,6 +184,187 @@ public class AsyncCoalescingStatisticsAppender extends AppenderSkeleton implemen
         baseImplementation.setStopWatchParserClassName(stopWatchParserClassName);
     }
 
+    /**
+     * The <b>QueueType</b> option determines the implementation of the internal queue used to store logged messages.
+     * The default, ArrayBlockingQueue, uses a standard lock-based queue. Setting this option to RingBuffer uses a
+     * lock-free ring buffer that scales much better when many threads log concurrently.
+     *
+     * @return The QueueType option.
+     */
+    public String getQueueType() {
+        return baseImplementation.getQueueType();
+    }
+
+    /**
+     * Sets the value of the <b>QueueType</b> option.
+     *
+     * @param queueType The new QueueType option, either ArrayBlockingQueue or RingBuffer.
+     */
+    public void setQueueType(String queueType) {
+        baseImplementation.setQueueType(queueType);
+    }
+
+    /**
+     * The <b>WaitStrategy</b> option determines how the internal draining thread waits for new messages when the
+     * QueueType is RingBuffer. Must be one of BusySpin, Yield or Park (the default).
+     *
+     * @return The WaitStrategy option.
+     */
+    public String getWaitStrategy() {
+        return baseImplementation.getWaitStrategy();
+    }
+
+    /**
+     * Sets the value of the <b>WaitStrategy</b> option.
+     *
+     * @param waitStrategy The new WaitStrategy option.
+     */
+    public void setWaitStrategy(String waitStrategy) {
+        baseImplementation.setWaitStrategy(waitStrategy);
+    }
+
+    /**
+     * The <b>ThreadLocalAggregation</b> option, if true, causes StopWatches logged by a {@link Log4JStopWatch} to be
+     * aggregated on the logging thread itself instead of being passed one by one through the internal queue. Only the
+     * aggregated statistics cross threads, once per time slice, and these StopWatches are never discarded.
+     * Defaults to false.
+     *
+     * @return The ThreadLocalAggregation option.
+     */
+    public boolean isThreadLocalAggregation() {
+        return baseImplementation.isThreadLocalAggregation();
+    }
+
+    /**
+     * Sets the value of the <b>ThreadLocalAggregation</b> option.
+     *
+     * @param threadLocalAggregation The new ThreadLocalAggregation option.
+     */
+    public void setThreadLocalAggregation(boolean threadLocalAggregation) {
+        baseImplementation.setThreadLocalAggregation(threadLocalAggregation);
+    }
+
+    /**
+     * The <b>PercentileSignificantDigits</b> option, if greater than 0, causes the distribution of elapsed times for
+     * each tag to be recorded so that percentiles (such as the P99 and P999 statistics) can be calculated. The value
+     * is the number of significant decimal digits to which elapsed times are preserved, from 1 to 5. Defaults to 0,
+     * meaning percentiles are not tracked.
+     *
+     * @return The PercentileSignificantDigits option.
+     */
+    public int getPercentileSignificantDigits() {
+        return baseImplementation.getPercentileSignificantDigits();
+    }
+
+    /**
+     * Sets the value of the <b>PercentileSignificantDigits</b> option.
+     *
+     * @param percentileSignificantDigits The new PercentileSignificantDigits option.
+     */
+    public void setPercentileSignificantDigits(int percentileSignificantDigits) {
+        baseImplementation.setPercentileSignificantDigits(percentileSignificantDigits);
+    }
+
+    /**
+     * The <b>PercentileMaxValue</b> option sets the highest elapsed time, in milliseconds, that is tracked with full
+     * precision when calculating percentiles. Only used if the PercentileSignificantDigits option is set. Defaults to
+     * 3600000 (one hour).
+     *
+     * @return The PercentileMaxValue option.
+     */
+    public long getPercentileMaxValue() {
+        return baseImplementation.getPercentileMaxValue();
+    }
+
+    /**
+     * Sets the value of the <b>PercentileMaxValue</b> option.
+     *
+     * @param percentileMaxValue The new PercentileMaxValue option.
+     */
+    public void setPercentileMaxValue(long percentileMaxValue) {
+        baseImplementation.setPercentileMaxValue(percentileMaxValue);
+    }
+
+    /**
+     * The <b>AllowedLateness</b> option is the time, in milliseconds, that a time slice is kept open after it ends so
+     * that StopWatches that started in it but were logged later are still counted in the correct time slice.
+     * StopWatches that arrive after that are dropped and counted by {@link #getNumLateStopWatches()}. Defaults to 0,
+     * in which case late StopWatches are counted in the current time slice.
+     *
+     * @return The AllowedLateness option.
+     */
+    public long getAllowedLateness() {
+        return baseImplementation.getAllowedLateness();
+    }
+
+    /**
+     * Sets the value of the <b>AllowedLateness</b> option.
+     *
+     * @param allowedLateness The new AllowedLateness option.
+     */
+    public void setAllowedLateness(long allowedLateness) {
+        baseImplementation.setAllowedLateness(allowedLateness);
+    }
+
+    /**
+     * The <b>TimeUnit</b> option sets the unit of the statistics created by this appender, one of "ms" (the default),
+     * "us" or "ns". Finer units keep the precise elapsed times of sub-millisecond StopWatches. The PercentileMaxValue
+     * option is always in milliseconds.
+     *
+     * @return The TimeUnit option.
+     */
+    public String getTimeUnit() {
+        return baseImplementation.getTimeUnit();
+    }
+
+    /**
+     * Sets the value of the <b>TimeUnit</b> option.
+     *
+     * @param timeUnit The new TimeUnit option.
+     */
+    public void setTimeUnit(String timeUnit) {
+        baseImplementation.setTimeUnit(timeUnit);
+    }
+
+    /**
+     * The <b>OverloadPolicy</b> option determines what happens to logged StopWatches when the queue fills past the
+     * high-water mark set by the HighWaterMark option, one of "Discard" (the default), "Sample" or "Aggregate". See
+     * {@link GenericAsyncCoalescingStatisticsAppender#getOverloadPolicy()} for details.
+     *
+     * @return The OverloadPolicy option.
+     */
+    public String getOverloadPolicy() {
+        return baseImplementation.getOverloadPolicy();
+    }
+
+    /**
+     * Sets the value of the <b>OverloadPolicy</b> option.
+     *
+     * @param overloadPolicy The new OverloadPolicy option.
+     */
+    public void setOverloadPolicy(String overloadPolicy) {
+        baseImplementation.setOverloadPolicy(overloadPolicy);
+    }
+
+    /**
+     * The <b>HighWaterMark</b> option is the percentage of the queue capacity above which the OverloadPolicy takes
+     * effect. Defaults to 75.
+     *
+     * @return The HighWaterMark option.
+     */
+    public int getHighWaterMark() {
+        return baseImplementation.getHighWaterMark();
+    }
+
+    /**
+     * Sets the value of the <b>HighWaterMark</b> option.
+     *
+     * @param highWaterMark The new HighWaterMark option.
+     */
+    public void setHighWaterMark(int highWaterMark) {
+        baseImplementation.setHighWaterMark(highWaterMark);
+    }
+
     public void setName(String name) {
         super.setName(name);
         baseImplementation.setName(name);
@@ -236,6 +422,34 @@ public class AsyncCoalescingStatisticsAppender extends AppenderSkeleton implemen
         return baseImplementation.getNumDiscardedMessages();
     }
 
+    /**
+     * Returns the number of StopWatches that have been dropped because they arrived after the AllowedLateness for
+     * their time slice had passed.
+     *
+     * @return The number of late StopWatches.
+     */
+    public long getNumLateStopWatches() {
+        return baseImplementation.getNumLateStopWatches();
+    }
+
+    /**
+     * Returns the number of StopWatch messages that have been discarded due to the queue being full, by tag.
+     *
+     * @return A snapshot of the number of discarded messages for each tag.
+     */
+    public Map<String, Long> getNumDiscardedMessagesByTag() {
+        return baseImplementation.getNumDiscardedMessagesByTag();
+    }
+
+    /**
+     * Returns the number of StopWatch messages that were not queued because the Sample OverloadPolicy was in effect.
+     *
+     * @return The number of messages not picked by sampling.
+     */
+    public long getNumShedMessages() {
+        return baseImplementation.getNumShedMessages();
+    }
+
     // --- appender attachable methods ---
 
     public void addAppender(Appender appender) {
@@ -281,8 +495,43 @@ public class AsyncCoalescingStatisticsAppender extends AppenderSkeleton implemen
     }
 
     // --- appender methods ---
+    /**
+     * This method is overridden from AppenderSkeleton, whose implementation is synchronized, because the underlying
+     * GenericAsyncCoalescingStatisticsAppender is thread safe. Otherwise every logging thread would contend on this
+     * appender's lock even when a lock-free QueueType or ThreadLocalAggregation is used. The threshold and filter
+     * checks are performed just as they are in AppenderSkeleton.
+     *
+     * @param event The LoggingEvent to append
+     */
+    public void doAppend(LoggingEvent event) {
+        if (closed || !isAsSevereAsThreshold(event.getLevel())) {
+            return;
+        }
+
+        Filter filter = getFirstFilter();
+        while (filter != null) {
+            switch (filter.decide(event)) {
+            case Filter.DENY:
+                return;
+            case Filter.ACCEPT:
+                filter = null;
+                break;
+            default:
+                filter = filter.getNext();
+            }
+        }
+
+        append(event);
+    }
+
     protected void append(LoggingEvent event) {
-        baseImplementation.append(String.valueOf(event.getMessage()));
+        Object message = event.getMessage();
+        if (message instanceof StopWatch) {
+            //fast path - the StopWatch was logged directly so there's no need to parse it
+            baseImplementation.append((StopWatch) message);
+        } else {
+            baseImplementation.append(String.valueOf(message));
+        }
     }
 
     public boolean requiresLayout() {
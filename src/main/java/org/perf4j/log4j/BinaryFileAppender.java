@@ -0,0 +1,187 @@
+/* Copyright (c) 2008-2009 HomeAway, Inc.
+ * All rights reserved.  http://www.perf4j.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.perf4j.log4j;
+
+import org.apache.log4j.AppenderSkeleton;
+import org.apache.log4j.spi.ErrorCode;
+import org.apache.log4j.spi.LoggingEvent;
+import org.perf4j.StopWatch;
+import org.perf4j.helpers.BinaryStopWatchWriter;
+import org.perf4j.helpers.StopWatchParser;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+/**
+ * This appender writes StopWatch log messages to a file in the compact binary format written by the
+ * {@link BinaryStopWatchWriter}. The resulting file is typically several times smaller than the equivalent text log
+ * and can be read by the {@link org.perf4j.LogParser} (which automatically detects binary files) or directly with a
+ * {@link org.perf4j.helpers.BinaryStopWatchLogIterator}. StopWatch messages are written without being formatted;
+ * String messages are parsed and written if they are valid StopWatch log messages, all other messages are ignored.
+ * This appender does not use a Layout.
+ */
+public class BinaryFileAppender extends AppenderSkeleton {
+    // --- configuration options ---
+    /**
+     * The name of the file to write to.
+     */
+    private String file;
+    /**
+     * Whether to append to an existing file or truncate it.
+     */
+    private boolean append = true;
+    /**
+     * Whether to flush the file after each message.
+     */
+    private boolean immediateFlush = true;
+
+    // --- state variables ---
+    /**
+     * The writer is created in the {@link #activateOptions} method.
+     */
+    private BinaryStopWatchWriter writer;
+    /**
+     * Used to parse String log messages.
+     */
+    private StopWatchParser stopWatchParser = new StopWatchParser();
+
+    // --- options ---
+    /**
+     * The <b>File</b> option is the name of the file to write to.
+     *
+     * @return The value of the File option
+     */
+    public String getFile() {
+        return file;
+    }
+
+    /**
+     * Sets the value of the <b>File</b> option.
+     *
+     * @param file The new value for the File option.
+     */
+    public void setFile(String file) {
+        this.file = file;
+    }
+
+    /**
+     * The <b>Append</b> option determines whether messages are appended to an existing file or whether the file
+     * is truncated when the appender is activated. Defaults to true.
+     *
+     * @return The value of the Append option
+     */
+    public boolean isAppend() {
+        return append;
+    }
+
+    /**
+     * Sets the value of the <b>Append</b> option.
+     *
+     * @param append The new value for the Append option.
+     */
+    public void setAppend(boolean append) {
+        this.append = append;
+    }
+
+    /**
+     * The <b>ImmediateFlush</b> option determines whether the file is flushed after each message is written. Setting
+     * this to false improves throughput at the risk of losing buffered messages if the JVM exits abruptly. Defaults
+     * to true.
+     *
+     * @return The value of the ImmediateFlush option
+     */
+    public boolean isImmediateFlush() {
+        return immediateFlush;
+    }
+
+    /**
+     * Sets the value of the <b>ImmediateFlush</b> option.
+     *
+     * @param immediateFlush The new value for the ImmediateFlush option.
+     */
+    public void setImmediateFlush(boolean immediateFlush) {
+        this.immediateFlush = immediateFlush;
+    }
+
+    public void activateOptions() {
+        if (file == null) {
+            throw new RuntimeException("You must set the File option before activating this appender");
+        }
+
+        try {
+            if (append) {
+                //a block appended after a partial record would be misread, so remove it first
+                BinaryStopWatchWriter.removePartialRecord(new File(file));
+            }
+            writer = new BinaryStopWatchWriter(new FileOutputStream(file, append));
+        } catch (IOException ioe) {
+            throw new RuntimeException("Error opening binary StopWatch log file " + file + ": " + ioe.getMessage(),
+                                       ioe);
+        }
+    }
+
+    // --- appender interface methods ---
+
+    protected void append(LoggingEvent event) {
+        if (writer == null) {
+            return;
+        }
+
+        Object message = event.getMessage();
+        StopWatch stopWatch = null;
+        if (message instanceof StopWatch) {
+            stopWatch = (StopWatch) message;
+        } else if (message != null) {
+            String messageString = message.toString();
+            if (stopWatchParser.isPotentiallyValid(messageString)) {
+                stopWatch = stopWatchParser.parseStopWatch(messageString);
+            }
+        }
+
+        if (stopWatch != null) {
+            try {
+                writer.write(stopWatch);
+                if (immediateFlush) {
+                    writer.flush();
+                }
+            } catch (IOException ioe) {
+                getErrorHandler().error("Error writing to binary StopWatch log file " + file,
+                                        ioe,
+                                        ErrorCode.WRITE_FAILURE,
+                                        event);
+            }
+        }
+    }
+
+    public boolean requiresLayout() {
+        return false;
+    }
+
+    public void close() {
+        if (writer != null) {
+            try {
+                writer.close();
+            } catch (IOException ioe) {
+                getErrorHandler().error("Error closing binary StopWatch log file " + file,
+                                        ioe,
+                                        ErrorCode.CLOSE_FAILURE);
+            }
+            writer = null;
+        }
+        closed = true;
+    }
+}
@@ -25,6 +25,7 @@ import org.apache.log4j.spi.LoggingEvent;
 import org.perf4j.GroupedTimingStatistics;
 import org.perf4j.StopWatch;
 import org.perf4j.chart.GoogleChartGenerator;
+import org.perf4j.chart.LocalChartGenerator;
 import org.perf4j.chart.StatisticsChartGenerator;
 import org.perf4j.helpers.StatsValueRetriever;
 import org.perf4j.helpers.MiscUtils;
@@ -54,7 +55,7 @@ public class GraphingStatisticsAppender extends AppenderSkeleton implements Appe
     /**
      * The type of data to display on the graph. Defaults to "Mean" to display mean values. Acceptable values are any
      * constant name from the {@link org.perf4j.helpers.StatsValueRetriever} class, such as Mean, Min, Max, Count,
-     * StdDev or TPS.
+     * StdDev, TPS, P50, P90, P99 or P999.
      */
     private String graphType = StatsValueRetriever.MEAN_VALUE_RETRIEVER.getValueName();
     /**
@@ -62,6 +63,11 @@ public class GraphingStatisticsAppender extends AppenderSkeleton implements Appe
      * displayed on the graph for each tag name logged.
      */
     private String tagNamesToGraph = null;
+    /**
+     * How the graphs are rendered: "Google" for Google Chart API URLs, or "SVG" or "PNG" for images rendered
+     * locally by a {@link org.perf4j.chart.LocalChartGenerator}. Defaults to Google.
+     */
+    private String chartFormat = "Google";
     /**
      * Gets the number of data points that will be written on each graph before the graph URL is written to any
      * attached appenders. Thus, this option is only relevant if there are attached appenders.
@@ -97,8 +103,9 @@ public class GraphingStatisticsAppender extends AppenderSkeleton implements Appe
 
     /**
      * The <b>GraphType</b> option is used to specify the data that should be displayed on the graph. Acceptable
-     * values are Mean, Min, Max, Count, StdDev and TPS (for transactions per second). Defaults to Mean if not
-     * explicitly set.
+     * values are Mean, Min, Max, Count, StdDev, TPS (for transactions per second) and the percentiles P50, P90, P99
+     * and P999 (which require percentiles to be tracked, see the PercentileSignificantDigits option on
+     * {@link AsyncCoalescingStatisticsAppender}). Defaults to Mean if not explicitly set.
      *
      * @return The value of the GraphType option
      */
@@ -108,7 +115,7 @@ public class GraphingStatisticsAppender extends AppenderSkeleton implements Appe
 
     /**
      * Sets the value of the <b>GraphType</b> option. This must be a valid type, one of
-     * Mean, Min, Max, Count, StdDev or TPS (for transactions per second).
+     * Mean, Min, Max, Count, StdDev, TPS (for transactions per second), P50, P90, P99 or P999.
      *
      * @param graphType The new value for the GraphType option.
      */
@@ -135,6 +142,28 @@ public class GraphingStatisticsAppender extends AppenderSkeleton implements Appe
         this.tagNamesToGraph = tagNamesToGraph;
     }
 
+    /**
+     * The <b>ChartFormat</b> option specifies how the graphs are rendered. The default, Google, creates Google
+     * Chart API URLs, which requires the browser displaying the graph to have access to chart.apis.google.com. The
+     * values SVG and PNG instead render the graphs locally as images of that format, without any size limit or
+     * external service. These graphs are written to attached appenders as data: URLs, and the
+     * {@link org.perf4j.log4j.servlet.GraphingServlet} serves them directly.
+     *
+     * @return The value of the ChartFormat option
+     */
+    public String getChartFormat() {
+        return chartFormat;
+    }
+
+    /**
+     * Sets the value of the <b>ChartFormat</b> option. This must be one of Google, SVG or PNG.
+     *
+     * @param chartFormat The new value for the ChartFormat option.
+     */
+    public void setChartFormat(String chartFormat) {
+        this.chartFormat = chartFormat;
+    }
+
     /**
      * The <b>DataPointsPerGraph</b> option is used to specify how much data should be displayed on each graph before
      * it is written to any attached appenders. Defaults to <tt>StatisticsChartGenerator.DEFAULT_MAX_DATA_POINTS</tt>.
@@ -168,8 +197,8 @@ public class GraphingStatisticsAppender extends AppenderSkeleton implements Appe
 
     /**
      * Helper method creates a new StatisticsChartGenerator based on the options set on this appender. By default
-     * a GoogleChartGenerator is created, though subclasses may override this method to create a different type of
-     * chart generator.
+     * a GoogleChartGenerator is created, or a LocalChartGenerator if the ChartFormat option is SVG or PNG, though
+     * subclasses may override this method to create a different type of chart generator.
      *
      * @return A newly created StatisticsChartGenerator.
      */
@@ -180,15 +209,24 @@ public class GraphingStatisticsAppender extends AppenderSkeleton implements Appe
                                        ". See the StatsValueRetriever class for the list of acceptable types.");
         }
 
-        //create the chart generator and set the enabled tags
-        GoogleChartGenerator retVal = new GoogleChartGenerator(statsValueRetriever);
+        Set<String> enabledTags = null;
         if (getTagNamesToGraph() != null) {
-            Set<String> enabledTags =
-                    new HashSet<String>(Arrays.asList(MiscUtils.splitAndTrim(getTagNamesToGraph(), ",")));
-            retVal.setEnabledTags(enabledTags);
+            enabledTags = new HashSet<String>(Arrays.asList(MiscUtils.splitAndTrim(getTagNamesToGraph(), ",")));
         }
 
-        return retVal;
+        //create the chart generator and set the enabled tags
+        if ("Google".equalsIgnoreCase(getChartFormat())) {
+            GoogleChartGenerator retVal = new GoogleChartGenerator(statsValueRetriever);
+            retVal.setEnabledTags(enabledTags);
+            return retVal;
+        } else if (LocalChartGenerator.SVG_FORMAT.equalsIgnoreCase(getChartFormat())
+                   || LocalChartGenerator.PNG_FORMAT.equalsIgnoreCase(getChartFormat())) {
+            LocalChartGenerator retVal = new LocalChartGenerator(statsValueRetriever, getChartFormat());
+            retVal.setEnabledTags(enabledTags);
+            return retVal;
+        } else {
+            throw new RuntimeException("Unknown ChartFormat: " + getChartFormat() + ". Must be Google, SVG or PNG.");
+        }
     }
 
     // --- exposed objects ---
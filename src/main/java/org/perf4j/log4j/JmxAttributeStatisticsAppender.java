@@ -53,6 +53,15 @@ public class JmxAttributeStatisticsAppender extends AppenderSkeleton {
      * when attribute values fall outside acceptable ranges.
      */
     private String notificationThresholds;
+    /**
+     * The percentage of each threshold by which a value that went out of range has to come back before it is
+     * considered in range again.
+     */
+    private int notificationHysteresis = 0;
+    /**
+     * The maximum number of attributes exposed for tags that match a tag name pattern.
+     */
+    private int maxExposedAttributes = StatisticsExposingMBean.DEFAULT_MAX_EXPOSED_ATTRIBUTES;
 
     // --- state variables ---
     /**
@@ -82,8 +91,10 @@ public class JmxAttributeStatisticsAppender extends AppenderSkeleton {
 
     /**
      * The <b>TagNamesToExpose</b> option is a comma-separated list of the tag names whose statistics values (e.g.
-     * mean, min, max, etc.) should be exposed as MBeanAttributes. See the
-     * {@link org.perf4j.helpers.StatisticsExposingMBean} for more details.
+     * mean, min, max, etc.) should be exposed as MBeanAttributes. The list may also contain tag name patterns,
+     * either with the wildcards <tt>*</tt> and <tt>?</tt>, e.g. <tt>svc.db.*</tt>, or as regular expressions
+     * enclosed in slashes; the attributes of each tag that matches a pattern are exposed from the first time slice in
+     * which the tag is logged. See the {@link org.perf4j.helpers.StatisticsExposingMBean} for more details.
      *
      * @return The value of the TagNamesToExpose expose
      */
@@ -143,6 +154,51 @@ public class JmxAttributeStatisticsAppender extends AppenderSkeleton {
         this.notificationThresholds = notificationThresholds;
     }
 
+    /**
+     * The <b>NotificationHysteresis</b> option keeps statistics that hover around a notification threshold from
+     * sending a notification every other time slice. It is a percentage of the threshold value: once a statistic has
+     * gone out of its acceptable range, it has to come back inside the threshold by this percentage before it is
+     * considered in range again, and so before another notification can be sent. For example, with a
+     * NotificationThresholds option of <tt>databaseCallMean(&lt;100)</tt> and a NotificationHysteresis of 10, a
+     * notification is sent when the mean goes above 100ms, and the next one is only sent after the mean has dropped
+     * to 90ms or below and then gone above 100ms again. Defaults to 0.
+     *
+     * @return The value of the NotificationHysteresis option
+     */
+    public int getNotificationHysteresis() {
+        return notificationHysteresis;
+    }
+
+    /**
+     * Sets the value of the NotificationHysteresis option.
+     *
+     * @param notificationHysteresis The new value for the NotificationHysteresis option, from 0 to 99.
+     */
+    public void setNotificationHysteresis(int notificationHysteresis) {
+        this.notificationHysteresis = notificationHysteresis;
+    }
+
+    /**
+     * The <b>MaxExposedAttributes</b> option limits the number of MBeanAttributes exposed when the TagNamesToExpose
+     * option contains tag name patterns. Once this many attributes are exposed, additional tags that match a pattern
+     * are ignored, so a large number of dynamically generated tags can't overwhelm the MBeanServer. Each tag has 10
+     * attributes. Defaults to 10000.
+     *
+     * @return The value of the MaxExposedAttributes option
+     */
+    public int getMaxExposedAttributes() {
+        return maxExposedAttributes;
+    }
+
+    /**
+     * Sets the value of the MaxExposedAttributes option.
+     *
+     * @param maxExposedAttributes The new value for the MaxExposedAttributes option.
+     */
+    public void setMaxExposedAttributes(int maxExposedAttributes) {
+        this.maxExposedAttributes = maxExposedAttributes;
+    }
+
     public void activateOptions() {
         if (tagNamesToExpose == null) {
             throw new RuntimeException("You must set the TagNamesToExpose option before activating this appender");
@@ -160,6 +216,8 @@ public class JmxAttributeStatisticsAppender extends AppenderSkeleton {
         }
         
         mBean = new StatisticsExposingMBean(mBeanName, Arrays.asList(tagNames), rangeConfigs);
+        mBean.setNotificationHysteresis(notificationHysteresis / 100.0);
+        mBean.setMaxExposedAttributes(maxExposedAttributes);
 
         try {
             MBeanServer mBeanServer = getMBeanServer();
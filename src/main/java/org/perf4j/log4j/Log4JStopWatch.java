@@ -22,6 +22,7 @@ import java.io.ObjectOutputStream;
 import org.apache.log4j.Level;
 import org.apache.log4j.Logger;
 import org.perf4j.LoggingStopWatch;
+import org.perf4j.helpers.ImmutableStopWatch;
 
 /**
  * This LoggingStopWatch uses a log4j Logger to persist the StopWatch messages. The various constructors allow you
@@ -33,6 +34,8 @@ import org.perf4j.LoggingStopWatch;
  */
 @SuppressWarnings("serial")
 public class Log4JStopWatch extends LoggingStopWatch {
+    private static final long serialVersionUID = 3615962076987902213L;
+
     private transient Logger logger;
     private Level normalPriority;
     private Level exceptionPriority;
@@ -331,6 +334,12 @@ public class Log4JStopWatch extends LoggingStopWatch {
     	return this;
     }
 
+    // Just overridden to make use of covariant return types
+    public Log4JStopWatch setSampleRate(double sampleRate) {
+        super.setSampleRate(sampleRate);
+        return this;
+    }
+
     // --- Helper Methods ---
     /**
      * This method returns true if the logger it uses is enabled at the normalPriority level of this StopWatch.
@@ -343,14 +352,34 @@ public class Log4JStopWatch extends LoggingStopWatch {
     }
 
     /**
-     * The log message is overridden to use the log4j Logger to persist the stop watch.
+     * The log message is overridden to use the log4j Logger to persist the stop watch. Note that the message object
+     * passed to log4j is an {@link ImmutableStopWatch} snapshot of this StopWatch rather than the String itself. Layouts
+     * render it as the same String, without creating it again, but the
+     * {@link AsyncCoalescingStatisticsAppender} can use the StopWatch directly without needing to parse it.
      *
      * @param stopWatchAsString The stringified view of the stop watch for logging.
      * @param exception         An exception, if any, that was passed to the stop or lap method. If this is null then
      *                          logging will occur at normalPriority, if non-null it will occur at exceptionPriority.
      */
     protected void log(String stopWatchAsString, Throwable exception) {
-        logger.log((exception == null) ? normalPriority : exceptionPriority, stopWatchAsString, exception);
+        Level level = (exception == null) ? normalPriority : exceptionPriority;
+        if (logger.isEnabledFor(level)) {
+            //the snapshot hands the already created String to layouts so it isn't rendered twice
+            logger.log(level, new ImmutableStopWatch(this, stopWatchAsString), exception);
+        }
+    }
+
+    /**
+     * Logs an ImmutableStopWatch snapshot in the same way as {@link #log(String, Throwable)}, so the stopAndRecord()
+     * methods never create the StopWatch string.
+     *
+     * @param exception An exception, if any, that was also passed to the stopAndRecord() method - may be null.
+     */
+    protected void log(Throwable exception) {
+        Level level = (exception == null) ? normalPriority : exceptionPriority;
+        if (logger.isEnabledFor(level)) {
+            logger.log(level, new ImmutableStopWatch(this), exception);
+        }
     }
 
     // --- Object Methods ---
@@ -43,7 +43,8 @@ import org.perf4j.GroupedTimingStatistics;
  * <p>
  * You can modify the columns output using the <b>Columns</b> option. For example, you could specify the Columns option
  * as "tag,start,stop,mean,count" to only output those specified values. In addition to the values specified above you
- * can also use "tps" to output transactions per second.
+ * can also use "tps" to output transactions per second and "unit" to output the time unit of the statistics (e.g.
+ * "ms", or "us" if the AsyncCoalescingStatisticsAppender's TimeUnit option is set to microseconds).
  * <p>
  * In addition to the default output of one line per tag for each GroupedTimingStatistics object, this layout also
  * supports a <b>Pivot</b> option which outputs just a single line for an entire GroupedTimingStatistics object. When
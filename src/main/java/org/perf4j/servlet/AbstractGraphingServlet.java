@@ -15,6 +15,7 @@
  */
 package org.perf4j.servlet;
 
+import org.perf4j.chart.LocalChartGenerator;
 import org.perf4j.chart.StatisticsChartGenerator;
 import org.perf4j.helpers.MiscUtils;
 
@@ -23,6 +24,7 @@ import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import java.io.IOException;
+import java.net.URLEncoder;
 import java.util.Arrays;
 import java.util.LinkedHashMap;
 import java.util.List;
@@ -57,6 +59,13 @@ public abstract class AbstractGraphingServlet extends HttpServlet {
 
     protected void doGet(HttpServletRequest request, HttpServletResponse response)
             throws ServletException, IOException {
+        //requests for the images of locally rendered charts are answered with just the image
+        String chartImageName = request.getParameter("chartImage");
+        if (chartImageName != null) {
+            writeChartImage(chartImageName, getGraphByName(chartImageName), request, response);
+            return;
+        }
+
         Map<String, StatisticsChartGenerator> chartsByName = getChartGeneratorsToDisplay(request);
 
         response.setContentType("text/html;charset=utf-8");
@@ -90,7 +99,9 @@ public abstract class AbstractGraphingServlet extends HttpServlet {
     }
 
     /**
-     * Helper method writes the chart to the page using an img tag. Subclasses may wish to override.
+     * Helper method writes the chart to the page using an img tag. Charts rendered by a
+     * {@link org.perf4j.chart.LocalChartGenerator} are referenced with a URL back to this servlet, which then writes
+     * the image itself. Subclasses may wish to override.
      *
      * @param name           the name of the chart to write
      * @param chartGenerator the chart generator responsible for creating the chart URL
@@ -103,7 +114,12 @@ public abstract class AbstractGraphingServlet extends HttpServlet {
                               HttpServletResponse response) throws ServletException, IOException {
         response.getWriter().println("<br><br>");
 
-        String chartUrl = (chartGenerator == null) ? null : chartGenerator.getChartUrl();
+        String chartUrl;
+        if (chartGenerator instanceof LocalChartGenerator) {
+            chartUrl = request.getRequestURI() + "?chartImage=" + URLEncoder.encode(name, "UTF-8");
+        } else {
+            chartUrl = (chartGenerator == null) ? null : chartGenerator.getChartUrl();
+        }
         if (chartUrl != null) {
             response.getWriter().println("<b>" + name + "</b><br>");
             response.getWriter().println("<img src=\"" + chartUrl + "\">");
@@ -112,6 +128,29 @@ public abstract class AbstractGraphingServlet extends HttpServlet {
         }
     }
 
+    /**
+     * Helper method streams the image of a locally rendered chart as the response. Subclasses may wish to override.
+     *
+     * @param name           the name of the chart to write
+     * @param chartGenerator the chart generator responsible for rendering the chart
+     * @param request        the incoming servlet request
+     * @param response       the servlet respone
+     */
+    protected void writeChartImage(String name,
+                                   StatisticsChartGenerator chartGenerator,
+                                   HttpServletRequest request,
+                                   HttpServletResponse response) throws ServletException, IOException {
+        if (!(chartGenerator instanceof LocalChartGenerator)) {
+            //the name comes straight from the request, so it isn't echoed back in the error page
+            response.sendError(HttpServletResponse.SC_NOT_FOUND, "No chart image with the requested name");
+            return;
+        }
+
+        LocalChartGenerator localChartGenerator = (LocalChartGenerator) chartGenerator;
+        response.setContentType(localChartGenerator.getContentType());
+        localChartGenerator.writeChart(response.getOutputStream());
+    }
+
     /**
      * Helper method writes the HTML footer, closing the body and HTML tags. Subclasses may wish to override.
      */
@@ -20,6 +20,7 @@ import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
 
 import org.perf4j.LoggingStopWatch;
+import org.perf4j.helpers.ImmutableStopWatch;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -30,6 +31,8 @@ import org.slf4j.LoggerFactory;
  */
 @SuppressWarnings("serial")
 public class Slf4JStopWatch extends LoggingStopWatch {
+    private static final long serialVersionUID = 8277143929946884615L;
+
     /**
      * Specifying this level will cause the <tt>trace()</tt> method to be used for logging.
      */
@@ -355,6 +358,12 @@ public class Slf4JStopWatch extends LoggingStopWatch {
     	return this;
     }
 
+    // Just overridden to make use of covariant return types
+    public Slf4JStopWatch setSampleRate(double sampleRate) {
+        super.setSampleRate(sampleRate);
+        return this;
+    }
+
     // --- Helper Methods ---
 
     /**
@@ -378,6 +387,22 @@ public class Slf4JStopWatch extends LoggingStopWatch {
         log(stopWatchAsString, exception, (exception == null) ? normalPriority : exceptionPriority);
     }
 
+    /**
+     * This method only creates the StopWatch string if the logger is enabled for the level being logged at.
+     *
+     * @param exception An exception, if any, that was also passed to the stopAndRecord() method - may be null.
+     */
+    protected void log(Throwable exception) {
+        int atLevel = (exception == null) ? normalPriority : exceptionPriority;
+        if (isLogging(atLevel)) {
+            if (exception == null) {
+                log(new ImmutableStopWatch(this), atLevel);
+            } else {
+                log(toString(), exception, atLevel);
+            }
+        }
+    }
+
     /**
      * Since Commons Logging doesn't have a first class notion of Level objects or integer values, this method
      * converts the level value to one of the <tt>isXYZEnabled()</tt> methods on the Log.
@@ -407,7 +432,9 @@ public class Slf4JStopWatch extends LoggingStopWatch {
     /**
      * Since Commons Logging doesn't have a first class notion of Level objects or integer values, this method
      * maps the atLevel parameter to one of the <tt>trace()</tt>, <tt>debug()</tt>, <tt>info()</tt>, <tt>warn()</tt>,
-     * <tt>error()</tt>, or <tt>fatal()</tt> methods on the Log.
+     * <tt>error()</tt>, or <tt>fatal()</tt> methods on the Log. If there is no exception, an
+     * {@link ImmutableStopWatch} snapshot that renders as stopWatchAsString is logged as the argument of a "{}"
+     * message, so appenders can use the StopWatch without needing to parse it.
      *
      * @param stopWatchAsString The stringified view of the stop watch for logging.
      * @param exception         An exception, if any, that was passed to the stop or lap method. If this is null then
@@ -415,6 +442,13 @@ public class Slf4JStopWatch extends LoggingStopWatch {
      * @param atLevel           The level at which logging should occur.
      */
     protected void log(String stopWatchAsString, Throwable exception, int atLevel) {
+        if (exception == null) {
+            if (isLogging(atLevel)) {
+                log(new ImmutableStopWatch(this, stopWatchAsString), atLevel);
+            }
+            return;
+        }
+
         switch (atLevel) {
         case TRACE_LEVEL:
             logger.trace(stopWatchAsString, exception);
@@ -438,6 +472,37 @@ public class Slf4JStopWatch extends LoggingStopWatch {
         }
     }
 
+    /**
+     * Logs an ImmutableStopWatch snapshot as the single argument of a "{}" message, so that the formatted message is
+     * the StopWatch string while appenders can get the StopWatch itself from the argument array of the logging event.
+     * Messages with exceptions aren't logged this way, because versions of SLF4J before 1.6 don't treat a trailing
+     * Throwable argument as the exception.
+     *
+     * @param stopWatch The snapshot of this StopWatch to log.
+     * @param atLevel   The level at which logging should occur.
+     */
+    private void log(ImmutableStopWatch stopWatch, int atLevel) {
+        switch (atLevel) {
+        case TRACE_LEVEL:
+            logger.trace("{}", stopWatch);
+            break;
+        case DEBUG_LEVEL:
+            logger.debug("{}", stopWatch);
+            break;
+        case INFO_LEVEL:
+            logger.info("{}", stopWatch);
+            break;
+        case WARN_LEVEL:
+            logger.warn("{}", stopWatch);
+            break;
+        case ERROR_LEVEL:
+            logger.error("{}", stopWatch);
+            break;
+        default:
+            log(stopWatch, closestKnownLevel(atLevel));
+        }
+    }
+
     private int closestKnownLevel(int level) {
         if (level <= TRACE_LEVEL) {
             return TRACE_LEVEL;
@@ -16,6 +16,8 @@
 package org.perf4j;
 
 import org.apache.commons.io.FileUtils;
+import org.perf4j.helpers.BinaryStopWatchWriter;
+import org.perf4j.helpers.StopWatchLogIterator;
 
 import java.io.*;
 
@@ -91,6 +93,24 @@ public class LogParserTest extends TimingTestCase {
                        statsOut.indexOf("tag2") >= 0 &&
                        statsOut.indexOf("tag3") >= 0);
 
+            //log from file, parsed in parallel, should give the same output
+            realOut.println("-- File in -> File out with multiple threads Test --");
+            LogParser.runMain(new String[]{"-o", "./target/statistics.out", "--timeslice", "120000",
+                                           "--threads", "4", "./target/logParserTest.log"});
+            assertEquals(statsOut, FileUtils.readFileToString(new File("./target/statistics.out")));
+
+            //the same log in binary format should also give the same output
+            realOut.println("-- Binary file in -> File out Test --");
+            BinaryStopWatchWriter binaryWriter =
+                    new BinaryStopWatchWriter(new FileOutputStream("./target/logParserTest.bin"));
+            for (StopWatchLogIterator iter = new StopWatchLogIterator(new StringReader(testLog)); iter.hasNext();) {
+                binaryWriter.write(iter.next());
+            }
+            binaryWriter.close();
+            LogParser.runMain(new String[]{"-o", "./target/statistics.out", "--timeslice", "120000",
+                                           "./target/logParserTest.bin"});
+            assertEquals(statsOut, FileUtils.readFileToString(new File("./target/statistics.out")));
+
             //missing param test
             realOut.println("-- Missing param test --");
             assertEquals(1, LogParser.runMain(new String[]{"./target/logParserTest.log", "-o"}));
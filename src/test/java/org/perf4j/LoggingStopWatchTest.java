@@ -94,6 +94,14 @@ public class LoggingStopWatchTest extends TestCase {
         checkExpectedLogWritten("tag[poo]", "java.lang.Exception: shoe");
         stopWatch.lap("new", "mar", new Exception("rue"));
         checkExpectedLogWritten("tag[new] message[mar]", "java.lang.Exception: rue");
+        stopWatch.stopAndRecord();
+        checkExpectedLogWritten("tag[new] message[mar]");
+        stopWatch.stopAndRecord("sar");
+        checkExpectedLogWritten("tag[sar]");
+        stopWatch.stopAndRecord("tar", "par");
+        checkExpectedLogWritten("tag[tar] message[par]");
+        stopWatch.stopAndRecord("jar", "dar", new Exception("gar"));
+        checkExpectedLogWritten("tag[jar] message[dar]", "java.lang.Exception: gar");
 
         //test for PERFFORJ-30 - Add capability to set a time threshold in LoggingStopWatch and Profiled annotation
         stopWatch.stop();
@@ -107,6 +115,10 @@ public class LoggingStopWatchTest extends TestCase {
         Thread.sleep(110);
         stopWatch.stop();
         checkExpectedLogWritten("tag[timeThresholdCheck]");
+        //stopAndRecord respects the threshold too
+        stopWatch.start();
+        stopWatch.stopAndRecord();
+        assertEquals("Stopwatch log was set when it shouldn't have been", "", fakeErr.toString());
 
         customTests();
     }
@@ -16,6 +16,11 @@
 package org.perf4j;
 
 import junit.framework.TestCase;
+import org.perf4j.helpers.FastStopWatchParser;
+import org.perf4j.helpers.ImmutableStopWatch;
+import org.perf4j.helpers.StopWatchParser;
+
+import java.util.concurrent.TimeUnit;
 
 /**
  * Tests the StopWatch
@@ -42,6 +47,15 @@ public class StopWatchTest extends TestCase {
         assertEquals(elapsedTime, stopWatch.getElapsedTime());
         assertEquals("tag", stopWatch.getTag());
 
+        //stopQuietly also freezes the elapsed time
+        stopWatch.start();
+        Thread.sleep(10);
+        stopWatch.stopQuietly();
+        elapsedTime = stopWatch.getElapsedTime();
+        Thread.sleep(20);
+        assertEquals(elapsedTime, stopWatch.getElapsedTime());
+        assertEquals(stopWatch.toString(), stopWatch.appendTo(new StringBuilder()).toString());
+
         now = System.currentTimeMillis();
 
         //after starting again, elapsed time should be reset
@@ -102,4 +116,86 @@ public class StopWatchTest extends TestCase {
         clone.setTag("foo");
         assertFalse(stopWatch.equals(clone));
     }
+
+    public void testNanoTime() throws Exception {
+        StopWatch stopWatch = new StopWatch(1000L, 2345678L, TimeUnit.NANOSECONDS, "tag", null);
+        assertEquals(2L, stopWatch.getElapsedTime());
+        assertEquals(2345678L, stopWatch.getElapsedNanoTime());
+        //StopWatches created with a millisecond elapsed time are converted
+        assertEquals(5000000L, new StopWatch(1000L, 5L, "tag", null).getElapsedNanoTime());
+
+        //the nano time is frozen on stop
+        stopWatch = new StopWatch("tag");
+        stopWatch.stopQuietly();
+        long elapsedNanoTime = stopWatch.getElapsedNanoTime();
+        Thread.sleep(10);
+        assertEquals(elapsedNanoTime, stopWatch.getElapsedNanoTime());
+        assertEquals(elapsedNanoTime / 1000000L, stopWatch.getElapsedTime());
+        assertEquals(elapsedNanoTime, new ImmutableStopWatch(stopWatch).getElapsedNanoTime());
+
+        //by default the nano time isn't logged, so only millisecond precision survives parsing
+        stopWatch = new StopWatch(1000L, 345678L, TimeUnit.NANOSECONDS, "tag", "message");
+        assertEquals("start[1000] time[0] tag[tag] message[message]", stopWatch.toString());
+        assertEquals(0L, new StopWatchParser().parseStopWatch(stopWatch.toString()).getElapsedNanoTime());
+
+        StopWatch.setLogNanoTime(true);
+        try {
+            assertEquals("start[1000] time[0] tag[tag] message[message] nanos[345678]", stopWatch.toString());
+            assertEquals(stopWatch, new StopWatchParser().parseStopWatch(stopWatch.toString()));
+            assertEquals(stopWatch, new FastStopWatchParser().parseStopWatch(stopWatch.toString()));
+        } finally {
+            StopWatch.setLogNanoTime(false);
+        }
+    }
+
+    public void testSampling() throws Exception {
+        StopWatch stopWatch = new StopWatch(1000L, 5L, "tag", null).setSampleRate(0.25);
+        assertEquals("start[1000] time[5] tag[tag] sample[0.25]", stopWatch.toString());
+        assertEquals(stopWatch, new StopWatchParser().parseStopWatch(stopWatch.toString()));
+        assertEquals(stopWatch, new FastStopWatchParser().parseStopWatch(stopWatch.toString()));
+        assertEquals(0.25, new ImmutableStopWatch(stopWatch).getSampleRate());
+        try {
+            stopWatch.setSampleRate(0.0);
+            fail("A sample rate of 0 should not be allowed");
+        } catch (IllegalArgumentException iae) {
+            //expected
+        }
+
+        //only about a quarter of the timing runs should be logged
+        final int[] logCount = new int[1];
+        LoggingStopWatch loggingStopWatch = new LoggingStopWatch() {
+            protected void log(String stopWatchAsString, Throwable exception) {
+                logCount[0]++;
+                assertTrue(stopWatchAsString.endsWith(" sample[0.25]"));
+            }
+        }.setSampleRate(0.25);
+        int sampledCount = 0;
+        for (int i = 0; i < 10000; i++) {
+            loggingStopWatch.start();
+            if (loggingStopWatch.isSampled()) {
+                sampledCount++;
+            }
+            loggingStopWatch.stopAndRecord("tag");
+        }
+        assertEquals(sampledCount, logCount[0]);
+        assertTrue("Sampled " + sampledCount, sampledCount > 2200 && sampledCount < 2800);
+
+        //with the default rate every run is logged
+        loggingStopWatch.setSampleRate(1.0);
+        for (int i = 0; i < 100; i++) {
+            loggingStopWatch.start();
+            assertTrue(loggingStopWatch.isSampled());
+        }
+    }
+
+    public void testNestedToString() throws Exception {
+        final StopWatch inner = new StopWatch(1000L, 5L, "inner", null);
+        StopWatch outer = new StopWatch(2000L, 10L, "outer", null) {
+            public String getMessage() {
+                return inner.toString();
+            }
+        };
+        assertEquals("start[2000] time[10] tag[outer] message[start[1000] time[5] tag[inner]]", outer.toString());
+        assertEquals("start[1000] time[5] tag[inner]", inner.toString());
+    }
 }
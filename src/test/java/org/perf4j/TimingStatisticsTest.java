@@ -0,0 +1,314 @@
+/* Copyright (c) 2008-2009 HomeAway, Inc.
+ * All rights reserved.  http://www.perf4j.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.perf4j;
+
+import junit.framework.TestCase;
+import org.perf4j.chart.GoogleChartGenerator;
+import org.perf4j.helpers.GroupedTimingStatisticsCsvFormatter;
+import org.perf4j.helpers.LatencyHistogram;
+import org.perf4j.helpers.MiscUtils;
+import org.perf4j.helpers.StatsValueRetriever;
+import org.perf4j.helpers.TagRegistry;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tests merging of TimingStatistics and GroupedTimingStatistics.
+ */
+public class TimingStatisticsTest extends TestCase {
+
+    public void testMerge() throws Exception {
+        Random random = new Random(12345L);
+        TimingStatistics sequential = new TimingStatistics();
+        TimingStatistics[] parts = new TimingStatistics[5];
+        for (int i = 0; i < parts.length; i++) {
+            parts[i] = new TimingStatistics();
+        }
+        for (int i = 0; i < 10000; i++) {
+            //large offset with small spread is the case where a naive sum-of-squares calculation breaks down
+            long sampleTime = 1000000000L + random.nextInt(100);
+            sequential.addSampleTime(sampleTime);
+            //deliberately uneven partitions, including an empty one
+            parts[(i % 7) % 4].addSampleTime(sampleTime);
+        }
+
+        TimingStatistics merged = new TimingStatistics();
+        for (TimingStatistics part : parts) {
+            TimingStatistics partCopy = part.clone();
+            assertSame(merged, merged.merge(part));
+            assertEquals("merge must not modify its argument", partCopy, part);
+        }
+
+        assertEquals(sequential.getCount(), merged.getCount());
+        assertEquals(sequential.getMin(), merged.getMin());
+        assertEquals(sequential.getMax(), merged.getMax());
+        assertEquals(sequential.getMean(), merged.getMean(), 0.0001);
+        assertEquals(sequential.getStandardDeviation(), merged.getStandardDeviation(), 0.000001);
+
+        //merging an empty instance is a no-op
+        TimingStatistics beforeEmptyMerge = merged.clone();
+        assertEquals(beforeEmptyMerge, merged.merge(new TimingStatistics()));
+    }
+
+    public void testGroupedMerge() throws Exception {
+        GroupedTimingStatistics first = new GroupedTimingStatistics();
+        first.setCreateRollupStatistics(true);
+        first.setStartTime(1000L);
+        first.setStopTime(2000L);
+        first.addStopWatch(new StopWatch(1000L, 10L, "a.b", null));
+        first.addStopWatch(new StopWatch(1000L, 20L, "c", null));
+
+        GroupedTimingStatistics second = new GroupedTimingStatistics();
+        second.setCreateRollupStatistics(true);
+        second.setStartTime(2000L);
+        second.setStopTime(3000L);
+        second.addStopWatch(new StopWatch(2000L, 30L, "a.b", null));
+        second.addStopWatch(new StopWatch(2000L, 40L, "d", null));
+        GroupedTimingStatistics secondCopy = second.clone();
+
+        GroupedTimingStatistics expected = new GroupedTimingStatistics();
+        expected.setCreateRollupStatistics(true);
+        expected.setStartTime(1000L);
+        expected.setStopTime(3000L);
+        expected.addStopWatch(new StopWatch(1000L, 10L, "a.b", null));
+        expected.addStopWatch(new StopWatch(1000L, 20L, "c", null));
+        expected.addStopWatch(new StopWatch(2000L, 30L, "a.b", null));
+        expected.addStopWatch(new StopWatch(2000L, 40L, "d", null));
+
+        assertSame(first, first.merge(second));
+        assertEquals(expected, first);
+        assertEquals("merge must not modify its argument", secondCopy, second);
+
+        //the merged stats must not share TimingStatistics with the argument
+        second.getStatisticsByTag().get("d").addSampleTime(50L);
+        assertEquals(1, first.getStatisticsByTag().get("d").getCount());
+
+        //an empty instance takes on the time range of what it's merged with
+        GroupedTimingStatistics empty = new GroupedTimingStatistics();
+        empty.merge(secondCopy);
+        assertEquals(2000L, empty.getStartTime());
+        assertEquals(3000L, empty.getStopTime());
+    }
+
+    public void testPercentiles() throws Exception {
+        GroupedTimingStatistics first = new GroupedTimingStatistics();
+        first.setHistogramPrototype(new LatencyHistogram(100000L, 3));
+        GroupedTimingStatistics second = first.clone();
+        for (long i = 1; i <= 1000; i++) {
+            ((i % 2 == 0) ? first : second).addStopWatch(new StopWatch(0L, i, "tag", null));
+        }
+        first.merge(second);
+
+        TimingStatistics stats = first.getStatisticsByTag().get("tag");
+        assertTrue(stats.isTrackingPercentiles());
+        assertEquals(1000, stats.getHistogram().getTotalCount());
+        assertEquals(500L, stats.getPercentile(50.0));
+        assertEquals(990L, stats.getPercentile(99.0));
+        assertEquals(999L, stats.getPercentile(99.9));
+        assertEquals(1000L, stats.getPercentile(100.0));
+
+        assertEquals(990L, StatsValueRetriever.P99_VALUE_RETRIEVER.getStatsValue(stats, 1000L));
+        assertEquals(999L, StatsValueRetriever.DEFAULT_RETRIEVERS.get("P999").getStatsValue(stats, 1000L));
+
+        //CSV output for both pivoted and non-pivoted formats
+        first.setStartTime(0L);
+        first.setStopTime(1000L);
+        assertEquals("\"tag\",500,999" + System.getProperty("line.separator"),
+                     new GroupedTimingStatisticsCsvFormatter(false, "tag,p50,p999").format(first));
+        assertEquals("990," + System.getProperty("line.separator"),
+                     new GroupedTimingStatisticsCsvFormatter(true, "tagP99,otherTagP90").format(first));
+
+        //without a histogram percentiles are not available
+        TimingStatistics untracked = new TimingStatistics().addSampleTime(10L);
+        assertFalse(untracked.isTrackingPercentiles());
+        assertEquals(0L, StatsValueRetriever.P50_VALUE_RETRIEVER.getStatsValue(untracked, 1000L));
+        try {
+            untracked.getPercentile(50.0);
+            fail("Percentiles should not be available without a histogram");
+        } catch (IllegalStateException ise) {
+            //expected
+        }
+
+        //merging in statistics without a histogram means the distribution is no longer known
+        stats.merge(untracked);
+        assertFalse(stats.isTrackingPercentiles());
+    }
+
+    public void testTimeUnit() throws Exception {
+        GroupedTimingStatistics stats = new GroupedTimingStatistics();
+        stats.setTimeUnit(TimeUnit.MICROSECONDS);
+        stats.addStopWatch(new StopWatch(1000L, 250000L, TimeUnit.NANOSECONDS, "tag", null));
+        stats.addStopWatch(new StopWatch(1000L, 750000L, TimeUnit.NANOSECONDS, "tag", null));
+        stats.addStopWatch(new StopWatch(1000L, 2L, "tag", null));
+
+        TimingStatistics tagStats = stats.getStatisticsByTag().get("tag");
+        assertEquals(1000.0, tagStats.getMean(), 0.000001);
+        assertEquals(250L, tagStats.getMin());
+        assertEquals(2000L, tagStats.getMax());
+
+        assertTrue(stats.toString().indexOf("Avg(us)") >= 0);
+        assertTrue(new GroupedTimingStatistics().toString().indexOf("Avg(ms)") >= 0);
+        assertEquals("\"tag\",1000.0,us" + MiscUtils.NEWLINE,
+                     new GroupedTimingStatisticsCsvFormatter(false, "tag,mean,unit").format(stats));
+        GoogleChartGenerator chart = new GoogleChartGenerator();
+        chart.appendData(stats);
+        assertTrue(chart.getChartUrl().indexOf("chtt=Mean+%28us%29") >= 0);
+
+        //statistics in different units can't be merged, except into an empty instance
+        GroupedTimingStatistics millis = new GroupedTimingStatistics();
+        millis.addStopWatch(new StopWatch(1000L, 1L, "tag", null));
+        try {
+            millis.merge(stats);
+            fail("Statistics in different units should not be mergeable");
+        } catch (IllegalArgumentException iae) {
+            //expected
+        }
+        GroupedTimingStatistics empty = new GroupedTimingStatistics();
+        empty.merge(stats);
+        assertEquals(TimeUnit.MICROSECONDS, empty.getTimeUnit());
+        assertEquals(stats.getStatisticsByTag(), empty.getStatisticsByTag());
+    }
+
+    public void testSerialization() throws Exception {
+        //this file was written by the version before percentiles, time units and sampling were added
+        ObjectInputStream in = new ObjectInputStream(getClass().getResourceAsStream("oldGroupedTimingStatistics.ser"));
+        GroupedTimingStatistics oldStats = (GroupedTimingStatistics) in.readObject();
+        in.close();
+        assertEquals(1000L, oldStats.getStartTime());
+        assertEquals(31000L, oldStats.getStopTime());
+        assertEquals(TimeUnit.MILLISECONDS, oldStats.getTimeUnit());
+        TimingStatistics oldTagStats = oldStats.getStatisticsByTag().get("tag");
+        assertEquals(200.0, oldTagStats.getMean(), 0.000001);
+        assertEquals(100L, oldTagStats.getMin());
+        assertEquals(300L, oldTagStats.getMax());
+        assertEquals(3, oldTagStats.getSampleCount());
+        assertEquals(3, oldTagStats.getCount());
+        assertEquals(1.0, oldTagStats.getSampleRate(), 0.000001);
+        assertEquals(0.1, StatsValueRetriever.TPS_VALUE_RETRIEVER.getStatsValue(oldTagStats, 30000L).doubleValue(),
+                     0.000001);
+        assertNull(oldTagStats.getHistogram());
+        oldStats.addStopWatch(new StopWatch(4000L, 400L, "tag", null));
+        assertEquals(4, oldTagStats.getSampleCount());
+        assertEquals(4, oldTagStats.getCount());
+        assertEquals(250.0, oldTagStats.getMean(), 0.000001);
+
+        GroupedTimingStatistics stats = new GroupedTimingStatistics();
+        stats.setHistogramPrototype(new LatencyHistogram(1000L, 2));
+        for (long i = 1; i <= 100; i++) {
+            stats.addStopWatch(new StopWatch(1000L, i, "tag", null));
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ObjectOutputStream out = new ObjectOutputStream(bytes);
+        out.writeObject(stats);
+        out.close();
+        in = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+        GroupedTimingStatistics copy = (GroupedTimingStatistics) in.readObject();
+        in.close();
+        assertEquals(stats.getStatisticsByTag(), copy.getStatisticsByTag());
+        assertEquals(99L, copy.getStatisticsByTag().get("tag").getPercentile(99.0));
+    }
+
+    public void testSampling() throws Exception {
+        GroupedTimingStatistics stats = new GroupedTimingStatistics();
+        stats.setStartTime(0L);
+        stats.setStopTime(1000L);
+        stats.setCreateRollupStatistics(true);
+        for (int i = 1; i <= 4; i++) {
+            stats.addStopWatch(new StopWatch(0L, i * 10L, "a.sampled", null).setSampleRate(0.1));
+        }
+        stats.addStopWatch(new StopWatch(0L, 50L, "a.all", null));
+
+        TimingStatistics sampled = stats.getStatisticsByTag().get("a.sampled");
+        assertEquals(40, sampled.getCount());
+        assertEquals(4, sampled.getSampleCount());
+        assertEquals(0.1, sampled.getSampleRate(), 0.000001);
+        assertEquals(25.0, sampled.getMean(), 0.000001);
+        assertEquals(40.0, StatsValueRetriever.TPS_VALUE_RETRIEVER.getStatsValue(sampled, 1000L).doubleValue(),
+                     0.000001);
+
+        //merged and rollup statistics combine the estimated counts
+        TimingStatistics merged = sampled.clone().merge(stats.getStatisticsByTag().get("a.all"));
+        assertEquals(41, merged.getCount());
+        assertEquals(5, merged.getSampleCount());
+        assertEquals(41, stats.getStatisticsByTag().get("a").getCount());
+
+        //unsampled statistics are unchanged
+        TimingStatistics all = stats.getStatisticsByTag().get("a.all");
+        assertEquals(1, all.getCount());
+        assertEquals(1.0, all.getSampleRate());
+        assertEquals(new TimingStatistics(50.0, 0.0, 50L, 50L, 1), all);
+    }
+
+    public void testTagIdCache() throws Exception {
+        int tagId = TagRegistry.getTagId("cache.x.y");
+        assertEquals(tagId, TagRegistry.getTagId("cache.x.y"));
+        assertEquals("cache.x.y", TagRegistry.getTag(tagId));
+
+        GroupedTimingStatistics stats = new GroupedTimingStatistics();
+        stats.setCreateRollupStatistics(true);
+        for (int i = 0; i < 100; i++) {
+            stats.addStopWatch(new StopWatch(0L, i, "cache.x.y", null));
+            stats.addStopWatch(new StopWatch(0L, i, "cache.tag" + i, null));
+        }
+        assertEquals(103, stats.getStatisticsByTag().size());
+        assertEquals(200, stats.getStatisticsByTag().get("cache").getCount());
+        assertEquals(100, stats.getStatisticsByTag().get("cache.x").getCount());
+
+        //changes made through the map, or by merging, are seen by StopWatches added later
+        stats.getStatisticsByTag().put("cache.x.y", new TimingStatistics());
+        GroupedTimingStatistics clone = stats.clone();
+        stats.merge(new GroupedTimingStatistics().addStopWatch(new StopWatch(0L, 1L, "cache.merged", null)));
+        stats.addStopWatch(new StopWatch(0L, 1L, "cache.x.y", null));
+        stats.addStopWatch(new StopWatch(0L, 1L, "cache.merged", null));
+        assertEquals(1, stats.getStatisticsByTag().get("cache.x.y").getCount());
+        assertEquals(2, stats.getStatisticsByTag().get("cache.merged").getCount());
+        assertEquals(101, stats.getStatisticsByTag().get("cache.x").getCount());
+        stats.getStatisticsByTag().remove("cache.x");
+        stats.addStopWatch(new StopWatch(0L, 1L, "cache.x.y", null));
+        assertEquals(2, stats.getStatisticsByTag().get("cache.x.y").getCount());
+        assertEquals(1, stats.getStatisticsByTag().get("cache.x").getCount());
+
+        //and clones have their own statistics
+        clone.addStopWatch(new StopWatch(0L, 1L, "cache.x.y", null));
+        assertEquals(1, clone.getStatisticsByTag().get("cache.x.y").getCount());
+        assertEquals(101, clone.getStatisticsByTag().get("cache.x").getCount());
+    }
+
+    public void testRollupTargetsCache() throws Exception {
+        GroupedTimingStatistics stats = new GroupedTimingStatistics();
+        stats.addStopWatch(new StopWatch(0L, 10L, "svc.db.orders.select", null));
+        assertEquals(1, stats.getStatisticsByTag().size());
+
+        //the cached targets of each tag include the rollup tags once rollups are turned on
+        stats.setCreateRollupStatistics(true);
+        stats.addStopWatch(new StopWatch(0L, 20L, "svc.db.orders.select", null));
+        stats.addStopWatch(new StopWatch(0L, 30L, "svc.db.orders.insert", null));
+        assertEquals(2, stats.getStatisticsByTag().get("svc.db.orders.select").getCount());
+        assertEquals(2, stats.getStatisticsByTag().get("svc.db.orders").getCount());
+        assertEquals(2, stats.getStatisticsByTag().get("svc.db").getCount());
+        assertEquals(25.0, stats.getStatisticsByTag().get("svc").getMean(), 0.000001);
+
+        stats.setCreateRollupStatistics(false);
+        stats.addStopWatch(new StopWatch(0L, 40L, "svc.db.orders.select", null));
+        assertEquals(3, stats.getStatisticsByTag().get("svc.db.orders.select").getCount());
+        assertEquals(2, stats.getStatisticsByTag().get("svc").getCount());
+    }
+}
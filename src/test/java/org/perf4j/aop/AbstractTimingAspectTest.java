@@ -0,0 +1,120 @@
+/* Copyright (c) 2008-2009 HomeAway, Inc.
+ * All rights reserved.  http://www.perf4j.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.perf4j.aop;
+
+import junit.framework.TestCase;
+import org.aspectj.lang.ProceedingJoinPoint;
+import org.perf4j.LoggingStopWatch;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Tests the reuse of join points and StopWatches by the AbstractTimingAspect, calling its advice directly.
+ */
+public class AbstractTimingAspectTest extends TestCase {
+    private CountingTimingAspect aspect = new CountingTimingAspect();
+    private Profiled profiled;
+
+    public void setUp() throws Exception {
+        super.setUp();
+        profiled = ProfiledObject.class.getMethod("simpleTest", long.class).getAnnotation(Profiled.class);
+    }
+
+    public void testStopWatchReuse() throws Throwable {
+        for (int i = 0; i < 10; i++) {
+            assertEquals(i, aspect.doPerfLogging(newJoinPoint(i, 0), profiled));
+        }
+        assertEquals(1, aspect.numStopWatchesCreated);
+        assertEquals(10, aspect.logStrings.size());
+        assertTrue(aspect.logStrings.get(9).indexOf("tag[simple]") >= 0);
+    }
+
+    public void testNestedCalls() throws Throwable {
+        int depth = AbstractTimingAspect.MAX_POOLED_DEPTH + 2;
+        aspect.doPerfLogging(newJoinPoint(0, depth), profiled);
+        //each nesting level needs its own StopWatch
+        assertEquals(depth + 1, aspect.numStopWatchesCreated);
+        assertEquals(depth + 1, aspect.logStrings.size());
+
+        //the pooled levels are reused, the levels beyond MAX_POOLED_DEPTH are allocated again
+        aspect.doPerfLogging(newJoinPoint(0, depth), profiled);
+        assertEquals(depth + 1 + (depth + 1 - AbstractTimingAspect.MAX_POOLED_DEPTH), aspect.numStopWatchesCreated);
+        assertEquals(2 * (depth + 1), aspect.logStrings.size());
+
+        //an exception still unwinds the stack
+        try {
+            aspect.doPerfLogging(newFailingJoinPoint(), profiled);
+            fail("Exception should have been thrown");
+        } catch (IllegalStateException ise) {
+            //expected
+        }
+        int numStopWatchesCreated = aspect.numStopWatchesCreated;
+        aspect.doPerfLogging(newJoinPoint(0, 0), profiled);
+        assertEquals(numStopWatchesCreated, aspect.numStopWatchesCreated);
+    }
+
+    /**
+     * Creates a join point that makes nestedCalls nested profiled calls and then returns the specified value.
+     */
+    private ProceedingJoinPoint newJoinPoint(final int returnValue, final int nestedCalls) {
+        return (ProceedingJoinPoint) Proxy.newProxyInstance(
+                getClass().getClassLoader(),
+                new Class[]{ProceedingJoinPoint.class},
+                new InvocationHandler() {
+                    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                        if ("proceed".equals(method.getName())) {
+                            if (nestedCalls > 0) {
+                                aspect.doPerfLogging(newJoinPoint(returnValue, nestedCalls - 1), profiled);
+                            }
+                            return returnValue;
+                        }
+                        throw new UnsupportedOperationException(method.getName());
+                    }
+                });
+    }
+
+    private ProceedingJoinPoint newFailingJoinPoint() {
+        return (ProceedingJoinPoint) Proxy.newProxyInstance(
+                getClass().getClassLoader(),
+                new Class[]{ProceedingJoinPoint.class},
+                new InvocationHandler() {
+                    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                        throw new IllegalStateException("failed");
+                    }
+                });
+    }
+
+    /**
+     * TimingAspect that counts the StopWatches it creates and stores the logged messages.
+     */
+    private static class CountingTimingAspect extends AbstractTimingAspect {
+        int numStopWatchesCreated = 0;
+        final List<String> logStrings = new ArrayList<String>();
+
+        protected LoggingStopWatch newStopWatch(String loggerName, String levelName) {
+            numStopWatchesCreated++;
+            return new LoggingStopWatch() {
+                protected void log(String stopWatchAsString, Throwable exception) {
+                    logStrings.add(stopWatchAsString);
+                }
+            };
+        }
+    }
+}
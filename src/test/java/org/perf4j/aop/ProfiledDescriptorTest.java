@@ -0,0 +1,163 @@
+/* Copyright (c) 2008-2009 HomeAway, Inc.
+ * All rights reserved.  http://www.perf4j.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.perf4j.aop;
+
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Tests the tags and messages computed by the ProfiledDescriptor, and its caching by the AgnosticTimingAspect.
+ */
+public class ProfiledDescriptorTest extends TestCase {
+    private AgnosticTimingAspect aspect = new AgnosticTimingAspect();
+
+    public void testConstantTags() throws Exception {
+        ProfiledDescriptor descriptor = aspect.getProfiledDescriptor(getProfiled("simpleTestWithMessage"));
+        AbstractJoinPoint joinPoint = new SimpleJoinPoint("simpleTestWithMessage", 5L);
+        assertEquals("simpleWithMessage", descriptor.getTag(joinPoint, 5L, null));
+        assertEquals("message", descriptor.getMessage(joinPoint, 5L, null));
+
+        descriptor = aspect.getProfiledDescriptor(getProfiled("simpleTestWithFailuresSeparate"));
+        assertEquals("simpleWithFails.success", descriptor.getTag(joinPoint, 5L, null));
+        assertEquals("simpleWithFails.failure", descriptor.getTag(joinPoint, null, new Exception()));
+        assertEquals("simpleWithFails", descriptor.getTagWithoutSuffix(joinPoint, null, new Exception()));
+        //constant tags with suffixes should be built only once
+        assertSame(descriptor.getTag(joinPoint, 5L, null), descriptor.getTag(joinPoint, 6L, null));
+
+        descriptor = aspect.getProfiledDescriptor(getProfiled("simpleTestWithSuffixes"));
+        assertEquals(50L, descriptor.getTimeThreshold());
+        assertTrue(descriptor.isNormalAndSlowSuffixesEnabled());
+        assertNull(descriptor.getMessage(joinPoint, 5L, null));
+    }
+
+    public void testDefaultTag() throws Exception {
+        //the default tag depends on the join point, as the same annotation instance may be shared by many methods
+        ProfiledDescriptor descriptor = aspect.getProfiledDescriptor(DefaultProfiled.INSTANCE);
+        assertEquals("methodA", descriptor.getTag(new SimpleJoinPoint("methodA"), null, null));
+        assertEquals("methodB", descriptor.getTag(new SimpleJoinPoint("methodB"), null, null));
+    }
+
+    public void testTemplates() throws Exception {
+        ProfiledDescriptor descriptor = aspect.getProfiledDescriptor(getTemplateProfiled("templateTag"));
+        AbstractJoinPoint joinPoint = new SimpleJoinPoint("templateTag", "a", "b");
+        assertEquals("t_a_b_7.success", descriptor.getTag(joinPoint, 7, null));
+        assertEquals("t_a_b_null.failure", descriptor.getTag(joinPoint, null, new Exception()));
+        assertEquals("m:a", descriptor.getMessage(joinPoint, 7, null));
+
+        descriptor = aspect.getProfiledDescriptor(getTemplateProfiled("templateErrors"));
+        assertEquals("x_EL_ERROR__a", descriptor.getTag(joinPoint, null, null));
+        //an empty message after evaluation is logged as no message
+        assertNull(descriptor.getMessage(joinPoint, null, null));
+
+        descriptor = aspect.getProfiledDescriptor(getTemplateProfiled("templateDisabled"));
+        assertEquals("{$0}", descriptor.getTag(joinPoint, null, null));
+        assertEquals("{$1}", descriptor.getMessage(joinPoint, null, null));
+
+        //the descriptors should match the legacy helper methods
+        Profiled profiled = getTemplateProfiled("templateTag");
+        assertEquals(aspect.evaluateJexl(profiled.tag(), new Object[]{"a", "b"}, null, 7, null),
+                     aspect.getStopWatchTag(profiled, joinPoint, 7, null));
+    }
+
+    public void testSimpleReferences() throws Exception {
+        Map<String, Object> map = new HashMap<String, Object>();
+        map.put("key", "value");
+        List<String> list = Collections.unmodifiableList(Arrays.asList("a", "b"));
+        Object[] args = new Object[]{new ProfiledObject.SimpleBean("bob", 42), map, list, null};
+
+        //these are all evaluated using reflection, without JEXL
+        assertEquals("bob_42_value_2_null_null_true",
+                     aspect.evaluateJexl("{$0.name}_{ $0 . age }_{$1.key}_{$2.size()}_{$3.name}_{$4}_{$return.empty}",
+                                         args, null, new ArrayList<String>(), null));
+        //the cached accessors must handle a change in the class of the referenced object
+        args[0] = new ProfiledObject.SimpleBean("ann", 7);
+        args[2] = Arrays.asList("c");
+        assertEquals("ann_7_value_1_null_null_false",
+                     aspect.evaluateJexl("{$0.name}_{ $0 . age }_{$1.key}_{$2.size()}_{$3.name}_{$4}_{$return.empty}",
+                                         args, null, Arrays.asList("d"), null));
+        //exceptions from called methods are logged as errors
+        assertEquals("_EL_ERROR_", aspect.evaluateJexl("{$0.iterator().next()}", new Object[]{list.subList(0, 0)},
+                                                       null, null, null));
+
+        assertNull(SimpleReference.parse("$0.name + 1", null));
+        assertNull(SimpleReference.parse("$0.get('a')", null));
+        assertNull(SimpleReference.parse("name", null));
+        assertNotNull(SimpleReference.parse(" $exception.message ", null));
+    }
+
+    public void testCaching() throws Exception {
+        Profiled profiled = getProfiled("simpleTest");
+        assertSame(aspect.getProfiledDescriptor(profiled), aspect.getProfiledDescriptor(profiled));
+    }
+
+    // --- Helper Methods ---
+
+    private Profiled getProfiled(String methodName) throws Exception {
+        for (java.lang.reflect.Method method : ProfiledObject.class.getMethods()) {
+            if (method.getName().equals(methodName)) {
+                return method.getAnnotation(Profiled.class);
+            }
+        }
+        throw new IllegalArgumentException(methodName);
+    }
+
+    private Profiled getTemplateProfiled(String methodName) throws Exception {
+        return TemplateObject.class.getMethod(methodName).getAnnotation(Profiled.class);
+    }
+
+    public static class TemplateObject {
+        @Profiled(tag = "t_{$0}_{$1}_{$return}", message = "m:{$0}{}", logFailuresSeparately = true)
+        public void templateTag() { }
+
+        @Profiled(tag = "x{bad()}_{$0", message = "{}")
+        public void templateErrors() { }
+
+        @Profiled(tag = "{$0}", message = "{$1}", el = false)
+        public void templateDisabled() { }
+    }
+
+    private static class SimpleJoinPoint implements AbstractJoinPoint {
+        private String methodName;
+        private Object[] parameters;
+
+        public SimpleJoinPoint(String methodName, Object... parameters) {
+            this.methodName = methodName;
+            this.parameters = parameters;
+        }
+
+        public Object proceed() throws Throwable {
+            return null;
+        }
+
+        public Object getExecutingObject() {
+            return this;
+        }
+
+        public Object[] getParameters() {
+            return parameters;
+        }
+
+        public String getMethodName() {
+            return methodName;
+        }
+    }
+}
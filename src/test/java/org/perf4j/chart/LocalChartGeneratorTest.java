@@ -0,0 +1,159 @@
+/* Copyright (c) 2008-2009 HomeAway, Inc.
+ * All rights reserved.  http://www.perf4j.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.perf4j.chart;
+
+import junit.framework.TestCase;
+import org.perf4j.GroupedTimingStatistics;
+import org.perf4j.StopWatch;
+import org.perf4j.helpers.StatsValueRetriever;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tests the LocalChartGenerator
+ */
+public class LocalChartGeneratorTest extends TestCase {
+    public static final long START_TIME = GoogleChartGeneratorTest.START_TIME;
+
+    public void testSvg() throws Exception {
+        LocalChartGenerator chart = new LocalChartGenerator();
+        appendData(chart, 3, 2);
+
+        String svg = writeSvg(chart);
+        assertTrue(svg.startsWith("<?xml"));
+        assertTrue(svg.endsWith("</svg>\n"));
+        assertEquals(2, countOccurrences(svg, "<polyline"));
+        //one band per series, plus a diamond marker for each of the 6 points
+        assertEquals(2 + 6, countOccurrences(svg, "<polygon"));
+        assertTrue(svg.contains(">tag&lt;0&gt;</text>"));
+        assertTrue(svg.contains(">Mean</text>"));
+
+        //no bands for values that aren't elapsed times
+        LocalChartGenerator tpsChart = new LocalChartGenerator(StatsValueRetriever.TPS_VALUE_RETRIEVER);
+        appendData(tpsChart, 3, 2);
+        assertEquals(6, countOccurrences(writeSvg(tpsChart), "<polygon"));
+
+        assertTrue(chart.getChartUrl().startsWith("data:image/svg+xml;base64,PD94bWwg"));
+    }
+
+    public void testManySeries() throws Exception {
+        LocalChartGenerator chart = new LocalChartGenerator();
+        chart.setMaxDataPoints(100);
+        appendData(chart, 100, 200);
+
+        String svg = writeSvg(chart);
+        assertEquals(200, countOccurrences(svg, "<polyline"));
+        //the legend only has room for some of the tags
+        assertTrue(svg.contains(" more)</text>"));
+    }
+
+    public void testPng() throws Exception {
+        LocalChartGenerator chart = new LocalChartGenerator(StatsValueRetriever.MEAN_VALUE_RETRIEVER,
+                                                            LocalChartGenerator.PNG_FORMAT);
+        chart.setWidth(1200);
+        chart.setHeight(600);
+        appendData(chart, 5, 3);
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        chart.writeChart(out);
+        BufferedImage image = ImageIO.read(new ByteArrayInputStream(out.toByteArray()));
+        assertEquals(1200, image.getWidth());
+        assertEquals(600, image.getHeight());
+        assertEquals("image/png", chart.getContentType());
+        assertTrue(chart.getChartUrl().startsWith("data:image/png;base64,iVBORw0KGgo"));
+
+        try {
+            chart.setFormat("gif");
+            fail("Unknown formats should be rejected");
+        } catch (IllegalArgumentException iae) {
+            //expected
+        }
+    }
+
+    public void testSlowClientDoesNotBlockAppendData() throws Exception {
+        final LocalChartGenerator chart = new LocalChartGenerator();
+        appendData(chart, 3, 2);
+
+        //a client that doesn't read the chart until data has been appended
+        final CountDownLatch writeStarted = new CountDownLatch(1);
+        final CountDownLatch dataAppended = new CountDownLatch(1);
+        final OutputStream slowClient = new OutputStream() {
+            public void write(int b) throws IOException {
+                if (writeStarted.getCount() > 0) {
+                    writeStarted.countDown();
+                    try {
+                        dataAppended.await(10, TimeUnit.SECONDS);
+                    } catch (InterruptedException ie) {
+                        throw new IOException("Interrupted");
+                    }
+                }
+            }
+        };
+        Thread writer = new Thread() {
+            public void run() {
+                try {
+                    chart.writeSvg(slowClient);
+                } catch (IOException ioe) {
+                    //the test will fail on the missing data
+                }
+            }
+        };
+        writer.start();
+        assertTrue(writeStarted.await(10, TimeUnit.SECONDS));
+
+        long startTime = System.currentTimeMillis();
+        appendData(chart, 1, 2);
+        dataAppended.countDown();
+        assertTrue("appendData blocked while a chart was written", System.currentTimeMillis() - startTime < 5000L);
+        writer.join();
+        assertEquals(4, chart.getData().size());
+    }
+
+    private void appendData(LocalChartGenerator chart, int numWindows, int numTags) {
+        for (int i = 0; i < numWindows; i++) {
+            GroupedTimingStatistics statistics = new GroupedTimingStatistics();
+            statistics.setStartTime(START_TIME + i * 30000L);
+            statistics.setStopTime(START_TIME + (i + 1) * 30000L);
+            for (int j = 0; j < numTags; j++) {
+                String tag = "tag<" + j + ">";
+                statistics.addStopWatch(new StopWatch(START_TIME + i * 30000L, 1000L + 10 * i + j, tag, null));
+                statistics.addStopWatch(new StopWatch(START_TIME + i * 30000L, 2000L + 10 * i + j, tag, null));
+            }
+            chart.appendData(statistics);
+        }
+    }
+
+    private String writeSvg(LocalChartGenerator chart) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        chart.writeSvg(out);
+        return out.toString("UTF-8");
+    }
+
+    private int countOccurrences(String string, String substring) {
+        int retVal = 0;
+        for (int i = string.indexOf(substring); i >= 0; i = string.indexOf(substring, i + 1)) {
+            retVal++;
+        }
+        return retVal;
+    }
+}
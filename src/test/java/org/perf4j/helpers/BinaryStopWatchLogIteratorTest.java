@@ -0,0 +1,202 @@
+/* Copyright (c) 2008-2009 HomeAway, Inc.
+ * All rights reserved.  http://www.perf4j.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.perf4j.helpers;
+
+import junit.framework.TestCase;
+import org.perf4j.StopWatch;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Tests the BinaryStopWatchWriter and BinaryStopWatchLogIterator.
+ */
+public class BinaryStopWatchLogIteratorTest extends TestCase {
+
+    public void testRoundTrip() throws Exception {
+        List<StopWatch> stopWatches = createStopWatches(5000, 50);
+
+        //use a small tag limit to force several blocks
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        BinaryStopWatchWriter writer = new BinaryStopWatchWriter(bytes, 10);
+        for (StopWatch stopWatch : stopWatches.subList(0, 2500)) {
+            writer.write(stopWatch);
+        }
+        writer.close();
+        //a second writer appending to the same output
+        writer = new BinaryStopWatchWriter(bytes);
+        for (StopWatch stopWatch : stopWatches.subList(2500, stopWatches.size())) {
+            writer.write(stopWatch);
+        }
+        writer.close();
+
+        assertEquals(stopWatches, readAll(bytes.toByteArray()));
+
+        //the binary form should be much smaller than the text form
+        StringBuilder text = new StringBuilder();
+        for (StopWatch stopWatch : stopWatches) {
+            text.append(stopWatch).append('\n');
+        }
+        assertTrue(bytes.size() * 2 < text.length());
+    }
+
+    public void testSampledStopWatches() throws Exception {
+        List<StopWatch> stopWatches = createStopWatches(100, 5);
+        for (int i = 0; i < stopWatches.size(); i += 2) {
+            stopWatches.get(i).setSampleRate(1.0 / (i + 2));
+        }
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        BinaryStopWatchWriter writer = new BinaryStopWatchWriter(bytes);
+        for (StopWatch stopWatch : stopWatches) {
+            writer.write(stopWatch);
+        }
+        writer.close();
+
+        assertEquals(stopWatches, readAll(bytes.toByteArray()));
+    }
+
+    public void testTruncatedLog() throws Exception {
+        List<StopWatch> stopWatches = createStopWatches(100, 5);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        BinaryStopWatchWriter writer = new BinaryStopWatchWriter(bytes);
+        for (StopWatch stopWatch : stopWatches) {
+            writer.write(stopWatch);
+        }
+        writer.close();
+        byte[] fullLog = bytes.toByteArray();
+
+        //chop the last byte off, the last record should be ignored
+        byte[] truncatedLog = new byte[fullLog.length - 1];
+        System.arraycopy(fullLog, 0, truncatedLog, 0, truncatedLog.length);
+        List<StopWatch> read = readAll(truncatedLog);
+        assertEquals(stopWatches.subList(0, stopWatches.size() - 1), read);
+
+        //invalid records are skipped up to the next block, here the one written by a second writer
+        byte[] secondLog = writeAll(stopWatches.subList(0, 10));
+        byte[] corruptLog = concat(fullLog, fullLog.length, secondLog);
+        corruptLog[BinaryStopWatchWriter.BLOCK_HEADER.length] = 99;
+        BinaryStopWatchLogIterator iter = new BinaryStopWatchLogIterator(new ByteArrayInputStream(corruptLog));
+        assertEquals(stopWatches.subList(0, 10), readAll(iter));
+        assertEquals(fullLog.length - BinaryStopWatchWriter.BLOCK_HEADER.length, iter.getSkippedByteCount());
+    }
+
+    public void testAppendAfterTruncatedRecord() throws Exception {
+        List<StopWatch> stopWatches = createStopWatches(200, 5);
+        List<StopWatch> first = stopWatches.subList(0, 100);
+        List<StopWatch> second = stopWatches.subList(100, 200);
+        byte[] firstLog = writeAll(first);
+        byte[] secondLog = writeAll(second);
+        int lastRecordStart = writeAll(first.subList(0, 99)).length;
+        List<StopWatch> expected = new ArrayList<StopWatch>(first.subList(0, 99));
+        expected.addAll(second);
+
+        //the first writer was killed just after the type byte of its last StopWatch record, so the next block header
+        //is read as the rest of the record, which refers to an undefined tag
+        int stopWatchRecordStart = lastRecordStart;
+        while (firstLog[stopWatchRecordStart] != BinaryStopWatchWriter.STOP_WATCH_RECORD) {
+            stopWatchRecordStart++;
+        }
+        byte[] appendedLog = concat(firstLog, stopWatchRecordStart + 1, secondLog);
+        BinaryStopWatchLogIterator iter = new BinaryStopWatchLogIterator(new ByteArrayInputStream(appendedLog));
+        assertEquals(expected, readAll(iter));
+        assertEquals(1L, iter.getSkippedByteCount());
+
+        //truncating the partial record before appending works wherever the first writer was killed
+        new File("./target").mkdirs();
+        File file = new File("./target/binaryStopWatchLogIteratorTest-append.bin");
+        for (int length = lastRecordStart; length <= firstLog.length; length++) {
+            FileOutputStream out = new FileOutputStream(file);
+            out.write(firstLog, 0, length);
+            out.close();
+            long removed = BinaryStopWatchWriter.removePartialRecord(file);
+            assertTrue(removed >= 0 && removed < length - lastRecordStart + 1);
+
+            BinaryStopWatchWriter writer = new BinaryStopWatchWriter(new FileOutputStream(file, true));
+            for (StopWatch stopWatch : second) {
+                writer.write(stopWatch);
+            }
+            writer.close();
+            List<StopWatch> read = readAll(new BinaryStopWatchLogIterator(new FileInputStream(file)));
+            assertEquals("Killed after " + length + " bytes", (length == firstLog.length) ? stopWatches : expected,
+                         read);
+        }
+        assertEquals(0L, BinaryStopWatchWriter.removePartialRecord(file));
+    }
+
+    public void testIsBinaryLog() throws Exception {
+        new File("./target").mkdirs();
+        File binaryFile = new File("./target/binaryStopWatchLogIteratorTest.bin");
+        BinaryStopWatchWriter writer = new BinaryStopWatchWriter(new FileOutputStream(binaryFile));
+        writer.write(new StopWatch(1000L, 10L, "tag", null));
+        writer.close();
+        assertTrue(BinaryStopWatchLogIterator.isBinaryLog(binaryFile));
+
+        File textFile = new File("./target/binaryStopWatchLogIteratorTest.log");
+        FileOutputStream textOut = new FileOutputStream(textFile);
+        textOut.write(new StopWatch(1000L, 10L, "tag", null).toString().getBytes());
+        textOut.close();
+        assertFalse(BinaryStopWatchLogIterator.isBinaryLog(textFile));
+    }
+
+    private List<StopWatch> createStopWatches(int count, int numTags) {
+        Random random = new Random(1234L);
+        List<StopWatch> retVal = new ArrayList<StopWatch>();
+        long startTime = 1230000000000L;
+        for (int i = 0; i < count; i++) {
+            //mostly increasing start times, with some going backwards
+            startTime += random.nextInt(100) - 10;
+            String message = (i % 3 == 0) ? null : "message " + i + " \u00e9";
+            retVal.add(new StopWatch(startTime, random.nextInt(5000), "tag" + random.nextInt(numTags), message));
+        }
+        return retVal;
+    }
+
+    private List<StopWatch> readAll(byte[] bytes) {
+        return readAll(new BinaryStopWatchLogIterator(new ByteArrayInputStream(bytes)));
+    }
+
+    private List<StopWatch> readAll(BinaryStopWatchLogIterator iter) {
+        List<StopWatch> retVal = new ArrayList<StopWatch>();
+        while (iter.hasNext()) {
+            retVal.add(iter.next());
+        }
+        return retVal;
+    }
+
+    private byte[] writeAll(List<StopWatch> stopWatches) throws Exception {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        BinaryStopWatchWriter writer = new BinaryStopWatchWriter(bytes);
+        for (StopWatch stopWatch : stopWatches) {
+            writer.write(stopWatch);
+        }
+        writer.close();
+        return bytes.toByteArray();
+    }
+
+    private byte[] concat(byte[] first, int firstLength, byte[] second) {
+        byte[] retVal = new byte[firstLength + second.length];
+        System.arraycopy(first, 0, retVal, 0, firstLength);
+        System.arraycopy(second, 0, retVal, firstLength, second.length);
+        return retVal;
+    }
+}
@@ -0,0 +1,123 @@
+/* Copyright (c) 2008-2009 HomeAway, Inc.
+ * All rights reserved.  http://www.perf4j.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.perf4j.helpers;
+
+import junit.framework.TestCase;
+import org.perf4j.GroupedTimingStatistics;
+import org.perf4j.StopWatch;
+
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Tests that the ChunkedStopWatchLogIterator gives the same results as the StopWatchLogIterator.
+ */
+public class ChunkedStopWatchLogIteratorTest extends TestCase {
+    private File logFile;
+
+    protected void setUp() throws Exception {
+        logFile = File.createTempFile("perf4jChunkedLog", ".log");
+        logFile.deleteOnExit();
+
+        Random random = new Random(1234L);
+        String[] tags = {"a", "a.b", "a.c", "b", "c.d.e"};
+        long time = 1200000000000L;
+        PrintWriter writer = new PrintWriter(new FileWriter(logFile));
+        try {
+            for (int i = 0; i < 5000; i++) {
+                time += random.nextInt(50);
+                //occasionally log out of order, sometimes far enough back to be in an earlier time slice
+                long startTime = (random.nextInt(20) == 0) ? time - random.nextInt(3000) : time;
+                StopWatch stopWatch = new StopWatch(startTime, random.nextInt(1000), tags[random.nextInt(tags.length)],
+                                                    (random.nextBoolean() ? "message" : null));
+                switch (random.nextInt(6)) {
+                    case 0:
+                        writer.println("unrelated log message");
+                        writer.println(stopWatch);
+                        break;
+                    case 1:
+                        writer.println("2008-01-01 12:00:00 INFO prefix " + stopWatch);
+                        break;
+                    case 2:
+                        //two StopWatches on the same line
+                        writer.println(stopWatch + " " + new StopWatch(startTime, 5L, "same.line", null));
+                        break;
+                    case 3:
+                        writer.print(stopWatch + "\r\n");
+                        break;
+                    default:
+                        writer.println(stopWatch);
+                }
+            }
+            //no newline at the end of the file
+            writer.print(new StopWatch(time + 10L, 20L, "last", null));
+        } finally {
+            writer.close();
+        }
+    }
+
+    protected void tearDown() throws Exception {
+        logFile.delete();
+    }
+
+    public void testSameAsSequential() throws Exception {
+        FileReader reader = new FileReader(logFile);
+        List<StopWatch> expected;
+        try {
+            expected = toList(new StopWatchLogIterator(reader));
+        } finally {
+            reader.close();
+        }
+        assertTrue(expected.size() > 5000);
+
+        //tiny chunks force many chunk boundaries, most of which are initially in the middle of lines
+        assertEquals(expected, toList(new ChunkedStopWatchLogIterator(logFile, 1, 100)));
+        assertEquals(expected, toList(new ChunkedStopWatchLogIterator(logFile, 4, 1000)));
+        assertEquals(expected, toList(new ChunkedStopWatchLogIterator(logFile, 3)));
+
+        //and so the statistics are identical too
+        List<GroupedTimingStatistics> expectedStatistics =
+                toList(new GroupingStatisticsIterator(expected.iterator(), 1000L, true));
+        List<GroupedTimingStatistics> actualStatistics =
+                toList(new GroupingStatisticsIterator(new ChunkedStopWatchLogIterator(logFile, 4, 777), 1000L, true));
+        assertEquals(expectedStatistics, actualStatistics);
+    }
+
+    public void testEmptyFile() throws Exception {
+        File emptyFile = File.createTempFile("perf4jChunkedLog", ".log");
+        try {
+            assertFalse(new ChunkedStopWatchLogIterator(emptyFile, 2).hasNext());
+        } finally {
+            emptyFile.delete();
+        }
+    }
+
+    // --- Helper Methods ---
+
+    private <T> List<T> toList(Iterator<T> iterator) {
+        List<T> retVal = new ArrayList<T>();
+        while (iterator.hasNext()) {
+            retVal.add(iterator.next());
+        }
+        return retVal;
+    }
+}
@@ -0,0 +1,141 @@
+/* Copyright (c) 2008-2009 HomeAway, Inc.
+ * All rights reserved.  http://www.perf4j.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.perf4j.helpers;
+
+import junit.framework.TestCase;
+import org.perf4j.StopWatch;
+
+import java.util.Random;
+
+/**
+ * Tests that the FastStopWatchParser gives the same results as the regex based StopWatchParser.
+ */
+public class FastStopWatchParserTest extends TestCase {
+    private StopWatchParser regexParser = new StopWatchParser();
+    private FastStopWatchParser fastParser = new FastStopWatchParser();
+
+    public void testValidMessages() throws Exception {
+        StopWatch stopWatch = new StopWatch(123, 456, "tag", "message");
+        assertEquals(stopWatch, fastParser.parseStopWatch(stopWatch.toString()));
+
+        stopWatch = new StopWatch(789, 101112, "tag2", null);
+        assertEquals(stopWatch, fastParser.parseStopWatch(stopWatch.toString()));
+
+        assertNull(fastParser.parseStopWatch("not a stop watch string"));
+
+        //repeated tags share the same String instance
+        StopWatch first = fastParser.parseStopWatch("start[1] time[2] tag[repeated]");
+        StopWatch second = fastParser.parseStopWatch("start[3] time[4] tag[repeated] message[m]");
+        assertSame(first.getTag(), second.getTag());
+    }
+
+    public void testMalformedMessages() throws Exception {
+        String[] messages = {
+                "",
+                "start",
+                "start[",
+                "start[] time[1] tag[a]",
+                "start[1] time[] tag[a]",
+                "start[1]time[2] tag[a]",
+                "start[1] time[2] tag[a",
+                "start[1] time[2] tag[]",
+                "start[1] time[2] tag[a]]",
+                "start[-1] time[2] tag[a]",
+                "start[1x] time[2] tag[a]",
+                "start[1] time[2] tag[a] message[",
+                "start[1] time[2] tag[a] message[]",
+                "start[1] time[2] tag[a] message[b] extra",
+                "start[1] time[2] tag[a]message[b]",
+                "start[1] time[2] tag[a] message[b]c]",
+                "start[1] time[2] tag[a] message[b\nc]",
+                "start[1] time[2] tag[a\n] start[3] time[4] tag[b]",
+                "start[1] time[2] tag[a\r\nb]",
+                "start[1] time[2] tag[a\u2028b]",
+                "start[1] time[2] tag[a\u0085b] message[c]",
+                "prefix start[1] time[2] tag[a] message[b]",
+                "start[start[1] time[2] tag[a]",
+                "start[1] time[2] tag[a start[3] time[4] tag[b]",
+                "start[00001] time[00] tag[a.b.c] message[with [brackets]",
+                "start[\u0661] time[2] tag[a]",
+                "start[9223372036854775807] time[9223372036854775807] tag[max]",
+                "start[1] time[2] tag[tag with spaces] message[message with spaces]",
+                "start[1] time[0] tag[a] nanos[123456]",
+                "start[1] time[0] tag[a] message[b] nanos[123456]",
+                "start[1] time[0] tag[a] nanos[]",
+                "start[1] time[0] tag[a] nanos[12x]",
+                "start[1] time[0] tag[a] nanos[12",
+                "start[1] time[0] tag[a] message[b nanos[12]",
+                "start[1] time[0] tag[a] message[b\n] nanos[12]",
+                "start[1] time[0] tag[a]nanos[12]",
+                "start[1] time[0] tag[a] sample[0.25]",
+                "start[1] time[0] tag[a] message[b] nanos[123456] sample[0.01]",
+                "start[1] time[0] tag[a] nanos[123456] sample[1.0E-4]",
+                "start[1] time[0] tag[a] sample[1.]",
+                "start[1] time[0] tag[a] sample[1E]",
+                "start[1] time[0] tag[a] sample[1E-]",
+                "start[1] time[0] tag[a] sample[.5]",
+                "start[1] time[0] tag[a] sample[0.5",
+                "start[1] time[0] tag[a] sample[2]",
+                "start[1] time[0] tag[a] sample[0]",
+                "start[1] time[0] tag[a] nanos[12x] sample[0.5]",
+                "start[1] time[0] tag[a] sample[0.5] nanos[12]",
+        };
+        for (String message : messages) {
+            assertEquivalent(message);
+        }
+    }
+
+    public void testOverflow() throws Exception {
+        assertEquivalent("start[9223372036854775808] time[2] tag[a]");
+        assertEquivalent("start[1] time[99999999999999999999] tag[a]");
+    }
+
+    public void testRandomMessages() throws Exception {
+        String[] fragments = {
+                "start[", "] time[", "] tag[", " message[", "]", "[", "1", "23", " ", "tag", "x", "\n", "\r", ".",
+                " sample[", "E", "-"
+        };
+        Random random = new Random(42L);
+        for (int i = 0; i < 20000; i++) {
+            StringBuilder message = new StringBuilder();
+            int numFragments = random.nextInt(16);
+            for (int j = 0; j < numFragments; j++) {
+                message.append(fragments[random.nextInt(fragments.length)]);
+            }
+            assertEquivalent(message.toString());
+        }
+    }
+
+    // --- Helper Methods ---
+
+    private void assertEquivalent(String message) {
+        StopWatch expected;
+        try {
+            expected = regexParser.parseStopWatch(message);
+        } catch (NumberFormatException nfe) {
+            try {
+                fastParser.parseStopWatch(message);
+                fail("Expected NumberFormatException parsing " + message);
+            } catch (NumberFormatException fastNfe) {
+                assertEquals(nfe.getMessage(), fastNfe.getMessage());
+            }
+            return;
+        }
+
+        StopWatch actual = fastParser.parseStopWatch(message);
+        assertEquals("Parsing " + message, expected, actual);
+    }
+}
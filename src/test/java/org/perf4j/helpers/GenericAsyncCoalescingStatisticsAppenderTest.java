@@ -0,0 +1,295 @@
+/* Copyright (c) 2008-2009 HomeAway, Inc.
+ * All rights reserved.  http://www.perf4j.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.perf4j.helpers;
+
+import junit.framework.TestCase;
+import org.perf4j.GroupedTimingStatistics;
+import org.perf4j.StopWatch;
+import org.perf4j.TimingStatistics;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Tests the GenericAsyncCoalescingStatisticsAppender without any logging framework specific wrapper.
+ */
+public class GenericAsyncCoalescingStatisticsAppenderTest extends TestCase {
+
+    public void testStringAndStopWatchMessages() throws Exception {
+        CollectingHandler handler = new CollectingHandler();
+        GenericAsyncCoalescingStatisticsAppender appender = new GenericAsyncCoalescingStatisticsAppender();
+        appender.setTimeSlice(60000L);
+        appender.start(handler);
+
+        long now = System.currentTimeMillis();
+        appender.append(new StopWatch(now, 100L, "tag", "message").toString());
+        appender.append("not a stop watch");
+        appender.append(new StopWatch(now, 300L, "tag", null));
+        StopWatch reused = new StopWatch(now, 500L, "tag2", null);
+        appender.append(reused);
+        //modifying the stop watch after it's appended should have no effect
+        reused.setTag("modifiedTag");
+
+        appender.stop();
+
+        assertEquals(0, appender.getNumDiscardedMessages());
+        assertTrue(handler.errors.isEmpty());
+        TimingStatistics tagStats = handler.getStatisticsForTag("tag");
+        assertEquals(2, tagStats.getCount());
+        assertEquals(200.0, tagStats.getMean(), 0.0001);
+        assertEquals(1, handler.getStatisticsForTag("tag2").getCount());
+        assertNull(handler.getStatisticsForTag("modifiedTag"));
+    }
+
+    public void testRingBufferQueue() throws Exception {
+        CollectingHandler handler = new CollectingHandler();
+        final GenericAsyncCoalescingStatisticsAppender appender = new GenericAsyncCoalescingStatisticsAppender();
+        appender.setTimeSlice(60000L);
+        appender.setQueueType(GenericAsyncCoalescingStatisticsAppender.RING_BUFFER_QUEUE_TYPE);
+        appender.setWaitStrategy("Yield");
+        appender.setQueueSize(1 << 16);
+        appender.start(handler);
+
+        final long now = System.currentTimeMillis();
+        Thread[] threads = new Thread[4];
+        for (int i = 0; i < threads.length; i++) {
+            threads[i] = new Thread() {
+                public void run() {
+                    for (int j = 0; j < 1000; j++) {
+                        appender.append(new StopWatch(now, j, "tag", null));
+                    }
+                }
+            };
+            threads[i].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        appender.stop();
+
+        assertEquals(0, appender.getNumDiscardedMessages());
+        assertEquals(4000, handler.getStatisticsForTag("tag").getCount());
+    }
+
+    public void testThreadLocalAggregation() throws Exception {
+        CollectingHandler handler = new CollectingHandler();
+        final GenericAsyncCoalescingStatisticsAppender appender = new GenericAsyncCoalescingStatisticsAppender();
+        appender.setTimeSlice(60000L);
+        appender.setThreadLocalAggregation(true);
+        //a tiny queue would discard most of these messages if they went through it
+        appender.setQueueSize(1);
+        appender.start(handler);
+
+        final long now = System.currentTimeMillis();
+        Thread[] threads = new Thread[4];
+        for (int i = 0; i < threads.length; i++) {
+            threads[i] = new Thread() {
+                public void run() {
+                    StopWatch reused = new StopWatch(now, 0L, "tag", null);
+                    for (int j = 0; j < 1000; j++) {
+                        reused.setTag("tag");
+                        appender.append(reused);
+                    }
+                }
+            };
+            threads[i].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        appender.append(new StopWatch(now, 10L, "tag", null).toString());
+        appender.stop();
+
+        assertEquals(0, appender.getNumDiscardedMessages());
+        assertEquals(4001, handler.getStatisticsForTag("tag").getCount());
+    }
+
+    public void testDiscardAccounting() throws Exception {
+        CollectingHandler handler = new CollectingHandler();
+        GenericAsyncCoalescingStatisticsAppender appender = new GenericAsyncCoalescingStatisticsAppender();
+        appender.setTimeSlice(60000L);
+        appender.setQueueSize(1);
+        appender.start(handler);
+
+        long now = System.currentTimeMillis();
+        for (int i = 0; i < 1000; i++) {
+            appender.append(new StopWatch(now, i, "a", null));
+            appender.append(new StopWatch(now, i, "b", null).toString());
+        }
+        appender.stop();
+
+        int numDiscarded = appender.getNumDiscardedMessages();
+        assertTrue(numDiscarded > 0);
+        Map<String, Long> discardedByTag = appender.getNumDiscardedMessagesByTag();
+        long numDiscardedA = discardedByTag.containsKey("a") ? discardedByTag.get("a") : 0L;
+        long numDiscardedB = discardedByTag.containsKey("b") ? discardedByTag.get("b") : 0L;
+        assertEquals(numDiscarded, numDiscardedA + numDiscardedB);
+        assertEquals(1000 - numDiscardedA, getCountForTag(handler, "a"));
+        assertEquals(1000 - numDiscardedB, getCountForTag(handler, "b"));
+        //discards are reported by the draining thread at most every 10 seconds (plus once at shutdown), not once per
+        //message
+        assertTrue(handler.errors.size() <= 2);
+        assertTrue(handler.errors.get(handler.errors.size() - 1).contains("(" + numDiscarded + " in total"));
+
+        assertEquals("a", GenericAsyncCoalescingStatisticsAppender.getTagOfMessage("start[1] time[2] tag[a]"));
+        assertNull(GenericAsyncCoalescingStatisticsAppender.getTagOfMessage("start[1] time[2] tag[a"));
+    }
+
+    public void testSampleOverloadPolicy() throws Exception {
+        CollectingHandler handler = new CollectingHandler();
+        GenericAsyncCoalescingStatisticsAppender appender = new GenericAsyncCoalescingStatisticsAppender();
+        appender.setTimeSlice(60000L);
+        appender.setQueueSize(16);
+        appender.setOverloadPolicy(GenericAsyncCoalescingStatisticsAppender.SAMPLE_OVERLOAD_POLICY);
+        appender.setHighWaterMark(50);
+        appender.start(handler);
+
+        long now = System.currentTimeMillis();
+        for (int i = 0; i < 5000; i++) {
+            appender.append(new StopWatch(now, i, "tag", null));
+            appender.append(new StopWatch(now, i, "tag", null).toString());
+        }
+        appender.stop();
+
+        //every message is either aggregated, shed by sampling or discarded
+        TimingStatistics tagStats = handler.getStatisticsForTag("tag");
+        assertEquals(10000L,
+                     tagStats.getSampleCount() + appender.getNumShedMessages() + appender.getNumDiscardedMessages());
+        //and the sample rates of the aggregated messages account for the ones that were shed
+        if (appender.getNumShedMessages() > 0) {
+            assertTrue(tagStats.getEstimatedCount() > tagStats.getSampleCount());
+        }
+    }
+
+    public void testAggregateOverloadPolicy() throws Exception {
+        CollectingHandler handler = new CollectingHandler();
+        final GenericAsyncCoalescingStatisticsAppender appender = new GenericAsyncCoalescingStatisticsAppender();
+        appender.setTimeSlice(60000L);
+        appender.setQueueSize(4);
+        appender.setOverloadPolicy(GenericAsyncCoalescingStatisticsAppender.AGGREGATE_OVERLOAD_POLICY);
+        appender.start(handler);
+
+        final long now = System.currentTimeMillis();
+        Thread[] threads = new Thread[4];
+        for (int i = 0; i < threads.length; i++) {
+            threads[i] = new Thread() {
+                public void run() {
+                    for (int j = 0; j < 1000; j++) {
+                        appender.append(new StopWatch(now, j, "tag", null));
+                        appender.append(new StopWatch(now, j, "tag", null).toString());
+                    }
+                }
+            };
+            threads[i].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        appender.stop();
+
+        //nothing is lost, as messages above the high-water mark are aggregated on the logging threads
+        assertEquals(0, appender.getNumDiscardedMessages());
+        assertEquals(8000, handler.getStatisticsForTag("tag").getCount());
+        assertTrue(handler.errors.isEmpty());
+    }
+
+    public void testStripedCounter() throws Exception {
+        final StripedCounter counter = new StripedCounter(3);
+        Thread[] threads = new Thread[8];
+        for (int i = 0; i < threads.length; i++) {
+            threads[i] = new Thread() {
+                public void run() {
+                    for (int j = 0; j < 10000; j++) {
+                        counter.increment();
+                    }
+                }
+            };
+            threads[i].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        counter.add(5L);
+        assertEquals(80005L, counter.sum());
+    }
+
+    public void testImmutableStopWatch() throws Exception {
+        StopWatch stopWatch = new StopWatch(123L, 456L, "tag", "message");
+        ImmutableStopWatch immutableStopWatch = ImmutableStopWatch.valueOf(stopWatch);
+        assertEquals(stopWatch, immutableStopWatch);
+        assertEquals(stopWatch.toString(), immutableStopWatch.toString());
+        assertSame(immutableStopWatch, ImmutableStopWatch.valueOf(immutableStopWatch));
+
+        //a snapshot taken with the already rendered String returns that String instead of rendering it again
+        String stopWatchAsString = stopWatch.toString();
+        ImmutableStopWatch preRendered = new ImmutableStopWatch(stopWatch, stopWatchAsString);
+        assertSame(stopWatchAsString, preRendered.toString());
+        assertEquals("x" + stopWatchAsString, preRendered.appendTo(new StringBuilder("x")).toString());
+        assertEquals(stopWatch, preRendered);
+        assertSame(preRendered, ImmutableStopWatch.valueOf(preRendered));
+
+        try {
+            immutableStopWatch.setTag("newTag");
+            fail("ImmutableStopWatch should not allow modification");
+        } catch (UnsupportedOperationException uoe) {
+            //expected
+        }
+        try {
+            immutableStopWatch.start();
+            fail("ImmutableStopWatch should not allow restart");
+        } catch (UnsupportedOperationException uoe) {
+            //expected
+        }
+    }
+
+    private static int getCountForTag(CollectingHandler handler, String tag) {
+        TimingStatistics tagStats = handler.getStatisticsForTag(tag);
+        return (tagStats == null) ? 0 : tagStats.getCount();
+    }
+
+    /**
+     * Handler that just stores all of the GroupedTimingStatistics and errors it receives.
+     */
+    protected static class CollectingHandler
+            implements GenericAsyncCoalescingStatisticsAppender.GroupedTimingStatisticsHandler {
+        public final List<GroupedTimingStatistics> statistics = new ArrayList<GroupedTimingStatistics>();
+        public final List<String> errors = new ArrayList<String>();
+
+        public synchronized void handle(GroupedTimingStatistics statistics) {
+            this.statistics.add(statistics);
+        }
+
+        public synchronized void error(String errorMessage) {
+            errors.add(errorMessage);
+        }
+
+        public synchronized TimingStatistics getStatisticsForTag(String tag) {
+            TimingStatistics retVal = null;
+            for (GroupedTimingStatistics groupedStatistics : statistics) {
+                TimingStatistics tagStatistics = groupedStatistics.getStatisticsByTag().get(tag);
+                if (tagStatistics != null) {
+                    if (retVal == null) {
+                        retVal = tagStatistics.clone();
+                    } else {
+                        throw new IllegalStateException("Test expected all stats in a single time slice");
+                    }
+                }
+            }
+            return retVal;
+        }
+    }
+}
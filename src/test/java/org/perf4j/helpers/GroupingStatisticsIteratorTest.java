@@ -23,6 +23,7 @@ import org.perf4j.TimingTestCase;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.Iterator;
 import java.util.List;
 
 /**
@@ -151,4 +152,84 @@ public class GroupingStatisticsIteratorTest extends TimingTestCase {
         // no more timeslices
         assertFalse(groupingStatisticsIterator.hasNext());
     }
+
+    public void testAllowedLateness() throws Exception {
+        List<StopWatch> stopWatches = new ArrayList<StopWatch>();
+        stopWatches.add(new StopWatch(1000L, 100L, "tag", null));
+        stopWatches.add(new StopWatch(31000L, 200L, "tag", null));
+        //late, but within the allowed lateness, so it belongs in the first slice
+        stopWatches.add(new StopWatch(29000L, 300L, "tag", null));
+        stopWatches.add(new StopWatch(65000L, 400L, "tag", null));
+        //too late, the first slice was closed when the watermark passed 30000
+        stopWatches.add(new StopWatch(20000L, 500L, "tag", null));
+        stopWatches.add(new StopWatch(59000L, 600L, "tag", null));
+
+        GroupingStatisticsIterator iter = new GroupingStatisticsIterator(stopWatches.iterator(), 30000L, false);
+        iter.setAllowedLateness(10000L);
+        List<GroupedTimingStatistics> groupedTimingStatistics = new ArrayList<GroupedTimingStatistics>();
+        while (iter.hasNext()) {
+            groupedTimingStatistics.add(iter.next());
+        }
+
+        assertEquals(3, groupedTimingStatistics.size());
+        TimingStatistics first = groupedTimingStatistics.get(0).getStatisticsByTag().get("tag");
+        assertEquals(0L, groupedTimingStatistics.get(0).getStartTime());
+        assertEquals(2, first.getCount());
+        assertEquals(300L, first.getMax());
+        TimingStatistics second = groupedTimingStatistics.get(1).getStatisticsByTag().get("tag");
+        assertEquals(30000L, groupedTimingStatistics.get(1).getStartTime());
+        assertEquals(2, second.getCount());
+        assertEquals(600L, second.getMax());
+        assertEquals(60000L, groupedTimingStatistics.get(2).getStartTime());
+        assertEquals(1, groupedTimingStatistics.get(2).getStatisticsByTag().get("tag").getCount());
+        assertEquals(1L, iter.getNumLateStopWatches());
+    }
+
+    public void testAllowedLatenessWithIdleTicks() throws Exception {
+        //the StopWatch is followed by 2 null timer ticks, the second one more than a time slice after the first
+        final long sliceStartTime = (System.currentTimeMillis() / 1000L) * 1000L - 10000L;
+        Iterator<StopWatch> stopWatches = new Iterator<StopWatch>() {
+            int count = 0;
+
+            public boolean hasNext() {
+                return count < 3;
+            }
+
+            public StopWatch next() {
+                if (count++ == 0) {
+                    return new StopWatch(sliceStartTime + 100L, 100L, "tag", null);
+                }
+                if (count == 3) {
+                    try {
+                        Thread.sleep(1100L);
+                    } catch (InterruptedException ie) { /* just tick early */ }
+                }
+                return null;
+            }
+
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+
+        GroupingStatisticsIterator iter = new GroupingStatisticsIterator(stopWatches, 1000L, false);
+        iter.setAllowedLateness(500L);
+        List<GroupedTimingStatistics> groupedTimingStatistics = new ArrayList<GroupedTimingStatistics>();
+        while (iter.hasNext()) {
+            groupedTimingStatistics.add(iter.next());
+        }
+
+        assertEquals(3, groupedTimingStatistics.size());
+        assertEquals(sliceStartTime, groupedTimingStatistics.get(0).getStartTime());
+        assertEquals(1, groupedTimingStatistics.get(0).getStatisticsByTag().get("tag").getCount());
+        //the idle time slices after the busy one are reported as a single empty slice per tick, as with no lateness
+        GroupedTimingStatistics firstIdle = groupedTimingStatistics.get(1);
+        assertEquals(sliceStartTime + 1000L, firstIdle.getStartTime());
+        assertEquals(sliceStartTime + 2000L, firstIdle.getStopTime());
+        assertTrue(firstIdle.getStatisticsByTag().isEmpty());
+        GroupedTimingStatistics secondIdle = groupedTimingStatistics.get(2);
+        assertTrue(secondIdle.getStartTime() > firstIdle.getStartTime());
+        assertEquals(secondIdle.getStartTime() + 1000L, secondIdle.getStopTime());
+        assertTrue(secondIdle.getStatisticsByTag().isEmpty());
+    }
 }
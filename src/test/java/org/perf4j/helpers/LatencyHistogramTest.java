@@ -0,0 +1,116 @@
+/* Copyright (c) 2008-2009 HomeAway, Inc.
+ * All rights reserved.  http://www.perf4j.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.perf4j.helpers;
+
+import junit.framework.TestCase;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Tests the LatencyHistogram.
+ */
+public class LatencyHistogramTest extends TestCase {
+
+    public void testPercentileAccuracy() throws Exception {
+        for (int significantDigits = 1; significantDigits <= 3; significantDigits++) {
+            LatencyHistogram histogram = new LatencyHistogram(3600000L, significantDigits);
+            Random random = new Random(significantDigits);
+            long[] values = new long[20000];
+            for (int i = 0; i < values.length; i++) {
+                //roughly log-normal, like most latency distributions
+                values[i] = (long) Math.exp(random.nextGaussian() * 2.0 + 5.0);
+                histogram.recordValue(values[i]);
+            }
+            Arrays.sort(values);
+            assertEquals(values.length, histogram.getTotalCount());
+
+            double maxRelativeError = Math.pow(10, -significantDigits);
+            for (double percentile : new double[]{0.0, 10.0, 50.0, 90.0, 99.0, 99.9, 100.0}) {
+                int index = Math.max(0, (int) Math.ceil(percentile / 100.0 * values.length - 1e-9) - 1);
+                long exact = values[index];
+                long estimate = histogram.getValueAtPercentile(percentile);
+                assertTrue("P" + percentile + " estimate " + estimate + " < exact " + exact, estimate >= exact);
+                assertTrue("P" + percentile + " estimate " + estimate + " too far from exact " + exact,
+                           estimate - exact <= Math.max(1L, (long) (exact * maxRelativeError)));
+            }
+        }
+    }
+
+    public void testSmallValuesAreExact() throws Exception {
+        LatencyHistogram histogram = new LatencyHistogram(1000L, 2);
+        for (long i = 1; i <= 100; i++) {
+            histogram.recordValue(i);
+        }
+        assertEquals(50L, histogram.getValueAtPercentile(50.0));
+        assertEquals(99L, histogram.getValueAtPercentile(99.0));
+        assertEquals(100L, histogram.getValueAtPercentile(100.0));
+        assertEquals(1L, histogram.getValueAtPercentile(0.0));
+    }
+
+    public void testNonIntegralRankRoundsUp() throws Exception {
+        LatencyHistogram histogram = new LatencyHistogram(1000L, 2);
+        for (long i = 1; i <= 160; i++) {
+            histogram.recordValue(i);
+        }
+        //P99 of 160 values needs 158.4 values at or below it, so it's the 159th value, not the 158th
+        assertEquals(159L, histogram.getValueAtPercentile(99.0));
+        //P50 of 160 values is an exact rank, which floating point error must not push up to the 81st value
+        assertEquals(80L, histogram.getValueAtPercentile(50.0));
+        assertEquals(160L, histogram.getValueAtPercentile(99.9));
+    }
+
+    public void testBoundsAndMemory() throws Exception {
+        LatencyHistogram histogram = new LatencyHistogram(3600000L, 2);
+        assertEquals(2048, histogram.getBucketCount());
+        assertEquals(0L, histogram.getValueAtPercentile(99.0));
+
+        histogram.recordValue(-5L);
+        histogram.recordValue(Long.MAX_VALUE);
+        assertEquals(0L, histogram.getValueAtPercentile(50.0));
+        assertEquals(3600000L, histogram.getValueAtPercentile(100.0));
+        assertEquals(2048, histogram.getBucketCount());
+
+        try {
+            new LatencyHistogram(3600000L, 6);
+            fail("Only 1 to 5 significant digits should be allowed");
+        } catch (IllegalArgumentException iae) {
+            //expected
+        }
+    }
+
+    public void testMerge() throws Exception {
+        LatencyHistogram first = new LatencyHistogram(10000L, 2);
+        LatencyHistogram second = first.newEmptyCopy();
+        LatencyHistogram combined = first.newEmptyCopy();
+        for (long i = 0; i < 1000; i++) {
+            ((i % 3 == 0) ? first : second).recordValue(i * 7);
+            combined.recordValue(i * 7);
+        }
+
+        LatencyHistogram secondCopy = second.clone();
+        assertSame(first, first.merge(second));
+        assertEquals(combined, first);
+        assertEquals(secondCopy, second);
+
+        try {
+            first.merge(new LatencyHistogram(10000L, 3));
+            fail("Histograms with different configurations should not be mergeable");
+        } catch (IllegalArgumentException iae) {
+            //expected
+        }
+    }
+}
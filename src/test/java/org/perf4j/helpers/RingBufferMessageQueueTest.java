@@ -0,0 +1,90 @@
+/* Copyright (c) 2008-2009 HomeAway, Inc.
+ * All rights reserved.  http://www.perf4j.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.perf4j.helpers;
+
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tests the RingBufferMessageQueue.
+ */
+public class RingBufferMessageQueueTest extends TestCase {
+
+    public void testSingleThreaded() throws Exception {
+        RingBufferMessageQueue queue = new RingBufferMessageQueue(3);
+        assertEquals(4, queue.capacity());
+        assertEquals(0, queue.size());
+        assertNull(queue.poll(1, TimeUnit.MILLISECONDS));
+
+        for (int i = 0; i < 4; i++) {
+            assertTrue(queue.offer(i));
+        }
+        assertFalse("queue should be full", queue.offer(4));
+        assertEquals(4, queue.size());
+
+        assertEquals(0, queue.poll(0, TimeUnit.MILLISECONDS));
+        assertTrue(queue.offer(4));
+
+        List<Object> drained = new ArrayList<Object>();
+        assertEquals(2, queue.drainTo(drained, 2));
+        assertEquals(1, drained.get(0));
+        assertEquals(2, drained.get(1));
+        assertEquals(2, queue.drainTo(drained, 10));
+        assertEquals(4, drained.get(3));
+        assertEquals(0, queue.size());
+    }
+
+    public void testMultipleProducers() throws Exception {
+        for (WaitStrategy waitStrategy : WaitStrategy.DEFAULT_WAIT_STRATEGIES.values()) {
+            final RingBufferMessageQueue queue = new RingBufferMessageQueue(64, waitStrategy);
+            final int numProducers = 4;
+            final int messagesPerProducer = 20000;
+
+            Thread[] producers = new Thread[numProducers];
+            for (int i = 0; i < numProducers; i++) {
+                final int producerId = i;
+                producers[i] = new Thread() {
+                    public void run() {
+                        try {
+                            for (int j = 0; j < messagesPerProducer; j++) {
+                                queue.put(new int[]{producerId, j});
+                            }
+                        } catch (InterruptedException ie) {
+                            throw new RuntimeException(ie);
+                        }
+                    }
+                };
+                producers[i].start();
+            }
+
+            //each producer's messages must come out in order, and none may be lost
+            int[] nextExpected = new int[numProducers];
+            for (int i = 0; i < numProducers * messagesPerProducer; i++) {
+                int[] message = (int[]) queue.poll(10, TimeUnit.SECONDS);
+                assertNotNull("Timed out waiting for message using " + waitStrategy.getName(), message);
+                assertEquals(nextExpected[message[0]]++, message[1]);
+            }
+
+            for (Thread producer : producers) {
+                producer.join();
+            }
+            assertEquals(0, queue.size());
+        }
+    }
+}
@@ -0,0 +1,141 @@
+/* Copyright (c) 2008-2009 HomeAway, Inc.
+ * All rights reserved.  http://www.perf4j.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.perf4j.helpers;
+
+import junit.framework.TestCase;
+import org.perf4j.GroupedTimingStatistics;
+import org.perf4j.StopWatch;
+import org.perf4j.TimingStatistics;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Tests the SlidingWindowAggregator and WindowedStatisticsIterator.
+ */
+public class SlidingWindowAggregatorTest extends TestCase {
+
+    public void testTumblingAndSlidingWindows() throws Exception {
+        //one StopWatch every 100ms for 10 seconds, the elapsed time is the second it was logged in
+        List<StopWatch> stopWatches = new ArrayList<StopWatch>();
+        for (long time = 0L; time < 10000L; time += 100L) {
+            stopWatches.add(new StopWatch(time, time / 1000L, "a.b", null));
+        }
+
+        List<SlidingWindowAggregator.Window> windows =
+                Arrays.asList(new SlidingWindowAggregator.Window(5000L),
+                              new SlidingWindowAggregator.Window(3000L, 1000L));
+        List<GroupedTimingStatistics> tumbling = new ArrayList<GroupedTimingStatistics>();
+        List<GroupedTimingStatistics> sliding = new ArrayList<GroupedTimingStatistics>();
+        long lastStopTime = 0L;
+        for (Iterator<GroupedTimingStatistics> iter =
+                new WindowedStatisticsIterator(new GroupingStatisticsIterator(stopWatches.iterator(), 1000L, true),
+                                               new SlidingWindowAggregator(1000L, windows));
+             iter.hasNext();) {
+            GroupedTimingStatistics statistics = iter.next();
+            assertTrue(statistics.getStopTime() >= lastStopTime);
+            lastStopTime = statistics.getStopTime();
+            if (statistics.getStopTime() - statistics.getStartTime() == 5000L) {
+                tumbling.add(statistics);
+            } else {
+                assertEquals(3000L, statistics.getStopTime() - statistics.getStartTime());
+                sliding.add(statistics);
+            }
+        }
+
+        //the tumbling windows should match grouping directly into 5 second slices
+        List<GroupedTimingStatistics> expected = new ArrayList<GroupedTimingStatistics>();
+        for (Iterator<GroupedTimingStatistics> iter =
+                new GroupingStatisticsIterator(stopWatches.iterator(), 5000L, true); iter.hasNext();) {
+            expected.add(iter.next());
+        }
+        assertEquals(expected.size(), tumbling.size());
+        for (int i = 0; i < expected.size(); i++) {
+            assertEquals(expected.get(i).getStartTime(), tumbling.get(i).getStartTime());
+            assertEquals(expected.get(i).getStopTime(), tumbling.get(i).getStopTime());
+            assertSameStatistics(expected.get(i).getStatisticsByTag().get("a.b"),
+                                 tumbling.get(i).getStatisticsByTag().get("a.b"));
+            assertSameStatistics(expected.get(i).getStatisticsByTag().get("a"),
+                                 tumbling.get(i).getStatisticsByTag().get("a"));
+        }
+
+        //a sliding window is emitted every second, the first ones only partially filled
+        assertEquals(10, sliding.size());
+        for (int i = 0; i < sliding.size(); i++) {
+            GroupedTimingStatistics window = sliding.get(i);
+            assertEquals((i + 1) * 1000L, window.getStopTime());
+            TimingStatistics stats = window.getStatisticsByTag().get("a.b");
+            int numSeconds = Math.min(i + 1, 3);
+            assertEquals(numSeconds * 10, stats.getCount());
+            assertEquals(i, stats.getMax());
+            assertEquals(i - numSeconds + 1, stats.getMin());
+        }
+    }
+
+    public void testGapInData() throws Exception {
+        SlidingWindowAggregator aggregator =
+                new SlidingWindowAggregator(1000L, Arrays.asList(new SlidingWindowAggregator.Window(3000L, 1000L)));
+
+        assertTrue(aggregator.addSlice(slice(0L, 10L)).isEmpty());
+        //the data at time 0 should be in the windows ending at 1, 2 and 3 seconds, but not later ones
+        List<GroupedTimingStatistics> windows = aggregator.addSlice(slice(10000L, 20L));
+        assertEquals(3, windows.size());
+        for (int i = 0; i < windows.size(); i++) {
+            assertEquals((i + 1) * 1000L, windows.get(i).getStopTime());
+            assertEquals(10L, windows.get(i).getStatisticsByTag().get("tag").getMax());
+        }
+
+        windows = aggregator.flush();
+        assertEquals(1, windows.size());
+        assertEquals(8000L, windows.get(0).getStartTime());
+        assertEquals(1, windows.get(0).getStatisticsByTag().get("tag").getCount());
+        assertEquals(20L, windows.get(0).getStatisticsByTag().get("tag").getMax());
+        assertTrue(aggregator.flush().isEmpty());
+    }
+
+    public void testInvalidWindows() throws Exception {
+        try {
+            new SlidingWindowAggregator.Window(5000L, 2000L);
+            fail("Window length must be a multiple of the slide interval");
+        } catch (IllegalArgumentException iae) {
+            //expected
+        }
+        try {
+            new SlidingWindowAggregator(3000L, Arrays.asList(new SlidingWindowAggregator.Window(5000L)));
+            fail("Slide interval must be a multiple of the slice length");
+        } catch (IllegalArgumentException iae) {
+            //expected
+        }
+    }
+
+    private GroupedTimingStatistics slice(long startTime, long elapsedTime) {
+        GroupedTimingStatistics retVal = new GroupedTimingStatistics();
+        retVal.addStopWatch(new StopWatch(startTime, elapsedTime, "tag", null));
+        retVal.setStartTime(startTime);
+        retVal.setStopTime(startTime + 1000L);
+        return retVal;
+    }
+
+    private void assertSameStatistics(TimingStatistics expected, TimingStatistics actual) {
+        assertEquals(expected.getCount(), actual.getCount());
+        assertEquals(expected.getMin(), actual.getMin());
+        assertEquals(expected.getMax(), actual.getMax());
+        assertEquals(expected.getMean(), actual.getMean(), 0.000001);
+        assertEquals(expected.getStandardDeviation(), actual.getStandardDeviation(), 0.000001);
+    }
+}
@@ -19,11 +19,15 @@ import org.perf4j.GroupedTimingStatistics;
 import org.perf4j.TimingTestCase;
 import org.perf4j.StopWatch;
 
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.AttributeNotFoundException;
 import javax.management.MBeanAttributeInfo;
 import javax.management.MBeanInfo;
 import javax.management.NotificationListener;
 import javax.management.Notification;
 import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
 
 /**
  * Tests the StatisticsExposingMBean.
@@ -108,6 +112,154 @@ public class StatisticsExposingMBeanTest extends TimingTestCase {
         //TODO - more tests - update current statistics, check for unsupported ops.
     }
 
+    public void testAttributeSnapshot() throws Exception {
+        GroupedTimingStatistics groupedTimingStats = new GroupedTimingStatistics();
+        groupedTimingStats.setStartTime(0L);
+        groupedTimingStats.setStopTime(1000L);
+        groupedTimingStats.addStopWatches(this.testStopWatches);
+
+        StatisticsExposingMBean mBean = new StatisticsExposingMBean(StatisticsExposingMBean.DEFAULT_MBEAN_NAME,
+                                                                    Arrays.asList("tag"),
+                                                                    null /* no notifications */);
+        //before the first update all values are 0
+        assertEquals(0, mBean.getAttribute("tagCount"));
+        mBean.updateCurrentTimingStatistics(groupedTimingStats);
+        assertEquals(2, mBean.getAttribute("tagCount"));
+        assertEquals(1000L, mBean.getAttribute("tagMin"));
+
+        //tags that aren't exposed can still be read by name
+        assertEquals(2, mBean.getAttribute("tag2Count"));
+        assertEquals(4000L, mBean.getAttribute("tag2Max"));
+        assertEquals(0, mBean.getAttribute("unknownTagCount"));
+        try {
+            mBean.getAttribute("tagNoStat");
+            fail("Should have thrown an AttributeNotFoundException");
+        } catch (AttributeNotFoundException anfe) { /* expected */ }
+
+        //exposing a tag updates the snapshot right away
+        mBean.exposeTag("tag2");
+        assertEquals(mBean.getStatsValueRetrievers().size() * 2, mBean.getMBeanInfo().getAttributes().length);
+        AttributeList attributes = mBean.getAttributes(new String[] {"tagCount", "tag2Mean", "tagNoStat"});
+        assertEquals(2, attributes.size());
+        assertEquals(3500.0, ((Attribute) attributes.get(1)).getValue());
+    }
+
+    public void testNotificationHysteresisAndCoalescing() throws Exception {
+        DummyNotificationListener notificationListener = new DummyNotificationListener();
+        StatisticsExposingMBean mBean = new StatisticsExposingMBean(
+                StatisticsExposingMBean.DEFAULT_MBEAN_NAME,
+                Arrays.asList("tag"),
+                Arrays.asList(new AcceptableRangeConfiguration("tagMean(<100)")));
+        mBean.setNotificationHysteresis(0.1);
+        mBean.addNotificationListener(notificationListener, null, null);
+
+        mBean.updateCurrentTimingStatistics(createStatistics(150L));
+        Thread.sleep(50);
+        assertNotNull(notificationListener.lastReceivedNotification);
+        notificationListener.lastReceivedNotification = null;
+
+        //95 is within the range, but not by the 10% margin, so going back to 150 isn't a new crossing
+        mBean.updateCurrentTimingStatistics(createStatistics(95L));
+        mBean.updateCurrentTimingStatistics(createStatistics(150L));
+        Thread.sleep(50);
+        assertNull(notificationListener.lastReceivedNotification);
+
+        mBean.updateCurrentTimingStatistics(createStatistics(80L));
+        mBean.updateCurrentTimingStatistics(createStatistics(150L));
+        Thread.sleep(50);
+        assertNotNull(notificationListener.lastReceivedNotification);
+        assertEquals(2L, mBean.getNumSentNotifications());
+
+        //while a listener is busy, further crossings of the same range are coalesced into one pending notification
+        final CountDownLatch listenerEntered = new CountDownLatch(1);
+        final CountDownLatch listenerReleased = new CountDownLatch(1);
+        mBean.addNotificationListener(new NotificationListener() {
+            public void handleNotification(Notification notification, Object handback) {
+                listenerEntered.countDown();
+                try {
+                    listenerReleased.await();
+                } catch (InterruptedException ie) { /* just return */ }
+            }
+        }, null, null);
+        mBean.updateCurrentTimingStatistics(createStatistics(50L));
+        mBean.updateCurrentTimingStatistics(createStatistics(150L));
+        listenerEntered.await();
+        for (int i = 0; i < 2; i++) {
+            mBean.updateCurrentTimingStatistics(createStatistics(50L));
+            mBean.updateCurrentTimingStatistics(createStatistics(150L));
+        }
+        listenerReleased.countDown();
+        Thread.sleep(50);
+        assertEquals(4L, mBean.getNumSentNotifications());
+        assertEquals(1L, mBean.getNumCoalescedNotifications());
+        //the counts are also exposed as attributes
+        assertEquals(4L, mBean.getAttribute(StatisticsExposingMBean.NUM_SENT_NOTIFICATIONS_ATTRIBUTE));
+        assertEquals(1L, mBean.getAttribute(StatisticsExposingMBean.NUM_COALESCED_NOTIFICATIONS_ATTRIBUTE));
+        assertEquals(mBean.getStatsValueRetrievers().size() + 2, mBean.getMBeanInfo().getAttributes().length);
+
+        AcceptableRangeConfiguration range = new AcceptableRangeConfiguration("tagMean(10-100)");
+        assertTrue(range.isInRange(95.0));
+        assertFalse(range.isInRange(95.0, 0.1));
+        assertTrue(range.isInRange(11.0, 0.1));
+        assertFalse(range.isInRange(10.5, 0.1));
+    }
+
+    public void testTagNamePatterns() throws Exception {
+        GroupedTimingStatistics groupedTimingStats = new GroupedTimingStatistics();
+        groupedTimingStats.setStartTime(0L);
+        groupedTimingStats.setStopTime(1000L);
+        for (String tag : new String[] {"svc.db.read", "svc.db.write", "svc.cache.get", "other"}) {
+            groupedTimingStats.addStopWatch(new StopWatch(0L, 100L, tag, null));
+        }
+
+        int attributesPerTag = StatsValueRetriever.DEFAULT_RETRIEVERS.size();
+        StatisticsExposingMBean mBean = new StatisticsExposingMBean(StatisticsExposingMBean.DEFAULT_MBEAN_NAME,
+                                                                    Arrays.asList("other", "svc.db.*"),
+                                                                    null /* no notifications */);
+        //matching tags are only exposed once they show up in the statistics
+        assertEquals(attributesPerTag, mBean.getMBeanInfo().getAttributes().length);
+        mBean.updateCurrentTimingStatistics(groupedTimingStats);
+        MBeanInfo mBeanInfo = mBean.getMBeanInfo();
+        assertEquals(attributesPerTag * 3, mBeanInfo.getAttributes().length);
+        assertEquals(1, mBean.getAttribute("svc.db.writeCount"));
+
+        //the management interface is reused until the exposed tags change, and discovered tags stay exposed
+        mBean.updateCurrentTimingStatistics(new GroupedTimingStatistics());
+        assertSame(mBeanInfo, mBean.getMBeanInfo());
+        assertEquals(0, mBean.getAttribute("svc.db.writeCount"));
+
+        mBean.exposeTag("/svc\\.(db|cache)\\.get/");
+        mBean.updateCurrentTimingStatistics(groupedTimingStats);
+        assertEquals(attributesPerTag * 4, mBean.getMBeanInfo().getAttributes().length);
+
+        //removing a pattern removes the tags that only it matched
+        assertTrue(mBean.removeTag("svc.db.*"));
+        assertEquals(attributesPerTag * 2, mBean.getMBeanInfo().getAttributes().length);
+
+        //tags beyond the cap aren't exposed
+        mBean = new StatisticsExposingMBean(StatisticsExposingMBean.DEFAULT_MBEAN_NAME,
+                                            Arrays.asList("svc.*"),
+                                            null /* no notifications */);
+        mBean.setMaxExposedAttributes(attributesPerTag * 2);
+        mBean.updateCurrentTimingStatistics(groupedTimingStats);
+        assertEquals(attributesPerTag * 2, mBean.getMBeanInfo().getAttributes().length);
+        assertEquals(1L, mBean.getNumUnexposedTags());
+        //but their statistics can still be read by name
+        assertEquals(1, mBean.getAttribute("svc.db.writeCount"));
+
+        assertNull(StatisticsExposingMBean.getTagNamePattern("svc.db.read"));
+        assertTrue(StatisticsExposingMBean.getTagNamePattern("svc.?b.*").matcher("svc.db.read").matches());
+        assertFalse(StatisticsExposingMBean.getTagNamePattern("svc.?b.*").matcher("svcxdb.read").matches());
+    }
+
+    private GroupedTimingStatistics createStatistics(long elapsedTime) {
+        GroupedTimingStatistics retVal = new GroupedTimingStatistics();
+        retVal.setStartTime(0L);
+        retVal.setStopTime(1000L);
+        retVal.addStopWatch(new StopWatch(0L, elapsedTime, "tag", null));
+        return retVal;
+    }
+
     protected static class DummyNotificationListener implements NotificationListener {
         public Notification lastReceivedNotification;
         
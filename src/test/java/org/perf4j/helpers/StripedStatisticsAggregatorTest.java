@@ -0,0 +1,76 @@
+/* Copyright (c) 2008-2009 HomeAway, Inc.
+ * All rights reserved.  http://www.perf4j.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.perf4j.helpers;
+
+import junit.framework.TestCase;
+import org.perf4j.GroupedTimingStatistics;
+import org.perf4j.StopWatch;
+import org.perf4j.TimingStatistics;
+
+import java.util.List;
+
+/**
+ * Tests the StripedStatisticsAggregator.
+ */
+public class StripedStatisticsAggregatorTest extends TestCase {
+
+    public void testMultipleThreads() throws Exception {
+        final StripedStatisticsAggregator aggregator = new StripedStatisticsAggregator(1000L, true);
+
+        //each thread logs the values 1 to 100 in slice 0 and the value 5 in slice 2
+        Thread[] threads = new Thread[4];
+        for (int i = 0; i < threads.length; i++) {
+            threads[i] = new Thread() {
+                public void run() {
+                    for (int j = 1; j <= 100; j++) {
+                        aggregator.addStopWatch(new StopWatch(j, j, "a.b", null));
+                    }
+                    aggregator.addStopWatch(new StopWatch(2500L, 5L, "a.c", null));
+                }
+            };
+            threads[i].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        List<GroupedTimingStatistics> harvested = aggregator.harvest(0L);
+        assertEquals(1, harvested.size());
+        GroupedTimingStatistics slice0 = harvested.get(0);
+        assertEquals(0L, slice0.getStartTime());
+        assertEquals(1000L, slice0.getStopTime());
+        TimingStatistics abStats = slice0.getStatisticsByTag().get("a.b");
+        assertEquals(400, abStats.getCount());
+        assertEquals(50.5, abStats.getMean(), 0.000001);
+        assertEquals(1L, abStats.getMin());
+        assertEquals(100L, abStats.getMax());
+        //standard deviation of 1..100 is sqrt((100^2 - 1)/12)
+        assertEquals(Math.sqrt(9999.0 / 12.0), abStats.getStandardDeviation(), 0.000001);
+        assertEquals(abStats, slice0.getStatisticsByTag().get("a"));
+
+        //a late StopWatch for an already harvested slice goes in the next slice
+        aggregator.addStopWatch(new StopWatch(10L, 7L, "a.b", null));
+
+        harvested = aggregator.harvestAll();
+        assertEquals(2, harvested.size());
+        assertEquals(1000L, harvested.get(0).getStartTime());
+        assertEquals(1, harvested.get(0).getStatisticsByTag().get("a.b").getCount());
+        assertEquals(2000L, harvested.get(1).getStartTime());
+        assertEquals(4, harvested.get(1).getStatisticsByTag().get("a.c").getCount());
+
+        assertTrue(aggregator.harvestAll().isEmpty());
+    }
+}
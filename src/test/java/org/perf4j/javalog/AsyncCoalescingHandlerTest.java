@@ -0,0 +1,136 @@
+/* Copyright (c) 2008-2009 HomeAway, Inc.
+ * All rights reserved.  http://www.perf4j.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.perf4j.javalog;
+
+import junit.framework.TestCase;
+import org.perf4j.GroupedTimingStatistics;
+import org.perf4j.StopWatch;
+import org.perf4j.TimingStatistics;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Handler;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+import java.util.logging.Logger;
+import java.util.logging.SimpleFormatter;
+
+/**
+ * Tests the java.util.logging AsyncCoalescingHandler.
+ */
+public class AsyncCoalescingHandlerTest extends TestCase {
+
+    public void testStopWatchesAndStrings() throws Exception {
+        CollectingHandler downstreamHandler = new CollectingHandler();
+        AsyncCoalescingHandler handler = new AsyncCoalescingHandler();
+        handler.setTimeSlice(60000L);
+        handler.setCreateRollupStatistics(true);
+        handler.setDownstreamLogLevel("WARN");
+        handler.addHandler(downstreamHandler);
+
+        Logger logger = Logger.getLogger("org.perf4j.AsyncCoalescingHandlerTest");
+        logger.setUseParentHandlers(false);
+        logger.addHandler(handler);
+        try {
+            long now = System.currentTimeMillis();
+            //records whose parameter is a StopWatch, as logged by JavaLogStopWatches, are used without parsing
+            logger.log(Level.INFO, "not parsed", new StopWatch(now, 100L, "a.b", null));
+            logger.log(Level.INFO, "not parsed", new StopWatch(now, 300L, "a.c", null));
+            //records that only contain the StopWatch text are parsed
+            logger.info(new StopWatch(now, 200L, "a.b", null).toString());
+            logger.info("not a stop watch");
+        } finally {
+            logger.removeHandler(handler);
+        }
+        handler.close();
+        //records published after close are ignored
+        handler.publish(new LogRecord(Level.INFO, new StopWatch(0L, 1L, "late", null).toString()));
+
+        assertEquals(0, handler.getNumDiscardedMessages());
+        assertTrue(downstreamHandler.closed);
+        assertEquals(1, downstreamHandler.records.size());
+        LogRecord record = downstreamHandler.records.get(0);
+        assertEquals(Level.WARNING, record.getLevel());
+        GroupedTimingStatistics statistics = (GroupedTimingStatistics) record.getParameters()[0];
+        assertEquals(statistics.toString(), new SimpleFormatter().formatMessage(record));
+
+        TimingStatistics abStats = statistics.getStatisticsByTag().get("a.b");
+        assertEquals(2, abStats.getCount());
+        assertEquals(150.0, abStats.getMean(), 0.0001);
+        assertEquals(3, statistics.getStatisticsByTag().get("a").getCount());
+        assertNull(statistics.getStatisticsByTag().get("late"));
+    }
+
+    public void testJavaLogStopWatchRecord() throws Exception {
+        CollectingHandler collectingHandler = new CollectingHandler();
+        Logger logger = Logger.getLogger("org.perf4j.AsyncCoalescingHandlerTest.records");
+        logger.setUseParentHandlers(false);
+        logger.addHandler(collectingHandler);
+        try {
+            //MessageFormat would mangle this message if the record had parameters
+            JavaLogStopWatch stopWatch = new JavaLogStopWatch(0L, 10L, "tag", "it's {0}", logger, Level.INFO,
+                                                              Level.WARNING);
+            String stopWatchAsString = stopWatch.stop();
+            new JavaLogStopWatch("quiet", logger).stopAndRecord();
+
+            //the message is the StopWatch text, which formatters leave alone, and the record carries the StopWatch
+            LogRecord record = collectingHandler.records.get(0);
+            assertEquals(logger.getName(), record.getLoggerName());
+            assertEquals(stopWatchAsString, record.getMessage());
+            assertNull(record.getParameters());
+            assertEquals(stopWatchAsString, new SimpleFormatter().formatMessage(record));
+            assertTrue(stopWatchAsString.endsWith(" tag[tag] message[it's {0}]"));
+            StopWatch loggedStopWatch = ((StopWatchLogRecord) record).getStopWatch();
+            assertEquals("tag", loggedStopWatch.getTag());
+            assertEquals(stopWatchAsString, loggedStopWatch.toString());
+
+            //records logged without the StopWatch text create it when it is first needed
+            record = collectingHandler.records.get(1);
+            assertEquals(((StopWatchLogRecord) record).getStopWatch().toString(), record.getMessage());
+            assertTrue(record.getMessage().indexOf(" tag[quiet]") > 0);
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            ObjectOutputStream out = new ObjectOutputStream(bytes);
+            out.writeObject(new StopWatchLogRecord(Level.INFO, loggedStopWatch, null));
+            out.close();
+            ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+            assertEquals(stopWatchAsString, ((LogRecord) in.readObject()).getMessage());
+        } finally {
+            logger.removeHandler(collectingHandler);
+        }
+    }
+
+    /**
+     * Handler that just stores all of the records it receives.
+     */
+    private static class CollectingHandler extends Handler {
+        public final List<LogRecord> records = new ArrayList<LogRecord>();
+        public boolean closed;
+
+        public synchronized void publish(LogRecord record) {
+            records.add(record);
+        }
+
+        public void flush() { }
+
+        public void close() {
+            closed = true;
+        }
+    }
+}
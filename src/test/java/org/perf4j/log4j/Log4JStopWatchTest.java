@@ -18,10 +18,16 @@ package org.perf4j.log4j;
 import org.perf4j.LoggingStopWatchTest;
 import org.perf4j.LoggingStopWatch;
 import org.perf4j.StopWatch;
+import org.perf4j.helpers.ImmutableStopWatch;
+import org.apache.log4j.AppenderSkeleton;
 import org.apache.log4j.Logger;
 import org.apache.log4j.Level;
 import org.apache.log4j.ConsoleAppender;
 import org.apache.log4j.SimpleLayout;
+import org.apache.log4j.spi.LoggingEvent;
+
+import java.util.ArrayList;
+import java.util.List;
 
 /**
  * Tests the Log4JStopWatch. See the superclass for the test method that is run.
@@ -110,6 +116,27 @@ public class Log4JStopWatchTest extends LoggingStopWatchTest {
         assertTrue(stopWatch.isLogging());
         Logger.getLogger("org.perf4j.AnotherTestLogger").setLevel(Level.WARN);
         assertFalse(stopWatch.isLogging());
+
+        //the message object is a snapshot that renders as the String already returned by stop()
+        final List<Object> messages = new ArrayList<Object>();
+        AppenderSkeleton capturingAppender = new AppenderSkeleton() {
+            protected void append(LoggingEvent event) {
+                messages.add(event.getMessage());
+            }
+
+            public void close() { }
+
+            public boolean requiresLayout() {
+                return false;
+            }
+        };
+        Logger captureLogger = Logger.getLogger("org.perf4j.CaptureTestLogger");
+        captureLogger.addAppender(capturingAppender);
+        String stopWatchAsString = new Log4JStopWatch("tag", captureLogger).stop();
+        captureLogger.removeAppender(capturingAppender);
+        assertEquals(1, messages.size());
+        assertTrue(messages.get(0) instanceof ImmutableStopWatch);
+        assertSame(stopWatchAsString, messages.get(0).toString());
     }
 
     protected void checkProperties(LoggingStopWatch stopWatch,